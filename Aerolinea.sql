@@ -7,6 +7,12 @@
 
    CREATE SEQUENCE  "AEROLINEA"."SEQ_RESERVA_COD"  MINVALUE 1 MAXVALUE 9999999999999999999999999999 INCREMENT BY 1 START WITH 30 NOCACHE  NOORDER  NOCYCLE  NOKEEP  NOSCALE  GLOBAL ;
 --------------------------------------------------------
+--  DDL for Sequence SEQ_RESERVA_COD_BLOQUE
+--  Un valor por bloque de 1000 códigos de reserva (CodigosReserva.BLOQUE)
+--------------------------------------------------------
+
+   CREATE SEQUENCE  "AEROLINEA"."SEQ_RESERVA_COD_BLOQUE"  MINVALUE 1 MAXVALUE 34359737 INCREMENT BY 1 START WITH 1 CACHE 20  NOORDER  NOCYCLE  NOKEEP  NOSCALE  GLOBAL ;
+--------------------------------------------------------
 --  DDL for Table ACCION
 --------------------------------------------------------
 
@@ -2216,10 +2222,9 @@ Insert into AEROLINEA.VW_CARRITO_RESUMEN (ID_CARRITO,ID_USUARIO,FECHA_CREACION,T
   CREATE OR REPLACE EDITIONABLE TRIGGER "AEROLINEA"."TRG_RESERVA_SET_CODIGO" 
 BEFORE INSERT OR UPDATE ON AEROLINEA.RESERVA
 FOR EACH ROW
+WHEN (NEW.CODIGO IS NULL)
 BEGIN
-  IF :NEW.CODIGO IS NULL THEN
-    :NEW.CODIGO := AEROLINEA.FN_GEN_CODIGO_RESERVA();
-  END IF;
+  :NEW.CODIGO := AEROLINEA.FN_GEN_CODIGO_RESERVA();
 END;
 
 /
@@ -2370,10 +2375,9 @@ ALTER TRIGGER "AEROLINEA"."TRG_RV_VALIDA_RESERVA" DISABLE;
   CREATE OR REPLACE EDITIONABLE TRIGGER "AEROLINEA"."TRG_RESERVA_SET_CODIGO" 
 BEFORE INSERT OR UPDATE ON AEROLINEA.RESERVA
 FOR EACH ROW
+WHEN (NEW.CODIGO IS NULL)
 BEGIN
-  IF :NEW.CODIGO IS NULL THEN
-    :NEW.CODIGO := AEROLINEA.FN_GEN_CODIGO_RESERVA();
-  END IF;
+  :NEW.CODIGO := AEROLINEA.FN_GEN_CODIGO_RESERVA();
 END;
 
 /
@@ -3267,3 +3271,302 @@ END;
 
   ALTER TABLE "AEROLINEA"."VUELO_MOTIVO" ADD CONSTRAINT "FK_VM_VUELO" FOREIGN KEY ("ID_VUELO")
 	  REFERENCES "AEROLINEA"."VUELO" ("ID_VUELO") ON DELETE CASCADE ENABLE;
+--------------------------------------------------------
+--  Ledger de disponibilidad en SALIDA_CLASE
+--  RESERVADOS = items de reservas activas (ID_ESTADO = 1)
+--  EN_CARRITO = SUM(CARRITO_ITEM.CANTIDAD)
+--  DISPONIBLE = CUPO_TOTAL - RESERVADOS - EN_CARRITO
+--------------------------------------------------------
+
+  ALTER TABLE "AEROLINEA"."SALIDA_CLASE" ADD (
+	"RESERVADOS" NUMBER(6,0) DEFAULT 0 NOT NULL ENABLE, 
+	"EN_CARRITO" NUMBER(6,0) DEFAULT 0 NOT NULL ENABLE
+  );
+
+  UPDATE AEROLINEA.SALIDA_CLASE sc
+     SET sc.RESERVADOS = (SELECT COUNT(*)
+                            FROM AEROLINEA.RESERVA_ITEM ri
+                            JOIN AEROLINEA.RESERVA r ON r.ID_RESERVA = ri.ID_RESERVA
+                           WHERE ri.ID_VUELO = sc.ID_VUELO
+                             AND ri.ID_CLASE = sc.ID_CLASE
+                             AND r.ID_ESTADO = 1),
+         sc.EN_CARRITO = (SELECT NVL(SUM(ci.CANTIDAD),0)
+                            FROM AEROLINEA.CARRITO_ITEM ci
+                           WHERE ci.ID_VUELO = sc.ID_VUELO
+                             AND ci.ID_CLASE = sc.ID_CLASE);
+  COMMIT;
+--------------------------------------------------------
+--  DDL for Trigger TRG_CI_LEDGER
+--------------------------------------------------------
+
+  CREATE OR REPLACE EDITIONABLE TRIGGER "AEROLINEA"."TRG_CI_LEDGER" 
+AFTER INSERT OR DELETE OR UPDATE OF ID_VUELO, ID_CLASE, CANTIDAD ON AEROLINEA.CARRITO_ITEM
+FOR EACH ROW
+BEGIN
+  IF DELETING OR UPDATING THEN
+    UPDATE AEROLINEA.SALIDA_CLASE
+       SET EN_CARRITO = EN_CARRITO - NVL(:OLD.CANTIDAD,0)
+     WHERE ID_VUELO = :OLD.ID_VUELO
+       AND ID_CLASE = :OLD.ID_CLASE;
+  END IF;
+  IF INSERTING OR UPDATING THEN
+    UPDATE AEROLINEA.SALIDA_CLASE
+       SET EN_CARRITO = EN_CARRITO + NVL(:NEW.CANTIDAD,0)
+     WHERE ID_VUELO = :NEW.ID_VUELO
+       AND ID_CLASE = :NEW.ID_CLASE;
+  END IF;
+END;
+
+/
+ALTER TRIGGER "AEROLINEA"."TRG_CI_LEDGER" ENABLE;
+--------------------------------------------------------
+--  DDL for Trigger TRG_RI_LEDGER
+--------------------------------------------------------
+
+  CREATE OR REPLACE EDITIONABLE TRIGGER "AEROLINEA"."TRG_RI_LEDGER" 
+AFTER INSERT OR DELETE OR UPDATE OF ID_RESERVA, ID_VUELO, ID_CLASE ON AEROLINEA.RESERVA_ITEM
+FOR EACH ROW
+DECLARE v_estado NUMBER;
+BEGIN
+  IF DELETING OR UPDATING THEN
+    SELECT MAX(ID_ESTADO) INTO v_estado FROM AEROLINEA.RESERVA WHERE ID_RESERVA = :OLD.ID_RESERVA;
+    IF v_estado = 1 THEN
+      UPDATE AEROLINEA.SALIDA_CLASE
+         SET RESERVADOS = RESERVADOS - 1
+       WHERE ID_VUELO = :OLD.ID_VUELO
+         AND ID_CLASE = :OLD.ID_CLASE;
+    END IF;
+  END IF;
+  IF INSERTING OR UPDATING THEN
+    SELECT MAX(ID_ESTADO) INTO v_estado FROM AEROLINEA.RESERVA WHERE ID_RESERVA = :NEW.ID_RESERVA;
+    IF v_estado = 1 THEN
+      UPDATE AEROLINEA.SALIDA_CLASE
+         SET RESERVADOS = RESERVADOS + 1
+       WHERE ID_VUELO = :NEW.ID_VUELO
+         AND ID_CLASE = :NEW.ID_CLASE;
+    END IF;
+  END IF;
+END;
+
+/
+ALTER TRIGGER "AEROLINEA"."TRG_RI_LEDGER" ENABLE;
+--------------------------------------------------------
+--  DDL for Trigger TRG_RESERVA_LEDGER
+--  Cancelar (1 -> otro) libera; reactivar (otro -> 1) vuelve a contar.
+--------------------------------------------------------
+
+  CREATE OR REPLACE EDITIONABLE TRIGGER "AEROLINEA"."TRG_RESERVA_LEDGER" 
+AFTER UPDATE OF ID_ESTADO ON AEROLINEA.RESERVA
+FOR EACH ROW
+WHEN ((OLD.ID_ESTADO = 1 AND NVL(NEW.ID_ESTADO,-1) <> 1) OR (NVL(OLD.ID_ESTADO,-1) <> 1 AND NEW.ID_ESTADO = 1))
+DECLARE v_signo NUMBER;
+BEGIN
+  v_signo := CASE WHEN :NEW.ID_ESTADO = 1 THEN 1 ELSE -1 END;
+  FOR rec IN (
+    SELECT ID_VUELO, ID_CLASE, COUNT(*) AS CNT
+      FROM AEROLINEA.RESERVA_ITEM
+     WHERE ID_RESERVA = :NEW.ID_RESERVA
+     GROUP BY ID_VUELO, ID_CLASE
+  ) LOOP
+    UPDATE AEROLINEA.SALIDA_CLASE
+       SET RESERVADOS = RESERVADOS + v_signo * rec.CNT
+     WHERE ID_VUELO = rec.ID_VUELO
+       AND ID_CLASE = rec.ID_CLASE;
+  END LOOP;
+END;
+
+/
+ALTER TRIGGER "AEROLINEA"."TRG_RESERVA_LEDGER" ENABLE;
+--------------------------------------------------------
+--  Notificaciones masivas por cambio/cancelación de vuelo
+--  NOTIFICACION        = un aviso disparado sobre un vuelo
+--  NOTIFICACION_ENVIO  = estado de entrega por reserva (PENDIENTE, ENVIADO, FALLIDO)
+--------------------------------------------------------
+
+  CREATE TABLE "AEROLINEA"."NOTIFICACION" 
+   (	"ID_NOTIFICACION" NUMBER GENERATED BY DEFAULT ON NULL AS IDENTITY MINVALUE 1 MAXVALUE 9999999999999999999999999999 INCREMENT BY 1 START WITH 1 CACHE 20 NOORDER  NOCYCLE  NOKEEP  NOSCALE , 
+	"ID_VUELO" NUMBER(10,0) NOT NULL ENABLE, 
+	"TIPO" VARCHAR2(12 BYTE) NOT NULL ENABLE, 
+	"MOTIVO" VARCHAR2(500 BYTE), 
+	"CREADA_EN" TIMESTAMP (6) DEFAULT SYSTIMESTAMP, 
+	 CONSTRAINT "PK_NOTIFICACION" PRIMARY KEY ("ID_NOTIFICACION") ENABLE
+   ) TABLESPACE "USERS" ;
+
+  CREATE INDEX "AEROLINEA"."IX_NOTIFICACION_VUELO" ON "AEROLINEA"."NOTIFICACION" ("ID_VUELO") 
+  TABLESPACE "USERS" ;
+
+  CREATE TABLE "AEROLINEA"."NOTIFICACION_ENVIO" 
+   (	"ID_NOTIFICACION" NUMBER NOT NULL ENABLE, 
+	"ID_RESERVA" NUMBER NOT NULL ENABLE, 
+	"ID_USUARIO" NUMBER(10,0), 
+	"EMAIL" VARCHAR2(254 BYTE), 
+	"ESTADO" VARCHAR2(10 BYTE) DEFAULT 'PENDIENTE' NOT NULL ENABLE, 
+	"INTENTOS" NUMBER(3,0) DEFAULT 0 NOT NULL ENABLE, 
+	"ERROR" VARCHAR2(400 BYTE), 
+	"ACTUALIZADO_EN" TIMESTAMP (6) DEFAULT SYSTIMESTAMP, 
+	 CONSTRAINT "PK_NOTIFICACION_ENVIO" PRIMARY KEY ("ID_NOTIFICACION", "ID_RESERVA") ENABLE, 
+	 CONSTRAINT "CK_NOTIF_ENVIO_ESTADO" CHECK (ESTADO IN ('PENDIENTE','ENVIADO','FALLIDO')) ENABLE
+   ) TABLESPACE "USERS" ;
+
+  CREATE INDEX "AEROLINEA"."IX_NOTIF_ENVIO_RESERVA" ON "AEROLINEA"."NOTIFICACION_ENVIO" ("ID_RESERVA") 
+  TABLESPACE "USERS" ;
+
+  ALTER TABLE "AEROLINEA"."NOTIFICACION_ENVIO" ADD CONSTRAINT "FK_NOTIF_ENVIO_NOTIF" FOREIGN KEY ("ID_NOTIFICACION")
+	  REFERENCES "AEROLINEA"."NOTIFICACION" ("ID_NOTIFICACION") ON DELETE CASCADE ENABLE;
+--------------------------------------------------------
+--  DDL for Procedure PR_CHECKOUT_CARRITO_SET
+--  Checkout en una sola llamada: descuenta todas las clases con un
+--  MERGE (todo o nada), inserta los asientos con FORALL y devuelve
+--  ID_RESERVA y CODIGO juntos. p_codigo llega generado por la
+--  aplicación; si llega NULL lo asigna TRG_RESERVA_SET_CODIGO.
+--------------------------------------------------------
+set define off;
+
+  CREATE OR REPLACE EDITIONABLE PROCEDURE "AEROLINEA"."PR_CHECKOUT_CARRITO_SET" (
+  p_id_usuario  IN  AEROLINEA.USUARIO.ID_USUARIO%TYPE,
+  p_id_carrito  IN  AEROLINEA.CARRITO.ID_CARRITO%TYPE,
+  p_reserva_out OUT AEROLINEA.RESERVA.ID_RESERVA%TYPE,
+  p_codigo      IN OUT AEROLINEA.RESERVA.CODIGO%TYPE
+) AS
+  TYPE t_num IS TABLE OF NUMBER INDEX BY PLS_INTEGER;
+  TYPE t_set IS TABLE OF PLS_INTEGER INDEX BY VARCHAR2(40);
+  v_vuelos   t_num;
+  v_clases   t_num;
+  v_cant     t_num;
+  v_precio   t_num;
+  v_ri_vuelo t_num;
+  v_ri_clase t_num;
+  v_ri_prec  t_num;
+  v_grupos   t_set;
+  v_total    NUMBER(12,2) := 0;
+  v_dummy    NUMBER;
+  v_vuelo    NUMBER;
+  v_clase    NUMBER;
+  n          PLS_INTEGER := 0;
+BEGIN
+  BEGIN
+    SELECT 1 INTO v_dummy
+      FROM AEROLINEA.CARRITO
+     WHERE ID_CARRITO = p_id_carrito
+       AND ID_USUARIO = p_id_usuario;
+  EXCEPTION WHEN NO_DATA_FOUND THEN
+    RAISE_APPLICATION_ERROR(-20002,'Carrito inválido.');
+  END;
+
+  -- FOR UPDATE: dos checkouts simultáneos del mismo carrito se serializan aquí
+  SELECT ID_VUELO, ID_CLASE, CANTIDAD, PRECIO_UNITARIO
+    BULK COLLECT INTO v_vuelos, v_clases, v_cant, v_precio
+    FROM AEROLINEA.CARRITO_ITEM
+   WHERE ID_CARRITO = p_id_carrito
+     FOR UPDATE;
+
+  IF v_vuelos.COUNT = 0 THEN
+    RAISE_APPLICATION_ERROR(-20003,'El carrito está vacío o ya fue procesado.');
+  END IF;
+
+  FOR i IN 1 .. v_vuelos.COUNT LOOP
+    v_total := v_total + v_cant(i) * v_precio(i);
+    v_grupos(v_vuelos(i) || ':' || v_clases(i)) := 1;
+    FOR k IN 1 .. v_cant(i) LOOP
+      n := n + 1;
+      v_ri_vuelo(n) := v_vuelos(i);
+      v_ri_clase(n) := v_clases(i);
+      v_ri_prec(n)  := v_precio(i);
+    END LOOP;
+  END LOOP;
+
+  -- Todas las clases en una sentencia; si alguna no alcanza, el ROWCOUNT no cuadra
+  SAVEPOINT sp_cupos;
+  MERGE INTO AEROLINEA.SALIDA_CLASE sc
+  USING (SELECT ID_VUELO, ID_CLASE, SUM(CANTIDAD) AS CANT
+           FROM AEROLINEA.CARRITO_ITEM
+          WHERE ID_CARRITO = p_id_carrito
+          GROUP BY ID_VUELO, ID_CLASE) c
+     ON (sc.ID_VUELO = c.ID_VUELO AND sc.ID_CLASE = c.ID_CLASE)
+   WHEN MATCHED THEN UPDATE
+    SET sc.CUPO_TOTAL = sc.CUPO_TOTAL - c.CANT
+  WHERE sc.CUPO_TOTAL >= c.CANT;
+
+  IF SQL%ROWCOUNT <> v_grupos.COUNT THEN
+    ROLLBACK TO sp_cupos;
+    BEGIN
+      SELECT c.ID_VUELO, c.ID_CLASE INTO v_vuelo, v_clase
+        FROM (SELECT ID_VUELO, ID_CLASE, SUM(CANTIDAD) AS CANT
+                FROM AEROLINEA.CARRITO_ITEM
+               WHERE ID_CARRITO = p_id_carrito
+               GROUP BY ID_VUELO, ID_CLASE) c
+        LEFT JOIN AEROLINEA.SALIDA_CLASE sc
+          ON sc.ID_VUELO = c.ID_VUELO AND sc.ID_CLASE = c.ID_CLASE
+       WHERE sc.ID_VUELO IS NULL OR sc.CUPO_TOTAL < c.CANT
+       FETCH FIRST 1 ROWS ONLY;
+    EXCEPTION WHEN NO_DATA_FOUND THEN
+      RAISE_APPLICATION_ERROR(-20004,'Sin cupo suficiente para el carrito.');
+    END;
+    RAISE_APPLICATION_ERROR(-20004,'Sin cupo para vuelo '||v_vuelo||' clase '||v_clase);
+  END IF;
+
+  INSERT INTO AEROLINEA.RESERVA(ID_USUARIO, ID_ESTADO, TOTAL, CODIGO)
+  VALUES (p_id_usuario, 1, v_total, p_codigo)
+  RETURNING ID_RESERVA, CODIGO INTO p_reserva_out, p_codigo;
+
+  FORALL j IN 1 .. n
+    INSERT INTO AEROLINEA.RESERVA_ITEM
+        (ID_RESERVA, ID_VUELO, ID_CLASE, PRECIO_UNITARIO, ID_ESTADO_RESERVA)
+    VALUES (p_reserva_out, v_ri_vuelo(j), v_ri_clase(j), v_ri_prec(j), 1);
+
+  DELETE FROM AEROLINEA.CARRITO_ITEM WHERE ID_CARRITO = p_id_carrito;
+END;
+
+/
+--------------------------------------------------------
+--  Retención de asientos en carrito
+--  RETENIDO_EN se renueva cada vez que se agrega o cambia el ítem; pasado
+--  CARRITO_RETENCION_MIN el barrido borra el ítem y TRG_CI_LEDGER baja EN_CARRITO
+--------------------------------------------------------
+
+  ALTER TABLE "AEROLINEA"."CARRITO_ITEM" ADD (
+	"RETENIDO_EN" TIMESTAMP (6) DEFAULT SYSTIMESTAMP NOT NULL ENABLE
+  );
+
+  CREATE INDEX "AEROLINEA"."IX_CI_RETENIDO_EN" ON "AEROLINEA"."CARRITO_ITEM" ("RETENIDO_EN") 
+  PCTFREE 10 INITRANS 2 MAXTRANS 255 COMPUTE STATISTICS 
+  TABLESPACE "USERS" ;
+
+  CREATE INDEX "AEROLINEA"."IX_CI_VUELO_CLASE_RETENIDO" ON "AEROLINEA"."CARRITO_ITEM" ("ID_VUELO", "ID_CLASE", "RETENIDO_EN") 
+  PCTFREE 10 INITRANS 2 MAXTRANS 255 COMPUTE STATISTICS 
+  TABLESPACE "USERS" ;
+--------------------------------------------------------
+--  Outbox de efectos posteriores al checkout
+--  Se escribe en la misma transacción que la reserva; DespachadorOutbox lo
+--  toma en lotes con FOR UPDATE SKIP LOCKED (PENDIENTE, EN_CURSO, HECHO, FALLIDO).
+--  DISPONIBLE_EN es el próximo intento o, en EN_CURSO, el fin del arriendo.
+--------------------------------------------------------
+
+  CREATE TABLE "AEROLINEA"."OUTBOX_EVENTO" 
+   (	"ID_EVENTO" NUMBER GENERATED BY DEFAULT ON NULL AS IDENTITY MINVALUE 1 MAXVALUE 9999999999999999999999999999 INCREMENT BY 1 START WITH 1 CACHE 20 NOORDER  NOCYCLE  NOKEEP  NOSCALE , 
+	"TIPO" VARCHAR2(30 BYTE) NOT NULL ENABLE, 
+	"ID_RESERVA" NUMBER(10,0), 
+	"PAYLOAD" CLOB, 
+	"ESTADO" VARCHAR2(10 BYTE) DEFAULT 'PENDIENTE' NOT NULL ENABLE, 
+	"INTENTOS" NUMBER(3,0) DEFAULT 0 NOT NULL ENABLE, 
+	"DISPONIBLE_EN" TIMESTAMP (6) DEFAULT SYSTIMESTAMP NOT NULL ENABLE, 
+	"ERROR" VARCHAR2(400 BYTE), 
+	"CREADO_EN" TIMESTAMP (6) DEFAULT SYSTIMESTAMP, 
+	"PROCESADO_EN" TIMESTAMP (6), 
+	 CONSTRAINT "PK_OUTBOX_EVENTO" PRIMARY KEY ("ID_EVENTO") ENABLE, 
+	 CONSTRAINT "CK_OUTBOX_ESTADO" CHECK (ESTADO IN ('PENDIENTE','EN_CURSO','HECHO','FALLIDO')) ENABLE
+   ) TABLESPACE "USERS" ;
+
+  CREATE INDEX "AEROLINEA"."IX_OUTBOX_ESTADO_DISP" ON "AEROLINEA"."OUTBOX_EVENTO" ("ESTADO", "DISPONIBLE_EN") 
+  TABLESPACE "USERS" ;
+
+  CREATE INDEX "AEROLINEA"."IX_OUTBOX_RESERVA" ON "AEROLINEA"."OUTBOX_EVENTO" ("ID_RESERVA") 
+  TABLESPACE "USERS" ;
+--------------------------------------------------------
+--  Sentencias lentas (InstrumentoSql / MonitorSql)
+--  Van a OPERACION_LOG con ENTIDAD 'SQL' y ACCION 'CONSULTA_LENTA';
+--  ID_ENTIDAD es un número por huella de SQL y DETALLE el JSON con binds redactados.
+--------------------------------------------------------
+
+Insert into AEROLINEA.ENTIDAD (ENTIDAD,DESCRIPCION) values ('SQL','Sentencia SQL de la aplicación');
+Insert into AEROLINEA.ACCION (ACCION,DESCRIPCION) values ('CONSULTA_LENTA','Sentencia que superó SQL_LENTA_MS');
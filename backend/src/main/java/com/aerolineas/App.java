@@ -1,13 +1,39 @@
 package com.aerolineas;
 
 import com.aerolineas.config.DB;
+import com.aerolineas.config.Entorno;
+import com.aerolineas.config.TelemetriaPool;
+import com.aerolineas.config.UnidadDeTrabajo;
+import com.aerolineas.dao.CodigosReserva;
+import com.aerolineas.dao.CompuertaCupo;
+import com.aerolineas.dao.ParseoDAO;
+import com.aerolineas.dao.Sentencias;
 import com.aerolineas.controller.*;
+import com.aerolineas.dao.VueloDAO;
+import com.aerolineas.http.Correlacion;
+import com.aerolineas.http.Idempotencia;
+import com.aerolineas.http.Metricas;
 import com.aerolineas.http.JsonErrorHandler;
 import com.aerolineas.middleware.Auth;
+import com.aerolineas.service.AjustePoolJob;
+import com.aerolineas.service.BoletoCache;
+import com.aerolineas.service.BusquedaLogWriter;
+import com.aerolineas.service.CatalogoVuelosService;
+import com.aerolineas.service.ColaCorreos;
+import com.aerolineas.service.DespachadorOutbox;
+import com.aerolineas.service.ExportadorTrazas;
+import com.aerolineas.service.MonitorSql;
+import com.aerolineas.service.PurgaOutboxJob;
+import com.aerolineas.service.ReconciliacionDisponibilidadJob;
+import com.aerolineas.service.RetencionesCarritoJob;
+import com.aerolineas.util.Traza;
 import io.javalin.Javalin;
 import io.javalin.http.Context;
 import io.javalin.http.Handler;
 
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.LinkedHashMap;
 import java.util.Map;
 
 public class App {
@@ -34,6 +60,15 @@ public class App {
     next.handle(ctx);
   }
 
+  /** Con METRICAS_TOKEN definido, /metrics pide "Authorization: Bearer <token>". */
+  private static boolean metricasAutorizadas(Context ctx) {
+    String token = Entorno.texto("METRICAS_TOKEN", null);
+    if (token == null) return true;
+    String auth = ctx.header("Authorization");
+    return auth != null && MessageDigest.isEqual(("Bearer " + token).getBytes(StandardCharsets.UTF_8),
+        auth.getBytes(StandardCharsets.UTF_8));
+  }
+
   private static int resolvePort(String[] args) {
     String envPort = System.getenv("PORT");
     if (envPort != null && envPort.matches("\\d+")) {
@@ -100,7 +135,32 @@ public class App {
     });
 
     DB.init();
+    AjustePoolJob ajustePool = new AjustePoolJob();
+    ajustePool.start();
+    Runtime.getRuntime().addShutdownHook(new Thread(ajustePool::stop));
+    MonitorSql.global().start();
+    Runtime.getRuntime().addShutdownHook(new Thread(MonitorSql.global()::stop));
+    ExportadorTrazas.global().start();
+    Runtime.getRuntime().addShutdownHook(new Thread(ExportadorTrazas.global()::stop));
+    new ReconciliacionDisponibilidadJob().start();
+    RetencionesCarritoJob retenciones = new RetencionesCarritoJob();
+    retenciones.start();
+    PurgaOutboxJob purgaOutbox = new PurgaOutboxJob();
+    purgaOutbox.start();
+    Runtime.getRuntime().addShutdownHook(new Thread(purgaOutbox::stop));
+    VueloDAO.alCambiar(CatalogoVuelosService.global()::invalidar);
+    CatalogoVuelosService.global().invalidar();
+    BusquedaLogWriter.global().start();
+    Runtime.getRuntime().addShutdownHook(new Thread(BusquedaLogWriter.global()::stop));
+    ColaCorreos.global().start();
+    Runtime.getRuntime().addShutdownHook(new Thread(ColaCorreos.global()::stop));
+    BoletoCache.global().purgarAlIniciar();
 
+    Metricas metricas = Metricas.global();
+    app.before(ctx -> {
+      metricas.iniciar();
+      Correlacion.iniciar(ctx);
+    });
     app.before(ctx -> {
       ctx.header("Access-Control-Allow-Origin", "*");
       ctx.header("Vary", "Origin");
@@ -113,6 +173,19 @@ public class App {
       ctx.header("Access-Control-Allow-Headers", allowHeaders);
 
       ctx.header("Access-Control-Max-Age", "86400");
+      ctx.header("Access-Control-Expose-Headers", "ETag, X-Next-Cursor, X-Notificacion-Id, X-Request-Id, Server-Timing");
+      ctx.header("Timing-Allow-Origin", "*");
+    });
+
+    app.beforeMatched(ctx -> {
+      String ruta = metricas.enRuta(ctx.method(), ctx.endpointHandlerPath()).nombre();
+      TelemetriaPool.enRuta(ruta);
+      Traza.nombrar(ruta);
+    });
+    app.after(ctx -> {
+      metricas.terminar(ctx.method(), ctx.statusCode());
+      TelemetriaPool.salirDeRuta();
+      Correlacion.terminar(ctx);
     });
 
     app.options("/*", ctx -> {
@@ -138,6 +211,10 @@ public class App {
 
     app.get("/health", ctx -> ctx.result("OK"));
     app.get("/api/db/ping", ctx -> ctx.json(DB.ping() ? "DB OK" : "DB FAIL"));
+    app.get("/metrics", ctx -> {
+      if (!metricasAutorizadas(ctx)) { ctx.status(401).json(Map.of("error", "token de métricas inválido")); return; }
+      ctx.contentType("text/plain; version=0.0.4; charset=utf-8").result(metricas.prometheus());
+    });
 
     app.post("/api/auth/register", authCtrl::register);
     app.post("/api/auth/login",    authCtrl::login);
@@ -150,6 +227,28 @@ public class App {
     app.post("/api/admin/usuarios/create-ws", ctx -> requireAdmin(ctx, adminUsr::createWs));
     app.get("/api/admin/usuarios/{id}",       ctx -> requireAdmin(ctx, adminUsr::get));
     app.put("/api/admin/usuarios/{id}",       ctx -> requireAdmin(ctx, adminUsr::update));
+    app.get("/api/admin/webservice/cache",    ctx -> requireAdmin(ctx, adminUsr::wsCacheStats));
+    app.get("/api/admin/correos",             ctx -> requireAdmin(ctx, adminUsr::correosStats));
+    app.post("/api/admin/correos/reintentar", ctx -> requireAdmin(ctx, adminUsr::correosReintentar));
+    app.get("/api/admin/boletos/cache",       ctx -> requireAdmin(ctx, c -> c.json(BoletoCache.global().stats())));
+    app.get("/api/admin/db/unidades",         ctx -> requireAdmin(ctx, c -> c.json(UnidadDeTrabajo.stats())));
+    app.get("/api/admin/db/pool",             ctx -> requireAdmin(ctx, c -> c.json(Map.of(
+        "telemetria", TelemetriaPool.global().stats(), "ajuste", ajustePool.stats()))));
+    app.get("/api/admin/db/sentencias",       ctx -> requireAdmin(ctx, c -> c.json(Map.of(
+        "cacheDriverPorConexion", DB.cacheSentencias(), "registro", Sentencias.stats(), "parseo", new ParseoDAO().resumen()))));
+    app.get("/api/admin/db/consultas",        ctx -> requireAdmin(ctx, c -> c.json(
+        MonitorSql.global().stats(c.queryParamAsClass("top", Integer.class).getOrDefault(20)))));
+    app.get("/api/admin/trazas",              ctx -> requireAdmin(ctx, c -> c.json(ExportadorTrazas.global().stats())));
+    app.get("/api/admin/retenciones",         ctx -> requireAdmin(ctx, c -> c.json(retenciones.stats())));
+    app.get("/api/admin/cupo/compuerta",      ctx -> requireAdmin(ctx, c -> c.json(CompuertaCupo.global().stats())));
+    app.get("/api/admin/idempotencia",        ctx -> requireAdmin(ctx, c -> c.json(Idempotencia.global().stats())));
+    app.get("/api/admin/reservas/codigos",    ctx -> requireAdmin(ctx, c -> c.json(CodigosReserva.global().stats())));
+    app.get("/api/admin/outbox",              ctx -> requireAdmin(ctx, c -> {
+      Map<String, Object> m = new LinkedHashMap<>(DespachadorOutbox.global().stats());
+      m.put("purga", purgaOutbox.stats());
+      c.json(m);
+    }));
+    app.post("/api/admin/outbox/reintentar",  ctx -> requireAdmin(ctx, c -> c.json(Map.of("reencolados", DespachadorOutbox.global().reintentarFallidos()))));
 
     app.get("/api/config",                 configCtrl::getAll);
     app.get("/api/config/{section}",       configCtrl::getBySection);
@@ -168,11 +267,20 @@ public class App {
     new RutaController().routes(app);
     new VueloController().routes(app);
     new ClaseController().routes(app);
-    new ComprasController().register(app);
+    ComprasController compras = new ComprasController();
+    compras.register(app);
+    compras.registrarManejadores();
+    // Después de registrar los manejadores del checkout
+    DespachadorOutbox.global().start();
+    Runtime.getRuntime().addShutdownHook(new Thread(DespachadorOutbox.global()::stop));
     new ComentarioController().routes(app);
     new RatingController().routes(app);
     new PaginasController().routes(app);
     new ContenidoHomeController().routes(app);
+    new DisponibilidadController().routes(app);
+
+    // Con los DAO ya cargados, arma todas las sentencias registradas antes del primer request
+    System.out.println("[SQL] " + Sentencias.precalentar() + " sentencias armadas para " + DB.getSchema());
 
     app.exception(Exception.class, JsonErrorHandler.of(500));
   }
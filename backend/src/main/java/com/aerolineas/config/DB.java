@@ -12,8 +12,14 @@ import java.sql.SQLException;
 import java.util.function.Function;
 
 public class DB {
+  /** Nombre con el que las sesiones del pool aparecen en V$SESSION.PROGRAM. */
+  public static final String PROGRAMA = "aerolineas-api";
+
   private static HikariDataSource ds;
   private static String schema;
+  private static int poolMinimo;
+  private static int poolMaximo;
+  private static int cacheSentencias;
 
   public static void init() {
     try {
@@ -115,14 +121,28 @@ public class DB {
       }
 
       int pool = Integer.parseInt(nvl(get.apply("DB_POOL"), "10"));
+      // Límites para AjustePoolJob: el pool arranca en DB_POOL y se mueve entre estos dos
+      poolMinimo = Math.min(pool, Integer.parseInt(nvl(get.apply("DB_POOL_MIN"), String.valueOf(Math.max(2, pool / 2)))));
+      poolMaximo = Math.max(pool, Integer.parseInt(nvl(get.apply("DB_POOL_MAX"), String.valueOf(pool * 2))));
 
       HikariConfig cfg = new HikariConfig();
       cfg.setJdbcUrl(url);
       cfg.setUsername(user);
       cfg.setPassword(pass);
       cfg.setMaximumPoolSize(pool);
+      cfg.setMinimumIdle(poolMinimo);
+      cfg.setIdleTimeout(Long.parseLong(nvl(get.apply("DB_IDLE_MS"), "60000")));
+      cfg.setConnectionTimeout(Long.parseLong(nvl(get.apply("DB_CONN_TIMEOUT_MS"), "10000")));
+      cfg.setLeakDetectionThreshold(Long.parseLong(nvl(get.apply("DB_LEAK_MS"), "60000")));
+      cfg.setPoolName("aerolineas");
+      cfg.setMetricsTrackerFactory(TelemetriaPool.global());
       cfg.setDriverClassName("oracle.jdbc.OracleDriver");
       cfg.addDataSourceProperty("oracle.jdbc.fanEnabled", "false");
+      // Caché implícito del driver: un prepareStatement con el mismo texto reusa el cursor abierto
+      // en vez de pedirle a Oracle otro parseo (DB_STMT_CACHE sentencias por conexión, 0 lo apaga)
+      cacheSentencias = Math.max(0, Integer.parseInt(nvl(get.apply("DB_STMT_CACHE"), "100")));
+      cfg.addDataSourceProperty("oracle.jdbc.implicitStatementCacheSize", String.valueOf(cacheSentencias));
+      cfg.addDataSourceProperty("v$session.program", PROGRAMA);
 
       System.out.println("[DB] using url=" + url + " user=" + user + " schema=" + schema + " pass.len=" + pass.length());
 
@@ -133,12 +153,38 @@ public class DB {
     }
   }
 
-  public static DataSource dataSource(){ return ds; }
+  public static DataSource dataSource(){ return InstrumentoSql.global().envolver(ds); }
+
+  public static int poolMinimo() { return poolMinimo; }
+
+  public static int poolMaximo() { return poolMaximo; }
+
+  public static int cacheSentencias() { return cacheSentencias; }
+
+  /** Máximo actual del pool (0 si no está iniciado). */
+  public static int tamanoPool() {
+    HikariDataSource d = ds;
+    return d == null || d.isClosed() ? 0 : d.getHikariConfigMXBean().getMaximumPoolSize();
+  }
+
+  /** Cambia el máximo en caliente; las conexiones de más se retiran al pasar DB_IDLE_MS ociosas. */
+  public static void tamanoPool(int n) {
+    HikariDataSource d = ds;
+    if (d == null || d.isClosed()) return;
+    d.getHikariConfigMXBean().setMaximumPoolSize(n);
+  }
 
+  /** Dentro de una UnidadDeTrabajo devuelve la conexión compartida del request. */
   public static Connection getConnection() throws SQLException {
+    Connection uow = UnidadDeTrabajo.conexionActual();
+    if (uow != null) return uow;
+    return conexionDelPool();
+  }
+
+  static Connection conexionDelPool() throws SQLException {
     try {
       if (ds == null) init();
-      return ds.getConnection();
+      return InstrumentoSql.global().envolver(ds.getConnection());
     } catch (SQLException e) {
       throw e;
     } catch (RuntimeException re) {
@@ -148,6 +194,11 @@ public class DB {
     }
   }
 
+  /** Filas por viaje de red en cursores grandes (JDBC_FETCH_SIZE, por defecto 500). */
+  public static int fetchSize() {
+    return (int) Math.max(1, Math.min(Integer.MAX_VALUE, Entorno.numero("JDBC_FETCH_SIZE", 500)));
+  }
+
   public static boolean ping() {
     try (Connection c = getConnection()) { return c.isValid(2); }
     catch (Exception e) { return false; }
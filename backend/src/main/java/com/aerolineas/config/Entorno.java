@@ -0,0 +1,29 @@
+package com.aerolineas.config;
+
+/**
+ * Lectura de la configuración de los componentes: primero la variable de entorno, si no hay la
+ * propiedad de sistema (-Dk=v, lo que usan los tests) y si no el valor por defecto. Un valor en
+ * blanco o que no se puede leer cuenta como ausente; los límites los pone cada componente.
+ */
+public final class Entorno {
+
+  private Entorno() {}
+
+  public static String texto(String k, String def) {
+    String v = System.getenv(k);
+    if (v == null || v.isBlank()) v = System.getProperty(k);
+    return v == null || v.isBlank() ? def : v.trim();
+  }
+
+  public static long numero(String k, long def) {
+    String v = texto(k, null);
+    if (v == null) return def;
+    try { return Long.parseLong(v); } catch (NumberFormatException e) { return def; }
+  }
+
+  public static double decimal(String k, double def) {
+    String v = texto(k, null);
+    if (v == null) return def;
+    try { return Double.parseDouble(v); } catch (NumberFormatException e) { return def; }
+  }
+}
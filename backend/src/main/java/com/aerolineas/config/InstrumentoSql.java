@@ -0,0 +1,340 @@
+package com.aerolineas.config;
+
+import com.aerolineas.util.Histograma;
+import com.aerolineas.util.Traza;
+
+import javax.sql.DataSource;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
+
+/**
+ * Mide cada sentencia JDBC envolviendo las conexiones del pool en proxies. Agrupa por huella
+ * (el SQL con literales e IN (?,?,..) normalizados): ejecuciones, latencia de ejecución, filas
+ * leídas y afectadas, tamaño de los lotes y qué métodos de la aplicación la usan. Una sentencia
+ * que pasa SQL_LENTA_MS se entrega a {@link #alLenta} con los binds reducidos a su tipo; los
+ * valores nunca salen de aquí. SQL_INSTRUMENTO=0 lo apaga y las conexiones se entregan tal cual.
+ */
+public final class InstrumentoSql {
+
+  /** Una ejecución lenta; binds trae solo el tipo de cada parámetro (p.ej. "String(12)"). */
+  public record Lenta(String huella, String metodo, long micros, long filasAfectadas, List<String> binds) {}
+
+  static final int MAX_HUELLAS = 2000;
+  static final int MAX_METODOS = 20;
+  static final String OTRAS = "(otras)";
+
+  private static final Pattern TEXTO = Pattern.compile("'(?:[^']|'')*'");
+  private static final Pattern NUMERO = Pattern.compile("\\b\\d+(?:\\.\\d+)?\\b");
+  private static final Pattern LISTA = Pattern.compile("\\(\\s*\\?(?:\\s*,\\s*\\?)+\\s*\\)");
+  private static final Pattern ESPACIOS = Pattern.compile("\\s+");
+  private static final StackWalker PILA = StackWalker.getInstance();
+  private static final ThreadLocal<Boolean> SILENCIO = new ThreadLocal<>();
+
+  private static final InstrumentoSql GLOBAL = new InstrumentoSql(
+      Entorno.numero("SQL_INSTRUMENTO", 1) != 0, Entorno.numero("SQL_LENTA_MS", 500));
+
+  static final class Huella {
+    final String texto;
+    final Histograma latencia = new Histograma();
+    final LongAdder ejecuciones = new LongAdder();
+    final LongAdder microsTotal = new LongAdder();
+    final LongAdder filasLeidas = new LongAdder();
+    final LongAdder filasAfectadas = new LongAdder();
+    final LongAdder lotes = new LongAdder();
+    final LongAdder itemsLote = new LongAdder();
+    final LongAdder errores = new LongAdder();
+    final LongAdder lentas = new LongAdder();
+    final Set<String> metodos = ConcurrentHashMap.newKeySet();
+
+    Huella(String texto) { this.texto = texto; }
+  }
+
+  private final boolean activo;
+  private final long umbralUs;
+  private final Map<String, Huella> porSql = new ConcurrentHashMap<>();
+  private final Map<String, Huella> porHuella = new ConcurrentHashMap<>();
+  private volatile Consumer<Lenta> lentas = l -> {};
+  private Map<Huella, long[]> ultimoResumen = new HashMap<>();
+
+  InstrumentoSql(boolean activo, long umbralMs) {
+    this.activo = activo;
+    this.umbralUs = Math.max(0, umbralMs) * 1000;
+  }
+
+  public static InstrumentoSql global() {
+    return GLOBAL;
+  }
+
+  /** Destino de las sentencias lentas (p.ej. la cola hacia OPERACION_LOG). */
+  public void alLenta(Consumer<Lenta> destino) {
+    this.lentas = destino == null ? l -> {} : destino;
+  }
+
+  /** Lo que ejecute este hilo no se reporta como lento (evita que el escritor se reporte a sí mismo). */
+  public static void silenciar(boolean on) {
+    if (on) SILENCIO.set(Boolean.TRUE); else SILENCIO.remove();
+  }
+
+  public DataSource envolver(DataSource ds) {
+    if (!activo || ds == null) return ds;
+    return (DataSource) Proxy.newProxyInstance(DataSource.class.getClassLoader(), new Class<?>[]{DataSource.class},
+        (proxy, m, args) -> {
+          Object r = invocar(ds, m, args);
+          return r instanceof Connection c ? envolver(c) : r;
+        });
+  }
+
+  public Connection envolver(Connection cn) {
+    if (!activo || cn == null) return cn;
+    return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[]{Connection.class},
+        (proxy, m, args) -> {
+          Object r = invocar(cn, m, args);
+          switch (m.getName()) {
+            case "prepareStatement":
+              return sentencia((PreparedStatement) r, PreparedStatement.class, huella((String) args[0]));
+            case "prepareCall":
+              return sentencia((CallableStatement) r, CallableStatement.class, huella((String) args[0]));
+            case "createStatement":
+              return sentencia((Statement) r, Statement.class, null);
+            default:
+              return r;
+          }
+        });
+  }
+
+  private static Object invocar(Object real, Method m, Object[] args) throws Throwable {
+    try {
+      return m.invoke(real, args);
+    } catch (InvocationTargetException e) {
+      throw e.getCause();
+    }
+  }
+
+  private <S extends Statement> S sentencia(S real, Class<S> tipo, Huella fija) {
+    Sentencia h = new Sentencia(real, fija, llamador());
+    return tipo.cast(Proxy.newProxyInstance(tipo.getClassLoader(), new Class<?>[]{tipo}, h));
+  }
+
+  private final class Sentencia implements InvocationHandler {
+    private final Statement real;
+    private final Huella fija;
+    private final String metodo;
+    private String[] binds;
+    private int[] largos;
+    private int lote;
+
+    Sentencia(Statement real, Huella fija, String metodo) {
+      this.real = real;
+      this.fija = fija;
+      this.metodo = metodo;
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method m, Object[] args) throws Throwable {
+      String n = m.getName();
+      if (n.startsWith("execute")) return ejecutar(m, args);
+      if (n.startsWith("set") && args != null && args.length >= 2 && args[0] instanceof Integer i) {
+        bind(i, n, args[1]);
+      } else if (n.equals("addBatch")) {
+        lote++;
+      } else if (n.equals("clearBatch")) {
+        lote = 0;
+      } else if (n.equals("clearParameters")) {
+        binds = null;
+      }
+      return invocar(real, m, args);
+    }
+
+    private Object ejecutar(Method m, Object[] args) throws Throwable {
+      Huella h = fija;
+      if (h == null && args != null && args.length > 0 && args[0] instanceof String sql) h = huella(sql);
+      boolean esLote = m.getName().endsWith("Batch");
+      int items = esLote ? lote : 0;
+      if (esLote) lote = 0;
+      if (h == null) return invocar(real, m, args);
+
+      long t0 = System.nanoTime();
+      Object r;
+      try {
+        r = invocar(real, m, args);
+      } catch (Throwable e) {
+        h.errores.increment();
+        throw e;
+      }
+      long fin = System.nanoTime();
+      long us = (fin - t0) / 1000;
+      Traza.Span span = Traza.registrar("db", t0, fin);
+      if (span != null) span.etiqueta("dao", metodo).etiqueta("sql", h.texto);
+
+      long afectadas = 0;
+      if (r instanceof Integer x && x > 0) afectadas = x;
+      else if (r instanceof Long x && x > 0) afectadas = x;
+      else if (r instanceof int[] xs) for (int x : xs) afectadas += Math.max(0, x);
+      else if (r instanceof long[] xs) for (long x : xs) afectadas += Math.max(0, x);
+
+      registrar(h, us, afectadas, items, metodo, binds, largos);
+      if (r instanceof ResultSet rs) return contarFilas(rs, h);
+      return r;
+    }
+
+    private void bind(int i, String setter, Object valor) {
+      if (i < 1 || i > 256) return;
+      if (binds == null || binds.length < i) {
+        int largo = Math.max(i, binds == null ? 8 : binds.length * 2);
+        binds = binds == null ? new String[largo] : Arrays.copyOf(binds, largo);
+        largos = largos == null ? new int[largo] : Arrays.copyOf(largos, largo);
+      }
+      binds[i - 1] = setter;
+      largos[i - 1] = valor instanceof String s ? s.length() : -1;
+    }
+  }
+
+  private ResultSet contarFilas(ResultSet rs, Huella h) {
+    return (ResultSet) Proxy.newProxyInstance(ResultSet.class.getClassLoader(), new Class<?>[]{ResultSet.class},
+        (proxy, m, args) -> {
+          Object r = invocar(rs, m, args);
+          if (Boolean.TRUE.equals(r) && m.getName().equals("next")) h.filasLeidas.increment();
+          return r;
+        });
+  }
+
+  void registrar(Huella h, long us, long afectadas, int items, String metodo, String[] binds, int[] largos) {
+    h.ejecuciones.increment();
+    h.microsTotal.add(us);
+    h.latencia.registrar(us);
+    if (afectadas > 0) h.filasAfectadas.add(afectadas);
+    if (items > 0) {
+      h.lotes.increment();
+      h.itemsLote.add(items);
+    }
+    if (metodo != null && h.metodos.size() < MAX_METODOS) h.metodos.add(metodo);
+    if (us >= umbralUs && SILENCIO.get() == null) {
+      h.lentas.increment();
+      try {
+        lentas.accept(new Lenta(h.texto, metodo, us, afectadas, redactar(binds, largos)));
+      } catch (RuntimeException e) {
+        System.out.println("[SQL] no se pudo registrar sentencia lenta: " + e.getMessage());
+      }
+    }
+  }
+
+  static List<String> redactar(String[] binds, int[] largos) {
+    if (binds == null) return List.of();
+    List<String> out = new ArrayList<>();
+    int ultimo = binds.length;
+    while (ultimo > 0 && binds[ultimo - 1] == null) ultimo--;
+    for (int i = 0; i < ultimo; i++) {
+      String s = binds[i];
+      if (s == null) { out.add("?"); continue; }
+      String tipo = s.substring(3);
+      out.add(largos[i] >= 0 ? tipo + "(" + largos[i] + ")" : tipo);
+    }
+    return out;
+  }
+
+  Huella huella(String sql) {
+    if (sql == null) return null;
+    Huella h = porSql.get(sql);
+    if (h != null) return h;
+    String texto = normalizar(sql);
+    if (porHuella.size() >= MAX_HUELLAS && !porHuella.containsKey(texto)) texto = OTRAS;
+    h = porHuella.computeIfAbsent(texto, Huella::new);
+    // El SQL crudo se recuerda solo si es fijo; los IN dinámicos comparten huella pero no entrada
+    if (porSql.size() < MAX_HUELLAS) porSql.put(sql, h);
+    return h;
+  }
+
+  static String normalizar(String sql) {
+    String s = TEXTO.matcher(sql).replaceAll("?");
+    s = NUMERO.matcher(s).replaceAll("?");
+    s = LISTA.matcher(s).replaceAll("(?..)");
+    return ESPACIOS.matcher(s).replaceAll(" ").trim();
+  }
+
+  /** Primer método de la aplicación fuera de config (el DAO o servicio que preparó la sentencia). */
+  static String llamador() {
+    return PILA.walk(s -> s
+        .filter(f -> f.getClassName().startsWith("com.aerolineas.") && !f.getClassName().startsWith("com.aerolineas.config."))
+        .findFirst()
+        .map(f -> f.getClassName().substring(f.getClassName().lastIndexOf('.') + 1) + "." + f.getMethodName())
+        .orElse(null));
+  }
+
+  /** Las {@code top} huellas con más tiempo acumulado. */
+  public Map<String, Object> stats(int top) {
+    List<Huella> hs = new ArrayList<>(porHuella.values());
+    hs.sort(Comparator.comparingLong((Huella h) -> h.microsTotal.sum()).reversed());
+    List<Map<String, Object>> lista = new ArrayList<>();
+    for (Huella h : hs.subList(0, Math.min(Math.max(0, top), hs.size()))) {
+      Map<String, Object> m = new LinkedHashMap<>();
+      m.put("sql", h.texto);
+      m.put("metodos", new ArrayList<>(h.metodos));
+      m.put("ejecuciones", h.ejecuciones.sum());
+      m.put("totalMs", h.microsTotal.sum() / 1000);
+      m.put("latencia", h.latencia.resumen());
+      m.put("filasLeidas", h.filasLeidas.sum());
+      m.put("filasAfectadas", h.filasAfectadas.sum());
+      m.put("lotes", h.lotes.sum());
+      long lotes = h.lotes.sum();
+      m.put("itemsPorLote", lotes == 0 ? 0 : h.itemsLote.sum() / lotes);
+      m.put("errores", h.errores.sum());
+      m.put("lentas", h.lentas.sum());
+      lista.add(m);
+    }
+    Map<String, Object> out = new LinkedHashMap<>();
+    out.put("activo", activo);
+    out.put("umbralLentaMs", umbralUs / 1000);
+    out.put("huellas", porHuella.size());
+    out.put("sentencias", lista);
+    return out;
+  }
+
+  /** Líneas con las {@code top} huellas de más tiempo desde el resumen anterior. */
+  public synchronized List<String> resumen(int top) {
+    Map<Huella, long[]> ahora = new HashMap<>();
+    List<long[]> deltas = new ArrayList<>();
+    List<Huella> orden = new ArrayList<>();
+    for (Huella h : porHuella.values()) {
+      long[] v = {h.microsTotal.sum(), h.ejecuciones.sum()};
+      ahora.put(h, v);
+      long[] antes = ultimoResumen.getOrDefault(h, new long[2]);
+      long[] d = {v[0] - antes[0], v[1] - antes[1]};
+      if (d[1] > 0) {
+        deltas.add(d);
+        orden.add(h);
+      }
+    }
+    ultimoResumen = ahora;
+    List<Integer> idx = new ArrayList<>();
+    for (int i = 0; i < orden.size(); i++) idx.add(i);
+    idx.sort((a, b) -> Long.compare(deltas.get(b)[0], deltas.get(a)[0]));
+    List<String> out = new ArrayList<>();
+    for (int i : idx.subList(0, Math.min(top, idx.size()))) {
+      Huella h = orden.get(i);
+      long[] d = deltas.get(i);
+      String sql = h.texto.length() <= 120 ? h.texto : h.texto.substring(0, 120) + "…";
+      out.add(String.format("%d ms en %d ejec (%.1f ms/ejec) %s · %s",
+          d[0] / 1000, d[1], d[0] / 1000.0 / d[1], h.metodos, sql));
+    }
+    return out;
+  }
+}
@@ -0,0 +1,117 @@
+package com.aerolineas.config;
+
+import com.aerolineas.util.Histograma;
+import com.zaxxer.hikari.metrics.IMetricsTracker;
+import com.zaxxer.hikari.metrics.MetricsTrackerFactory;
+import com.zaxxer.hikari.metrics.PoolStats;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Métricas del pool de Hikari: espera para obtener conexión, tiempo que se la retiene y, por
+ * ruta HTTP, cuánto la retiene cada endpoint. Hikari llama al tracker en el mismo hilo que pide
+ * y devuelve la conexión, así que la ruta del request se toma de un ThreadLocal que pone App.
+ */
+public final class TelemetriaPool implements MetricsTrackerFactory {
+
+  static final String SIN_RUTA = "(fondo)";
+  static final int MAX_RUTAS = 200;
+
+  private static final TelemetriaPool GLOBAL = new TelemetriaPool();
+  private static final ThreadLocal<String> RUTA = new ThreadLocal<>();
+
+  private final Histograma adquisicion = new Histograma();
+  private final Histograma uso = new Histograma();
+  private final Histograma creacion = new Histograma();
+  private final Map<String, Histograma> porRuta = new ConcurrentHashMap<>();
+  private final LongAdder timeouts = new LongAdder();
+  private volatile PoolStats pool;
+
+  public static TelemetriaPool global() {
+    return GLOBAL;
+  }
+
+  /** Marca la ruta del request en curso; las conexiones que devuelva este hilo se le cargan. */
+  public static void enRuta(String ruta) {
+    RUTA.set(ruta);
+  }
+
+  public static void salirDeRuta() {
+    RUTA.remove();
+  }
+
+  @Override
+  public IMetricsTracker create(String poolName, PoolStats poolStats) {
+    this.pool = poolStats;
+    return new IMetricsTracker() {
+      @Override
+      public void recordConnectionCreatedMillis(long ms) {
+        creacion.registrar(ms * 1000);
+      }
+
+      @Override
+      public void recordConnectionAcquiredNanos(long nanos) {
+        adquisicion.registrar(nanos / 1000);
+      }
+
+      @Override
+      public void recordConnectionUsageMillis(long ms) {
+        registrarUso(RUTA.get(), ms * 1000);
+      }
+
+      @Override
+      public void recordConnectionTimeout() {
+        timeouts.increment();
+      }
+    };
+  }
+
+  void registrarUso(String ruta, long micros) {
+    uso.registrar(micros);
+    String clave = ruta == null ? SIN_RUTA : ruta;
+    Histograma h = porRuta.get(clave);
+    if (h == null) {
+      // Las claves son plantillas de ruta, pero se acota por si alguna llega sin plantilla
+      if (porRuta.size() >= MAX_RUTAS) clave = SIN_RUTA;
+      h = porRuta.computeIfAbsent(clave, k -> new Histograma());
+    }
+    h.registrar(micros);
+  }
+
+  public Histograma adquisicion() { return adquisicion; }
+
+  public Histograma uso() { return uso; }
+
+  public long timeouts() { return timeouts.sum(); }
+
+  public int activas() { PoolStats p = pool; return p == null ? 0 : p.getActiveConnections(); }
+
+  public int inactivas() { PoolStats p = pool; return p == null ? 0 : p.getIdleConnections(); }
+
+  public int pendientes() { PoolStats p = pool; return p == null ? 0 : p.getPendingThreads(); }
+
+  public int total() { PoolStats p = pool; return p == null ? 0 : p.getTotalConnections(); }
+
+  public Map<String, Object> stats() {
+    Map<String, Object> m = new LinkedHashMap<>();
+    PoolStats p = pool;
+    m.put("activas", activas());
+    m.put("inactivas", inactivas());
+    m.put("pendientes", pendientes());
+    m.put("total", total());
+    m.put("maximo", p == null ? 0 : p.getMaxConnections());
+    m.put("minimo", p == null ? 0 : p.getMinConnections());
+    m.put("timeouts", timeouts.sum());
+    m.put("adquisicion", adquisicion.resumen());
+    m.put("uso", uso.resumen());
+    m.put("creacion", creacion.resumen());
+    Map<String, Object> rutas = new TreeMap<>();
+    porRuta.forEach((k, h) -> rutas.put(k, h.resumen()));
+    m.put("retencionPorRuta", rutas);
+    return m;
+  }
+}
@@ -0,0 +1,195 @@
+package com.aerolineas.config;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Una conexión y una transacción por request. Mientras hay una unidad activa en el hilo,
+ * DB.getConnection() devuelve siempre la misma conexión (se pide al pool recién cuando algún
+ * DAO la usa) y se confirma o revierte todo junto al terminar.
+ *
+ * Los DAO no cambian: su commit/close no hacen nada, su setAutoCommit(false) abre un punto de
+ * guardado y su rollback() vuelve a ese punto, así que un error atrapado dentro del DAO no
+ * arrastra lo que ya hizo el resto del request.
+ */
+public final class UnidadDeTrabajo {
+
+  @FunctionalInterface
+  public interface Trabajo<T> {
+    T ejecutar() throws Exception;
+  }
+
+  private static final ThreadLocal<UnidadDeTrabajo> ACTUAL = new ThreadLocal<>();
+
+  private static final LongAdder unidades = new LongAdder();
+  private static final LongAdder conexiones = new LongAdder();
+  private static final LongAdder pedidos = new LongAdder();
+  private static final LongAdder revertidas = new LongAdder();
+
+  private Connection real;
+  private Connection vista;
+  private boolean autoCommitVista = true;
+  private Savepoint punto;
+  private boolean soloRollback;
+  private final List<Runnable> alConfirmar = new ArrayList<>();
+  private final List<Runnable> alTerminar = new ArrayList<>();
+
+  private UnidadDeTrabajo() {}
+
+  /** Ejecuta el trabajo dentro de una unidad; si ya hay una en el hilo, se suma a ella. */
+  public static <T> T ejecutar(Trabajo<T> trabajo) throws Exception {
+    if (ACTUAL.get() != null) return trabajo.ejecutar();
+
+    UnidadDeTrabajo u = new UnidadDeTrabajo();
+    ACTUAL.set(u);
+    unidades.increment();
+    T r;
+    try {
+      r = trabajo.ejecutar();
+      u.confirmar();
+    } catch (Throwable e) {
+      u.revertir(e);
+      throw e;
+    } finally {
+      ACTUAL.remove();
+      u.cerrar();
+      correr(u.alTerminar, "al terminar");
+    }
+    correr(u.alConfirmar, "después del commit");
+    return r;
+  }
+
+  private static void correr(List<Runnable> tareas, String cuando) {
+    for (Runnable tarea : tareas) {
+      try {
+        tarea.run();
+      } catch (RuntimeException e) {
+        System.out.println("[UoW] error " + cuando + ": " + e.getMessage());
+      }
+    }
+  }
+
+  public static boolean activa() {
+    return ACTUAL.get() != null;
+  }
+
+  /** Corre la tarea después del commit de la unidad actual, o en el acto si no hay unidad. */
+  public static void alConfirmar(Runnable tarea) {
+    UnidadDeTrabajo u = ACTUAL.get();
+    if (u == null) tarea.run();
+    else u.alConfirmar.add(tarea);
+  }
+
+  /**
+   * Corre la tarea cuando la unidad actual termina, haya confirmado o revertido (en el acto si no
+   * hay unidad). Sirve para soltar algo que debe durar lo mismo que los bloqueos de la transacción.
+   */
+  public static void alTerminar(Runnable tarea) {
+    UnidadDeTrabajo u = ACTUAL.get();
+    if (u == null) tarea.run();
+    else u.alTerminar.add(tarea);
+  }
+
+  /** Conexión de la unidad activa, o null si no hay unidad en este hilo. */
+  static Connection conexionActual() throws SQLException {
+    UnidadDeTrabajo u = ACTUAL.get();
+    if (u == null) return null;
+    pedidos.increment();
+    return u.conexion();
+  }
+
+  public static Map<String, Object> stats() {
+    Map<String, Object> m = new LinkedHashMap<>();
+    m.put("unidades", unidades.sum());
+    m.put("conexionesDelPool", conexiones.sum());
+    m.put("getConnectionAtendidos", pedidos.sum());
+    m.put("revertidas", revertidas.sum());
+    return m;
+  }
+
+  private Connection conexion() throws SQLException {
+    if (vista == null) {
+      real = DB.conexionDelPool();
+      conexiones.increment();
+      real.setAutoCommit(false);
+      vista = (Connection) Proxy.newProxyInstance(
+          Connection.class.getClassLoader(), new Class<?>[]{Connection.class}, (proxy, m, args) -> {
+            switch (m.getName()) {
+              case "close":
+                punto = null;
+                autoCommitVista = true;
+                return null;
+              case "commit":
+                punto = null;
+                return null;
+              case "isClosed":
+                if (m.getParameterCount() == 0) return false;
+                break;
+              case "getAutoCommit":
+                return autoCommitVista;
+              case "setAutoCommit":
+                boolean on = (Boolean) args[0];
+                if (!on && autoCommitVista) punto = real.setSavepoint();
+                if (on) punto = null;
+                autoCommitVista = on;
+                return null;
+              case "rollback":
+                if (m.getParameterCount() == 0) {
+                  if (punto != null) real.rollback(punto);
+                  else soloRollback = true;
+                  return null;
+                }
+                break;
+              default:
+                break;
+            }
+            try {
+              return m.invoke(real, args);
+            } catch (InvocationTargetException e) {
+              throw e.getCause();
+            }
+          });
+    }
+    return vista;
+  }
+
+  private void confirmar() throws SQLException {
+    if (real == null) return;
+    if (soloRollback) {
+      throw new SQLException("La transacción se revirtió: un DAO pidió rollback fuera de un punto de guardado.");
+    }
+    real.commit();
+  }
+
+  private void revertir(Throwable causa) {
+    if (real == null) return;
+    revertidas.increment();
+    alConfirmar.clear();
+    try {
+      real.rollback();
+    } catch (SQLException e) {
+      causa.addSuppressed(e);
+    }
+  }
+
+  private void cerrar() {
+    if (real == null) return;
+    try {
+      real.setAutoCommit(true);
+    } catch (SQLException ignore) {
+    }
+    try {
+      real.close();
+    } catch (SQLException e) {
+      System.out.println("[UoW] error cerrando conexión: " + e.getMessage());
+    }
+  }
+}
@@ -2,6 +2,8 @@ package com.aerolineas.controller;
 
 import com.aerolineas.dao.UsuarioDAO;
 import com.aerolineas.dto.UsuarioAdminDTOs;
+import com.aerolineas.middleware.WebServiceCredCache;
+import com.aerolineas.service.ColaCorreos;
 import io.javalin.http.Context;
 
 import java.util.List;
@@ -69,9 +71,23 @@ public class AdminUsuarioController {
         .check(b -> b.pasaporte()==null || b.pasaporte().length()<=20, "pasaporte demasiado largo")
         .get();
     usuarios.adminUpdate(id, body);
+    WebServiceCredCache.invalidateUser(id);
     ctx.json(Map.of("ok", true));
   }
 
+  public void wsCacheStats(Context ctx) {
+    ctx.json(WebServiceCredCache.stats());
+  }
+
+  public void correosStats(Context ctx) throws Exception {
+    var cola = ColaCorreos.global();
+    ctx.json(Map.of("metricas", cola.metricas(), "fallidos", cola.fallidos()));
+  }
+
+  public void correosReintentar(Context ctx) throws Exception {
+    ctx.json(Map.of("reencolados", ColaCorreos.global().reintentarFallidos()));
+  }
+
   private int parseInt(String s, int def) {
     try { return s==null?def:Integer.parseInt(s); } catch(Exception e){ return def; }
   }
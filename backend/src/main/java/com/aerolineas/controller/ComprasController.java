@@ -4,12 +4,16 @@ import io.javalin.Javalin;
 import io.javalin.http.Context;
 import io.javalin.http.Handler;
 
+import com.aerolineas.config.UnidadDeTrabajo;
 import com.aerolineas.dao.ComprasDAO;
 import com.aerolineas.dto.CompraDTO.AddItemReq;
 import com.aerolineas.dto.CompraDTO.UpdateQtyReq;
 import com.aerolineas.dto.CompraDTO.CheckoutResp;
 import com.aerolineas.dto.CompraDTO.CarritoResp;
+import com.aerolineas.dto.CompraDTO.LoteItemsResp;
 import com.aerolineas.dto.CompraDTO.PaymentReq;
+import com.aerolineas.dto.CompraDTO.ReservaDetalle;
+import com.aerolineas.dto.CompraDTO.ReservaListItem;
 
 import java.math.BigDecimal;
 import java.text.NumberFormat;
@@ -17,17 +21,29 @@ import java.time.Instant;
 import java.time.LocalDateTime;
 import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.sql.Timestamp;
 
+import com.aerolineas.dao.OutboxDAO;
+import com.aerolineas.service.BoletoCache;
+import com.aerolineas.service.ColaCorreos;
+import com.aerolineas.service.DespachadorOutbox;
 import com.aerolineas.util.Mailer;
-import com.aerolineas.util.PdfBoleto;
+import com.aerolineas.http.Archivos;
+import com.aerolineas.http.Idempotencia;
+import com.aerolineas.http.Idempotencia.Respuesta;
+import com.aerolineas.http.JsonStreaming;
+import com.aerolineas.http.Paginacion;
 import com.aerolineas.middleware.Auth;
 import com.aerolineas.middleware.WebServiceAuth;
 import com.aerolineas.dao.UsuarioDAO;
 import com.aerolineas.model.Usuario;
 import com.aerolineas.util.PasswordUtil;
+import io.javalin.json.JavalinJackson;
 
 public class ComprasController {
 
@@ -35,6 +51,15 @@ public class ComprasController {
   private final UsuarioDAO usuarioDAO;
   private final Handler jwtAuthHandler;
   private final Handler wsAuthHandler;
+  private final BoletoCache boletos;
+  private final Idempotencia idempotencia;
+  private final DespachadorOutbox outbox;
+
+  static final String EVENTO_CORREO = "CORREO_CONFIRMACION";
+  static final String EVENTO_BOLETO = "BOLETO_PDF";
+
+  // Página por defecto del historial de reservas admin (keyset con limit/after)
+  static final int ADMIN_RESERVAS_LIMIT = 100;
 
   public ComprasController() {
     this(
@@ -50,11 +75,56 @@ public class ComprasController {
       UsuarioDAO usuarioDAO,
       Handler jwtAuthHandler,
       Handler wsAuthHandler
+  ) {
+    this(dao, usuarioDAO, jwtAuthHandler, wsAuthHandler, BoletoCache.global());
+  }
+
+  public ComprasController(
+      ComprasDAO dao,
+      UsuarioDAO usuarioDAO,
+      Handler jwtAuthHandler,
+      Handler wsAuthHandler,
+      BoletoCache boletos
+  ) {
+    this(dao, usuarioDAO, jwtAuthHandler, wsAuthHandler, boletos, Idempotencia.global());
+  }
+
+  public ComprasController(
+      ComprasDAO dao,
+      UsuarioDAO usuarioDAO,
+      Handler jwtAuthHandler,
+      Handler wsAuthHandler,
+      BoletoCache boletos,
+      Idempotencia idempotencia
+  ) {
+    this(dao, usuarioDAO, jwtAuthHandler, wsAuthHandler, boletos, idempotencia, DespachadorOutbox.global());
+  }
+
+  public ComprasController(
+      ComprasDAO dao,
+      UsuarioDAO usuarioDAO,
+      Handler jwtAuthHandler,
+      Handler wsAuthHandler,
+      BoletoCache boletos,
+      Idempotencia idempotencia,
+      DespachadorOutbox outbox
   ) {
     this.dao = dao;
     this.usuarioDAO = usuarioDAO;
     this.jwtAuthHandler = jwtAuthHandler;
     this.wsAuthHandler = wsAuthHandler;
+    this.boletos = boletos;
+    this.idempotencia = idempotencia;
+    this.outbox = outbox;
+  }
+
+  /**
+   * Anota en el despachador los manejadores del correo de confirmación y del boleto. Se llama
+   * una vez al arrancar, desde App, como ColaCorreos.start() con CORREO.
+   */
+  public void registrarManejadores() {
+    outbox.registrar(EVENTO_CORREO, this::enviarConfirmacion);
+    outbox.registrar(EVENTO_BOLETO, this::generarBoleto);
   }
 
   private void authenticate(Context ctx) {
@@ -103,6 +173,31 @@ public class ComprasController {
     throw new IllegalStateException("Usuario no autenticado");
   }
 
+  private record FiltroReservas(String q, String usuario, String codigo, String vuelo,
+                                Timestamp desde, Timestamp hasta, Integer estado) {}
+
+  private static FiltroReservas filtroReservas(Context ctx) {
+    String fDesde  = ctx.queryParam("desde");
+    String fHasta  = ctx.queryParam("hasta");
+    Integer estado = null;
+    try {
+      estado = ctx.queryParam("estado") == null ? null : Integer.parseInt(ctx.queryParam("estado"));
+    } catch (Exception ignore) {}
+
+    Timestamp tsDesde = null, tsHasta = null;
+    try {
+      if (fDesde != null && !fDesde.isBlank())
+        tsDesde = Timestamp.valueOf(fDesde + " 00:00:00");
+    } catch (Exception ignore) {}
+    try {
+      if (fHasta != null && !fHasta.isBlank())
+        tsHasta = Timestamp.valueOf(fHasta + " 23:59:59");
+    } catch (Exception ignore) {}
+
+    return new FiltroReservas(ctx.queryParam("q"), ctx.queryParam("usuario"), ctx.queryParam("codigo"),
+        ctx.queryParam("vuelo"), tsDesde, tsHasta, estado);
+  }
+
   private static final Locale LOCALE_GT = Locale.forLanguageTag("es-GT");
 
   private static String money(BigDecimal n) {
@@ -120,16 +215,47 @@ public class ComprasController {
     }
   }
 
-  private static String getOpt(Object bean, String field) {
-    if (bean == null) return "";
-    try {
-      var f = bean.getClass().getDeclaredField(field);
-      f.setAccessible(true);
-      Object v = f.get(bean);
-      return v == null ? "" : String.valueOf(v);
-    } catch (Exception ignore) {
-      return "";
+  private static String txt(String s) {
+    return s == null ? "" : s;
+  }
+
+  /**
+   * Datos con los que se arma el boleto. El comprador sale primero de la reserva (dueño en BD)
+   * y solo si falta de claims/headers, para que el PDF pregenerado en el checkout sea el mismo
+   * que se pide al descargar.
+   */
+  static BoletoCache.Entrada entradaBoleto(ReservaDetalle det, Map<String, Object> claims,
+                                           String headerEmail, String headerNombre) {
+    String codigo = det.codigo;
+    if (codigo == null || codigo.isBlank()) codigo = String.valueOf(det.idReserva);
+
+    String nombre = det.compradorNombre == null ? null : det.compradorNombre.trim();
+    String email = det.compradorEmail;
+
+    if (claims != null) {
+      if (email == null || email.isBlank()) {
+        Object em = claims.get("email");
+        if (em != null) email = String.valueOf(em);
+      }
+      if (nombre == null || nombre.isBlank()) {
+        Object nm = claims.get("nombre");
+        if (nm == null) nm = claims.get("name");
+        if (nm == null) nm = claims.get("fullName");
+        if (nm == null) nm = claims.get("usuario");
+        if (nm == null) nm = claims.get("username");
+        if (nm != null) nombre = String.valueOf(nm);
+      }
     }
+
+    if (email == null || email.isBlank()) email = headerEmail;
+    if (nombre == null || nombre.isBlank()) nombre = headerNombre;
+
+    if ((nombre == null || nombre.isBlank()) && email != null && email.contains("@")) {
+      nombre = email.substring(0, email.indexOf('@'));
+    }
+    if (nombre == null || nombre.isBlank()) nombre = "Cliente";
+
+    return new BoletoCache.Entrada(det, codigo, nombre, email);
   }
 
   public void register(Javalin app) {
@@ -148,7 +274,7 @@ public class ComprasController {
     app.get("/api/compras/carrito", ctx -> {
       try {
         long userId = getUserId(ctx);
-        CarritoResp resp = dao.getCart(userId);
+        CarritoResp resp = UnidadDeTrabajo.ejecutar(() -> dao.getCart(userId));
         ctx.json(resp);
       } catch (Exception e) {
         ctx.status(400).json(Map.of("error", e.getMessage()));
@@ -158,18 +284,46 @@ public class ComprasController {
     app.post("/api/compras/items", ctx -> {
       try {
         long userId = getUserId(ctx);
-        AddItemReq req = ctx.bodyAsClass(AddItemReq.class);
-        if (req == null) throw new IllegalArgumentException("Solicitud inválida");
-        int qty = req.cantidad <= 0 ? 1 : req.cantidad;
-        boolean incluirPareja = false;
-        String qpPair = ctx.queryParam("pair");
-        if (qpPair != null) incluirPareja = Boolean.parseBoolean(qpPair);
-        try {
-          dao.addOrIncrementItem(userId, req.idVuelo, req.idClase, qty, incluirPareja);
-        } catch (NoSuchMethodError | UnsupportedOperationException ex) {
-          dao.addOrIncrementItem(userId, req.idVuelo, req.idClase, qty);
-        }
-        ctx.status(201);
+        idempotencia.responder(ctx, userId, () -> {
+          try {
+            AddItemReq req = ctx.bodyAsClass(AddItemReq.class);
+            if (req == null) throw new IllegalArgumentException("Solicitud inválida");
+            int qty = req.cantidad <= 0 ? 1 : req.cantidad;
+            boolean incluirPareja = false;
+            String qpPair = ctx.queryParam("pair");
+            if (qpPair != null) incluirPareja = Boolean.parseBoolean(qpPair);
+            boolean pareja = incluirPareja;
+            UnidadDeTrabajo.ejecutar(() -> {
+              try {
+                dao.addOrIncrementItem(userId, req.idVuelo, req.idClase, qty, pareja);
+              } catch (NoSuchMethodError | UnsupportedOperationException ex) {
+                dao.addOrIncrementItem(userId, req.idVuelo, req.idClase, qty);
+              }
+              return null;
+            });
+            return new Respuesta(201, null);
+          } catch (Exception e) {
+            return Respuesta.error(400, e.getMessage());
+          }
+        });
+      } catch (Exception e) {
+        ctx.status(400).json(Map.of("error", e.getMessage()));
+      }
+    });
+
+    app.post("/api/compras/items:batch", ctx -> {
+      try {
+        long userId = getUserId(ctx);
+        idempotencia.responder(ctx, userId, () -> {
+          try {
+            AddItemReq[] req = ctx.bodyAsClass(AddItemReq[].class);
+            if (req == null) throw new IllegalArgumentException("Solicitud inválida");
+            LoteItemsResp lote = UnidadDeTrabajo.ejecutar(() -> dao.addItems(userId, Arrays.asList(req)));
+            return new Respuesta(lote.ok ? 201 : 409, lote);
+          } catch (Exception e) {
+            return Respuesta.error(400, e.getMessage());
+          }
+        });
       } catch (Exception e) {
         ctx.status(400).json(Map.of("error", e.getMessage()));
       }
@@ -183,12 +337,16 @@ public class ComprasController {
         boolean sync = false;
         String qpSync = ctx.queryParam("syncPareja");
         if (qpSync != null) sync = Boolean.parseBoolean(qpSync);
+        boolean syncPareja = sync;
 
-        try {
-          dao.updateQuantity(userId, idItem, req.cantidad, sync);
-        } catch (NoSuchMethodError | UnsupportedOperationException ex) {
-          dao.updateQuantity(userId, idItem, req.cantidad);
-        }
+        UnidadDeTrabajo.ejecutar(() -> {
+          try {
+            dao.updateQuantity(userId, idItem, req.cantidad, syncPareja);
+          } catch (NoSuchMethodError | UnsupportedOperationException ex) {
+            dao.updateQuantity(userId, idItem, req.cantidad);
+          }
+          return null;
+        });
         ctx.status(204);
       } catch (Exception e) {
         ctx.status(400).json(Map.of("error", e.getMessage()));
@@ -203,12 +361,16 @@ public class ComprasController {
         boolean sync = false;
         String qpSync = ctx.queryParam("syncPareja");
         if (qpSync != null) sync = Boolean.parseBoolean(qpSync);
+        boolean syncPareja = sync;
 
-        try {
-          dao.removeItem(userId, idItem, sync);
-        } catch (NoSuchMethodError | UnsupportedOperationException ex) {
-          dao.removeItem(userId, idItem);
-        }
+        UnidadDeTrabajo.ejecutar(() -> {
+          try {
+            dao.removeItem(userId, idItem, syncPareja);
+          } catch (NoSuchMethodError | UnsupportedOperationException ex) {
+            dao.removeItem(userId, idItem);
+          }
+          return null;
+        });
 
         ctx.status(204);
       } catch (Exception e) {
@@ -219,78 +381,28 @@ public class ComprasController {
     app.post("/api/compras/checkout", ctx -> {
       try {
         long userId = getUserId(ctx);
-        PaymentReq req = ctx.bodyAsClass(PaymentReq.class);
-
-        if (req == null || req.tarjeta == null || req.facturacion == null)
-          throw new IllegalArgumentException("Datos de pago incompletos.");
-        if (req.tarjeta.numero == null || req.tarjeta.numero.trim().length() < 12)
-          throw new IllegalArgumentException("Número de tarjeta inválido.");
-        if (req.tarjeta.cvv == null || req.tarjeta.cvv.trim().length() < 3)
-          throw new IllegalArgumentException("CVV inválido.");
-
-        CarritoResp resumen = dao.getCart(userId);
-        if (resumen.items == null || resumen.items.isEmpty())
-          throw new IllegalArgumentException("El carrito está vacío.");
-
-        @SuppressWarnings("unchecked")
-        Map<String, Object> claims = ctx.attribute("claims");
-        boolean esWebService = false;
-        long idUsuarioWebService = userId;
-        if (claims != null) {
-          Object rol = claims.get("rol");
+        // Un reintento con la misma llave recibe la misma reserva; no se cobra ni se envía el correo dos veces
+        idempotencia.responder(ctx, userId, () -> {
           try {
-            int idRol = Integer.parseInt(String.valueOf(rol));
-            esWebService = (idRol == 2);
-            if (esWebService) {
-              idUsuarioWebService = userId;
-            }
-          } catch (Exception ignore) {}
-        }
-
-        Long userIdClienteFinal = null;
-
-        if (esWebService && req.clienteFinal != null && req.clienteFinal.email != null && !req.clienteFinal.email.isBlank()) {
-          String emailCliente = req.clienteFinal.email.trim().toLowerCase();
-          String nombresCliente = req.clienteFinal.nombres != null ? req.clienteFinal.nombres.trim() : "";
-          String apellidosCliente = req.clienteFinal.apellidos != null ? req.clienteFinal.apellidos.trim() : "";
-
-          Usuario usuarioCliente = usuarioDAO.findByEmail(emailCliente);
-
-          if (usuarioCliente != null) {
-            userIdClienteFinal = usuarioCliente.getIdUsuario();
-            System.out.println("[Checkout] Usuario encontrado: " + emailCliente + " (ID: " + userIdClienteFinal + ")");
-          } else {
-            String passHash = PasswordUtil.hash("agencia123");
-            if (nombresCliente.isBlank()) nombresCliente = emailCliente.split("@")[0];
-            if (apellidosCliente.isBlank()) apellidosCliente = "";
-
-            usuarioCliente = usuarioDAO.createWithRole(emailCliente, passHash, nombresCliente, apellidosCliente, 3);
-            userIdClienteFinal = usuarioCliente.getIdUsuario();
-            System.out.println("[Checkout] Usuario creado: " + emailCliente + " (ID: " + userIdClienteFinal + ", Rol: 3)");
-          }
-        }
-
-        long idReserva;
-        if (esWebService && userIdClienteFinal != null && userIdClienteFinal != userId) {
-          idReserva = dao.checkoutConClienteFinal(userId, userIdClienteFinal);
-        } else {
-          idReserva = dao.checkout(userId);
-        }
-
-        if (esWebService) {
-          try {
-            dao.guardarReservaWebService(idReserva, idUsuarioWebService);
-            System.out.println("[Checkout] Relación web service-reserva guardada: reserva=" + idReserva + ", ws=" + idUsuarioWebService);
+            PaymentReq req = ctx.bodyAsClass(PaymentReq.class);
+
+            if (req == null || req.tarjeta == null || req.facturacion == null)
+              throw new IllegalArgumentException("Datos de pago incompletos.");
+            if (req.tarjeta.numero == null || req.tarjeta.numero.trim().length() < 12)
+              throw new IllegalArgumentException("Número de tarjeta inválido.");
+            if (req.tarjeta.cvv == null || req.tarjeta.cvv.trim().length() < 3)
+              throw new IllegalArgumentException("CVV inválido.");
+
+            @SuppressWarnings("unchecked")
+            Map<String, Object> claims = ctx.attribute("claims");
+            String correo = destinatario(ctx, claims);
+            // Correo y boleto van al outbox en la misma transacción; se responde apenas hay commit
+            CheckoutResp reserva = UnidadDeTrabajo.ejecutar(() -> comprar(userId, req, claims, correo));
+            return new Respuesta(200, reserva);
           } catch (Exception e) {
-            System.err.println("[Checkout] Error guardando relación web service: " + e.getMessage());
+            return Respuesta.error(400, e.getMessage());
           }
-        }
-
-        ctx.json(new CheckoutResp(idReserva));
-
-        try {
-          sendEmail(ctx, resumen, idReserva);
-        } catch (Exception ignore) {}
+        });
       } catch (Exception e) {
         ctx.status(400).json(Map.of("error", e.getMessage()));
       }
@@ -344,12 +456,17 @@ public class ComprasController {
           } catch (Exception ignore) {}
         }
 
-        boolean ok = dao.cancelarReserva(userId, id, admin);
-        if (!ok) {
-          ctx.status(409).json(Map.of("error", "La reserva no está en estado cancelable."));
-          return;
-        }
-        ctx.json(Map.of("status", "ok"));
+        boolean esAdmin = admin;
+        idempotencia.responder(ctx, userId, () -> {
+          try {
+            boolean ok = dao.cancelarReserva(userId, id, esAdmin);
+            if (!ok) return Respuesta.error(409, "La reserva no está en estado cancelable.");
+            boletos.invalidarReserva(id);
+            return new Respuesta(200, Map.of("status", "ok"));
+          } catch (Exception e) {
+            return Respuesta.error(400, e.getMessage());
+          }
+        });
       } catch (Exception e) {
         ctx.status(400).json(Map.of("error", e.getMessage()));
       }
@@ -366,68 +483,15 @@ public class ComprasController {
           return;
         }
 
-        String codigo = null;
-        try {
-          var f = det.getClass().getDeclaredField("codigo");
-          f.setAccessible(true);
-          Object v = f.get(det);
-          codigo = (v == null) ? null : String.valueOf(v);
-        } catch (NoSuchFieldException ignore) {}
-        if (codigo == null || codigo.isBlank()) {
-          try (var cn = com.aerolineas.config.DB.getConnection();
-               var ps = cn.prepareStatement(
-                   "SELECT CODIGO FROM " + com.aerolineas.config.DB.table("RESERVA") + " WHERE ID_RESERVA = ? AND ID_USUARIO = ?")) {
-            ps.setLong(1, id);
-            ps.setLong(2, userId);
-            try (var rs = ps.executeQuery()) {
-              if (rs.next()) codigo = rs.getString(1);
-            }
-          }
-        }
-        if (codigo == null || codigo.isBlank()) codigo = String.valueOf(id);
-
         @SuppressWarnings("unchecked")
         Map<String, Object> claims = ctx.attribute("claims");
+        var entrada = entradaBoleto(det, claims, ctx.header("X-User-Email"), ctx.header("X-User-Name"));
+        var archivo = boletos.obtener(entrada);
 
-        String email = null;
-        String nombre = null;
-
-        if (claims != null) {
-          Object em = claims.get("email");
-          if (em != null) email = String.valueOf(em);
-
-          Object nm = claims.get("nombre");
-          if (nm == null) nm = claims.get("name");
-          if (nm == null) nm = claims.get("fullName");
-          if (nm == null) nm = claims.get("usuario");
-          if (nm == null) nm = claims.get("username");
-          if (nm != null) nombre = String.valueOf(nm);
-        }
-
-        if (email == null || email.isBlank()) email = ctx.header("X-User-Email");
-        if (nombre == null || nombre.isBlank()) nombre = ctx.header("X-User-Name");
-
-        if (nombre == null || nombre.isBlank()) {
-          String fromDet = getOpt(det, "compradorNombre");
-          if (!fromDet.isBlank()) nombre = fromDet;
-        }
-        if (email == null || email.isBlank()) {
-          String fromDet = getOpt(det, "compradorEmail");
-          if (!fromDet.isBlank()) email = fromDet;
-        }
-
-        if ((nombre == null || nombre.isBlank()) && email != null && email.contains("@")) {
-          nombre = email.substring(0, email.indexOf('@'));
-        }
-        if (nombre == null || nombre.isBlank()) nombre = "Cliente";
-
-        byte[] pdf = PdfBoleto.build(det, codigo, nombre, email);
-
-        String safe = codigo.replaceAll("[^A-Za-z0-9._-]", "_");
-        ctx.header("Content-Type", "application/pdf");
+        String safe = entrada.codigo().replaceAll("[^A-Za-z0-9._-]", "_");
         ctx.header("Content-Disposition", "attachment; filename=\"boleto-" + safe + ".pdf\"");
         ctx.header("Cache-Control", "no-store");
-        ctx.result(pdf);
+        Archivos.enviar(ctx, archivo, "application/pdf");
       } catch (Exception e) {
         e.printStackTrace();
         ctx.status(400).json(Map.of("error",
@@ -443,29 +507,23 @@ public class ComprasController {
     return;
   }
 
-  String q       = ctx.queryParam("q");
-  String usuario = ctx.queryParam("usuario");
-  String codigo  = ctx.queryParam("codigo");
-  String vuelo   = ctx.queryParam("vuelo");
-  String fDesde  = ctx.queryParam("desde");
-  String fHasta  = ctx.queryParam("hasta");
-  Integer estado = null;
-  try {
-    estado = ctx.queryParam("estado") == null ? null : Integer.parseInt(ctx.queryParam("estado"));
-  } catch (Exception ignore) {}
-
-  Timestamp tsDesde = null, tsHasta = null;
-  try {
-    if (fDesde != null && !fDesde.isBlank())
-      tsDesde = Timestamp.valueOf(fDesde + " 00:00:00");
-  } catch (Exception ignore) {}
-  try {
-    if (fHasta != null && !fHasta.isBlank())
-      tsHasta = Timestamp.valueOf(fHasta + " 23:59:59");
-  } catch (Exception ignore) {}
-
-  var list = dao.listReservasAdmin(q, usuario, codigo, vuelo, tsDesde, tsHasta, estado);
-  ctx.json(list);
+  var f = filtroReservas(ctx);
+  var cursor = Paginacion.cursor(ctx, ADMIN_RESERVAS_LIMIT);
+  var list = dao.listReservasAdmin(f.q(), f.usuario(), f.codigo(), f.vuelo(), f.desde(), f.hasta(), f.estado(),
+      cursor.after(), cursor.limitConSonda());
+  Paginacion.responder(ctx, list, cursor, r -> r.idReserva);
+});
+
+// Exportación completa sin paginar: se escribe fila por fila desde el cursor
+app.get("/api/admin/reservas/export", ctx -> {
+  jwtAuthHandler.handle(ctx);
+  if (ctx.attribute("claims") == null || !isAdmin(ctx)) {
+    ctx.status(403).json(Map.of("error", "solo administradores"));
+    return;
+  }
+  var f = filtroReservas(ctx);
+  JsonStreaming.<ReservaListItem>responder(ctx, emisor -> dao.recorrerReservasAdmin(
+      f.q(), f.usuario(), f.codigo(), f.vuelo(), f.desde(), f.hasta(), f.estado(), null, 0, emisor));
 });
 
 
@@ -538,60 +596,133 @@ app.get("/api/admin/reservas/{id}", ctx -> {
     }
   }
 
-  private void sendEmail(Context ctx, CarritoResp resumen, long idReserva) {
-    try {
-      @SuppressWarnings("unchecked")
-      Map<String, Object> claims = ctx.attribute("claims");
-      String to = claims != null ? String.valueOf(claims.getOrDefault("email", "")) : "";
-      if (to == null || to.isBlank()) {
-        to = ctx.header("X-User-Email");
-        if (to == null || to.isBlank()) return;
+  /** Todo lo que escribe el checkout, outbox incluido; corre dentro de una sola UnidadDeTrabajo. */
+  private CheckoutResp comprar(long userId, PaymentReq req, Map<String, Object> claims, String correo) throws Exception {
+    CarritoResp resumen = dao.getCart(userId);
+    if (resumen.items == null || resumen.items.isEmpty())
+      throw new IllegalArgumentException("El carrito está vacío.");
+
+    boolean esWebService = false;
+    long idUsuarioWebService = userId;
+    if (claims != null) {
+      Object rol = claims.get("rol");
+      try {
+        int idRol = Integer.parseInt(String.valueOf(rol));
+        esWebService = (idRol == 2);
+        if (esWebService) {
+          idUsuarioWebService = userId;
+        }
+      } catch (Exception ignore) {}
+    }
+
+    Long userIdClienteFinal = null;
+
+    if (esWebService && req.clienteFinal != null && req.clienteFinal.email != null && !req.clienteFinal.email.isBlank()) {
+      String emailCliente = req.clienteFinal.email.trim().toLowerCase();
+      String nombresCliente = req.clienteFinal.nombres != null ? req.clienteFinal.nombres.trim() : "";
+      String apellidosCliente = req.clienteFinal.apellidos != null ? req.clienteFinal.apellidos.trim() : "";
+
+      Usuario usuarioCliente = usuarioDAO.findByEmail(emailCliente);
+
+      if (usuarioCliente != null) {
+        userIdClienteFinal = usuarioCliente.getIdUsuario();
+        System.out.println("[Checkout] Usuario encontrado: " + emailCliente + " (ID: " + userIdClienteFinal + ")");
+      } else {
+        String passHash = PasswordUtil.hash("agencia123");
+        if (nombresCliente.isBlank()) nombresCliente = emailCliente.split("@")[0];
+        if (apellidosCliente.isBlank()) apellidosCliente = "";
+
+        usuarioCliente = usuarioDAO.createWithRole(emailCliente, passHash, nombresCliente, apellidosCliente, 3);
+        userIdClienteFinal = usuarioCliente.getIdUsuario();
+        System.out.println("[Checkout] Usuario creado: " + emailCliente + " (ID: " + userIdClienteFinal + ", Rol: 3)");
       }
+    }
 
-      StringBuilder html = new StringBuilder();
-      html.append("<h2>Confirmación de reserva #").append(idReserva).append("</h2>");
-      html.append("<p>Gracias por tu compra. Este es el detalle:</p>");
-      html.append("<ul style='padding-left:16px'>");
-      if (resumen.items != null) {
-        for (var it : resumen.items) {
-          String salida = dt(String.valueOf(it.fechaSalida));
-          String llegada = dt(String.valueOf(it.fechaLlegada));
-          String paisO = getOpt(it, "paisOrigen");
-          String paisD = getOpt(it, "paisDestino");
-          String ciuO  = getOpt(it, "ciudadOrigen");
-          String ciuD  = getOpt(it, "ciudadDestino");
-
-          StringBuilder extra = new StringBuilder();
-          if (!(ciuO.isBlank() && paisO.isBlank()) || !(ciuD.isBlank() && paisD.isBlank())) {
-            extra.append("<br/><small>");
-            if (!(ciuO.isBlank() && paisO.isBlank())) {
-              extra.append("Origen: ").append(ciuO.isBlank() ? paisO : (ciuO + ", " + paisO));
-            }
-            if (!(ciuD.isBlank() && paisD.isBlank())) {
-              if (extra.length() > 13) extra.append(" • ");
-              extra.append("Destino: ").append(ciuD.isBlank() ? paisD : (ciuD + ", " + paisD));
-            }
-            extra.append("</small>");
-          }
+    CheckoutResp reserva;
+    if (esWebService && userIdClienteFinal != null && userIdClienteFinal != userId) {
+      reserva = dao.checkoutConClienteFinalReserva(userId, userIdClienteFinal);
+    } else {
+      reserva = dao.checkoutReserva(userId);
+    }
+    long idReserva = reserva.idReserva;
+
+    if (esWebService) {
+      // Sin la relación la agencia no ve la reserva: si falla se revierte todo el checkout
+      dao.guardarReservaWebService(idReserva, idUsuarioWebService);
+      System.out.println("[Checkout] Relación web service-reserva guardada: reserva=" + idReserva + ", ws=" + idUsuarioWebService);
+    }
 
-          html.append("<li style='margin:6px 0'>")
-              .append("<strong>").append(String.valueOf(it.codigoVuelo)).append("</strong>")
-              .append(" (").append(String.valueOf(it.clase)).append(")")
-              .append("<br/><small>Salida: ").append(salida).append(" • Llegada: ").append(llegada).append("</small>")
-              .append(extra)
-              .append("<br/><strong>").append(money(it.subtotal)).append("</strong>")
-              .append("</li>");
+    List<OutboxDAO.Nuevo> eventos = new ArrayList<>(2);
+    if (correo != null) {
+      Map<String, String> payload = Map.of(
+          "para", correo,
+          "asunto", "Confirmación de reserva #" + idReserva,
+          "html", htmlConfirmacion(resumen, idReserva));
+      eventos.add(new OutboxDAO.Nuevo(EVENTO_CORREO, idReserva, JavalinJackson.defaultMapper().writeValueAsString(payload)));
+    }
+    eventos.add(new OutboxDAO.Nuevo(EVENTO_BOLETO, idReserva, null));
+    outbox.publicar(eventos);
+
+    return reserva;
+  }
+
+  private static String destinatario(Context ctx, Map<String, Object> claims) {
+    String to = claims != null ? String.valueOf(claims.getOrDefault("email", "")) : "";
+    if (to == null || to.isBlank()) to = ctx.header("X-User-Email");
+    return to == null || to.isBlank() ? null : to.trim();
+  }
+
+  private void enviarConfirmacion(OutboxDAO.Evento e) throws Exception {
+    Map<?, ?> p = JavalinJackson.defaultMapper().readValue(e.payload(), Map.class);
+    // En el hilo del outbox, que ya reintenta: sobre una conexión SMTP reutilizada y sin cola en memoria
+    ColaCorreos.global().enviar(new ColaCorreos.Correo(
+        String.valueOf(p.get("para")), String.valueOf(p.get("asunto")), String.valueOf(p.get("html"))));
+  }
+
+  private void generarBoleto(OutboxDAO.Evento e) throws Exception {
+    var det = dao.getReservaDetalleAdmin(e.idReserva());
+    if (det != null) boletos.obtener(entradaBoleto(det, null, null, null));
+  }
+
+  private static String htmlConfirmacion(CarritoResp resumen, long idReserva) {
+    StringBuilder html = new StringBuilder();
+    html.append("<h2>Confirmación de reserva #").append(idReserva).append("</h2>");
+    html.append("<p>Gracias por tu compra. Este es el detalle:</p>");
+    html.append("<ul style='padding-left:16px'>");
+    if (resumen.items != null) {
+      for (var it : resumen.items) {
+        String salida = dt(String.valueOf(it.fechaSalida));
+        String llegada = dt(String.valueOf(it.fechaLlegada));
+        String paisO = txt(it.paisOrigen);
+        String paisD = txt(it.paisDestino);
+        String ciuO  = txt(it.ciudadOrigen);
+        String ciuD  = txt(it.ciudadDestino);
+
+        StringBuilder extra = new StringBuilder();
+        if (!(ciuO.isBlank() && paisO.isBlank()) || !(ciuD.isBlank() && paisD.isBlank())) {
+          extra.append("<br/><small>");
+          if (!(ciuO.isBlank() && paisO.isBlank())) {
+            extra.append("Origen: ").append(ciuO.isBlank() ? paisO : (ciuO + ", " + paisO));
+          }
+          if (!(ciuD.isBlank() && paisD.isBlank())) {
+            if (extra.length() > 13) extra.append(" • ");
+            extra.append("Destino: ").append(ciuD.isBlank() ? paisD : (ciuD + ", " + paisD));
+          }
+          extra.append("</small>");
         }
-      }
-      html.append("</ul>");
-      html.append("<p>Total: <strong>").append(money(resumen.total)).append("</strong></p>");
-      html.append("<p>¡Buen viaje!<br/>Aerolíneas</p>");
-
-      Mailer.send(to, "Confirmación de reserva #" + idReserva, html.toString());
-    } catch (Exception ex) {
-      if (Boolean.parseBoolean(System.getenv("MAIL_DEBUG"))) {
-        System.out.println("[MAIL] Error enviando correo: " + ex.getMessage());
+
+        html.append("<li style='margin:6px 0'>")
+            .append("<strong>").append(String.valueOf(it.codigoVuelo)).append("</strong>")
+            .append(" (").append(String.valueOf(it.clase)).append(")")
+            .append("<br/><small>Salida: ").append(salida).append(" • Llegada: ").append(llegada).append("</small>")
+            .append(extra)
+            .append("<br/><strong>").append(money(it.subtotal)).append("</strong>")
+            .append("</li>");
       }
     }
+    html.append("</ul>");
+    html.append("<p>Total: <strong>").append(money(resumen.total)).append("</strong></p>");
+    html.append("<p>¡Buen viaje!<br/>Aerolíneas</p>");
+    return html.toString();
   }
 }
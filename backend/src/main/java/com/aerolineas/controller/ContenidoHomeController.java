@@ -5,6 +5,7 @@ import com.aerolineas.dao.TipDAO;
 import com.aerolineas.dto.NoticiaDTO;
 import com.aerolineas.dto.TipDTO;
 import com.aerolineas.http.JsonErrorHandler;
+import com.aerolineas.http.Paginacion;
 import com.aerolineas.middleware.Auth;
 import io.javalin.Javalin;
 
@@ -66,7 +67,11 @@ public class ContenidoHomeController {
 
         app.get("/api/v1/admin/noticias", ctx -> {
             Auth.adminOrEmpleado().handle(ctx);
-            ctx.json(noticiaDAO.listar());
+            var cursor = Paginacion.cursor(ctx, 0);
+            var filas = cursor == null
+                ? noticiaDAO.listar()
+                : noticiaDAO.listar(cursor.after(), cursor.limitConSonda());
+            Paginacion.responder(ctx, filas, cursor, n -> n.idNoticia);
         });
 
         app.post("/api/v1/admin/noticias", ctx -> {
@@ -0,0 +1,41 @@
+package com.aerolineas.controller;
+
+import com.aerolineas.dao.DisponibilidadDAO;
+import com.aerolineas.middleware.Auth;
+import io.javalin.Javalin;
+import io.javalin.http.Context;
+
+import java.util.Map;
+
+public class DisponibilidadController {
+
+  private final DisponibilidadDAO dao;
+
+  public DisponibilidadController() {
+    this(new DisponibilidadDAO());
+  }
+
+  public DisponibilidadController(DisponibilidadDAO dao) {
+    this.dao = dao;
+  }
+
+  private static Long idVueloOpt(Context ctx) {
+    String raw = ctx.queryParam("idVuelo");
+    if (raw == null || raw.isBlank()) return null;
+    try { return Long.parseLong(raw.trim()); }
+    catch (NumberFormatException e) { throw new IllegalArgumentException("idVuelo inválido"); }
+  }
+
+  public void routes(Javalin app) {
+    app.get("/api/v1/admin/disponibilidad/desfases", ctx -> {
+      Auth.adminOrEmpleado().handle(ctx);
+      ctx.json(dao.detectarDesfases(idVueloOpt(ctx)));
+    });
+
+    app.post("/api/v1/admin/disponibilidad/reconciliar", ctx -> {
+      Auth.adminOrEmpleado().handle(ctx);
+      var reparados = dao.reconciliar(idVueloOpt(ctx));
+      ctx.json(Map.of("reparados", reparados.size(), "items", reparados));
+    });
+  }
+}
@@ -6,6 +6,7 @@ import com.aerolineas.dao.UsuarioDAO;
 import com.aerolineas.model.Pasajero;
 import com.aerolineas.model.Usuario;
 import com.aerolineas.dto.UsuarioAdminDTOs;
+import com.aerolineas.middleware.WebServiceCredCache;
 import io.javalin.http.Context;
 
 import java.time.LocalDate;
@@ -110,6 +111,8 @@ public class PerfilController {
       );
 
       usuarios.selfUpdate(id, dto);
+      // Con la contraseña vieja en caché el web service la seguiría aceptando hasta el TTL
+      if (dto.newPassword() != null) WebServiceCredCache.invalidateUser(id);
 
       ctx.json(Map.of("ok", true));
     } catch (Exception e) {
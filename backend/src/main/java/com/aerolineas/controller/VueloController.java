@@ -1,33 +1,56 @@
 package com.aerolineas.controller;
 
 import com.aerolineas.dao.VueloDAO;
+import com.aerolineas.dto.BusquedaDTO;
 import com.aerolineas.dto.VueloDTO;
 import com.aerolineas.http.JsonErrorHandler;
+import com.aerolineas.http.JsonStreaming;
+import com.aerolineas.http.Paginacion;
 import com.aerolineas.middleware.Auth;
 import com.aerolineas.middleware.WebServiceAuth;
+import com.aerolineas.service.BoletoCache;
+import com.aerolineas.service.BusquedaVuelosService;
+import com.aerolineas.service.CatalogoVuelosService;
 import com.aerolineas.service.NotificacionesService;
 import io.javalin.Javalin;
 import io.javalin.http.Context;
 
 import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 
 import static com.aerolineas.util.EstadosVuelo.*;
 
 public class VueloController {
 
+  static final String HEADER_NOTIFICACION = "X-Notificacion-Id";
+
   private final VueloDAO dao;
   private final NotificacionesService notifySvc;
+  private final CatalogoVuelosService catalogo;
+  private final BusquedaVuelosService busqueda;
 
   // Constructor por defecto (producción)
   public VueloController() {
-    this(new VueloDAO(), new NotificacionesService());
+    this(new VueloDAO(), new NotificacionesService(), CatalogoVuelosService.global(), BusquedaVuelosService.global());
   }
 
   // Constructor inyectable (tests)
   public VueloController(VueloDAO dao, NotificacionesService notifySvc) {
+    this(dao, notifySvc, new CatalogoVuelosService(dao::listarVuelosPublic, null, 0));
+  }
+
+  public VueloController(VueloDAO dao, NotificacionesService notifySvc, CatalogoVuelosService catalogo) {
+    this(dao, notifySvc, catalogo, new BusquedaVuelosService(catalogo, dao::listarVuelosConEscalaPublic, null));
+  }
+
+  public VueloController(VueloDAO dao, NotificacionesService notifySvc, CatalogoVuelosService catalogo, BusquedaVuelosService busqueda) {
     this.dao = dao;
     this.notifySvc = notifySvc;
+    this.catalogo = catalogo;
+    this.busqueda = busqueda;
   }
 
   public static record RoundtripReq(VueloDTO.Create ida, VueloDTO.Create regreso) {}
@@ -43,24 +66,99 @@ public class VueloController {
     }
   }
 
+  // Catálogo público desde el snapshot en memoria, con GET condicional por ETag
+  private void servirCatalogo(Context ctx) throws Exception {
+    var vista = catalogo.vista();
+    ctx.header("ETag", vista.etag());
+    ctx.header("Cache-Control", "no-cache");
+    if (CatalogoVuelosService.coincideEtag(ctx.header("If-None-Match"), vista.etag())) {
+      ctx.status(304);
+      return;
+    }
+    var cursor = Paginacion.cursor(ctx, 0);
+    List<VueloDTO.View> filas = vista.vuelos();
+    if (cursor != null) {
+      filas = filas.stream()
+          .filter(v -> cursor.after() == null || v.idVuelo() > cursor.after())
+          .limit(cursor.limitConSonda())
+          .toList();
+    }
+    Paginacion.responder(ctx, filas, cursor, VueloDTO.View::idVuelo);
+  }
+
+  private void listarConEscalaPublic(Context ctx) throws Exception {
+    var cursor = Paginacion.cursor(ctx, 0);
+    var filas = cursor == null
+        ? dao.listarVuelosConEscalaPublic()
+        : dao.listarVuelosConEscalaPublic(cursor.after(), cursor.limitConSonda());
+    Paginacion.responder(ctx, filas, cursor, VueloDTO.VueloConEscalaView::idVueloConEscala);
+  }
+
+  private void buscar(Context ctx) throws Exception {
+    validateOptionalWebService(ctx);
+    var criterios = new BusquedaDTO.Criterios(
+        ctx.queryParam("origen"),
+        ctx.queryParam("destino"),
+        fecha(ctx, "desde"),
+        fecha(ctx, "hasta"),
+        fecha(ctx, "regresoDesde"),
+        fecha(ctx, "regresoHasta"),
+        entero(ctx, "clase"),
+        entero(ctx, "boletos") == null ? 1 : entero(ctx, "boletos"),
+        "true".equalsIgnoreCase(ctx.queryParam("directo")) || "1".equals(ctx.queryParam("directo")));
+
+    @SuppressWarnings("unchecked")
+    Map<String, Object> claims = ctx.attribute("claims");
+    Long idUsuario = null;
+    if (claims != null && claims.get("idUsuario") != null) {
+      try { idUsuario = Long.parseLong(String.valueOf(claims.get("idUsuario"))); } catch (NumberFormatException ignored) {}
+    }
+    ctx.json(busqueda.buscar(criterios, idUsuario, claims != null ? "webservice" : "web"));
+  }
+
+  private static LocalDate fecha(Context ctx, String nombre) {
+    String raw = ctx.queryParam(nombre);
+    if (raw == null || raw.isBlank()) return null;
+    try {
+      return LocalDate.parse(raw.trim());
+    } catch (Exception e) {
+      throw new IllegalArgumentException(nombre + " inválido (use yyyy-MM-dd)");
+    }
+  }
+
+  private static Integer entero(Context ctx, String nombre) {
+    String raw = ctx.queryParam(nombre);
+    if (raw == null || raw.isBlank()) return null;
+    try {
+      return Integer.parseInt(raw.trim());
+    } catch (NumberFormatException e) {
+      throw new IllegalArgumentException(nombre + " inválido");
+    }
+  }
+
   public void routes(Javalin app) {
 
     // ================== PÚBLICOS ==================
     app.get("/api/public/vuelos", ctx -> {
       validateOptionalWebService(ctx);
-      ctx.json(dao.listarVuelosPublic());
+      servirCatalogo(ctx);
     });
 
     app.get("/api/v1/vuelos", ctx -> {
       validateOptionalWebService(ctx);
-      ctx.json(dao.listarVuelosPublic());
+      servirCatalogo(ctx);
     });
 
+    app.get("/api/v1/vuelos/search", this::buscar);
+    app.get("/api/public/vuelos/search", this::buscar);
+
     // ------ vuelos con escala (públicos) ------
     app.get("/api/public/vuelos/con-escala", ctx -> {
       validateOptionalWebService(ctx);
       try {
-        ctx.json(dao.listarVuelosConEscalaPublic());
+        listarConEscalaPublic(ctx);
+      } catch (IllegalArgumentException e) {
+        throw e;
       } catch (Exception e) {
         String msg = e.getMessage() == null ? "" : e.getMessage();
         ctx.status(500).json(Map.of("error", msg.isBlank() ? "Error al listar vuelos con escala" : msg));
@@ -70,7 +168,9 @@ public class VueloController {
     app.get("/api/v1/vuelos/con-escala", ctx -> {
       validateOptionalWebService(ctx);
       try {
-        ctx.json(dao.listarVuelosConEscalaPublic());
+        listarConEscalaPublic(ctx);
+      } catch (IllegalArgumentException e) {
+        throw e;
       } catch (Exception e) {
         String msg = e.getMessage() == null ? "" : e.getMessage();
         ctx.status(500).json(Map.of("error", msg.isBlank() ? "Error al listar vuelos con escala" : msg));
@@ -135,7 +235,38 @@ public class VueloController {
 
     app.get("/api/v1/admin/vuelos", ctx -> {
       Auth.adminOrEmpleado().handle(ctx);
-      ctx.json(dao.listarVuelos(false));
+      var cursor = Paginacion.cursor(ctx, 0);
+      if (cursor == null && Paginacion.campos(ctx) == null) {
+        JsonStreaming.<VueloDTO.View>responder(ctx, emisor -> dao.recorrerVuelos(false, null, 0, emisor));
+        return;
+      }
+      var filas = cursor == null
+          ? dao.listarVuelos(false)
+          : dao.listarVuelos(false, cursor.after(), cursor.limitConSonda());
+      Paginacion.responder(ctx, filas, cursor, VueloDTO.View::idVuelo);
+    });
+
+    app.get("/api/v1/admin/notificaciones", ctx -> {
+      Auth.adminOrEmpleado().handle(ctx);
+      ctx.json(notifySvc.recientes());
+    });
+
+    app.get("/api/v1/admin/notificaciones/{id}", ctx -> {
+      Auth.adminOrEmpleado().handle(ctx);
+      long id = ctx.pathParamAsClass("id", Long.class).get();
+      var p = notifySvc.progreso(id);
+      if (p == null) {
+        ctx.status(404).json(Map.of("error","Notificación no encontrada"));
+        return;
+      }
+      ctx.json(p);
+    });
+
+    app.get("/api/v1/admin/notificaciones/{id}/entregas", ctx -> {
+      Auth.adminOrEmpleado().handle(ctx);
+      long id = ctx.pathParamAsClass("id", Long.class).get();
+      String estado = ctx.queryParam("estado");
+      ctx.json(notifySvc.entregas(id, estado == null || estado.isBlank() ? null : estado.trim().toUpperCase()));
     });
 
     app.get("/api/v1/admin/vuelos/{id}", ctx -> {
@@ -186,12 +317,11 @@ public class VueloController {
       try {
         dao.actualizarVueloAdmin(id, dto);
         ctx.status(204);
+        BoletoCache.global().invalidarVuelo(id);
 
-        new Thread(() -> {
-          try {
-            notifySvc.notificarCambio(id, dto.motivoCambio());
-          } catch (Exception ignore) {}
-        }, "mail-cambio-vuelo-" + id).start();
+        // El reparto corre en segundo plano; el ID permite seguirlo en /admin/notificaciones
+        long idNotificacion = notifySvc.notificarCambio(id, dto.motivoCambio());
+        if (idNotificacion > 0) ctx.header(HEADER_NOTIFICACION, String.valueOf(idNotificacion));
 
       } catch (SQLException e) {
         String msg = e.getMessage()==null? "" : e.getMessage();
@@ -283,13 +413,11 @@ app.put("/api/v1/vuelos/{id}/estado", ctx -> {
   try {
     dao.actualizarEstado(idVuelo, dto.idEstado(), dto.motivo());
     ctx.status(204);
+    BoletoCache.global().invalidarVuelo(idVuelo);
 
     if (esCancelacion) {
-      new Thread(() -> {
-        try {
-          notifySvc.notificarCancelacion(idVuelo, dto.motivo());
-        } catch (Exception ignore) {}
-      }, "mail-cancel-vuelo-" + idVuelo).start();
+      long idNotificacion = notifySvc.notificarCancelacion(idVuelo, dto.motivo());
+      if (idNotificacion > 0) ctx.header(HEADER_NOTIFICACION, String.valueOf(idNotificacion));
     }
 
   } catch (SQLException e) {
@@ -304,6 +432,40 @@ app.put("/api/v1/vuelos/{id}/estado", ctx -> {
   }
 });
 
+app.post("/api/v1/admin/vuelos/estado-masivo", ctx -> {
+  Auth.adminOrEmpleado().handle(ctx);
+  long t0 = System.nanoTime();
+  var dto = ctx.bodyAsClass(VueloDTO.EstadoMasivo.class);
+  try {
+    var r = dao.actualizarEstadoMasivo(dto);
+    for (Long id : r.vuelos()) BoletoCache.global().invalidarVuelo(id);
+
+    boolean cancelacion = dto.idEstado() == CANCELADO;
+    String notificacion = !cancelacion || r.vuelos().isEmpty() ? "NO_APLICA"
+        : notifySvc.notificarMasivo(r.vuelos(), r.reservas(), "CANCELACION", dto.motivo()) ? "ENCOLADA" : "RECHAZADA";
+
+    Map<String, Object> tiempos = new LinkedHashMap<>();
+    tiempos.put("bloqueo", r.msBloqueo());
+    tiempos.put("escritura", r.msEscritura());
+    tiempos.put("total", (System.nanoTime() - t0) / 1_000_000);
+    Map<String, Object> out = new LinkedHashMap<>();
+    out.put("vuelos", r.vuelos().size());
+    out.put("idsVuelo", r.vuelos());
+    out.put("motivos", r.motivos());
+    out.put("reservas", r.reservas().size());
+    out.put("notificacion", notificacion);
+    out.put("tiemposMs", tiempos);
+    ctx.json(out);
+  } catch (SQLException e) {
+    String msg = e.getMessage() == null ? "" : e.getMessage();
+    if (msg.contains("máximo")) {
+      ctx.status(409).json(Map.of("error", msg));
+    } else {
+      ctx.status(400).json(Map.of("error", msg));
+    }
+  }
+});
+
     // ----- vuelos con escala (admin) -----
     app.post("/api/v1/admin/vuelos/con-escala", ctx -> {
       Auth.adminOrEmpleado().handle(ctx);
@@ -0,0 +1,134 @@
+package com.aerolineas.dao;
+
+import com.aerolineas.config.DB;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Códigos de reserva generados en la aplicación (hi-lo). Cada nodo toma un bloque de BLOQUE
+ * números con un NEXTVAL de SEQ_RESERVA_COD_BLOQUE y los va formateando en memoria, así que dos
+ * nodos nunca comparten números. El número se mezcla con una biyección de 35 bits (códigos
+ * seguidos no se parecen), se escribe en base 32 Crockford y lleva un dígito de control Luhn
+ * mod 32. Formato: "AR" + 7 símbolos + control; no choca con los "ARyymmdd-nnnnnn" anteriores.
+ */
+public final class CodigosReserva {
+
+  /** Tamaño de bloque; fijo porque todos los nodos deben partir los números igual. */
+  static final int BLOQUE = 1000;
+  static final String PREFIJO = "AR";
+  static final String ALFABETO = "0123456789ABCDEFGHJKMNPQRSTVWXYZ";
+  private static final int SIMBOLOS = 7;
+  private static final long MASCARA = (1L << (5 * SIMBOLOS)) - 1;
+  private static final long MULT_1 = 0x2545F4914FL & MASCARA | 1;
+  private static final long MULT_2 = 0x1B873593FL & MASCARA | 1;
+
+  @FunctionalInterface
+  public interface Fuente {
+    long siguienteBloque(Connection cn) throws SQLException;
+  }
+
+  private static volatile CodigosReserva global;
+
+  private final Fuente fuente;
+  private long siguiente;
+  private long fin;
+
+  private final LongAdder emitidos = new LongAdder();
+  private final LongAdder bloques = new LongAdder();
+
+  public CodigosReserva(Fuente fuente) {
+    this.fuente = fuente;
+  }
+
+  public static CodigosReserva global() {
+    if (global == null) {
+      synchronized (CodigosReserva.class) {
+        if (global == null) {
+          global = new CodigosReserva(CodigosReserva::nextval);
+        }
+      }
+    }
+    return global;
+  }
+
+  private static long nextval(Connection cn) throws SQLException {
+    try (PreparedStatement ps = cn.prepareStatement("SELECT " + DB.table("SEQ_RESERVA_COD_BLOQUE") + ".NEXTVAL FROM dual");
+         ResultSet rs = ps.executeQuery()) {
+      if (!rs.next()) throw new SQLException("SEQ_RESERVA_COD_BLOQUE no devolvió valor");
+      return rs.getLong(1);
+    }
+  }
+
+  /** Siguiente código; solo toca la base (con cn) cuando se acaba el bloque. */
+  public synchronized String siguiente(Connection cn) throws SQLException {
+    if (siguiente >= fin) {
+      long hi = fuente.siguienteBloque(cn);
+      if (hi < 1 || hi > MASCARA / BLOQUE) throw new SQLException("Bloque de códigos de reserva fuera de rango: " + hi);
+      siguiente = hi * BLOQUE;
+      fin = siguiente + BLOQUE;
+      bloques.increment();
+    }
+    emitidos.increment();
+    return formatear(siguiente++);
+  }
+
+  static String formatear(long n) {
+    if (n < 0 || n > MASCARA) throw new IllegalArgumentException("Número de reserva fuera de rango: " + n);
+    long m = mezclar(n);
+    char[] c = new char[SIMBOLOS];
+    for (int i = SIMBOLOS - 1; i >= 0; i--) {
+      c[i] = ALFABETO.charAt((int) (m & 31));
+      m >>>= 5;
+    }
+    String cuerpo = new String(c);
+    return PREFIJO + cuerpo + ALFABETO.charAt(control(cuerpo));
+  }
+
+  /** true si el código tiene el formato nuevo y su dígito de control cuadra. */
+  public static boolean valido(String codigo) {
+    if (codigo == null || codigo.length() != PREFIJO.length() + SIMBOLOS + 1 || !codigo.startsWith(PREFIJO)) return false;
+    String cuerpo = codigo.substring(PREFIJO.length(), codigo.length() - 1);
+    for (int i = 0; i < cuerpo.length(); i++) {
+      if (ALFABETO.indexOf(cuerpo.charAt(i)) < 0) return false;
+    }
+    return ALFABETO.indexOf(codigo.charAt(codigo.length() - 1)) == control(cuerpo);
+  }
+
+  // Biyección en 35 bits: multiplicar por impar y xorshift se pueden invertir, así que no hay choques
+  static long mezclar(long x) {
+    x = (x * MULT_1) & MASCARA;
+    x ^= x >>> 17;
+    x = (x * MULT_2) & MASCARA;
+    x ^= x >>> 13;
+    return x;
+  }
+
+  // Luhn mod 32: detecta cualquier símbolo cambiado y casi todas las transposiciones vecinas
+  private static int control(String cuerpo) {
+    int factor = 2;
+    int suma = 0;
+    for (int i = cuerpo.length() - 1; i >= 0; i--) {
+      int v = factor * ALFABETO.indexOf(cuerpo.charAt(i));
+      suma += v / 32 + v % 32;
+      factor = factor == 2 ? 1 : 2;
+    }
+    return (32 - suma % 32) % 32;
+  }
+
+  public Map<String, Object> stats() {
+    Map<String, Object> m = new LinkedHashMap<>();
+    m.put("bloque", BLOQUE);
+    m.put("emitidos", emitidos.sum());
+    m.put("bloques", bloques.sum());
+    synchronized (this) {
+      m.put("restantes", fin - siguiente);
+    }
+    return m;
+  }
+}
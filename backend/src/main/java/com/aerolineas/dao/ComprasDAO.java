@@ -1,9 +1,11 @@
 package com.aerolineas.dao;
 
 import com.aerolineas.config.DB;
+import com.aerolineas.config.UnidadDeTrabajo;
 import java.sql.*;
 import java.util.*;
 import java.math.BigDecimal;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Supplier;
 
 import com.aerolineas.dto.CompraDTO;
@@ -14,20 +16,39 @@ import com.aerolineas.dto.CompraDTO.ReservaItem;
 import com.aerolineas.dto.CompraDTO.ReservaListItem;
 
 public class ComprasDAO {
+  private static final int MAX_CARRITOS_CACHE = 10_000;
+  private static final int LOTE_LIBERACION = 200;
+  static final int MAX_ITEMS_LOTE = 50;
+  static final int MAX_IN = 1000;
+
   private final Supplier<Connection> connSupplier;
+  // usuario -> carrito; el carrito de un usuario no cambia ni se borra
+  private final Map<Long, Long> carritos = new ConcurrentHashMap<>();
+  private final RetencionesDAO retenciones = new RetencionesDAO();
+  private final CompuertaCupo compuerta = CompuertaCupo.global();
+  private final CodigosReserva codigos;
 
   public ComprasDAO() {
+    this(CodigosReserva.global());
+  }
+
+  public ComprasDAO(CodigosReserva codigos) {
     this(() -> {
       try {
         return DB.getConnection();
       } catch (SQLException e) {
         throw new RuntimeException(e);
       }
-    });
+    }, codigos);
   }
 
   public ComprasDAO(Supplier<Connection> connSupplier) {
+    this(connSupplier, CodigosReserva.global());
+  }
+
+  public ComprasDAO(Supplier<Connection> connSupplier, CodigosReserva codigos) {
     this.connSupplier = connSupplier;
+    this.codigos = codigos;
   }
 
 private static Connection getRealConnection() throws SQLException {
@@ -64,16 +85,6 @@ private static Connection getRealConnection() throws SQLException {
   }
 
 
-  private static void setFieldIfExists(Object obj, String field, Object value) {
-    try {
-      var f = obj.getClass().getDeclaredField(field);
-      f.setAccessible(true);
-      f.set(obj, value);
-    } catch (NoSuchFieldException ignore) {
-    } catch (Exception ignore) {
-    }
-  }
-
   private Long getParejaId(Connection cn, long idVuelo) throws SQLException {
     String vueloTable = DB.table("VUELO");
     try (PreparedStatement ps = cn.prepareStatement(
@@ -110,13 +121,17 @@ private static Connection getRealConnection() throws SQLException {
 
   private static class ClaseInfo {
     int cupoTotal;
+    int reservados;
+    int enCarrito;
     BigDecimal precio;
+
+    int disponible() { return cupoTotal - reservados - enCarrito; }
   }
 
   private ClaseInfo getClaseInfo(Connection cn, long idVuelo, int idClase, boolean forUpdate) throws SQLException {
     String salidaClaseTable = DB.table("SALIDA_CLASE");
     String vueloClaseTable = DB.table("VUELO_CLASE");
-    String sql = "SELECT CUPO_TOTAL, PRECIO FROM " + salidaClaseTable + " WHERE ID_VUELO = ? AND ID_CLASE = ?"
+    String sql = "SELECT CUPO_TOTAL, PRECIO, NVL(RESERVADOS,0) AS RESERVADOS, NVL(EN_CARRITO,0) AS EN_CARRITO FROM " + salidaClaseTable + " WHERE ID_VUELO = ? AND ID_CLASE = ?"
                + (forUpdate ? " FOR UPDATE" : "");
     try (PreparedStatement ps = cn.prepareStatement(sql)) {
       ps.setLong(1, idVuelo);
@@ -125,6 +140,8 @@ private static Connection getRealConnection() throws SQLException {
         if (rs.next()) {
           ClaseInfo ci = new ClaseInfo();
           ci.cupoTotal = rs.getInt("CUPO_TOTAL");
+          ci.reservados = rs.getInt("RESERVADOS");
+          ci.enCarrito = rs.getInt("EN_CARRITO");
           ci.precio = rs.getBigDecimal("PRECIO");
           if (ci.precio == null) {
             try (PreparedStatement ps2 = cn.prepareStatement(
@@ -143,31 +160,6 @@ private static Connection getRealConnection() throws SQLException {
     return null;
   }
 
-  private int getReservados(Connection cn, long idVuelo, int idClase) throws SQLException {
-    String reservaItemTable = DB.table("RESERVA_ITEM");
-    String reservaTable = DB.table("RESERVA");
-    try (PreparedStatement ps = cn.prepareStatement(
-        "SELECT NVL(COUNT(*),0) FROM " + reservaItemTable + " ri " +
-        "JOIN " + reservaTable + " r ON r.ID_RESERVA = ri.ID_RESERVA " +
-        "WHERE ri.ID_VUELO=? AND ri.ID_CLASE=? AND r.ID_ESTADO=1")) {
-      ps.setLong(1, idVuelo);
-      ps.setInt(2, idClase);
-      try (ResultSet rs = ps.executeQuery()) { if (rs.next()) return rs.getInt(1); }
-    }
-    return 0;
-  }
-
-  private int getEnCarritos(Connection cn, long idVuelo, int idClase) throws SQLException {
-    String carritoItemTable = DB.table("CARRITO_ITEM");
-    try (PreparedStatement ps = cn.prepareStatement(
-        "SELECT NVL(SUM(CANTIDAD),0) FROM " + carritoItemTable + " WHERE ID_VUELO=? AND ID_CLASE=?")) {
-      ps.setLong(1, idVuelo);
-      ps.setInt(2, idClase);
-      try (ResultSet rs = ps.executeQuery()) { if (rs.next()) return rs.getInt(1); }
-    }
-    return 0;
-  }
-
   private Long findCartItemIdFor(Connection cn, long cartId, long idVuelo, int idClase) throws SQLException {
     String carritoItemTable = DB.table("CARRITO_ITEM");
     try (PreparedStatement ps = cn.prepareStatement(
@@ -182,14 +174,54 @@ private static Connection getRealConnection() throws SQLException {
     return null;
   }
 
+  /**
+   * Lee el cupo sin bloquear la fila; el cupo real se confirma con exigirCupo después de escribir.
+   * Si no alcanza, antes de rechazar se liberan las retenciones vencidas de esa clase.
+   */
+  private ClaseInfo getClaseInfoConCupo(Connection cn, long idVuelo, int idClase, int necesarios,
+                                        List<RetencionesDAO.Liberacion> liberadas) throws SQLException {
+    ClaseInfo info = getClaseInfo(cn, idVuelo, idClase, false);
+    if (info == null || info.disponible() >= necesarios) return info;
+    RetencionesDAO.Liberacion l = retenciones.liberarVencidas(cn, idVuelo, idClase, LOTE_LIBERACION);
+    if (l.items() == 0) return info;
+    liberadas.add(l);
+    return getClaseInfo(cn, idVuelo, idClase, false);
+  }
+
+  /**
+   * Cupo que queda después de escribir en el carrito; negativo si no alcanzaba. TRG_CI_LEDGER ya
+   * bloqueó la fila de SALIDA_CLASE al actualizar EN_CARRITO, así que el bloqueo dura del
+   * MERGE/UPDATE al commit.
+   */
+  private int cupoTrasEscribir(Connection cn, long idVuelo, int idClase) throws SQLException {
+    String salidaClaseTable = DB.table("SALIDA_CLASE");
+    try (PreparedStatement ps = cn.prepareStatement(
+        "SELECT CUPO_TOTAL - NVL(RESERVADOS,0) - NVL(EN_CARRITO,0) FROM " + salidaClaseTable +
+        " WHERE ID_VUELO = ? AND ID_CLASE = ?")) {
+      ps.setLong(1, idVuelo);
+      ps.setInt(2, idClase);
+      try (ResultSet rs = ps.executeQuery()) {
+        if (!rs.next()) throw new SQLException("Clase no disponible para esta salida");
+        return rs.getInt(1);
+      }
+    }
+  }
+
+  private static void contarLiberadas(List<RetencionesDAO.Liberacion> liberadas) {
+    for (var l : liberadas) UnidadDeTrabajo.alConfirmar(() -> RetencionesDAO.contar(l));
+  }
+
   public long ensureCartForUser(long userId) throws Exception {
+    Long cacheado = carritos.get(userId);
+    if (cacheado != null) return cacheado;
+
     String carritoTable = DB.table("CARRITO");
     try (Connection cn = getConn()) {
       try (PreparedStatement ps = cn.prepareStatement(
           "SELECT ID_CARRITO FROM " + carritoTable + " WHERE ID_USUARIO = ?")) {
         ps.setLong(1, userId);
         try (ResultSet rs = ps.executeQuery()) {
-          if (rs.next()) return rs.getLong(1);
+          if (rs.next()) return recordarCarrito(userId, rs.getLong(1));
         }
       }
       try (PreparedStatement ps = cn.prepareStatement(
@@ -201,13 +233,22 @@ private static Connection getRealConnection() throws SQLException {
           "SELECT ID_CARRITO FROM " + carritoTable + " WHERE ID_USUARIO = ?")) {
         ps.setLong(1, userId);
         try (ResultSet rs = ps.executeQuery()) {
-          if (rs.next()) return rs.getLong(1);
+          if (rs.next()) return recordarCarrito(userId, rs.getLong(1));
         }
       }
     }
     throw new SQLException("No fue posible crear/obtener el carrito.");
   }
 
+  private long recordarCarrito(long userId, long cartId) {
+    // Dentro de una unidad de trabajo el carrito recién creado puede revertirse: se cachea al confirmar
+    UnidadDeTrabajo.alConfirmar(() -> {
+      if (carritos.size() >= MAX_CARRITOS_CACHE) carritos.clear();
+      carritos.put(userId, cartId);
+    });
+    return cartId;
+  }
+
   public CarritoResp getCart(long userId) throws Exception {
     long cartId = ensureCartForUser(userId);
     CarritoResp out = new CarritoResp();
@@ -243,7 +284,7 @@ private static Connection getRealConnection() throws SQLException {
         "       ci.ID_CLASE, ca.NOMBRE AS NOMBRE_CLASE, " +
         "       ci.CANTIDAD, ci.PRECIO_UNITARIO, (ci.CANTIDAD*ci.PRECIO_UNITARIO) AS SUBTOTAL, " +
         "       po.NOMBRE AS PAIS_ORIGEN, pd.NOMBRE AS PAIS_DESTINO, " +
-        "       co.NOMBRE AS CIUDAD_ORIGEN, cd.NOMBRE AS CIUDAD_DESTINO " +
+        "       co.NOMBRE AS CIUDAD_ORIGEN, cd.NOMBRE AS CIUDAD_DESTINO, ci.RETENIDO_EN " +
         "FROM " + carritoItemTable + " ci " +
         "JOIN " + vueloTable + " v ON v.ID_VUELO = ci.ID_VUELO " +
         "JOIN " + claseTable + " ca ON ca.ID_CLASE = ci.ID_CLASE " +
@@ -274,10 +315,15 @@ private static Connection getRealConnection() throws SQLException {
             it.subtotal = rs.getBigDecimal("SUBTOTAL");
             it.codigoVuelo = rs.getString("CODIGO_VUELO");
 
-            setFieldIfExists(it, "paisOrigen",    rs.getString("PAIS_ORIGEN"));
-            setFieldIfExists(it, "paisDestino",   rs.getString("PAIS_DESTINO"));
-            setFieldIfExists(it, "ciudadOrigen",  rs.getString("CIUDAD_ORIGEN"));
-            setFieldIfExists(it, "ciudadDestino", rs.getString("CIUDAD_DESTINO"));
+            it.paisOrigen    = rs.getString("PAIS_ORIGEN");
+            it.paisDestino   = rs.getString("PAIS_DESTINO");
+            it.ciudadOrigen  = rs.getString("CIUDAD_ORIGEN");
+            it.ciudadDestino = rs.getString("CIUDAD_DESTINO");
+            Timestamp retenido = rs.getTimestamp("RETENIDO_EN");
+            long ttl = RetencionesDAO.ttlMinutos();
+            if (retenido != null && ttl > 0) {
+              it.retenidoHasta = retenido.toInstant().plus(java.time.Duration.ofMinutes(ttl)).toString();
+            }
 
             out.items.add(it);
           }
@@ -294,40 +340,43 @@ private static Connection getRealConnection() throws SQLException {
   public void addOrIncrementItem(long userId, long idVuelo, int idClase, int cantidad, boolean incluirPareja) throws Exception {
     if (cantidad <= 0) cantidad = 1;
     long cartId = ensureCartForUser(userId);
+    List<RetencionesDAO.Liberacion> liberadas = new ArrayList<>();
+    CompuertaCupo.Paso paso = null;
 
     try (Connection cn = getConn()) {
       cn.setAutoCommit(false);
       try {
 
         validarVueloDisponible(cn, idVuelo);
-        ClaseInfo info = getClaseInfo(cn, idVuelo, idClase, true);
+        Long parejaId = incluirPareja ? getParejaId(cn, idVuelo) : null;
+        if (parejaId != null) validarVueloDisponible(cn, parejaId);
+
+        // Desde aquí hasta el commit se tienen las filas de SALIDA_CLASE (ida y regreso): un
+        // comprador por clase a la vez. Va antes de liberar vencidas, que ya bloquea la fila
+        paso = entrarCompuerta(idVuelo, parejaId, idClase);
+        ClaseInfo info = getClaseInfoConCupo(cn, idVuelo, idClase, cantidad, liberadas);
         if (info == null) throw new SQLException("Clase no disponible para esta salida");
         if (info.precio == null) throw new SQLException("No se encontró precio para la clase/vuelo.");
 
-        int dispBase = info.cupoTotal - getReservados(cn, idVuelo, idClase) - getEnCarritos(cn, idVuelo, idClase);
+        int dispBase = info.disponible();
         if (dispBase < cantidad) throw new SQLException("Cupo insuficiente: quedan " + dispBase);
 
-        Long parejaId = incluirPareja ? getParejaId(cn, idVuelo) : null;
-
-
         BigDecimal precioPareja = null;
         if (parejaId != null) {
-          validarVueloDisponible(cn, parejaId);
-          ClaseInfo infoP = getClaseInfo(cn, parejaId, idClase, true);
+          ClaseInfo infoP = getClaseInfoConCupo(cn, parejaId, idClase, cantidad, liberadas);
           if (infoP == null) throw new SQLException("Clase no disponible en el regreso");
-          int dispP = infoP.cupoTotal - getReservados(cn, parejaId, idClase) - getEnCarritos(cn, parejaId, idClase);
+          int dispP = infoP.disponible();
           if (dispP < cantidad) throw new SQLException("Cupo insuficiente en regreso: quedan " + dispP);
           precioPareja = infoP.precio;
           if (precioPareja == null) throw new SQLException("No se encontró precio en regreso para la clase/vuelo.");
         }
 
-
         String carritoItemTable = DB.table("CARRITO_ITEM");
         try (PreparedStatement ps = cn.prepareStatement(
             "MERGE INTO " + carritoItemTable + " t " +
             "USING (SELECT ? idc, ? idv, ? idcl FROM dual) s " +
             "ON (t.ID_CARRITO = s.idc AND t.ID_VUELO = s.idv AND t.ID_CLASE = s.idcl) " +
-            "WHEN MATCHED THEN UPDATE SET t.CANTIDAD = t.CANTIDAD + ? " +
+            "WHEN MATCHED THEN UPDATE SET t.CANTIDAD = t.CANTIDAD + ?, t.RETENIDO_EN = SYSTIMESTAMP " +
             "WHEN NOT MATCHED THEN INSERT (ID_CARRITO, ID_VUELO, ID_CLASE, CANTIDAD, PRECIO_UNITARIO) " +
             "VALUES (s.idc, s.idv, s.idcl, ?, ?)")) {
           ps.setLong(1, cartId);
@@ -338,6 +387,8 @@ private static Connection getRealConnection() throws SQLException {
           ps.setBigDecimal(6, info.precio);
           ps.executeUpdate();
         }
+        int resto = cupoTrasEscribir(cn, idVuelo, idClase);
+        if (resto < 0) throw new SQLException("Cupo insuficiente: quedan " + Math.max(0, resto + cantidad));
 
 
         if (parejaId != null) {
@@ -346,7 +397,7 @@ private static Connection getRealConnection() throws SQLException {
               "MERGE INTO " + carritoItemTable2 + " t " +
               "USING (SELECT ? idc, ? idv, ? idcl FROM dual) s " +
               "ON (t.ID_CARRITO = s.idc AND t.ID_VUELO = s.idv AND t.ID_CLASE = s.idcl) " +
-              "WHEN MATCHED THEN UPDATE SET t.CANTIDAD = t.CANTIDAD + ? " +
+              "WHEN MATCHED THEN UPDATE SET t.CANTIDAD = t.CANTIDAD + ?, t.RETENIDO_EN = SYSTIMESTAMP " +
               "WHEN NOT MATCHED THEN INSERT (ID_CARRITO, ID_VUELO, ID_CLASE, CANTIDAD, PRECIO_UNITARIO) " +
               "VALUES (s.idc, s.idv, s.idcl, ?, ?)")) {
             ps.setLong(1, cartId);
@@ -357,17 +408,262 @@ private static Connection getRealConnection() throws SQLException {
             ps.setBigDecimal(6, precioPareja);
             ps.executeUpdate();
           }
+          int restoP = cupoTrasEscribir(cn, parejaId, idClase);
+          if (restoP < 0) throw new SQLException("Cupo insuficiente en regreso: quedan " + Math.max(0, restoP + cantidad));
         }
 
         cn.commit();
+        contarLiberadas(liberadas);
       } catch (Exception ex) {
         cn.rollback(); throw ex;
       } finally {
         cn.setAutoCommit(true);
+        soltarAlTerminar(paso);
       }
     }
   }
 
+  /**
+   * Compuerta de la clase en el vuelo y, si hay, en su regreso. Se toma antes de cualquier
+   * escritura que toque SALIDA_CLASE (liberar vencidas incluida) para que el orden sea siempre
+   * compuerta y después fila; al revés, quien espera la compuerta con la fila tomada se traba.
+   */
+  private CompuertaCupo.Paso entrarCompuerta(long idVuelo, Long parejaId, int idClase) throws SQLException {
+    if (parejaId == null) return compuerta.entrar(idVuelo, idClase);
+    return compuerta.entrar(List.of(new CompuertaCupo.Clave(idVuelo, idClase), new CompuertaCupo.Clave(parejaId, idClase)));
+  }
+
+  /**
+   * Tras el commit el paso dura lo mismo que el bloqueo de SALIDA_CLASE: dentro de una unidad de
+   * trabajo ese commit no confirma nada y la fila sigue tomada hasta que termina el request. Un
+   * rollback del DAO vuelve al punto de guardado pero, en Oracle, quien ya esperaba la fila sigue
+   * esperando hasta el fin de la transacción, así que también ahí el paso se suelta al terminar.
+   */
+  private static void soltarAlTerminar(CompuertaCupo.Paso paso) {
+    if (paso != null) UnidadDeTrabajo.alTerminar(paso::close);
+  }
+
+  private record VueloLote(boolean disponible, Long idPareja) {}
+
+  /** Una consulta para todos los vuelos del lote: disponibilidad y pareja. */
+  private void leerVuelos(Connection cn, Collection<Long> ids, Map<Long, VueloLote> destino) throws SQLException {
+    if (ids.isEmpty()) return;
+    String vueloTable = DB.table("VUELO");
+    String estadosTable = DB.table("ESTADOS");
+    String in = String.join(",", Collections.nCopies(ids.size(), "?"));
+    try (PreparedStatement ps = cn.prepareStatement(
+        "SELECT v.ID_VUELO, NVL(v.ACTIVO,1) AS ACTIVO, UPPER(e.ESTADO) AS ESTADO, v.ID_VUELO_PAREJA " +
+        "FROM " + vueloTable + " v JOIN " + estadosTable + " e ON e.ID_ESTADO=v.ID_ESTADO " +
+        "WHERE v.ID_VUELO IN (" + in + ")")) {
+      int i = 1;
+      for (Long id : ids) ps.setLong(i++, id);
+      try (ResultSet rs = ps.executeQuery()) {
+        while (rs.next()) {
+          long id = rs.getLong("ID_VUELO");
+          boolean disponible = rs.getInt("ACTIVO") == 1 && !"CANCELADO".equalsIgnoreCase(rs.getString("ESTADO"));
+          long pareja = rs.getLong("ID_VUELO_PAREJA");
+          destino.put(id, new VueloLote(disponible, rs.wasNull() ? null : pareja));
+        }
+      }
+    }
+  }
+
+  /** Una consulta para todas las clases del lote, con el precio de VUELO_CLASE si la salida no lo tiene. */
+  private Map<CompuertaCupo.Clave, ClaseInfo> leerClases(Connection cn, Collection<CompuertaCupo.Clave> claves) throws SQLException {
+    String salidaClaseTable = DB.table("SALIDA_CLASE");
+    String vueloClaseTable = DB.table("VUELO_CLASE");
+    String in = String.join(",", Collections.nCopies(claves.size(), "(?,?)"));
+    Map<CompuertaCupo.Clave, ClaseInfo> m = new HashMap<>();
+    try (PreparedStatement ps = cn.prepareStatement(
+        "SELECT sc.ID_VUELO, sc.ID_CLASE, sc.CUPO_TOTAL, NVL(sc.PRECIO, vc.PRECIO) AS PRECIO, " +
+        "NVL(sc.RESERVADOS,0) AS RESERVADOS, NVL(sc.EN_CARRITO,0) AS EN_CARRITO " +
+        "FROM " + salidaClaseTable + " sc LEFT JOIN " + vueloClaseTable + " vc " +
+        "ON vc.ID_VUELO = sc.ID_VUELO AND vc.ID_CLASE = sc.ID_CLASE " +
+        "WHERE (sc.ID_VUELO, sc.ID_CLASE) IN (" + in + ")")) {
+      int i = 1;
+      for (CompuertaCupo.Clave c : claves) {
+        ps.setLong(i++, c.idVuelo());
+        ps.setInt(i++, c.idClase());
+      }
+      try (ResultSet rs = ps.executeQuery()) {
+        while (rs.next()) {
+          ClaseInfo ci = new ClaseInfo();
+          ci.cupoTotal = rs.getInt("CUPO_TOTAL");
+          ci.reservados = rs.getInt("RESERVADOS");
+          ci.enCarrito = rs.getInt("EN_CARRITO");
+          ci.precio = rs.getBigDecimal("PRECIO");
+          m.put(new CompuertaCupo.Clave(rs.getLong("ID_VUELO"), rs.getInt("ID_CLASE")), ci);
+        }
+      }
+    }
+    return m;
+  }
+
+  private Map<CompuertaCupo.Clave, Integer> cuposTrasEscribir(Connection cn, Collection<CompuertaCupo.Clave> claves) throws SQLException {
+    String salidaClaseTable = DB.table("SALIDA_CLASE");
+    String in = String.join(",", Collections.nCopies(claves.size(), "(?,?)"));
+    Map<CompuertaCupo.Clave, Integer> m = new HashMap<>();
+    try (PreparedStatement ps = cn.prepareStatement(
+        "SELECT ID_VUELO, ID_CLASE, CUPO_TOTAL - NVL(RESERVADOS,0) - NVL(EN_CARRITO,0) AS RESTO FROM " + salidaClaseTable +
+        " WHERE (ID_VUELO, ID_CLASE) IN (" + in + ")")) {
+      int i = 1;
+      for (CompuertaCupo.Clave c : claves) {
+        ps.setLong(i++, c.idVuelo());
+        ps.setInt(i++, c.idClase());
+      }
+      try (ResultSet rs = ps.executeQuery()) {
+        while (rs.next()) m.put(new CompuertaCupo.Clave(rs.getLong("ID_VUELO"), rs.getInt("ID_CLASE")), rs.getInt("RESTO"));
+      }
+    }
+    return m;
+  }
+
+  /**
+   * Agrega varios ítems al carrito en una sola transacción: o entran todos o ninguno. Valida los
+   * vuelos y lee las clases con una consulta cada uno, toma la compuerta de todas las clases en
+   * orden, hace los MERGE en un batch ordenado por (vuelo, clase) y verifica el cupo una sola vez.
+   * Si algo falla devuelve ok=false con el error de cada ítem y no escribe nada.
+   */
+  public CompraDTO.LoteItemsResp addItems(long userId, List<CompraDTO.AddItemReq> items) throws Exception {
+    if (items == null || items.isEmpty()) throw new IllegalArgumentException("La lista de ítems está vacía.");
+    if (items.size() > MAX_ITEMS_LOTE) throw new IllegalArgumentException("Máximo " + MAX_ITEMS_LOTE + " ítems por lote.");
+
+    List<CompraDTO.ItemLoteResp> res = new ArrayList<>();
+    for (int i = 0; i < items.size(); i++) {
+      CompraDTO.AddItemReq it = items.get(i);
+      if (it == null) throw new IllegalArgumentException("Ítem " + i + " inválido.");
+      CompraDTO.ItemLoteResp r = new CompraDTO.ItemLoteResp();
+      r.indice = i;
+      r.idVuelo = it.idVuelo;
+      r.idClase = it.idClase;
+      r.cantidad = it.cantidad <= 0 ? 1 : it.cantidad;
+      r.ok = true;
+      res.add(r);
+    }
+
+    long cartId = ensureCartForUser(userId);
+    List<RetencionesDAO.Liberacion> liberadas = new ArrayList<>();
+    CompuertaCupo.Paso paso = null;
+
+    try (Connection cn = getConn()) {
+      cn.setAutoCommit(false);
+      try {
+        Map<Long, VueloLote> vuelos = new HashMap<>();
+        leerVuelos(cn, new TreeSet<>(res.stream().map(r -> r.idVuelo).toList()), vuelos);
+        Set<Long> parejasFaltantes = new TreeSet<>();
+        for (int i = 0; i < res.size(); i++) {
+          CompraDTO.ItemLoteResp r = res.get(i);
+          VueloLote v = vuelos.get(r.idVuelo);
+          if (v == null) { fallar(r, "Vuelo no existe"); continue; }
+          if (!v.disponible()) { fallar(r, "Vuelo no disponible para compra"); continue; }
+          if (Boolean.TRUE.equals(items.get(i).incluirPareja) && v.idPareja() != null) {
+            r.idVueloPareja = v.idPareja();
+            if (!vuelos.containsKey(v.idPareja())) parejasFaltantes.add(v.idPareja());
+          }
+        }
+        leerVuelos(cn, parejasFaltantes, vuelos);
+
+        Map<CompuertaCupo.Clave, Integer> demanda = new TreeMap<>();
+        for (CompraDTO.ItemLoteResp r : res) {
+          if (!r.ok) continue;
+          if (r.idVueloPareja != null) {
+            VueloLote vp = vuelos.get(r.idVueloPareja);
+            if (vp == null || !vp.disponible()) { fallar(r, "Vuelo de regreso no disponible para compra"); continue; }
+            demanda.merge(new CompuertaCupo.Clave(r.idVueloPareja, r.idClase), r.cantidad, Integer::sum);
+          }
+          demanda.merge(new CompuertaCupo.Clave(r.idVuelo, r.idClase), r.cantidad, Integer::sum);
+        }
+
+        // Desde aquí hasta el commit se tienen las filas de SALIDA_CLASE del lote, en orden (vuelo, clase);
+        // la compuerta va antes de liberar vencidas, que ya bloquea la fila
+        if (!demanda.isEmpty()) paso = compuerta.entrar(demanda.keySet());
+        Map<CompuertaCupo.Clave, ClaseInfo> clases = demanda.isEmpty() ? Map.of() : leerClases(cn, demanda.keySet());
+        for (var d : demanda.entrySet()) {
+          CompuertaCupo.Clave k = d.getKey();
+          ClaseInfo info = clases.get(k);
+          if (info != null && info.disponible() < d.getValue()) {
+            RetencionesDAO.Liberacion l = retenciones.liberarVencidas(cn, k.idVuelo(), k.idClase(), LOTE_LIBERACION);
+            if (l.items() > 0) {
+              liberadas.add(l);
+              info = getClaseInfo(cn, k.idVuelo(), k.idClase(), false);
+              clases.put(k, info);
+            }
+          }
+          String error = info == null ? "Clase no disponible para esta salida"
+              : info.precio == null ? "No se encontró precio para la clase/vuelo."
+              : info.disponible() < d.getValue() ? "Cupo insuficiente: quedan " + Math.max(0, info.disponible())
+              : null;
+          if (error != null) fallarClave(res, k, error);
+        }
+
+        if (res.stream().anyMatch(r -> !r.ok)) {
+          cn.rollback();
+          return lote(res);
+        }
+
+        String carritoItemTable = DB.table("CARRITO_ITEM");
+        try (PreparedStatement ps = cn.prepareStatement(
+            "MERGE INTO " + carritoItemTable + " t " +
+            "USING (SELECT ? idc, ? idv, ? idcl FROM dual) s " +
+            "ON (t.ID_CARRITO = s.idc AND t.ID_VUELO = s.idv AND t.ID_CLASE = s.idcl) " +
+            "WHEN MATCHED THEN UPDATE SET t.CANTIDAD = t.CANTIDAD + ?, t.RETENIDO_EN = SYSTIMESTAMP " +
+            "WHEN NOT MATCHED THEN INSERT (ID_CARRITO, ID_VUELO, ID_CLASE, CANTIDAD, PRECIO_UNITARIO) " +
+            "VALUES (s.idc, s.idv, s.idcl, ?, ?)")) {
+          for (var d : demanda.entrySet()) {
+            ps.setLong(1, cartId);
+            ps.setLong(2, d.getKey().idVuelo());
+            ps.setInt(3, d.getKey().idClase());
+            ps.setInt(4, d.getValue());
+            ps.setInt(5, d.getValue());
+            ps.setBigDecimal(6, clases.get(d.getKey()).precio);
+            ps.addBatch();
+          }
+          ps.executeBatch();
+        }
+
+        Map<CompuertaCupo.Clave, Integer> restos = cuposTrasEscribir(cn, demanda.keySet());
+        for (var d : demanda.entrySet()) {
+          int resto = restos.getOrDefault(d.getKey(), -1);
+          if (resto < 0) fallarClave(res, d.getKey(), "Cupo insuficiente: quedan " + Math.max(0, resto + d.getValue()));
+        }
+        if (res.stream().anyMatch(r -> !r.ok)) {
+          cn.rollback();
+          return lote(res);
+        }
+
+        cn.commit();
+        contarLiberadas(liberadas);
+        return lote(res);
+      } catch (Exception ex) {
+        cn.rollback(); throw ex;
+      } finally {
+        cn.setAutoCommit(true);
+        soltarAlTerminar(paso);
+      }
+    }
+  }
+
+  private static void fallar(CompraDTO.ItemLoteResp r, String error) {
+    if (!r.ok) return;
+    r.ok = false;
+    r.error = error;
+  }
+
+  private static void fallarClave(List<CompraDTO.ItemLoteResp> res, CompuertaCupo.Clave k, String error) {
+    for (CompraDTO.ItemLoteResp r : res) {
+      if (r.idClase != k.idClase()) continue;
+      if (r.idVuelo == k.idVuelo()) fallar(r, error);
+      else if (r.idVueloPareja != null && r.idVueloPareja == k.idVuelo()) fallar(r, error.replace("Cupo insuficiente", "Cupo insuficiente en regreso"));
+    }
+  }
+
+  private static CompraDTO.LoteItemsResp lote(List<CompraDTO.ItemLoteResp> res) {
+    CompraDTO.LoteItemsResp l = new CompraDTO.LoteItemsResp();
+    l.items = res;
+    l.ok = res.stream().allMatch(r -> r.ok);
+    return l;
+  }
+
   public void updateQuantity(long userId, long idItem, int cantidad) throws Exception {
     updateQuantity(userId, idItem, cantidad, false);
   }
@@ -375,6 +671,8 @@ private static Connection getRealConnection() throws SQLException {
   public void updateQuantity(long userId, long idItem, int cantidad, boolean syncPareja) throws Exception {
     if (cantidad <= 0) throw new IllegalArgumentException("Cantidad debe ser > 0");
     long cartId = ensureCartForUser(userId);
+    List<RetencionesDAO.Liberacion> liberadas = new ArrayList<>();
+    CompuertaCupo.Paso paso = null;
 
     try (Connection cn = getConn()) {
       cn.setAutoCommit(false);
@@ -405,10 +703,12 @@ private static Connection getRealConnection() throws SQLException {
           }
         }
 
+        // Bajar también toca SALIDA_CLASE (TRG_CI_LEDGER), así que la compuerta va antes de escribir
+        paso = entrarCompuerta(idVuelo, parejaItemId != null ? parejaId : null, idClase);
 
         if (!aumentando) {
           try (PreparedStatement ps = cn.prepareStatement(
-              "UPDATE " + carritoItemTable + " SET CANTIDAD = ? WHERE ID_ITEM = ? AND ID_CARRITO = ?")) {
+              "UPDATE " + carritoItemTable + " SET CANTIDAD = ?, RETENIDO_EN = SYSTIMESTAMP WHERE ID_ITEM = ? AND ID_CARRITO = ?")) {
             ps.setInt(1, cantidad);
             ps.setLong(2, idItem);
             ps.setLong(3, cartId);
@@ -416,7 +716,7 @@ private static Connection getRealConnection() throws SQLException {
           }
           if (syncPareja && parejaItemId != null) {
             try (PreparedStatement ps = cn.prepareStatement(
-                "UPDATE " + carritoItemTable + " SET CANTIDAD = ? WHERE ID_ITEM = ? AND ID_CARRITO = ?")) {
+                "UPDATE " + carritoItemTable + " SET CANTIDAD = ?, RETENIDO_EN = SYSTIMESTAMP WHERE ID_ITEM = ? AND ID_CARRITO = ?")) {
               ps.setInt(1, cantidad);
               ps.setLong(2, parejaItemId);
               ps.setLong(3, cartId);
@@ -429,19 +729,19 @@ private static Connection getRealConnection() throws SQLException {
 
 
         validarVueloDisponible(cn, idVuelo);
-        ClaseInfo info = getClaseInfo(cn, idVuelo, idClase, true);
+        int delta = cantidad - cantActual;
+        ClaseInfo info = getClaseInfoConCupo(cn, idVuelo, idClase, delta, liberadas);
         if (info == null) throw new SQLException("Clase no disponible para esta salida");
 
-        int delta = cantidad - cantActual;
-        int disp = info.cupoTotal - getReservados(cn, idVuelo, idClase) - getEnCarritos(cn, idVuelo, idClase);
+        int disp = info.disponible();
         if (disp < delta) throw new SQLException("Cupo insuficiente: puedes subir hasta " + (cantActual + disp));
 
+        int cantActualP = 0;
         if (syncPareja && parejaId != null && parejaItemId != null) {
           validarVueloDisponible(cn, parejaId);
-          ClaseInfo infoP = getClaseInfo(cn, parejaId, idClase, true);
+          ClaseInfo infoP = getClaseInfo(cn, parejaId, idClase, false);
           if (infoP == null) throw new SQLException("Clase no disponible en el regreso");
 
-          int cantActualP;
           try (PreparedStatement ps = cn.prepareStatement(
               "SELECT CANTIDAD FROM " + carritoItemTable + " WHERE ID_ITEM=? AND ID_CARRITO=?")) {
             ps.setLong(1, parejaItemId);
@@ -450,34 +750,41 @@ private static Connection getRealConnection() throws SQLException {
           }
           int deltaP = cantidad - cantActualP;
           if (deltaP > 0) {
-            int dispP = infoP.cupoTotal - getReservados(cn, parejaId, idClase) - getEnCarritos(cn, parejaId, idClase);
+            int dispP = infoP.disponible();
             if (dispP < deltaP) throw new SQLException("Cupo insuficiente en regreso: puedes subir hasta " + (cantActualP + dispP));
           }
         }
 
-
         try (PreparedStatement ps = cn.prepareStatement(
-            "UPDATE " + carritoItemTable + " SET CANTIDAD = ? WHERE ID_ITEM = ? AND ID_CARRITO = ?")) {
+            "UPDATE " + carritoItemTable + " SET CANTIDAD = ?, RETENIDO_EN = SYSTIMESTAMP WHERE ID_ITEM = ? AND ID_CARRITO = ?")) {
           ps.setInt(1, cantidad);
           ps.setLong(2, idItem);
           ps.setLong(3, cartId);
           ps.executeUpdate();
         }
+        int resto = cupoTrasEscribir(cn, idVuelo, idClase);
+        if (resto < 0) throw new SQLException("Cupo insuficiente: puedes subir hasta " + (cantActual + Math.max(0, resto + delta)));
         if (syncPareja && parejaItemId != null) {
           try (PreparedStatement ps = cn.prepareStatement(
-              "UPDATE " + carritoItemTable + " SET CANTIDAD = ? WHERE ID_ITEM = ? AND ID_CARRITO = ?")) {
+              "UPDATE " + carritoItemTable + " SET CANTIDAD = ?, RETENIDO_EN = SYSTIMESTAMP WHERE ID_ITEM = ? AND ID_CARRITO = ?")) {
             ps.setInt(1, cantidad);
             ps.setLong(2, parejaItemId);
             ps.setLong(3, cartId);
             ps.executeUpdate();
           }
+          int restoP = cantidad > cantActualP ? cupoTrasEscribir(cn, parejaId, idClase) : 0;
+          if (restoP < 0) {
+            throw new SQLException("Cupo insuficiente en regreso: puedes subir hasta " + (cantActualP + Math.max(0, restoP + cantidad - cantActualP)));
+          }
         }
 
         cn.commit();
+        contarLiberadas(liberadas);
       } catch (Exception ex) {
         cn.rollback(); throw ex;
       } finally {
         cn.setAutoCommit(true);
+        soltarAlTerminar(paso);
       }
     }
   }
@@ -538,69 +845,67 @@ private static Connection getRealConnection() throws SQLException {
   }
 
   public long checkout(long userId) throws Exception {
+    return checkoutReserva(userId).idReserva;
+  }
+
+  /** Checkout en una sola llamada a PR_CHECKOUT_CARRITO_SET; devuelve ID y CODIGO de la reserva. */
+  public CompraDTO.CheckoutResp checkoutReserva(long userId) throws Exception {
     long cartId = ensureCartForUser(userId);
     try (Connection cn = getConn()) {
-      String carritoItemTable = DB.table("CARRITO_ITEM");
-      try (PreparedStatement ps = cn.prepareStatement(
-          "SELECT COUNT(*) FROM " + carritoItemTable + " WHERE ID_CARRITO = ?")) {
-        ps.setLong(1, cartId);
-        try (ResultSet rs = ps.executeQuery()) {
-          if (rs.next() && rs.getInt(1) == 0) {
-            throw new IllegalStateException("El carrito está vacío o ya fue procesado.");
-          }
-        }
-      }
-      long idGenerado;
-      String schema = DB.getSchema();
-      try (CallableStatement cs = cn.prepareCall("{ call " + schema + ".PR_CHECKOUT_CARRITO(?,?,?) }")) {
-        cs.setLong(1, userId);
-        cs.setLong(2, cartId);
-        cs.registerOutParameter(3, java.sql.Types.NUMERIC);
-        cs.execute();
-        idGenerado = cs.getLong(3);
-      }
-      return idGenerado;
+      return ejecutarCheckout(cn, userId, cartId);
     }
   }
 
   public long checkoutConClienteFinal(long userIdWebService, long userIdClienteFinal) throws Exception {
+    return checkoutConClienteFinalReserva(userIdWebService, userIdClienteFinal).idReserva;
+  }
+
+  public CompraDTO.CheckoutResp checkoutConClienteFinalReserva(long userIdWebService, long userIdClienteFinal) throws Exception {
     long cartIdWebService = ensureCartForUser(userIdWebService);
     try (Connection cn = getConn()) {
-      String carritoItemTable = DB.table("CARRITO_ITEM");
-      
-      
-      int itemCount = 0;
-      try (PreparedStatement ps = cn.prepareStatement(
-          "SELECT COUNT(*) FROM " + carritoItemTable + " WHERE ID_CARRITO = ?")) {
-        ps.setLong(1, cartIdWebService);
-        try (ResultSet rs = ps.executeQuery()) {
-          if (rs.next()) {
-            itemCount = rs.getInt(1);
-            if (itemCount == 0) {
-              throw new IllegalStateException("El carrito está vacío o ya fue procesado.");
-            }
-          }
-        }
-      }
-      
-      
       long cartIdClienteFinal = crearCarritoClienteFinal(cn, cartIdWebService, userIdClienteFinal);
-      System.out.println("[Checkout] Carrito creado para cliente final " + userIdClienteFinal + " con " + itemCount + " items");
-      
-      
-      long idGenerado;
-      String schema = DB.getSchema();
-      try (CallableStatement cs = cn.prepareCall("{ call " + schema + ".PR_CHECKOUT_CARRITO(?,?,?) }")) {
-        cs.setLong(1, userIdClienteFinal);
-        cs.setLong(2, cartIdClienteFinal);
-        cs.registerOutParameter(3, java.sql.Types.NUMERIC);
-        cs.execute();
-        idGenerado = cs.getLong(3);
+      System.out.println("[Checkout] Carrito creado para cliente final " + userIdClienteFinal);
+      return ejecutarCheckout(cn, userIdClienteFinal, cartIdClienteFinal);
+    }
+  }
+
+  private CompraDTO.CheckoutResp ejecutarCheckout(Connection cn, long userId, long cartId) throws SQLException {
+    String schema = DB.getSchema();
+    try (CallableStatement cs = cn.prepareCall("{ call " + schema + ".PR_CHECKOUT_CARRITO_SET(?,?,?,?) }")) {
+      cs.setLong(1, userId);
+      cs.setLong(2, cartId);
+      cs.registerOutParameter(3, java.sql.Types.NUMERIC);
+      String codigo = codigoNuevo(cn);
+      if (codigo != null) cs.setString(4, codigo); else cs.setNull(4, java.sql.Types.VARCHAR);
+      cs.registerOutParameter(4, java.sql.Types.VARCHAR);
+      cs.execute();
+      return new CompraDTO.CheckoutResp(cs.getLong(3), cs.getString(4));
+    } catch (SQLException e) {
+      // Errores de negocio del procedimiento (carrito vacío, sin cupo) salen sin el prefijo ORA
+      if (e.getErrorCode() == 20003 || e.getErrorCode() == 20004) {
+        throw new IllegalStateException(mensajeAplicacion(e), e);
       }
-      return idGenerado;
+      throw e;
+    }
+  }
+
+  // Sin código de la aplicación el trigger de RESERVA lo genera como antes
+  private String codigoNuevo(Connection cn) {
+    try {
+      return codigos.siguiente(cn);
+    } catch (Exception e) {
+      System.out.println("[Checkout] código de reserva por trigger: " + e.getMessage());
+      return null;
     }
   }
 
+  static String mensajeAplicacion(SQLException e) {
+    String msg = e.getMessage() == null ? "" : e.getMessage();
+    int fin = msg.indexOf('\n');
+    if (fin >= 0) msg = msg.substring(0, fin);
+    return msg.replaceFirst("^ORA-\\d+:\\s*", "").trim();
+  }
+
   private long crearCarritoClienteFinal(Connection cn, long cartIdWebService, long userIdClienteFinal) throws Exception {
     String carritoTable = DB.table("CARRITO");
     String carritoItemTable = DB.table("CARRITO_ITEM");
@@ -759,21 +1064,21 @@ private static Connection getRealConnection() throws SQLException {
           it.subtotal       = rs.getBigDecimal("SUBTOTAL");
 
     
-          setFieldIfExists(it, "paisOrigen",    rs.getString("PAIS_ORIGEN"));
-          setFieldIfExists(it, "paisDestino",   rs.getString("PAIS_DESTINO"));
-          setFieldIfExists(it, "ciudadOrigen",  rs.getString("CIUDAD_ORIGEN"));
-          setFieldIfExists(it, "ciudadDestino", rs.getString("CIUDAD_DESTINO"));
+          it.paisOrigen    = rs.getString("PAIS_ORIGEN");
+          it.paisDestino   = rs.getString("PAIS_DESTINO");
+          it.ciudadOrigen  = rs.getString("CIUDAD_ORIGEN");
+          it.ciudadDestino = rs.getString("CIUDAD_DESTINO");
 
     
-          setFieldIfExists(it, "regresoCodigo",        rs.getString("REGRESO_CODIGO"));
+          it.regresoCodigo        = rs.getString("REGRESO_CODIGO");
           Timestamp rsl = rs.getTimestamp("REGRESO_SALIDA");
           Timestamp rll = rs.getTimestamp("REGRESO_LLEGADA");
-          setFieldIfExists(it, "regresoFechaSalida",   rsl != null ? rsl.toInstant().toString() : null);
-          setFieldIfExists(it, "regresoFechaLlegada",  rll != null ? rll.toInstant().toString() : null);
-          setFieldIfExists(it, "regresoCiudadOrigen",  rs.getString("REGRESO_CIUDAD_ORIGEN"));
-          setFieldIfExists(it, "regresoPaisOrigen",    rs.getString("REGRESO_PAIS_ORIGEN"));
-          setFieldIfExists(it, "regresoCiudadDestino", rs.getString("REGRESO_CIUDAD_DESTINO"));
-          setFieldIfExists(it, "regresoPaisDestino",   rs.getString("REGRESO_PAIS_DESTINO"));
+          it.regresoFechaSalida   = rsl != null ? rsl.toInstant().toString() : null;
+          it.regresoFechaLlegada  = rll != null ? rll.toInstant().toString() : null;
+          it.regresoCiudadOrigen  = rs.getString("REGRESO_CIUDAD_ORIGEN");
+          it.regresoPaisOrigen    = rs.getString("REGRESO_PAIS_ORIGEN");
+          it.regresoCiudadDestino = rs.getString("REGRESO_CIUDAD_DESTINO");
+          it.regresoPaisDestino   = rs.getString("REGRESO_PAIS_DESTINO");
 
           det.items.add(it);
         }
@@ -788,8 +1093,26 @@ private static Connection getRealConnection() throws SQLException {
       String q, String usuario, String codigo, String vuelo,
       Timestamp desde, Timestamp hasta, Integer idEstado
   ) throws Exception {
+    return listReservasAdmin(q, usuario, codigo, vuelo, desde, hasta, idEstado, null, 0);
+  }
 
+  /** Keyset descendente sobre ID_RESERVA: {@code after} es el último ID ya entregado; {@code limit <= 0} no limita. */
+  public List<CompraDTO.ReservaListItem> listReservasAdmin(
+      String q, String usuario, String codigo, String vuelo,
+      Timestamp desde, Timestamp hasta, Integer idEstado,
+      Long after, int limit
+  ) throws Exception {
     var out = new ArrayList<CompraDTO.ReservaListItem>();
+    recorrerReservasAdmin(q, usuario, codigo, vuelo, desde, hasta, idEstado, after, limit, out::add);
+    return out;
+  }
+
+  /** Igual que listReservasAdmin pero emite cada reserva con el cursor abierto (exportaciones). */
+  public int recorrerReservasAdmin(
+      String q, String usuario, String codigo, String vuelo,
+      Timestamp desde, Timestamp hasta, Integer idEstado,
+      Long after, int limit, Emisor<CompraDTO.ReservaListItem> emisor
+  ) throws Exception {
 
     String reservaTable = DB.table("RESERVA");
     String usuarioTable = DB.table("USUARIO");
@@ -799,9 +1122,6 @@ private static Connection getRealConnection() throws SQLException {
     sb.append("SELECT r.ID_RESERVA, r.ID_USUARIO, r.ID_ESTADO, r.TOTAL, r.CREADA_EN, r.CODIGO FROM " + reservaTable + " r JOIN " + usuarioTable + " u ON u.ID_USUARIO = r.ID_USUARIO ");
 
     boolean joinVuelo = (vuelo != null && !vuelo.isBlank());
-    if (joinVuelo) {
-      sb.append("JOIN " + reservaItemTable + " ri ON ri.ID_RESERVA = r.ID_RESERVA JOIN " + vueloTable + " v ON v.ID_VUELO = ri.ID_VUELO ");
-    }
 
     sb.append(" WHERE 1=1 ");
 
@@ -841,12 +1161,14 @@ private static Connection getRealConnection() throws SQLException {
     }
 
     if (joinVuelo) {
+      // EXISTS en lugar de JOIN + GROUP BY: una fila por reserva sin agrupar todo el resultado
+      sb.append(" AND EXISTS (SELECT 1 FROM " + reservaItemTable + " ri JOIN " + vueloTable + " v ON v.ID_VUELO = ri.ID_VUELO WHERE ri.ID_RESERVA = r.ID_RESERVA ");
       try {
         long idVuelo = Long.parseLong(vuelo.trim());
-        sb.append(" AND v.ID_VUELO = ? ");
+        sb.append(" AND v.ID_VUELO = ? ) ");
         params.add(idVuelo);
       } catch (NumberFormatException nfe) {
-        sb.append(" AND LOWER(v.CODIGO) LIKE ? ");
+        sb.append(" AND LOWER(v.CODIGO) LIKE ? ) ");
         params.add("%" + vuelo.trim().toLowerCase() + "%");
       }
     }
@@ -859,11 +1181,18 @@ private static Connection getRealConnection() throws SQLException {
       params.add(idEstado);
     }
 
-    sb.append(" GROUP BY r.ID_RESERVA, r.ID_USUARIO, r.ID_ESTADO, r.TOTAL, r.CREADA_EN, r.CODIGO ");
+    if (after != null) {
+      sb.append(" AND r.ID_RESERVA < ? ");
+      params.add(after);
+    }
+
     sb.append(" ORDER BY r.ID_RESERVA DESC ");
+    if (limit > 0) sb.append(" FETCH FIRST ").append(limit).append(" ROWS ONLY ");
 
+    int emitidas = 0;
     try (Connection cn = getConn();
          PreparedStatement ps = cn.prepareStatement(sb.toString())) {
+      ps.setFetchSize(DB.fetchSize());
       for (int i = 0; i < params.size(); i++) ps.setObject(i + 1, params.get(i));
       try (ResultSet rs = ps.executeQuery()) {
         while (rs.next()) {
@@ -875,11 +1204,12 @@ private static Connection getRealConnection() throws SQLException {
           Timestamp ts = rs.getTimestamp("CREADA_EN");
           r.creadaEn  = ts != null ? ts.toInstant().toString() : null;
           r.codigo    = rs.getString("CODIGO");
-          out.add(r);
+          emisor.emitir(r);
+          emitidas++;
         }
       }
     }
-    return out;
+    return emitidas;
   }
 
   public CompraDTO.ReservaDetalle getReservaDetalleAdmin(long idReserva) throws Exception {
@@ -942,20 +1272,20 @@ private static Connection getRealConnection() throws SQLException {
           it.precioUnitario = rs.getBigDecimal("PRECIO_UNITARIO");
           it.subtotal       = rs.getBigDecimal("SUBTOTAL");
 
-          setFieldIfExists(it, "paisOrigen",    rs.getString("PAIS_ORIGEN"));
-          setFieldIfExists(it, "paisDestino",   rs.getString("PAIS_DESTINO"));
-          setFieldIfExists(it, "ciudadOrigen",  rs.getString("CIUDAD_ORIGEN"));
-          setFieldIfExists(it, "ciudadDestino", rs.getString("CIUDAD_DESTINO"));
+          it.paisOrigen    = rs.getString("PAIS_ORIGEN");
+          it.paisDestino   = rs.getString("PAIS_DESTINO");
+          it.ciudadOrigen  = rs.getString("CIUDAD_ORIGEN");
+          it.ciudadDestino = rs.getString("CIUDAD_DESTINO");
 
-          setFieldIfExists(it, "regresoCodigo",        rs.getString("REGRESO_CODIGO"));
+          it.regresoCodigo        = rs.getString("REGRESO_CODIGO");
           Timestamp rsl = rs.getTimestamp("REGRESO_SALIDA");
           Timestamp rll = rs.getTimestamp("REGRESO_LLEGADA");
-          setFieldIfExists(it, "regresoFechaSalida",   rsl != null ? rsl.toInstant().toString() : null);
-          setFieldIfExists(it, "regresoFechaLlegada",  rll != null ? rll.toInstant().toString() : null);
-          setFieldIfExists(it, "regresoCiudadOrigen",  rs.getString("REGRESO_CIUDAD_ORIGEN"));
-          setFieldIfExists(it, "regresoPaisOrigen",    rs.getString("REGRESO_PAIS_ORIGEN"));
-          setFieldIfExists(it, "regresoCiudadDestino", rs.getString("REGRESO_CIUDAD_DESTINO"));
-          setFieldIfExists(it, "regresoPaisDestino",   rs.getString("REGRESO_PAIS_DESTINO"));
+          it.regresoFechaSalida   = rsl != null ? rsl.toInstant().toString() : null;
+          it.regresoFechaLlegada  = rll != null ? rll.toInstant().toString() : null;
+          it.regresoCiudadOrigen  = rs.getString("REGRESO_CIUDAD_ORIGEN");
+          it.regresoPaisOrigen    = rs.getString("REGRESO_PAIS_ORIGEN");
+          it.regresoCiudadDestino = rs.getString("REGRESO_CIUDAD_DESTINO");
+          it.regresoPaisDestino   = rs.getString("REGRESO_PAIS_DESTINO");
 
           det.items.add(it);
         }
@@ -1072,6 +1402,14 @@ private static Connection getRealConnection() throws SQLException {
   }
 
   public int cancelarVueloYAfectarReservas(long idVuelo) throws Exception {
+    return cancelarVuelo(idVuelo).size();
+  }
+
+  /**
+   * Cancela el vuelo y todas sus reservas activas con un número fijo de sentencias, sin importar
+   * cuántos pasajeros tenga. Devuelve las reservas afectadas para avisar después del commit.
+   */
+  public List<Long> cancelarVuelo(long idVuelo) throws Exception {
     try (Connection cn = getConn()) {
       cn.setAutoCommit(false);
       try {
@@ -1085,54 +1423,9 @@ private static Connection getRealConnection() throws SQLException {
           ps.executeUpdate();
         }
 
-        List<Long> ids = new ArrayList<>();
-        String reservaTable = DB.table("RESERVA");
-        String reservaItemTable = DB.table("RESERVA_ITEM");
-        try (PreparedStatement ps = cn.prepareStatement(
-            "SELECT DISTINCT r.ID_RESERVA " +
-            "FROM " + reservaTable + " r " +
-            "JOIN " + reservaItemTable + " ri ON ri.ID_RESERVA = r.ID_RESERVA " +
-            "WHERE r.ID_ESTADO = 1 AND ri.ID_VUELO = ?")) {
-          ps.setLong(1, idVuelo);
-          try (ResultSet rs = ps.executeQuery()) {
-            while (rs.next()) ids.add(rs.getLong(1));
-          }
-        }
-
-        int updated = 0;
-        if (!ids.isEmpty()) {
-          String salidaClaseTable = DB.table("SALIDA_CLASE");
-          for (Long idRes : ids) {
-            try (PreparedStatement ps = cn.prepareStatement(
-                "SELECT ID_VUELO, ID_CLASE, COUNT(*) AS CANT " +
-                "FROM " + reservaItemTable + " WHERE ID_RESERVA = ? " +
-                "GROUP BY ID_VUELO, ID_CLASE")) {
-              ps.setLong(1, idRes);
-              try (ResultSet rs = ps.executeQuery()) {
-                try (PreparedStatement upd = cn.prepareStatement(
-                    "UPDATE " + salidaClaseTable + " SET CUPO_TOTAL = CUPO_TOTAL + ? WHERE ID_VUELO=? AND ID_CLASE=?")) {
-                  while (rs.next()) {
-                    upd.setInt(1, rs.getInt("CANT"));
-                    upd.setLong(2, rs.getLong("ID_VUELO"));
-                    upd.setInt(3, rs.getInt("ID_CLASE"));
-                    upd.addBatch();
-                  }
-                  upd.executeBatch();
-                }
-              }
-            }
-          }
-
-          String inSql = String.join(",", Collections.nCopies(ids.size(), "?"));
-          try (PreparedStatement ps = cn.prepareStatement(
-              "UPDATE " + reservaTable + " SET ID_ESTADO = 2 WHERE ID_RESERVA IN (" + inSql + ")")) {
-            for (int i = 0; i < ids.size(); i++) ps.setLong(i + 1, ids.get(i));
-            updated = ps.executeUpdate();
-          }
-        }
-
+        List<Long> ids = cancelarReservasDeVuelos(cn, "?", List.of(idVuelo));
         cn.commit();
-        return updated;
+        return ids;
       } catch (Exception ex) {
         cn.rollback();
         throw ex;
@@ -1142,6 +1435,71 @@ private static Connection getRealConnection() throws SQLException {
     }
   }
 
+  /**
+   * Dentro de la transacción del llamador, cancela las reservas activas con algún tramo en los
+   * vuelos de {@code vuelosSql} (una lista o subconsulta de ID_VUELO, con sus parámetros). Las
+   * reservas se bloquean y listan en una consulta y el cupo, los ítems y las reservas se
+   * actualizan por conjunto sobre esos mismos ids, en tramos de hasta MAX_IN: cuatro sentencias
+   * por cada mil reservas.
+   */
+  public List<Long> cancelarReservasDeVuelos(Connection cn, String vuelosSql, List<?> params) throws SQLException {
+    String reservaTable = DB.table("RESERVA");
+    String reservaItemTable = DB.table("RESERVA_ITEM");
+    String salidaClaseTable = DB.table("SALIDA_CLASE");
+    String afectadas =
+        "SELECT r.ID_RESERVA FROM " + reservaTable + " r WHERE r.ID_ESTADO = 1 AND EXISTS " +
+        "(SELECT 1 FROM " + reservaItemTable + " x WHERE x.ID_RESERVA = r.ID_RESERVA AND x.ID_VUELO IN (" + vuelosSql + "))";
+
+    List<Long> ids = new ArrayList<>();
+    try (PreparedStatement ps = cn.prepareStatement(afectadas + " FOR UPDATE")) {
+      enlazar(ps, params);
+      ps.setFetchSize(500);
+      try (ResultSet rs = ps.executeQuery()) {
+        while (rs.next()) ids.add(rs.getLong(1));
+      }
+    }
+    if (ids.isEmpty()) return ids;
+
+    // Las tres sentencias enlazan los ids ya bloqueados: volver a evaluar la subconsulta daría
+    // otra foto (read committed) y podría tocar reservas que no se bloquearon ni se avisan
+    for (int desde = 0; desde < ids.size(); desde += MAX_IN) {
+      List<Long> tramo = ids.subList(desde, Math.min(ids.size(), desde + MAX_IN));
+      String in = String.join(",", Collections.nCopies(tramo.size(), "?"));
+
+      // Devuelve el cupo de todos los tramos de esas reservas, agrupado por salida y clase
+      try (PreparedStatement ps = cn.prepareStatement(
+          "MERGE INTO " + salidaClaseTable + " sc " +
+          "USING (SELECT ri.ID_VUELO, ri.ID_CLASE, COUNT(*) AS CANT FROM " + reservaItemTable + " ri " +
+          "WHERE ri.ID_RESERVA IN (" + in + ") GROUP BY ri.ID_VUELO, ri.ID_CLASE) c " +
+          "ON (sc.ID_VUELO = c.ID_VUELO AND sc.ID_CLASE = c.ID_CLASE) " +
+          "WHEN MATCHED THEN UPDATE SET sc.CUPO_TOTAL = sc.CUPO_TOTAL + c.CANT")) {
+        enlazarIds(ps, tramo);
+        ps.executeUpdate();
+      }
+
+      try (PreparedStatement ps = cn.prepareStatement(
+          "UPDATE " + reservaItemTable + " SET ID_ESTADO_RESERVA = 2 WHERE ID_RESERVA IN (" + in + ")")) {
+        enlazarIds(ps, tramo);
+        ps.executeUpdate();
+      }
+
+      try (PreparedStatement ps = cn.prepareStatement(
+          "UPDATE " + reservaTable + " SET ID_ESTADO = 2 WHERE ID_RESERVA IN (" + in + ")")) {
+        enlazarIds(ps, tramo);
+        ps.executeUpdate();
+      }
+    }
+    return ids;
+  }
+
+  private static void enlazarIds(PreparedStatement ps, List<Long> ids) throws SQLException {
+    for (int i = 0; i < ids.size(); i++) ps.setLong(i + 1, ids.get(i));
+  }
+
+  private static void enlazar(PreparedStatement ps, List<?> params) throws SQLException {
+    for (int i = 0; i < params.size(); i++) ps.setObject(i + 1, params.get(i));
+  }
+
   public List<CompraDTO.TopDestino> listTopDestinos(
     java.sql.Timestamp desde,
     java.sql.Timestamp hasta,
@@ -0,0 +1,137 @@
+package com.aerolineas.dao;
+
+import com.aerolineas.config.Entorno;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Compuerta en la JVM por (vuelo, clase) delante del bloqueo de fila de SALIDA_CLASE. En una
+ * venta masiva los compradores de la misma clase esperan aquí, en orden y sin ocupar el bloqueo
+ * de la base, y solo uno a la vez hace el MERGE + verificación de cupo.
+ * Las franjas son fijas: dos claves pueden compartir franja, lo que solo agrega algo de espera.
+ */
+public final class CompuertaCupo {
+
+  @FunctionalInterface
+  public interface Paso extends AutoCloseable {
+    @Override
+    void close();
+  }
+
+  public record Clave(long idVuelo, int idClase) implements Comparable<Clave> {
+    @Override
+    public int compareTo(Clave o) {
+      int c = Long.compare(idVuelo, o.idVuelo);
+      return c != 0 ? c : Integer.compare(idClase, o.idClase);
+    }
+  }
+
+  private static volatile CompuertaCupo global;
+
+  private final ReentrantLock[] franjas;
+  private final long esperaMaxMs;
+
+  private final LongAdder entradas = new LongAdder();
+  private final LongAdder esperas = new LongAdder();
+  private final LongAdder rechazos = new LongAdder();
+  private final LongAdder esperaTotalNs = new LongAdder();
+  private final LongAccumulator esperaMaxNs = new LongAccumulator(Math::max, 0);
+
+  public CompuertaCupo(int franjas, long esperaMaxMs) {
+    this.franjas = new ReentrantLock[Math.max(1, franjas)];
+    for (int i = 0; i < this.franjas.length; i++) this.franjas[i] = new ReentrantLock(true);
+    this.esperaMaxMs = esperaMaxMs;
+  }
+
+  public static CompuertaCupo global() {
+    if (global == null) {
+      synchronized (CompuertaCupo.class) {
+        if (global == null) {
+          global = new CompuertaCupo((int) Entorno.numero("CUPO_COMPUERTA_FRANJAS", 256), Entorno.numero("CUPO_COMPUERTA_ESPERA_MS", 5000));
+        }
+      }
+    }
+    return global;
+  }
+
+  int franja(long idVuelo, int idClase) {
+    return Math.floorMod(Long.hashCode(idVuelo * 31 + idClase), franjas.length);
+  }
+
+  /** Espera turno para la clase; si no llega en CUPO_COMPUERTA_ESPERA_MS se rechaza la compra. */
+  public Paso entrar(long idVuelo, int idClase) throws SQLException {
+    ReentrantLock lock = franjas[franja(idVuelo, idClase)];
+    tomar(lock);
+    return lock::unlock;
+  }
+
+  /**
+   * Turno para varias clases a la vez (carrito por lote). Las franjas se toman en orden ascendente,
+   * así dos lotes que se cruzan no se bloquean entre sí; si una no llega se sueltan las ya tomadas.
+   */
+  public Paso entrar(Collection<Clave> claves) throws SQLException {
+    TreeSet<Integer> indices = new TreeSet<>();
+    for (Clave c : claves) indices.add(franja(c.idVuelo(), c.idClase()));
+    Deque<ReentrantLock> tomadas = new ArrayDeque<>();
+    try {
+      for (int i : indices) {
+        tomar(franjas[i]);
+        tomadas.push(franjas[i]);
+      }
+    } catch (SQLException e) {
+      while (!tomadas.isEmpty()) tomadas.pop().unlock();
+      throw e;
+    }
+    return () -> { while (!tomadas.isEmpty()) tomadas.pop().unlock(); };
+  }
+
+  private void tomar(ReentrantLock lock) throws SQLException {
+    entradas.increment();
+    if (lock.tryLock()) return;
+
+    esperas.increment();
+    long t0 = System.nanoTime();
+    boolean ok;
+    try {
+      ok = lock.tryLock(esperaMaxMs, TimeUnit.MILLISECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      ok = false;
+    }
+    long espera = System.nanoTime() - t0;
+    esperaTotalNs.add(espera);
+    esperaMaxNs.accumulate(espera);
+    if (!ok) {
+      rechazos.increment();
+      throw new SQLException("Hay mucha demanda en este vuelo, intenta de nuevo en unos segundos.");
+    }
+  }
+
+  public Map<String, Object> stats() {
+    long esp = esperas.sum();
+    Map<String, Object> m = new LinkedHashMap<>();
+    m.put("franjas", franjas.length);
+    m.put("entradas", entradas.sum());
+    m.put("esperas", esp);
+    m.put("rechazos", rechazos.sum());
+    m.put("esperaPromedioMs", esp == 0 ? 0.0 : esperaTotalNs.sum() / 1e6 / esp);
+    m.put("esperaMaxMs", esperaMaxNs.get() / 1e6);
+    int ocupadas = 0, enCola = 0;
+    for (ReentrantLock l : franjas) {
+      if (l.isLocked()) ocupadas++;
+      enCola += l.getQueueLength();
+    }
+    m.put("ocupadas", ocupadas);
+    m.put("enCola", enCola);
+    return m;
+  }
+}
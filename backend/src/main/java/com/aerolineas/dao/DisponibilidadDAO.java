@@ -0,0 +1,170 @@
+package com.aerolineas.dao;
+
+import com.aerolineas.config.DB;
+import com.aerolineas.dto.DisponibilidadDTO;
+
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Contadores RESERVADOS / EN_CARRITO de SALIDA_CLASE.
+ * Los mantienen los triggers TRG_CI_LEDGER, TRG_RI_LEDGER y TRG_RESERVA_LEDGER;
+ * aquí solo se detecta y repara el desfase contra RESERVA_ITEM / CARRITO_ITEM.
+ */
+public class DisponibilidadDAO {
+
+  /** Disponible por vuelo y clase, leído del ledger sin contar retenciones de carrito vencidas. */
+  public Map<Long, Map<Integer, Integer>> disponibles() throws SQLException {
+    String salidaClaseTable = DB.table("SALIDA_CLASE");
+    String sql = "SELECT sc.ID_VUELO, sc.ID_CLASE, " + RetencionesDAO.disponibleSql("sc") + " AS DISPONIBLE FROM " + salidaClaseTable + " sc";
+    Map<Long, Map<Integer, Integer>> out = new HashMap<>();
+    try (Connection cn = DB.getConnection();
+         PreparedStatement ps = cn.prepareStatement(sql);
+         ResultSet rs = ps.executeQuery()) {
+      while (rs.next()) {
+        out.computeIfAbsent(rs.getLong("ID_VUELO"), k -> new HashMap<>())
+           .put(rs.getInt("ID_CLASE"), rs.getInt("DISPONIBLE"));
+      }
+    }
+    return out;
+  }
+
+  public List<DisponibilidadDTO.Desfase> detectarDesfases(Long idVuelo) throws SQLException {
+    String salidaClaseTable = DB.table("SALIDA_CLASE");
+    String reservaItemTable = DB.table("RESERVA_ITEM");
+    String reservaTable = DB.table("RESERVA");
+    String carritoItemTable = DB.table("CARRITO_ITEM");
+    String sql =
+        "SELECT sc.ID_VUELO, sc.ID_CLASE, NVL(sc.RESERVADOS,0) AS RESERVADOS, NVL(sc.EN_CARRITO,0) AS EN_CARRITO, " +
+        "NVL(rr.CNT,0) AS RESERVADOS_REAL, NVL(cc.CANT,0) AS EN_CARRITO_REAL " +
+        "FROM " + salidaClaseTable + " sc " +
+        "LEFT JOIN (SELECT ri.ID_VUELO, ri.ID_CLASE, COUNT(*) AS CNT FROM " + reservaItemTable + " ri " +
+        "JOIN " + reservaTable + " r ON r.ID_RESERVA = ri.ID_RESERVA WHERE r.ID_ESTADO = 1 " +
+        "GROUP BY ri.ID_VUELO, ri.ID_CLASE) rr ON rr.ID_VUELO = sc.ID_VUELO AND rr.ID_CLASE = sc.ID_CLASE " +
+        "LEFT JOIN (SELECT ID_VUELO, ID_CLASE, SUM(CANTIDAD) AS CANT FROM " + carritoItemTable + " " +
+        "GROUP BY ID_VUELO, ID_CLASE) cc ON cc.ID_VUELO = sc.ID_VUELO AND cc.ID_CLASE = sc.ID_CLASE " +
+        "WHERE (NVL(sc.RESERVADOS,0) <> NVL(rr.CNT,0) OR NVL(sc.EN_CARRITO,0) <> NVL(cc.CANT,0))" +
+        (idVuelo != null ? " AND sc.ID_VUELO = ?" : "") +
+        " ORDER BY sc.ID_VUELO, sc.ID_CLASE";
+
+    List<DisponibilidadDTO.Desfase> out = new ArrayList<>();
+    try (Connection cn = DB.getConnection();
+         PreparedStatement ps = cn.prepareStatement(sql)) {
+      if (idVuelo != null) ps.setLong(1, idVuelo);
+      try (ResultSet rs = ps.executeQuery()) {
+        while (rs.next()) {
+          out.add(new DisponibilidadDTO.Desfase(
+              rs.getLong("ID_VUELO"),
+              rs.getInt("ID_CLASE"),
+              rs.getInt("RESERVADOS"),
+              rs.getInt("EN_CARRITO"),
+              rs.getInt("RESERVADOS_REAL"),
+              rs.getInt("EN_CARRITO_REAL")
+          ));
+        }
+      }
+    }
+    return out;
+  }
+
+  public List<DisponibilidadDTO.Desfase> reconciliar(Long idVuelo) throws SQLException {
+    List<DisponibilidadDTO.Desfase> reparados = new ArrayList<>();
+    List<DisponibilidadDTO.Desfase> candidatos = detectarDesfases(idVuelo);
+    if (candidatos.isEmpty()) return reparados;
+
+    String salidaClaseTable = DB.table("SALIDA_CLASE");
+    try (Connection cn = DB.getConnection()) {
+      cn.setAutoCommit(false);
+      try {
+        for (var d : candidatos) {
+          int reservados;
+          int enCarrito;
+          // Con la fila bloqueada, cualquier cambio concurrente ya pasó por su trigger y está confirmado
+          try (PreparedStatement ps = cn.prepareStatement(
+              "SELECT NVL(RESERVADOS,0) AS RESERVADOS, NVL(EN_CARRITO,0) AS EN_CARRITO FROM " + salidaClaseTable +
+              " WHERE ID_VUELO=? AND ID_CLASE=? FOR UPDATE")) {
+            ps.setLong(1, d.idVuelo());
+            ps.setInt(2, d.idClase());
+            try (ResultSet rs = ps.executeQuery()) {
+              if (!rs.next()) continue;
+              reservados = rs.getInt("RESERVADOS");
+              enCarrito = rs.getInt("EN_CARRITO");
+            }
+          }
+          int reservadosReal = contarReservados(cn, d.idVuelo(), d.idClase());
+          int enCarritoReal = contarEnCarritos(cn, d.idVuelo(), d.idClase());
+          if (reservados == reservadosReal && enCarrito == enCarritoReal) continue;
+
+          try (PreparedStatement ps = cn.prepareStatement(
+              "UPDATE " + salidaClaseTable + " SET RESERVADOS=?, EN_CARRITO=? WHERE ID_VUELO=? AND ID_CLASE=?")) {
+            ps.setInt(1, reservadosReal);
+            ps.setInt(2, enCarritoReal);
+            ps.setLong(3, d.idVuelo());
+            ps.setInt(4, d.idClase());
+            ps.executeUpdate();
+          }
+          reparados.add(new DisponibilidadDTO.Desfase(
+              d.idVuelo(), d.idClase(), reservados, enCarrito, reservadosReal, enCarritoReal));
+        }
+        cn.commit();
+      } catch (SQLException e) {
+        cn.rollback();
+        throw e;
+      } finally {
+        cn.setAutoCommit(true);
+      }
+    }
+    for (var d : reparados) {
+      System.out.println("[Disponibilidad] desfase reparado vuelo=" + d.idVuelo() + " clase=" + d.idClase()
+          + " reservados " + d.reservadosLedger() + "->" + d.reservadosReal()
+          + " enCarrito " + d.enCarritoLedger() + "->" + d.enCarritoReal());
+    }
+    return reparados;
+  }
+
+  /** Recalcula los contadores de un vuelo dentro de la transacción del llamador (p.ej. tras reinsertar SALIDA_CLASE). */
+  public void recalcularVuelo(Connection cn, long idVuelo) throws SQLException {
+    String salidaClaseTable = DB.table("SALIDA_CLASE");
+    String reservaItemTable = DB.table("RESERVA_ITEM");
+    String reservaTable = DB.table("RESERVA");
+    String carritoItemTable = DB.table("CARRITO_ITEM");
+    try (PreparedStatement ps = cn.prepareStatement(
+        "UPDATE " + salidaClaseTable + " sc SET " +
+        "sc.RESERVADOS = (SELECT COUNT(*) FROM " + reservaItemTable + " ri JOIN " + reservaTable + " r ON r.ID_RESERVA = ri.ID_RESERVA " +
+        "WHERE ri.ID_VUELO = sc.ID_VUELO AND ri.ID_CLASE = sc.ID_CLASE AND r.ID_ESTADO = 1), " +
+        "sc.EN_CARRITO = (SELECT NVL(SUM(ci.CANTIDAD),0) FROM " + carritoItemTable + " ci " +
+        "WHERE ci.ID_VUELO = sc.ID_VUELO AND ci.ID_CLASE = sc.ID_CLASE) " +
+        "WHERE sc.ID_VUELO = ?")) {
+      ps.setLong(1, idVuelo);
+      ps.executeUpdate();
+    }
+  }
+
+  private int contarReservados(Connection cn, long idVuelo, int idClase) throws SQLException {
+    String reservaItemTable = DB.table("RESERVA_ITEM");
+    String reservaTable = DB.table("RESERVA");
+    try (PreparedStatement ps = cn.prepareStatement(
+        "SELECT NVL(COUNT(*),0) FROM " + reservaItemTable + " ri " +
+        "JOIN " + reservaTable + " r ON r.ID_RESERVA = ri.ID_RESERVA " +
+        "WHERE ri.ID_VUELO=? AND ri.ID_CLASE=? AND r.ID_ESTADO=1")) {
+      ps.setLong(1, idVuelo);
+      ps.setInt(2, idClase);
+      try (ResultSet rs = ps.executeQuery()) { if (rs.next()) return rs.getInt(1); }
+    }
+    return 0;
+  }
+
+  private int contarEnCarritos(Connection cn, long idVuelo, int idClase) throws SQLException {
+    String carritoItemTable = DB.table("CARRITO_ITEM");
+    try (PreparedStatement ps = cn.prepareStatement(
+        "SELECT NVL(SUM(CANTIDAD),0) FROM " + carritoItemTable + " WHERE ID_VUELO=? AND ID_CLASE=?")) {
+      ps.setLong(1, idVuelo);
+      ps.setInt(2, idClase);
+      try (ResultSet rs = ps.executeQuery()) { if (rs.next()) return rs.getInt(1); }
+    }
+    return 0;
+  }
+}
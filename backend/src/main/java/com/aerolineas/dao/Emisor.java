@@ -0,0 +1,9 @@
+package com.aerolineas.dao;
+
+import java.io.IOException;
+
+/** Recibe cada fila mapeada mientras el cursor sigue abierto (listados en streaming). */
+@FunctionalInterface
+public interface Emisor<T> {
+  void emitir(T fila) throws IOException;
+}
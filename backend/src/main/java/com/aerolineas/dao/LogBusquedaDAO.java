@@ -0,0 +1,81 @@
+package com.aerolineas.dao;
+
+import com.aerolineas.config.DB;
+import com.aerolineas.dto.BusquedaDTO;
+
+import java.sql.*;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Set;
+
+public class LogBusquedaDAO {
+
+  /** Valores que admite CHK_SEARCH_TIPO_VIAJE. */
+  public static final Set<String> TIPOS_VIAJE = Set.of("ida_vuelta", "solo_ida");
+
+  /**
+   * Inserta los logs válidos en un solo batch y devuelve cuántos escribió; los que violarían
+   * un CHECK o el tamaño de una columna se omiten para no tumbar el lote entero.
+   */
+  public int insertarLote(List<BusquedaDTO.Log> logs) throws SQLException {
+    if (logs == null || logs.isEmpty()) return 0;
+    List<BusquedaDTO.Log> validos = logs.stream().filter(LogBusquedaDAO::valido).toList();
+    if (validos.size() < logs.size()) {
+      System.out.println("[LogsBusqueda] " + (logs.size() - validos.size()) + " log(s) inválido(s) omitido(s)");
+    }
+    if (validos.isEmpty()) return 0;
+    String logsTable = DB.table("LOGS_BUSQUEDA");
+    String sql = "INSERT INTO " + logsTable + " (ID_USUARIO, TIPO_VIAJE, CIUDAD_ORIGEN, CIUDAD_DESTINO, " +
+        "FECHA_SALIDA_DESDE, FECHA_SALIDA_HASTA, FECHA_REGRESO_DESDE, FECHA_REGRESO_HASTA, " +
+        "ID_CLASE, BOLETOS, VUELO_DIRECTO, CANTIDAD_RESULTADOS, RESULTADOS, FUENTE_BUSQUEDA) " +
+        "VALUES (?,?,?,?,?,?,?,?,?,?,?,?,?,?)";
+    try (Connection cn = DB.getConnection()) {
+      cn.setAutoCommit(false);
+      try (PreparedStatement ps = cn.prepareStatement(sql)) {
+        for (BusquedaDTO.Log l : validos) {
+          if (l.idUsuario() == null) ps.setNull(1, Types.NUMERIC); else ps.setLong(1, l.idUsuario());
+          ps.setString(2, l.tipoViaje());
+          ps.setString(3, recortar(l.ciudadOrigen(), 100));
+          ps.setString(4, recortar(l.ciudadDestino(), 100));
+          setFecha(ps, 5, l.desde());
+          setFecha(ps, 6, l.hasta());
+          setFecha(ps, 7, l.regresoDesde());
+          setFecha(ps, 8, l.regresoHasta());
+          if (l.idClase() == null) ps.setNull(9, Types.NUMERIC); else ps.setInt(9, l.idClase());
+          ps.setInt(10, l.boletos());
+          ps.setInt(11, l.directo() ? 1 : 0);
+          ps.setInt(12, l.cantidadResultados());
+          ps.setInt(13, l.cantidadResultados() > 0 ? 1 : 0);
+          ps.setString(14, l.fuente());
+          ps.addBatch();
+        }
+        ps.executeBatch();
+        cn.commit();
+        return validos.size();
+      } catch (SQLException e) {
+        cn.rollback();
+        throw e;
+      } finally {
+        cn.setAutoCommit(true);
+      }
+    }
+  }
+
+  static boolean valido(BusquedaDTO.Log l) {
+    return l != null
+        && TIPOS_VIAJE.contains(l.tipoViaje())
+        && (l.idUsuario() == null || (l.idUsuario() >= 0 && l.idUsuario() < 10_000_000_000L))
+        && (l.idClase() == null || (l.idClase() >= 0 && l.idClase() < 100))
+        && l.boletos() >= 0 && l.boletos() < 100
+        && l.cantidadResultados() >= 0 && l.cantidadResultados() < 1_000_000
+        && (l.fuente() == null || l.fuente().length() <= 12);
+  }
+
+  private static void setFecha(PreparedStatement ps, int idx, LocalDate fecha) throws SQLException {
+    if (fecha == null) ps.setNull(idx, Types.DATE); else ps.setDate(idx, Date.valueOf(fecha));
+  }
+
+  private static String recortar(String s, int max) {
+    return s == null || s.length() <= max ? s : s.substring(0, max);
+  }
+}
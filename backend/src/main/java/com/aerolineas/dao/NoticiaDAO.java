@@ -15,25 +15,46 @@ public class NoticiaDAO {
     try (Connection cn = DB.getConnection();
          PreparedStatement ps = cn.prepareStatement(sql);
          ResultSet rs = ps.executeQuery()) {
-      while (rs.next()) {
-        NoticiaDTO n = new NoticiaDTO();
-        n.idNoticia = rs.getLong("ID_NOTICIA");
-        n.titulo = rs.getString("TITULO");
-        n.contenido = rs.getString("CONTENIDO");
-
-        Timestamp ts = rs.getTimestamp("FECHA_PUBLICACION");
-        n.fechaPublicacion = (ts != null ? ts.toLocalDateTime() : null);
-
-        int ord = rs.getInt("ORDEN");
-        n.orden = rs.wasNull() ? null : ord;
+      while (rs.next()) out.add(mapear(rs));
+    }
+    return out;
+  }
 
-        n.urlImagen = rs.getString("URL_IMAGEN");
-        out.add(n);
+  /** Página keyset por ID_NOTICIA descendente (las más recientes primero). */
+  public List<NoticiaDTO> listar(Long after, int limit) throws SQLException {
+    String noticiasTable = DB.table("NOTICIAS");
+    String sql = "SELECT ID_NOTICIA, TITULO, DBMS_LOB.SUBSTR(CONTENIDO, 4000, 1) AS CONTENIDO, FECHA_PUBLICACION, ORDEN, URL_IMAGEN FROM " + noticiasTable
+        + (after != null ? " WHERE ID_NOTICIA < ?" : "")
+        + " ORDER BY ID_NOTICIA DESC FETCH FIRST ? ROWS ONLY";
+    List<NoticiaDTO> out = new ArrayList<>();
+    try (Connection cn = DB.getConnection();
+         PreparedStatement ps = cn.prepareStatement(sql)) {
+      int i = 1;
+      if (after != null) ps.setLong(i++, after);
+      ps.setInt(i, limit);
+      try (ResultSet rs = ps.executeQuery()) {
+        while (rs.next()) out.add(mapear(rs));
       }
     }
     return out;
   }
 
+  private static NoticiaDTO mapear(ResultSet rs) throws SQLException {
+    NoticiaDTO n = new NoticiaDTO();
+    n.idNoticia = rs.getLong("ID_NOTICIA");
+    n.titulo = rs.getString("TITULO");
+    n.contenido = rs.getString("CONTENIDO");
+
+    Timestamp ts = rs.getTimestamp("FECHA_PUBLICACION");
+    n.fechaPublicacion = (ts != null ? ts.toLocalDateTime() : null);
+
+    int ord = rs.getInt("ORDEN");
+    n.orden = rs.wasNull() ? null : ord;
+
+    n.urlImagen = rs.getString("URL_IMAGEN");
+    return n;
+  }
+
   public NoticiaDTO obtenerPorId(long idNoticia) throws SQLException {
     String noticiasTable = DB.table("NOTICIAS");
     String sql = "SELECT ID_NOTICIA, TITULO, DBMS_LOB.SUBSTR(CONTENIDO, 4000, 1) AS CONTENIDO, FECHA_PUBLICACION, ORDEN, URL_IMAGEN FROM " + noticiasTable + " WHERE ID_NOTICIA = ?";
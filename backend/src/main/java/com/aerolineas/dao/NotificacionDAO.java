@@ -0,0 +1,208 @@
+package com.aerolineas.dao;
+
+import com.aerolineas.config.DB;
+import com.aerolineas.dto.NotificacionDTO;
+
+import java.io.IOException;
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+public class NotificacionDAO {
+
+  public long crear(long idVuelo, String tipo, String motivo) throws SQLException {
+    String notificacionTable = DB.table("NOTIFICACION");
+    String sql = "INSERT INTO " + notificacionTable + " (ID_VUELO, TIPO, MOTIVO) VALUES (?,?,?)";
+    try (Connection cn = DB.getConnection();
+         PreparedStatement ps = cn.prepareStatement(sql, new String[]{"ID_NOTIFICACION"})) {
+      ps.setLong(1, idVuelo);
+      ps.setString(2, tipo);
+      ps.setString(3, motivo == null || motivo.length() <= 500 ? motivo : motivo.substring(0, 500));
+      ps.executeUpdate();
+      try (ResultSet rs = ps.getGeneratedKeys()) {
+        if (rs.next()) return rs.getLong(1);
+      }
+    }
+    throw new SQLException("No se generó ID_NOTIFICACION");
+  }
+
+  /**
+   * Una fila por reserva PAGADA (ID_ESTADO = 1) del vuelo, de usuarios habilitados: los pasajeros
+   * a los que afecta el cambio. Se lee en streaming para no cargar toda la lista.
+   */
+  public int recorrerDestinatarios(long idVuelo, Emisor<NotificacionDTO.Destinatario> emisor) throws SQLException, IOException {
+    String reservaItemTable = DB.table("RESERVA_ITEM");
+    String reservaTable = DB.table("RESERVA");
+    String usuarioTable = DB.table("USUARIO");
+    final String sql = "SELECT DISTINCT r.ID_RESERVA, u.ID_USUARIO, u.EMAIL, u.NOMBRES, u.APELLIDOS FROM " + reservaItemTable + " ri JOIN " + reservaTable + " r ON r.ID_RESERVA = ri.ID_RESERVA JOIN " + usuarioTable + " u ON u.ID_USUARIO = r.ID_USUARIO WHERE ri.ID_VUELO = ? AND r.ID_ESTADO = 1 AND NVL(u.HABILITADO,1) = 1";
+
+    int n = 0;
+    try (Connection cn = DB.getConnection();
+         PreparedStatement ps = cn.prepareStatement(sql)) {
+      ps.setFetchSize(DB.fetchSize());
+      ps.setLong(1, idVuelo);
+      try (ResultSet rs = ps.executeQuery()) {
+        while (rs.next()) {
+          emisor.emitir(new NotificacionDTO.Destinatario(
+              rs.getLong("ID_RESERVA"),
+              rs.getLong("ID_USUARIO"),
+              safe(rs.getString("EMAIL")),
+              safe(rs.getString("NOMBRES")),
+              safe(rs.getString("APELLIDOS"))
+          ));
+          n++;
+        }
+      }
+    }
+    return n;
+  }
+
+  /**
+   * Destinatarios de una cancelación masiva: solo las {@code reservas} que esa operación canceló,
+   * con sus tramos en los vuelos (hasta 1000, el límite de un IN), ordenados por usuario para que
+   * quien llama junte todos los tramos de un pasajero en un aviso. Se leen las CANCELADA de los
+   * vuelos y el conjunto se filtra aquí, así el IN queda acotado a los vuelos.
+   */
+  public int recorrerDestinatariosDeVuelos(List<Long> vuelos, Set<Long> reservas,
+                                           Emisor<NotificacionDTO.DestinatarioVuelo> emisor) throws SQLException, IOException {
+    if (vuelos == null || vuelos.isEmpty() || reservas == null || reservas.isEmpty()) return 0;
+    String reservaItemTable = DB.table("RESERVA_ITEM");
+    String reservaTable = DB.table("RESERVA");
+    String usuarioTable = DB.table("USUARIO");
+    final String sql = "SELECT DISTINCT ri.ID_VUELO, r.ID_RESERVA, u.ID_USUARIO, u.EMAIL, u.NOMBRES, u.APELLIDOS FROM " + reservaItemTable + " ri JOIN " + reservaTable + " r ON r.ID_RESERVA = ri.ID_RESERVA JOIN " + usuarioTable + " u ON u.ID_USUARIO = r.ID_USUARIO WHERE ri.ID_VUELO IN (" + String.join(",", Collections.nCopies(vuelos.size(), "?")) + ") AND r.ID_ESTADO = 2 AND NVL(u.HABILITADO,1) = 1 ORDER BY u.ID_USUARIO, ri.ID_VUELO, r.ID_RESERVA";
+
+    int n = 0;
+    try (Connection cn = DB.getConnection();
+         PreparedStatement ps = cn.prepareStatement(sql)) {
+      ps.setFetchSize(DB.fetchSize());
+      for (int i = 0; i < vuelos.size(); i++) ps.setLong(i + 1, vuelos.get(i));
+      try (ResultSet rs = ps.executeQuery()) {
+        while (rs.next()) {
+          long idReserva = rs.getLong("ID_RESERVA");
+          if (!reservas.contains(idReserva)) continue;
+          emisor.emitir(new NotificacionDTO.DestinatarioVuelo(rs.getLong("ID_VUELO"), new NotificacionDTO.Destinatario(
+              idReserva,
+              rs.getLong("ID_USUARIO"),
+              safe(rs.getString("EMAIL")),
+              safe(rs.getString("NOMBRES")),
+              safe(rs.getString("APELLIDOS"))
+          )));
+          n++;
+        }
+      }
+    }
+    return n;
+  }
+
+  public int registrarPendientes(long idNotificacion, List<NotificacionDTO.Destinatario> lote) throws SQLException {
+    if (lote == null || lote.isEmpty()) return 0;
+    String envioTable = DB.table("NOTIFICACION_ENVIO");
+    String sql = "INSERT INTO " + envioTable + " (ID_NOTIFICACION, ID_RESERVA, ID_USUARIO, EMAIL, ESTADO) VALUES (?,?,?,?,?)";
+    try (Connection cn = DB.getConnection()) {
+      cn.setAutoCommit(false);
+      try (PreparedStatement ps = cn.prepareStatement(sql)) {
+        for (NotificacionDTO.Destinatario d : lote) {
+          ps.setLong(1, idNotificacion);
+          ps.setLong(2, d.idReserva());
+          ps.setLong(3, d.idUsuario());
+          ps.setString(4, d.email());
+          ps.setString(5, NotificacionDTO.PENDIENTE);
+          ps.addBatch();
+        }
+        ps.executeBatch();
+        cn.commit();
+        return lote.size();
+      } catch (SQLException e) {
+        cn.rollback();
+        throw e;
+      } finally {
+        cn.setAutoCommit(true);
+      }
+    }
+  }
+
+  public int actualizarEstados(long idNotificacion, List<NotificacionDTO.Entrega> entregas) throws SQLException {
+    if (entregas == null || entregas.isEmpty()) return 0;
+    String envioTable = DB.table("NOTIFICACION_ENVIO");
+    String sql = "UPDATE " + envioTable + " SET ESTADO = ?, INTENTOS = ?, ERROR = ?, ACTUALIZADO_EN = SYSTIMESTAMP WHERE ID_NOTIFICACION = ? AND ID_RESERVA = ?";
+    try (Connection cn = DB.getConnection()) {
+      cn.setAutoCommit(false);
+      try (PreparedStatement ps = cn.prepareStatement(sql)) {
+        for (NotificacionDTO.Entrega e : entregas) {
+          ps.setString(1, e.estado());
+          ps.setInt(2, e.intentos());
+          if (e.error() == null) ps.setNull(3, Types.VARCHAR);
+          else ps.setString(3, e.error().length() <= 400 ? e.error() : e.error().substring(0, 400));
+          ps.setLong(4, idNotificacion);
+          ps.setLong(5, e.idReserva());
+          ps.addBatch();
+        }
+        ps.executeBatch();
+        cn.commit();
+        return entregas.size();
+      } catch (SQLException e) {
+        cn.rollback();
+        throw e;
+      } finally {
+        cn.setAutoCommit(true);
+      }
+    }
+  }
+
+  public List<NotificacionDTO.Entrega> listarEntregas(long idNotificacion, String estado) throws SQLException {
+    String envioTable = DB.table("NOTIFICACION_ENVIO");
+    String sql = "SELECT ID_RESERVA, EMAIL, ESTADO, INTENTOS, ERROR FROM " + envioTable + " WHERE ID_NOTIFICACION = ?" + (estado != null ? " AND ESTADO = ?" : "") + " ORDER BY ID_RESERVA";
+    List<NotificacionDTO.Entrega> out = new ArrayList<>();
+    try (Connection cn = DB.getConnection();
+         PreparedStatement ps = cn.prepareStatement(sql)) {
+      ps.setLong(1, idNotificacion);
+      if (estado != null) ps.setString(2, estado);
+      try (ResultSet rs = ps.executeQuery()) {
+        while (rs.next()) {
+          out.add(new NotificacionDTO.Entrega(
+              rs.getLong("ID_RESERVA"),
+              rs.getString("EMAIL"),
+              rs.getString("ESTADO"),
+              rs.getInt("INTENTOS"),
+              rs.getString("ERROR")
+          ));
+        }
+      }
+    }
+    return out;
+  }
+
+  /** Progreso armado desde la BD, para notificaciones que ya no están en memoria. */
+  public NotificacionDTO.Progreso resumen(long idNotificacion) throws SQLException {
+    String notificacionTable = DB.table("NOTIFICACION");
+    String envioTable = DB.table("NOTIFICACION_ENVIO");
+    String sql = "SELECT n.ID_VUELO, n.TIPO, n.CREADA_EN, " +
+        "COUNT(e.ID_RESERVA) AS TOTAL, " +
+        "SUM(CASE WHEN e.ESTADO = 'ENVIADO' THEN 1 ELSE 0 END) AS ENVIADOS, " +
+        "SUM(CASE WHEN e.ESTADO = 'FALLIDO' THEN 1 ELSE 0 END) AS FALLIDOS, " +
+        "MAX(e.ACTUALIZADO_EN) AS ULTIMO " +
+        "FROM " + notificacionTable + " n LEFT JOIN " + envioTable + " e ON e.ID_NOTIFICACION = n.ID_NOTIFICACION " +
+        "WHERE n.ID_NOTIFICACION = ? GROUP BY n.ID_VUELO, n.TIPO, n.CREADA_EN";
+    try (Connection cn = DB.getConnection();
+         PreparedStatement ps = cn.prepareStatement(sql)) {
+      ps.setLong(1, idNotificacion);
+      try (ResultSet rs = ps.executeQuery()) {
+        if (!rs.next()) return null;
+        int total = rs.getInt("TOTAL");
+        int enviados = rs.getInt("ENVIADOS");
+        int fallidos = rs.getInt("FALLIDOS");
+        int pendientes = total - enviados - fallidos;
+        Timestamp creada = rs.getTimestamp("CREADA_EN");
+        Timestamp ultimo = rs.getTimestamp("ULTIMO");
+        return new NotificacionDTO.Progreso(idNotificacion, rs.getLong("ID_VUELO"), rs.getString("TIPO"),
+            pendientes == 0 ? "COMPLETADA" : "INCOMPLETA", total, enviados, fallidos, pendientes, null,
+            creada == null ? null : creada.toInstant(),
+            pendientes == 0 && ultimo != null ? ultimo.toInstant() : null);
+      }
+    }
+  }
+
+  private static String safe(String s) { return s == null ? "" : s; }
+}
@@ -0,0 +1,79 @@
+package com.aerolineas.dao;
+
+import com.aerolineas.config.DB;
+import com.aerolineas.config.InstrumentoSql;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.javalin.json.JavalinJackson;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/** OPERACION_LOG: bitácora genérica con DETALLE en JSON; acá solo se escriben sentencias lentas. */
+public class OperacionLogDAO {
+
+  static final String ENTIDAD_SQL = "SQL";
+  static final String ACCION_LENTA = "CONSULTA_LENTA";
+
+  private static final ObjectMapper MAPPER = JavalinJackson.defaultMapper();
+
+  /**
+   * ID_ENTIDAD lleva un número estable por huella para poder agrupar en la tabla: los primeros 8
+   * bytes del SHA-256, positivos y reducidos a los 10 dígitos de la columna. String.hashCode
+   * (31 bits) chocaba entre huellas parecidas.
+   */
+  static long idHuella(String huella) {
+    try {
+      byte[] d = MessageDigest.getInstance("SHA-256").digest(huella.getBytes(StandardCharsets.UTF_8));
+      return (ByteBuffer.wrap(d, 0, 8).getLong() & Long.MAX_VALUE) % 10_000_000_000L;
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException("SHA-256 no disponible", e);
+    }
+  }
+
+  static String detalle(InstrumentoSql.Lenta l) throws SQLException {
+    Map<String, Object> m = new LinkedHashMap<>();
+    m.put("sql", l.huella());
+    m.put("metodo", l.metodo());
+    m.put("ms", l.micros() / 1000.0);
+    m.put("filasAfectadas", l.filasAfectadas());
+    m.put("binds", l.binds());
+    try {
+      return MAPPER.writeValueAsString(m);
+    } catch (Exception e) {
+      throw new SQLException("No se pudo serializar el detalle", e);
+    }
+  }
+
+  public int insertarLentas(List<InstrumentoSql.Lenta> lentas) throws SQLException {
+    if (lentas == null || lentas.isEmpty()) return 0;
+    String sql = "INSERT INTO " + DB.table("OPERACION_LOG") + " (ID_TIPO_ENTIDAD, ID_ENTIDAD, ID_ACCION, DETALLE) " +
+        "SELECT e.ID_ENTIDAD, ?, a.ID_ACCION, ? FROM " + DB.table("ENTIDAD") + " e, " + DB.table("ACCION") + " a " +
+        "WHERE e.ENTIDAD = '" + ENTIDAD_SQL + "' AND a.ACCION = '" + ACCION_LENTA + "'";
+    try (Connection cn = DB.getConnection()) {
+      cn.setAutoCommit(false);
+      try (PreparedStatement ps = cn.prepareStatement(sql)) {
+        for (InstrumentoSql.Lenta l : lentas) {
+          ps.setLong(1, idHuella(l.huella()));
+          ps.setString(2, detalle(l));
+          ps.addBatch();
+        }
+        ps.executeBatch();
+        cn.commit();
+        return lentas.size();
+      } catch (SQLException e) {
+        cn.rollback();
+        throw e;
+      } finally {
+        cn.setAutoCommit(true);
+      }
+    }
+  }
+}
@@ -0,0 +1,257 @@
+package com.aerolineas.dao;
+
+import com.aerolineas.config.DB;
+
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * OUTBOX_EVENTO: efectos que deben ocurrir después de un commit (correo, boleto). Se registran
+ * con la conexión del llamador, así que quedan en la misma transacción que la reserva.
+ */
+public class OutboxDAO {
+
+  public static final String PENDIENTE = "PENDIENTE";
+  public static final String EN_CURSO = "EN_CURSO";
+  public static final String HECHO = "HECHO";
+  public static final String FALLIDO = "FALLIDO";
+
+  public record Nuevo(String tipo, Long idReserva, String payload) {}
+
+  public record Evento(long id, String tipo, Long idReserva, String payload, int intentos) {}
+
+  public record Fallido(long id, String payload, int intentos, String error) {}
+
+  /** Resultado de un intento; si falló, reintentoMs es la espera hasta el próximo. */
+  public record Resultado(long id, String error, long reintentoMs) {
+    public static Resultado ok(long id) { return new Resultado(id, null, 0); }
+    public boolean exitoso() { return error == null; }
+  }
+
+  public int registrar(List<Nuevo> eventos) throws SQLException {
+    if (eventos == null || eventos.isEmpty()) return 0;
+    String outboxTable = DB.table("OUTBOX_EVENTO");
+    String sql = "INSERT INTO " + outboxTable + " (TIPO, ID_RESERVA, PAYLOAD) VALUES (?,?,?)";
+    try (Connection cn = DB.getConnection()) {
+      cn.setAutoCommit(false);
+      try (PreparedStatement ps = cn.prepareStatement(sql)) {
+        for (Nuevo e : eventos) {
+          ps.setString(1, e.tipo());
+          if (e.idReserva() == null) ps.setNull(2, Types.NUMERIC); else ps.setLong(2, e.idReserva());
+          ps.setString(3, e.payload());
+          ps.addBatch();
+        }
+        ps.executeBatch();
+        cn.commit();
+        return eventos.size();
+      } catch (SQLException e) {
+        cn.rollback();
+        throw e;
+      } finally {
+        cn.setAutoCommit(true);
+      }
+    }
+  }
+
+  /**
+   * Toma hasta {@code lote} eventos listos y los pasa a EN_CURSO por {@code arriendoSeg} segundos;
+   * si el nodo muere, al vencer el arriendo otro los vuelve a tomar. Sin ROWNUM: con SKIP LOCKED
+   * Oracle bloquea al leer, así que cada nodo se queda con filas distintas y no con las mismas N.
+   */
+  public List<Evento> tomar(int lote, long arriendoSeg) throws SQLException {
+    String outboxTable = DB.table("OUTBOX_EVENTO");
+    String sql = "SELECT ID_EVENTO, TIPO, ID_RESERVA, PAYLOAD, INTENTOS FROM " + outboxTable +
+        " WHERE ESTADO IN ('" + PENDIENTE + "','" + EN_CURSO + "') AND DISPONIBLE_EN <= SYSTIMESTAMP" +
+        " FOR UPDATE SKIP LOCKED";
+    List<Evento> out = new ArrayList<>();
+    try (Connection cn = DB.getConnection()) {
+      cn.setAutoCommit(false);
+      try {
+        try (PreparedStatement ps = cn.prepareStatement(sql)) {
+          ps.setFetchSize(lote);
+          try (ResultSet rs = ps.executeQuery()) {
+            while (out.size() < lote && rs.next()) {
+              long idReserva = rs.getLong("ID_RESERVA");
+              out.add(new Evento(rs.getLong("ID_EVENTO"), rs.getString("TIPO"),
+                  rs.wasNull() ? null : idReserva, rs.getString("PAYLOAD"), rs.getInt("INTENTOS") + 1));
+            }
+          }
+        }
+        if (!out.isEmpty()) {
+          try (PreparedStatement ps = cn.prepareStatement(
+              "UPDATE " + outboxTable + " SET ESTADO = '" + EN_CURSO + "', INTENTOS = INTENTOS + 1, " +
+              "DISPONIBLE_EN = SYSTIMESTAMP + NUMTODSINTERVAL(?, 'SECOND') WHERE ID_EVENTO = ?")) {
+            for (Evento e : out) {
+              ps.setLong(1, arriendoSeg);
+              ps.setLong(2, e.id());
+              ps.addBatch();
+            }
+            ps.executeBatch();
+          }
+        }
+        cn.commit();
+        return out;
+      } catch (SQLException e) {
+        cn.rollback();
+        throw e;
+      } finally {
+        cn.setAutoCommit(true);
+      }
+    }
+  }
+
+  /** Cierra los intentos de un lote; un fallo pasa a FALLIDO al llegar a maxIntentos. */
+  public void registrarResultados(List<Resultado> resultados, int maxIntentos) throws SQLException {
+    if (resultados == null || resultados.isEmpty()) return;
+    String outboxTable = DB.table("OUTBOX_EVENTO");
+    try (Connection cn = DB.getConnection()) {
+      cn.setAutoCommit(false);
+      try (PreparedStatement ok = cn.prepareStatement(
+               "UPDATE " + outboxTable + " SET ESTADO = '" + HECHO + "', ERROR = NULL, PROCESADO_EN = SYSTIMESTAMP " +
+               "WHERE ID_EVENTO = ?");
+           PreparedStatement mal = cn.prepareStatement(
+               "UPDATE " + outboxTable + " SET ESTADO = CASE WHEN INTENTOS >= ? THEN '" + FALLIDO + "' ELSE '" + PENDIENTE + "' END, " +
+               "ERROR = ?, DISPONIBLE_EN = SYSTIMESTAMP + NUMTODSINTERVAL(?, 'SECOND') WHERE ID_EVENTO = ?")) {
+        int nOk = 0, nMal = 0;
+        for (Resultado r : resultados) {
+          if (r.exitoso()) {
+            ok.setLong(1, r.id());
+            ok.addBatch();
+            nOk++;
+          } else {
+            mal.setInt(1, maxIntentos);
+            mal.setString(2, r.error().length() <= 400 ? r.error() : r.error().substring(0, 400));
+            mal.setDouble(3, r.reintentoMs() / 1000.0);
+            mal.setLong(4, r.id());
+            mal.addBatch();
+            nMal++;
+          }
+        }
+        if (nOk > 0) ok.executeBatch();
+        if (nMal > 0) mal.executeBatch();
+        cn.commit();
+      } catch (SQLException e) {
+        cn.rollback();
+        throw e;
+      } finally {
+        cn.setAutoCommit(true);
+      }
+    }
+  }
+
+  /** Devuelve los FALLIDO a PENDIENTE con los intentos en cero. */
+  public int reintentarFallidos() throws SQLException {
+    return reintentarFallidos(null);
+  }
+
+  /** Igual, solo los del tipo dado (null = todos). */
+  public int reintentarFallidos(String tipo) throws SQLException {
+    String outboxTable = DB.table("OUTBOX_EVENTO");
+    try (Connection cn = DB.getConnection();
+         PreparedStatement ps = cn.prepareStatement(
+             "UPDATE " + outboxTable + " SET ESTADO = '" + PENDIENTE + "', INTENTOS = 0, DISPONIBLE_EN = SYSTIMESTAMP " +
+             "WHERE ESTADO = '" + FALLIDO + "'" + (tipo == null ? "" : " AND TIPO = ?"))) {
+      if (tipo != null) ps.setString(1, tipo);
+      return ps.executeUpdate();
+    }
+  }
+
+  /** Los FALLIDO más recientes del tipo, hasta max. */
+  public List<Fallido> fallidos(String tipo, int max) throws SQLException {
+    String outboxTable = DB.table("OUTBOX_EVENTO");
+    String sql = "SELECT ID_EVENTO, PAYLOAD, INTENTOS, ERROR FROM " + outboxTable +
+        " WHERE ESTADO = '" + FALLIDO + "' AND TIPO = ? ORDER BY ID_EVENTO DESC";
+    List<Fallido> out = new ArrayList<>();
+    try (Connection cn = DB.getConnection();
+         PreparedStatement ps = cn.prepareStatement(sql)) {
+      ps.setString(1, tipo);
+      ps.setFetchSize(Math.max(1, max));
+      try (ResultSet rs = ps.executeQuery()) {
+        while (out.size() < max && rs.next()) {
+          out.add(new Fallido(rs.getLong("ID_EVENTO"), rs.getString("PAYLOAD"), rs.getInt("INTENTOS"), rs.getString("ERROR")));
+        }
+      }
+    }
+    return out;
+  }
+
+  /**
+   * Borra los HECHO procesados hace más de {@code dias} días, en lotes de {@code lote} y una
+   * transacción por lote, como RetencionesDAO.barrer. SKIP LOCKED y sin ROWNUM, como tomar().
+   */
+  public int purgarHechos(long dias, int lote, int maxLotes) throws SQLException {
+    String outboxTable = DB.table("OUTBOX_EVENTO");
+    String sql = "SELECT ID_EVENTO FROM " + outboxTable + " WHERE ESTADO = '" + HECHO + "'" +
+        " AND PROCESADO_EN < SYSTIMESTAMP - NUMTODSINTERVAL(?, 'DAY') FOR UPDATE SKIP LOCKED";
+    int total = 0;
+    for (int n = 0; n < maxLotes; n++) {
+      List<Long> ids = new ArrayList<>();
+      try (Connection cn = DB.getConnection()) {
+        cn.setAutoCommit(false);
+        try {
+          try (PreparedStatement ps = cn.prepareStatement(sql)) {
+            ps.setLong(1, dias);
+            ps.setFetchSize(lote);
+            try (ResultSet rs = ps.executeQuery()) {
+              while (ids.size() < lote && rs.next()) ids.add(rs.getLong("ID_EVENTO"));
+            }
+          }
+          if (!ids.isEmpty()) {
+            try (PreparedStatement del = cn.prepareStatement("DELETE FROM " + outboxTable + " WHERE ID_EVENTO = ?")) {
+              for (Long id : ids) {
+                del.setLong(1, id);
+                del.addBatch();
+              }
+              del.executeBatch();
+            }
+          }
+          cn.commit();
+        } catch (SQLException e) {
+          cn.rollback();
+          throw e;
+        } finally {
+          cn.setAutoCommit(true);
+        }
+      }
+      total += ids.size();
+      if (ids.size() < lote) break;
+    }
+    return total;
+  }
+
+  public Map<String, Object> resumen() throws SQLException {
+    return resumen(null);
+  }
+
+  /**
+   * Pendientes por estado del tipo dado (null = todos) y el más viejo. Los estados van listados
+   * (no ESTADO <> HECHO) para que use IX_OUTBOX_ESTADO_DISP en vez de recorrer los HECHO.
+   */
+  public Map<String, Object> resumen(String tipo) throws SQLException {
+    String outboxTable = DB.table("OUTBOX_EVENTO");
+    String sql = "SELECT ESTADO, COUNT(*) AS N, MIN(CREADO_EN) AS MAS_VIEJO FROM " + outboxTable +
+        " WHERE ESTADO IN ('" + PENDIENTE + "','" + EN_CURSO + "','" + FALLIDO + "')" +
+        (tipo == null ? "" : " AND TIPO = ?") + " GROUP BY ESTADO";
+    Map<String, Object> m = new LinkedHashMap<>();
+    m.put(PENDIENTE, 0L);
+    m.put(EN_CURSO, 0L);
+    m.put(FALLIDO, 0L);
+    Timestamp masViejo = null;
+    try (Connection cn = DB.getConnection();
+         PreparedStatement ps = cn.prepareStatement(sql)) {
+      if (tipo != null) ps.setString(1, tipo);
+      try (ResultSet rs = ps.executeQuery()) {
+        while (rs.next()) {
+          m.put(rs.getString("ESTADO"), rs.getLong("N"));
+          Timestamp t = rs.getTimestamp("MAS_VIEJO");
+          if (t != null && (masViejo == null || t.before(masViejo))) masViejo = t;
+        }
+      }
+    }
+    m.put("pendienteMasViejo", masViejo == null ? null : masViejo.toInstant().toString());
+    return m;
+  }
+}
@@ -0,0 +1,75 @@
+package com.aerolineas.dao;
+
+import com.aerolineas.config.DB;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Parseos contra ejecuciones de las sesiones de la aplicación (V$SESSION.PROGRAM = DB.PROGRAMA),
+ * los mismos contadores que muestra AWR. Son acumulados desde que se abrió cada sesión del pool;
+ * el usuario necesita SELECT sobre V$SESSTAT, V$STATNAME y V$SESSION (p.ej. SELECT_CATALOG_ROLE).
+ */
+public class ParseoDAO {
+
+  static final String PARSEOS = "parse count (total)";
+  static final String DUROS = "parse count (hard)";
+  static final String EJECUCIONES = "execute count";
+  static final String CACHE_CURSORES = "session cursor cache hits";
+
+  public Map<String, Object> resumen() throws SQLException {
+    String sql = "SELECT sn.NAME, SUM(st.VALUE) AS VALOR, COUNT(DISTINCT s.SID) AS SESIONES " +
+        "FROM V$SESSTAT st JOIN V$STATNAME sn ON sn.STATISTIC# = st.STATISTIC# JOIN V$SESSION s ON s.SID = st.SID " +
+        "WHERE s.PROGRAM = ? AND sn.NAME IN (?,?,?,?) GROUP BY sn.NAME";
+    Map<String, Long> v = new LinkedHashMap<>();
+    long sesiones = 0;
+    try (Connection cn = DB.getConnection();
+         PreparedStatement ps = cn.prepareStatement(sql)) {
+      ps.setString(1, DB.PROGRAMA);
+      ps.setString(2, PARSEOS);
+      ps.setString(3, DUROS);
+      ps.setString(4, EJECUCIONES);
+      ps.setString(5, CACHE_CURSORES);
+      try (ResultSet rs = ps.executeQuery()) {
+        while (rs.next()) {
+          v.put(rs.getString("NAME"), rs.getLong("VALOR"));
+          sesiones = Math.max(sesiones, rs.getLong("SESIONES"));
+        }
+      }
+    } catch (SQLException e) {
+      // ORA-00942: sin permiso sobre las vistas V$; no es un error de la aplicación
+      if (e.getErrorCode() != 942) throw e;
+      Map<String, Object> m = new LinkedHashMap<>();
+      m.put("disponible", false);
+      m.put("error", "Sin acceso a V$SESSTAT/V$SESSION: " + e.getMessage());
+      return m;
+    }
+    return resumen(v, sesiones);
+  }
+
+  static Map<String, Object> resumen(Map<String, Long> v, long sesiones) {
+    long parseos = v.getOrDefault(PARSEOS, 0L);
+    long duros = v.getOrDefault(DUROS, 0L);
+    long ejecuciones = v.getOrDefault(EJECUCIONES, 0L);
+    Map<String, Object> m = new LinkedHashMap<>();
+    m.put("disponible", true);
+    m.put("sesiones", sesiones);
+    m.put("parseos", parseos);
+    m.put("parseosDuros", duros);
+    m.put("ejecuciones", ejecuciones);
+    m.put("aciertosCacheCursores", v.getOrDefault(CACHE_CURSORES, 0L));
+    // "Execute to Parse %" de AWR: cerca de 100 si casi nada se vuelve a parsear
+    m.put("ejecucionSobreParseoPct", ejecuciones == 0 ? null : redondear(100.0 * (1 - (double) parseos / ejecuciones)));
+    m.put("parseosPorEjecucion", ejecuciones == 0 ? null : redondear((double) parseos / ejecuciones));
+    m.put("parseosSuavesPct", parseos == 0 ? null : redondear(100.0 * (1 - (double) duros / parseos)));
+    return m;
+  }
+
+  private static double redondear(double x) {
+    return Math.round(x * 100) / 100.0;
+  }
+}
@@ -0,0 +1,148 @@
+package com.aerolineas.dao;
+
+import com.aerolineas.config.DB;
+import com.aerolineas.config.Entorno;
+
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Retención de asientos en carrito. Cada CARRITO_ITEM retiene su cantidad desde RETENIDO_EN
+ * (se renueva al tocar el ítem) durante CARRITO_RETENCION_MIN minutos. Al vencer, el ítem se
+ * borra y TRG_CI_LEDGER devuelve los asientos a EN_CARRITO.
+ */
+public class RetencionesDAO {
+
+  public record Liberacion(int items, int asientos) {
+    public static final Liberacion NADA = new Liberacion(0, 0);
+
+    public Liberacion mas(Liberacion o) {
+      return new Liberacion(items + o.items, asientos + o.asientos);
+    }
+  }
+
+  private static final LongAdder itemsLiberados = new LongAdder();
+  private static final LongAdder asientosLiberados = new LongAdder();
+
+  /** Minutos que dura la retención (CARRITO_RETENCION_MIN, 15 por defecto; 0 = no vence). */
+  public static long ttlMinutos() {
+    return Math.max(0, Entorno.numero("CARRITO_RETENCION_MIN", 15));
+  }
+
+  static String vencidoSql(String ci, long ttl) {
+    return ci + ".RETENIDO_EN < SYSTIMESTAMP - NUMTODSINTERVAL(" + ttl + ", 'MINUTE')";
+  }
+
+  /**
+   * DISPONIBLE de una fila de SALIDA_CLASE (alias sc) sin contar retenciones vencidas que el
+   * barrido todavía no borró. El subquery solo recorre ítems vencidos, que el barrido mantiene en pocos.
+   */
+  public static String disponibleSql(String sc) {
+    String base = sc + ".CUPO_TOTAL - NVL(" + sc + ".RESERVADOS,0) - NVL(" + sc + ".EN_CARRITO,0)";
+    long ttl = ttlMinutos();
+    if (ttl <= 0) return "(" + base + ")";
+    return "(" + base + " + (SELECT NVL(SUM(ci.CANTIDAD),0) FROM " + DB.table("CARRITO_ITEM") + " ci " +
+        "WHERE ci.ID_VUELO = " + sc + ".ID_VUELO AND ci.ID_CLASE = " + sc + ".ID_CLASE AND " + vencidoSql("ci", ttl) + "))";
+  }
+
+  /**
+   * Borra hasta {@code lote} ítems vencidos (de un vuelo/clase, o de cualquiera si idVuelo es null)
+   * dentro de la transacción del llamador. SKIP LOCKED: un carrito que se está usando no se toca.
+   * Sin ROWNUM, como OutboxDAO.tomar: ROWNUM se aplica antes de saltar las filas bloqueadas, así
+   * que un lote lleno de ítems ajenos volvería vacío; el tope se corta al leer.
+   */
+  public Liberacion liberarVencidas(Connection cn, Long idVuelo, Integer idClase, int lote) throws SQLException {
+    long ttl = ttlMinutos();
+    if (ttl <= 0) return Liberacion.NADA;
+    String carritoItemTable = DB.table("CARRITO_ITEM");
+    String sql = "SELECT ci.ID_ITEM, ci.CANTIDAD FROM " + carritoItemTable + " ci WHERE " + vencidoSql("ci", ttl) +
+        (idVuelo != null ? " AND ci.ID_VUELO = ? AND ci.ID_CLASE = ?" : "") +
+        " FOR UPDATE SKIP LOCKED";
+
+    List<Long> ids = new ArrayList<>();
+    int asientos = 0;
+    try (PreparedStatement ps = cn.prepareStatement(sql)) {
+      ps.setFetchSize(lote);
+      if (idVuelo != null) {
+        ps.setLong(1, idVuelo);
+        ps.setInt(2, idClase);
+      }
+      try (ResultSet rs = ps.executeQuery()) {
+        while (ids.size() < lote && rs.next()) {
+          ids.add(rs.getLong("ID_ITEM"));
+          asientos += rs.getInt("CANTIDAD");
+        }
+      }
+    }
+    if (ids.isEmpty()) return Liberacion.NADA;
+
+    try (PreparedStatement del = cn.prepareStatement("DELETE FROM " + carritoItemTable + " WHERE ID_ITEM = ?")) {
+      for (Long id : ids) {
+        del.setLong(1, id);
+        del.addBatch();
+      }
+      del.executeBatch();
+    }
+    return new Liberacion(ids.size(), asientos);
+  }
+
+  /** Barre todas las retenciones vencidas en lotes, una transacción por lote. */
+  public Liberacion barrer(int lote, int maxLotes) throws SQLException {
+    Liberacion total = Liberacion.NADA;
+    for (int n = 0; n < maxLotes; n++) {
+      Liberacion l;
+      try (Connection cn = DB.getConnection()) {
+        cn.setAutoCommit(false);
+        try {
+          l = liberarVencidas(cn, null, null, lote);
+          cn.commit();
+        } catch (SQLException e) {
+          cn.rollback();
+          throw e;
+        } finally {
+          cn.setAutoCommit(true);
+        }
+      }
+      contar(l);
+      total = total.mas(l);
+      if (l.items() < lote) break;
+    }
+    return total;
+  }
+
+  /** Suma a las métricas lo liberado; llamar después del commit. */
+  public static void contar(Liberacion l) {
+    itemsLiberados.add(l.items());
+    asientosLiberados.add(l.asientos());
+  }
+
+  public Map<String, Object> resumen() throws SQLException {
+    long ttl = ttlMinutos();
+    Map<String, Object> m = new LinkedHashMap<>();
+    m.put("ttlMinutos", ttl);
+    String carritoItemTable = DB.table("CARRITO_ITEM");
+    String vencido = ttl > 0 ? vencidoSql("ci", ttl) : "1=0";
+    String sql = "SELECT COUNT(CASE WHEN NOT (" + vencido + ") THEN 1 END) AS ACTIVAS, " +
+        "NVL(SUM(CASE WHEN NOT (" + vencido + ") THEN ci.CANTIDAD END),0) AS ASIENTOS_ACTIVOS, " +
+        "COUNT(CASE WHEN " + vencido + " THEN 1 END) AS VENCIDAS, " +
+        "NVL(SUM(CASE WHEN " + vencido + " THEN ci.CANTIDAD END),0) AS ASIENTOS_VENCIDOS " +
+        "FROM " + carritoItemTable + " ci";
+    try (Connection cn = DB.getConnection();
+         PreparedStatement ps = cn.prepareStatement(sql);
+         ResultSet rs = ps.executeQuery()) {
+      if (rs.next()) {
+        m.put("retencionesActivas", rs.getLong("ACTIVAS"));
+        m.put("asientosRetenidos", rs.getLong("ASIENTOS_ACTIVOS"));
+        m.put("retencionesVencidas", rs.getLong("VENCIDAS"));
+        m.put("asientosVencidos", rs.getLong("ASIENTOS_VENCIDOS"));
+      }
+    }
+    m.put("itemsLiberados", itemsLiberados.sum());
+    m.put("asientosLiberados", asientosLiberados.sum());
+    return m;
+  }
+}
@@ -0,0 +1,100 @@
+package com.aerolineas.dao;
+
+import com.aerolineas.config.DB;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Registro de SQL: cada DAO registra sus sentencias fijas con una clave y una función que las
+ * arma; se arman una sola vez por schema (App las precalienta al iniciar) y después cada llamada
+ * es una búsqueda en un mapa. El caché implícito de sentencias del driver (DB_STMT_CACHE) busca
+ * el cursor por el texto, así que las sentencias fijas no se vuelven a parsear en Oracle.
+ */
+public final class Sentencias {
+
+  private record Armadas(String schema, Map<String, String> sql) {}
+
+  private static final Map<String, Supplier<String>> PLANTILLAS = new ConcurrentHashMap<>();
+  private static final Map<String, LongAdder> USOS = new ConcurrentHashMap<>();
+  private static final LongAdder armados = new LongAdder();
+  private static volatile Armadas armadas = new Armadas(null, new ConcurrentHashMap<>());
+
+  private Sentencias() {}
+
+  /** Registra la sentencia y devuelve la clave, para guardarla en una constante del DAO. */
+  public static String registrar(String clave, Supplier<String> armar) {
+    if (PLANTILLAS.putIfAbsent(clave, armar) != null) {
+      throw new IllegalStateException("Sentencia registrada dos veces: " + clave);
+    }
+    USOS.put(clave, new LongAdder());
+    return clave;
+  }
+
+  /** Texto de la sentencia para el schema actual. */
+  public static String sql(String clave) {
+    Supplier<String> armar = PLANTILLAS.get(clave);
+    if (armar == null) throw new IllegalStateException("Sentencia no registrada: " + clave);
+    USOS.get(clave).increment();
+    Map<String, String> m = vigentes();
+    // Sin schema todavía no hay nada que guardar: se arma en el acto
+    if (m == null) return armar.get();
+    String s = m.get(clave);
+    if (s == null) {
+      s = m.computeIfAbsent(clave, k -> {
+        armados.increment();
+        return armar.get();
+      });
+    }
+    return s;
+  }
+
+  private static Map<String, String> vigentes() {
+    String schema = DB.getSchema();
+    if (schema == null) return null;
+    Armadas a = armadas;
+    if (!schema.equals(a.schema())) {
+      synchronized (Sentencias.class) {
+        a = armadas;
+        if (!schema.equals(a.schema())) {
+          a = new Armadas(schema, new ConcurrentHashMap<>());
+          armadas = a;
+        }
+      }
+    }
+    return a.sql();
+  }
+
+  /** Arma todas las sentencias registradas para el schema actual; devuelve cuántas hay. */
+  public static int precalentar() {
+    Map<String, String> m = vigentes();
+    if (m == null) return 0;
+    PLANTILLAS.forEach((clave, armar) -> m.computeIfAbsent(clave, k -> {
+      armados.increment();
+      return armar.get();
+    }));
+    return m.size();
+  }
+
+  /** Descarta lo armado (p.ej. si cambió una configuración que forma parte del texto). */
+  public static synchronized void invalidar() {
+    armadas = new Armadas(null, new ConcurrentHashMap<>());
+  }
+
+  public static Map<String, Object> stats() {
+    Map<String, Object> m = new LinkedHashMap<>();
+    Armadas a = armadas;
+    m.put("schema", a.schema());
+    m.put("registradas", PLANTILLAS.size());
+    m.put("armadas", a.sql().size());
+    m.put("armadoTotal", armados.sum());
+    Map<String, Long> usos = new TreeMap<>();
+    USOS.forEach((k, v) -> usos.put(k, v.sum()));
+    m.put("usos", usos);
+    return m;
+  }
+}
@@ -3,6 +3,7 @@ package com.aerolineas.dao;
 import com.aerolineas.config.DB;
 import com.aerolineas.dto.VueloDTO;
 
+import java.io.IOException;
 import java.sql.*;
 import java.time.LocalDateTime;
 import java.util.*;
@@ -14,12 +15,146 @@ public class VueloDAO {
   // ======= FLAG para desactivar totalmente VUELO_ESCALA =======
   private static final boolean ESCALAS_ENABLED = false;
 
+  static final int MAX_VUELOS_MASIVO = 500;
+  static final int MAX_RUTAS_MASIVO = 200;
+
+  // Sentencias fijas; se arman una vez por schema (ver Sentencias)
+  private static final String SQL_OBTENER = Sentencias.registrar("vuelo.obtener", () -> {
+    String vueloTable = DB.table("VUELO");
+    String rutaTable = DB.table("RUTA");
+    String ciudadTable = DB.table("CIUDAD");
+    String paisTable = DB.table("PAIS");
+    String estadosTable = DB.table("ESTADOS");
+    String salidaClaseTable = DB.table("SALIDA_CLASE");
+    return "SELECT v.ID_VUELO, v.CODIGO, v.ID_RUTA, co.NOMBRE AS ORIGEN, cd.NOMBRE AS DESTINO, po.NOMBRE AS ORIGEN_PAIS, pd.NOMBRE AS DESTINO_PAIS, v.FECHA_SALIDA, v.FECHA_LLEGADA, NVL(v.ACTIVO,1) AS ACTIVO, v.ID_ESTADO, e.Estado AS ESTADO, v.ID_VUELO_PAREJA AS PAREJA_ID, vp.CODIGO AS PAREJA_CODIGO, sc.ID_CLASE, sc.CUPO_TOTAL, sc.PRECIO FROM " + vueloTable + " v JOIN " + rutaTable + " r ON r.ID_RUTA = v.ID_RUTA JOIN " + ciudadTable + " co ON co.ID_CIUDAD = r.ID_CIUDAD_ORIGEN JOIN " + ciudadTable + " cd ON cd.ID_CIUDAD = r.ID_CIUDAD_DESTINO JOIN " + paisTable + " po ON po.ID_PAIS = co.ID_PAIS JOIN " + paisTable + " pd ON pd.ID_PAIS = cd.ID_PAIS JOIN " + estadosTable + " e ON e.ID_ESTADO = v.ID_ESTADO LEFT JOIN " + vueloTable + " vp ON vp.ID_VUELO = v.ID_VUELO_PAREJA LEFT JOIN " + salidaClaseTable + " sc ON v.ID_VUELO = sc.ID_VUELO WHERE v.ID_VUELO = ?";
+  });
+
+  private static final String SQL_OBTENER_PUBLICO = Sentencias.registrar("vuelo.obtenerPublico", () -> {
+    String vueloTable = DB.table("VUELO");
+    String rutaTable = DB.table("RUTA");
+    String ciudadTable = DB.table("CIUDAD");
+    String paisTable = DB.table("PAIS");
+    String estadosTable = DB.table("ESTADOS");
+    String salidaClaseTable = DB.table("SALIDA_CLASE");
+    return "SELECT v.ID_VUELO, v.CODIGO, v.ID_RUTA, co.NOMBRE AS ORIGEN, cd.NOMBRE AS DESTINO, po.NOMBRE AS ORIGEN_PAIS, pd.NOMBRE AS DESTINO_PAIS, v.FECHA_SALIDA, v.FECHA_LLEGADA, NVL(v.ACTIVO,1) AS ACTIVO, v.ID_ESTADO, e.Estado AS ESTADO, v.ID_VUELO_PAREJA AS PAREJA_ID, vp.CODIGO AS PAREJA_CODIGO, sc.ID_CLASE, sc.CUPO_TOTAL, sc.PRECIO, " + RetencionesDAO.disponibleSql("sc") + " AS DISPONIBLE FROM " + vueloTable + " v JOIN " + rutaTable + " r ON r.ID_RUTA = v.ID_RUTA JOIN " + ciudadTable + " co ON co.ID_CIUDAD = r.ID_CIUDAD_ORIGEN JOIN " + ciudadTable + " cd ON cd.ID_CIUDAD = r.ID_CIUDAD_DESTINO JOIN " + paisTable + " po ON po.ID_PAIS = co.ID_PAIS JOIN " + paisTable + " pd ON pd.ID_PAIS = cd.ID_PAIS JOIN " + estadosTable + " e ON e.ID_ESTADO = v.ID_ESTADO LEFT JOIN " + vueloTable + " vp ON vp.ID_VUELO = v.ID_VUELO_PAREJA LEFT JOIN " + salidaClaseTable + " sc ON v.ID_VUELO = sc.ID_VUELO WHERE v.ID_VUELO = ? AND NVL(v.ACTIVO,1) = 1 AND UPPER(e.Estado) <> 'CANCELADO'";
+  });
+
+  private static final String SQL_LISTAR_PUBLICO = Sentencias.registrar("vuelo.listarPublico", () -> {
+    String vueloTable = DB.table("VUELO");
+    String rutaTable = DB.table("RUTA");
+    String ciudadTable = DB.table("CIUDAD");
+    String paisTable = DB.table("PAIS");
+    String estadosTable = DB.table("ESTADOS");
+    String salidaClaseTable = DB.table("SALIDA_CLASE");
+    return "SELECT v.ID_VUELO, v.CODIGO, v.ID_RUTA, co.NOMBRE AS ORIGEN, cd.NOMBRE AS DESTINO, po.NOMBRE AS ORIGEN_PAIS, pd.NOMBRE AS DESTINO_PAIS, v.FECHA_SALIDA, v.FECHA_LLEGADA, NVL(v.ACTIVO,1) AS ACTIVO, v.ID_ESTADO, e.Estado AS ESTADO, v.ID_VUELO_PAREJA AS PAREJA, sc.ID_CLASE, sc.CUPO_TOTAL, sc.PRECIO, " + RetencionesDAO.disponibleSql("sc") + " AS DISPONIBLE FROM " + vueloTable + " v JOIN " + rutaTable + " r ON r.ID_RUTA = v.ID_RUTA JOIN " + ciudadTable + " co ON co.ID_CIUDAD = r.ID_CIUDAD_ORIGEN JOIN " + ciudadTable + " cd ON cd.ID_CIUDAD = r.ID_CIUDAD_DESTINO JOIN " + paisTable + " po ON po.ID_PAIS = co.ID_PAIS JOIN " + paisTable + " pd ON pd.ID_PAIS = cd.ID_PAIS JOIN " + estadosTable + " e ON e.ID_ESTADO = v.ID_ESTADO JOIN " + salidaClaseTable + " sc ON v.ID_VUELO = sc.ID_VUELO WHERE NVL(v.ACTIVO,1)=1 AND UPPER(e.Estado) <> 'CANCELADO' ORDER BY v.ID_VUELO";
+  });
+
+  private static final String SQL_OBTENER_ADMIN = Sentencias.registrar("vuelo.obtenerAdmin", () -> {
+    String vueloTable = DB.table("VUELO");
+    String rutaTable = DB.table("RUTA");
+    String ciudadTable = DB.table("CIUDAD");
+    String paisTable = DB.table("PAIS");
+    String estadosTable = DB.table("ESTADOS");
+    String salidaClaseTable = DB.table("SALIDA_CLASE");
+    return "SELECT v.ID_VUELO, v.CODIGO, v.ID_RUTA, co.NOMBRE AS ORIGEN, cd.NOMBRE AS DESTINO, po.NOMBRE AS ORIGEN_PAIS, pd.NOMBRE AS DESTINO_PAIS, v.FECHA_SALIDA, v.FECHA_LLEGADA, NVL(v.ACTIVO,1) AS ACTIVO, v.ID_ESTADO, e.Estado AS ESTADO, v.ID_VUELO_PAREJA AS PAREJA_ID, vp.CODIGO AS PAREJA_CODIGO, sc.ID_CLASE, sc.CUPO_TOTAL, sc.PRECIO FROM " + vueloTable + " v JOIN " + rutaTable + " r ON r.ID_RUTA = v.ID_RUTA JOIN " + ciudadTable + " co ON co.ID_CIUDAD = r.ID_CIUDAD_ORIGEN JOIN " + ciudadTable + " cd ON cd.ID_CIUDAD = r.ID_CIUDAD_DESTINO JOIN " + paisTable + " po ON po.ID_PAIS = co.ID_PAIS JOIN " + paisTable + " pd ON pd.ID_PAIS = cd.ID_PAIS JOIN " + estadosTable + " e ON e.ID_ESTADO = v.ID_ESTADO LEFT JOIN " + vueloTable + " vp ON vp.ID_VUELO = v.ID_VUELO_PAREJA LEFT JOIN " + salidaClaseTable + " sc ON sc.ID_VUELO = v.ID_VUELO WHERE v.ID_VUELO = ?";
+  });
+
+  private static final String SQL_OBTENER_CON_ESCALA = Sentencias.registrar("vuelo.obtenerConEscala", () -> {
+    String vueloConEscalaTable = DB.table("VUELO_CON_ESCALA");
+    String vueloTable = DB.table("VUELO");
+    String rutaTable = DB.table("RUTA");
+    String ciudadTable = DB.table("CIUDAD");
+    String paisTable = DB.table("PAIS");
+    String estadosTable = DB.table("ESTADOS");
+    String vueloConEscalaClaseTable = DB.table("VUELO_CON_ESCALA_CLASE");
+    return "SELECT vce.ID_VUELO_CON_ESCALA, vce.CODIGO, vce.ACTIVO, v1.ID_VUELO AS ID_VUELO1, v1.CODIGO AS CODIGO1, v1.FECHA_SALIDA AS FECHA_SALIDA1, v1.FECHA_LLEGADA AS FECHA_LLEGADA1, v2.ID_VUELO AS ID_VUELO2, v2.CODIGO AS CODIGO2, v2.FECHA_SALIDA AS FECHA_SALIDA2, v2.FECHA_LLEGADA AS FECHA_LLEGADA2, co1.NOMBRE AS ORIGEN1, cd1.NOMBRE AS DESTINO1, po1.NOMBRE AS ORIGEN_PAIS1, pd1.NOMBRE AS DESTINO_PAIS1, co2.NOMBRE AS ORIGEN2, cd2.NOMBRE AS DESTINO2, po2.NOMBRE AS ORIGEN_PAIS2, pd2.NOMBRE AS DESTINO_PAIS2, e1.Estado AS ESTADO1, e2.Estado AS ESTADO2, vcec.ID_CLASE, vcec.CUPO_TOTAL, vcec.PRECIO FROM " + vueloConEscalaTable + " vce JOIN " + vueloTable + " v1 ON v1.ID_VUELO = vce.ID_VUELO_PRIMER_TRAMO JOIN " + vueloTable + " v2 ON v2.ID_VUELO = vce.ID_VUELO_SEGUNDO_TRAMO JOIN " + rutaTable + " r1 ON r1.ID_RUTA = v1.ID_RUTA JOIN " + rutaTable + " r2 ON r2.ID_RUTA = v2.ID_RUTA JOIN " + ciudadTable + " co1 ON co1.ID_CIUDAD = r1.ID_CIUDAD_ORIGEN JOIN " + ciudadTable + " cd1 ON cd1.ID_CIUDAD = r1.ID_CIUDAD_DESTINO JOIN " + ciudadTable + " co2 ON co2.ID_CIUDAD = r2.ID_CIUDAD_ORIGEN JOIN " + ciudadTable + " cd2 ON cd2.ID_CIUDAD = r2.ID_CIUDAD_DESTINO JOIN " + paisTable + " po1 ON po1.ID_PAIS = co1.ID_PAIS JOIN " + paisTable + " pd1 ON pd1.ID_PAIS = cd1.ID_PAIS JOIN " + paisTable + " po2 ON po2.ID_PAIS = co2.ID_PAIS JOIN " + paisTable + " pd2 ON pd2.ID_PAIS = cd2.ID_PAIS JOIN " + estadosTable + " e1 ON e1.ID_ESTADO = v1.ID_ESTADO JOIN " + estadosTable + " e2 ON e2.ID_ESTADO = v2.ID_ESTADO LEFT JOIN " + vueloConEscalaClaseTable + " vcec ON vcec.ID_VUELO_CON_ESCALA = vce.ID_VUELO_CON_ESCALA WHERE vce.ID_VUELO_CON_ESCALA = ?";
+  });
+
+  private static final String SQL_LISTAR_CON_ESCALA = Sentencias.registrar("vuelo.listarConEscala", () -> {
+    String vueloConEscalaTable = DB.table("VUELO_CON_ESCALA");
+    String vueloTable = DB.table("VUELO");
+    String rutaTable = DB.table("RUTA");
+    String ciudadTable = DB.table("CIUDAD");
+    String paisTable = DB.table("PAIS");
+    String estadosTable = DB.table("ESTADOS");
+    String vueloConEscalaClaseTable = DB.table("VUELO_CON_ESCALA_CLASE");
+    return "SELECT vce.ID_VUELO_CON_ESCALA, vce.CODIGO, vce.ACTIVO, v1.ID_VUELO AS ID_VUELO1, v1.CODIGO AS CODIGO1, v1.FECHA_SALIDA AS FECHA_SALIDA1, v1.FECHA_LLEGADA AS FECHA_LLEGADA1, v2.ID_VUELO AS ID_VUELO2, v2.CODIGO AS CODIGO2, v2.FECHA_SALIDA AS FECHA_SALIDA2, v2.FECHA_LLEGADA AS FECHA_LLEGADA2, co1.NOMBRE AS ORIGEN1, cd1.NOMBRE AS DESTINO1, po1.NOMBRE AS ORIGEN_PAIS1, pd1.NOMBRE AS DESTINO_PAIS1, co2.NOMBRE AS ORIGEN2, cd2.NOMBRE AS DESTINO2, po2.NOMBRE AS ORIGEN_PAIS2, pd2.NOMBRE AS DESTINO_PAIS2, e1.Estado AS ESTADO1, e2.Estado AS ESTADO2, vcec.ID_CLASE, vcec.CUPO_TOTAL, vcec.PRECIO FROM " + vueloConEscalaTable + " vce JOIN " + vueloTable + " v1 ON v1.ID_VUELO = vce.ID_VUELO_PRIMER_TRAMO JOIN " + vueloTable + " v2 ON v2.ID_VUELO = vce.ID_VUELO_SEGUNDO_TRAMO JOIN " + rutaTable + " r1 ON r1.ID_RUTA = v1.ID_RUTA JOIN " + rutaTable + " r2 ON r2.ID_RUTA = v2.ID_RUTA JOIN " + ciudadTable + " co1 ON co1.ID_CIUDAD = r1.ID_CIUDAD_ORIGEN JOIN " + ciudadTable + " cd1 ON cd1.ID_CIUDAD = r1.ID_CIUDAD_DESTINO JOIN " + ciudadTable + " co2 ON co2.ID_CIUDAD = r2.ID_CIUDAD_ORIGEN JOIN " + ciudadTable + " cd2 ON cd2.ID_CIUDAD = r2.ID_CIUDAD_DESTINO JOIN " + paisTable + " po1 ON po1.ID_PAIS = co1.ID_PAIS JOIN " + paisTable + " pd1 ON pd1.ID_PAIS = cd1.ID_PAIS JOIN " + paisTable + " po2 ON po2.ID_PAIS = co2.ID_PAIS JOIN " + paisTable + " pd2 ON pd2.ID_PAIS = cd2.ID_PAIS JOIN " + estadosTable + " e1 ON e1.ID_ESTADO = v1.ID_ESTADO JOIN " + estadosTable + " e2 ON e2.ID_ESTADO = v2.ID_ESTADO LEFT JOIN " + vueloConEscalaClaseTable + " vcec ON vcec.ID_VUELO_CON_ESCALA = vce.ID_VUELO_CON_ESCALA WHERE vce.ACTIVO = 1 ORDER BY vce.ID_VUELO_CON_ESCALA";
+  });
+
+  private static final String SQL_ESCALAS = Sentencias.registrar("vuelo.escalas", () ->
+      "SELECT ve.ID_CIUDAD, c.NOMBRE AS CIUDAD, p.NOMBRE AS PAIS, ve.LLEGADA, ve.SALIDA FROM " + DB.table("VUELO_ESCALA") + " ve JOIN " + DB.table("CIUDAD") + " c ON c.ID_CIUDAD = ve.ID_CIUDAD JOIN " + DB.table("PAIS") + " p ON p.ID_PAIS = c.ID_PAIS WHERE ve.ID_VUELO = ?");
+
+  private static final String SQL_OBTENER_CON_ESCALA_PUBLICO = Sentencias.registrar("vuelo.obtenerConEscalaPublico", () -> {
+    String vueloConEscalaTable = DB.table("VUELO_CON_ESCALA");
+    String vueloTable = DB.table("VUELO");
+    String rutaTable = DB.table("RUTA");
+    String ciudadTable = DB.table("CIUDAD");
+    String paisTable = DB.table("PAIS");
+    String estadosTable = DB.table("ESTADOS");
+    String vueloConEscalaClaseTable = DB.table("VUELO_CON_ESCALA_CLASE");
+    return "SELECT vce.ID_VUELO_CON_ESCALA, vce.CODIGO, vce.ACTIVO, v1.ID_VUELO AS ID_VUELO1, v1.CODIGO AS CODIGO1, v1.FECHA_SALIDA AS FECHA_SALIDA1, v1.FECHA_LLEGADA AS FECHA_LLEGADA1, v2.ID_VUELO AS ID_VUELO2, v2.CODIGO AS CODIGO2, v2.FECHA_SALIDA AS FECHA_SALIDA2, v2.FECHA_LLEGADA AS FECHA_LLEGADA2, co1.NOMBRE AS ORIGEN1, cd1.NOMBRE AS DESTINO1, po1.NOMBRE AS ORIGEN_PAIS1, pd1.NOMBRE AS DESTINO_PAIS1, co2.NOMBRE AS ORIGEN2, cd2.NOMBRE AS DESTINO2, po2.NOMBRE AS ORIGEN_PAIS2, pd2.NOMBRE AS DESTINO_PAIS2, e1.Estado AS ESTADO1, e2.Estado AS ESTADO2, vcec.ID_CLASE, vcec.CUPO_TOTAL, vcec.PRECIO FROM " + vueloConEscalaTable + " vce JOIN " + vueloTable + " v1 ON v1.ID_VUELO = vce.ID_VUELO_PRIMER_TRAMO JOIN " + vueloTable + " v2 ON v2.ID_VUELO = vce.ID_VUELO_SEGUNDO_TRAMO JOIN " + rutaTable + " r1 ON r1.ID_RUTA = v1.ID_RUTA JOIN " + rutaTable + " r2 ON r2.ID_RUTA = v2.ID_RUTA JOIN " + ciudadTable + " co1 ON co1.ID_CIUDAD = r1.ID_CIUDAD_ORIGEN JOIN " + ciudadTable + " cd1 ON cd1.ID_CIUDAD = r1.ID_CIUDAD_DESTINO JOIN " + ciudadTable + " co2 ON co2.ID_CIUDAD = r2.ID_CIUDAD_ORIGEN JOIN " + ciudadTable + " cd2 ON cd2.ID_CIUDAD = r2.ID_CIUDAD_DESTINO JOIN " + paisTable + " po1 ON po1.ID_PAIS = co1.ID_PAIS JOIN " + paisTable + " pd1 ON pd1.ID_PAIS = cd1.ID_PAIS JOIN " + paisTable + " po2 ON po2.ID_PAIS = co2.ID_PAIS JOIN " + paisTable + " pd2 ON pd2.ID_PAIS = cd2.ID_PAIS JOIN " + estadosTable + " e1 ON e1.ID_ESTADO = v1.ID_ESTADO JOIN " + estadosTable + " e2 ON e2.ID_ESTADO = v2.ID_ESTADO LEFT JOIN " + vueloConEscalaClaseTable + " vcec ON vcec.ID_VUELO_CON_ESCALA = vce.ID_VUELO_CON_ESCALA WHERE vce.ID_VUELO_CON_ESCALA = ? AND vce.ACTIVO = 1 AND NVL(v1.ACTIVO,1) = 1 AND NVL(v2.ACTIVO,1) = 1 AND UPPER(e1.Estado) <> 'CANCELADO' AND UPPER(e2.Estado) <> 'CANCELADO'";
+  });
+
+  private static final String SQL_LISTAR_CON_ESCALA_PUBLICO = Sentencias.registrar("vuelo.listarConEscalaPublico", () -> {
+    String vueloConEscalaTable = DB.table("VUELO_CON_ESCALA");
+    String vueloTable = DB.table("VUELO");
+    String rutaTable = DB.table("RUTA");
+    String ciudadTable = DB.table("CIUDAD");
+    String paisTable = DB.table("PAIS");
+    String estadosTable = DB.table("ESTADOS");
+    String vueloConEscalaClaseTable = DB.table("VUELO_CON_ESCALA_CLASE");
+    return "SELECT vce.ID_VUELO_CON_ESCALA, vce.CODIGO, vce.ACTIVO, v1.ID_VUELO AS ID_VUELO1, v1.CODIGO AS CODIGO1, v1.FECHA_SALIDA AS FECHA_SALIDA1, v1.FECHA_LLEGADA AS FECHA_LLEGADA1, v2.ID_VUELO AS ID_VUELO2, v2.CODIGO AS CODIGO2, v2.FECHA_SALIDA AS FECHA_SALIDA2, v2.FECHA_LLEGADA AS FECHA_LLEGADA2, co1.NOMBRE AS ORIGEN1, cd1.NOMBRE AS DESTINO1, po1.NOMBRE AS ORIGEN_PAIS1, pd1.NOMBRE AS DESTINO_PAIS1, co2.NOMBRE AS ORIGEN2, cd2.NOMBRE AS DESTINO2, po2.NOMBRE AS ORIGEN_PAIS2, pd2.NOMBRE AS DESTINO_PAIS2, e1.Estado AS ESTADO1, e2.Estado AS ESTADO2, vcec.ID_CLASE, vcec.CUPO_TOTAL, vcec.PRECIO FROM " + vueloConEscalaTable + " vce JOIN " + vueloTable + " v1 ON v1.ID_VUELO = vce.ID_VUELO_PRIMER_TRAMO JOIN " + vueloTable + " v2 ON v2.ID_VUELO = vce.ID_VUELO_SEGUNDO_TRAMO JOIN " + rutaTable + " r1 ON r1.ID_RUTA = v1.ID_RUTA JOIN " + rutaTable + " r2 ON r2.ID_RUTA = v2.ID_RUTA JOIN " + ciudadTable + " co1 ON co1.ID_CIUDAD = r1.ID_CIUDAD_ORIGEN JOIN " + ciudadTable + " cd1 ON cd1.ID_CIUDAD = r1.ID_CIUDAD_DESTINO JOIN " + ciudadTable + " co2 ON co2.ID_CIUDAD = r2.ID_CIUDAD_ORIGEN JOIN " + ciudadTable + " cd2 ON cd2.ID_CIUDAD = r2.ID_CIUDAD_DESTINO JOIN " + paisTable + " po1 ON po1.ID_PAIS = co1.ID_PAIS JOIN " + paisTable + " pd1 ON pd1.ID_PAIS = cd1.ID_PAIS JOIN " + paisTable + " po2 ON po2.ID_PAIS = co2.ID_PAIS JOIN " + paisTable + " pd2 ON pd2.ID_PAIS = cd2.ID_PAIS JOIN " + estadosTable + " e1 ON e1.ID_ESTADO = v1.ID_ESTADO JOIN " + estadosTable + " e2 ON e2.ID_ESTADO = v2.ID_ESTADO LEFT JOIN " + vueloConEscalaClaseTable + " vcec ON vcec.ID_VUELO_CON_ESCALA = vce.ID_VUELO_CON_ESCALA WHERE vce.ACTIVO = 1 AND NVL(v1.ACTIVO,1) = 1 AND NVL(v2.ACTIVO,1) = 1 AND UPPER(e1.Estado) <> 'CANCELADO' AND UPPER(e2.Estado) <> 'CANCELADO' ORDER BY vce.ID_VUELO_CON_ESCALA";
+  });
+
+  private static final String SQL_LISTAR_CON_ESCALA_PUBLICO_DESDE = Sentencias.registrar("vuelo.listarConEscalaPublico.desde", () -> {
+    String vueloConEscalaTable = DB.table("VUELO_CON_ESCALA");
+    String vueloTable = DB.table("VUELO");
+    String rutaTable = DB.table("RUTA");
+    String ciudadTable = DB.table("CIUDAD");
+    String paisTable = DB.table("PAIS");
+    String estadosTable = DB.table("ESTADOS");
+    String vueloConEscalaClaseTable = DB.table("VUELO_CON_ESCALA_CLASE");
+    return "SELECT vce.ID_VUELO_CON_ESCALA, vce.CODIGO, vce.ACTIVO, v1.ID_VUELO AS ID_VUELO1, v1.CODIGO AS CODIGO1, v1.FECHA_SALIDA AS FECHA_SALIDA1, v1.FECHA_LLEGADA AS FECHA_LLEGADA1, v2.ID_VUELO AS ID_VUELO2, v2.CODIGO AS CODIGO2, v2.FECHA_SALIDA AS FECHA_SALIDA2, v2.FECHA_LLEGADA AS FECHA_LLEGADA2, co1.NOMBRE AS ORIGEN1, cd1.NOMBRE AS DESTINO1, po1.NOMBRE AS ORIGEN_PAIS1, pd1.NOMBRE AS DESTINO_PAIS1, co2.NOMBRE AS ORIGEN2, cd2.NOMBRE AS DESTINO2, po2.NOMBRE AS ORIGEN_PAIS2, pd2.NOMBRE AS DESTINO_PAIS2, e1.Estado AS ESTADO1, e2.Estado AS ESTADO2, vcec.ID_CLASE, vcec.CUPO_TOTAL, vcec.PRECIO FROM " + vueloConEscalaTable + " vce JOIN " + vueloTable + " v1 ON v1.ID_VUELO = vce.ID_VUELO_PRIMER_TRAMO JOIN " + vueloTable + " v2 ON v2.ID_VUELO = vce.ID_VUELO_SEGUNDO_TRAMO JOIN " + rutaTable + " r1 ON r1.ID_RUTA = v1.ID_RUTA JOIN " + rutaTable + " r2 ON r2.ID_RUTA = v2.ID_RUTA JOIN " + ciudadTable + " co1 ON co1.ID_CIUDAD = r1.ID_CIUDAD_ORIGEN JOIN " + ciudadTable + " cd1 ON cd1.ID_CIUDAD = r1.ID_CIUDAD_DESTINO JOIN " + ciudadTable + " co2 ON co2.ID_CIUDAD = r2.ID_CIUDAD_ORIGEN JOIN " + ciudadTable + " cd2 ON cd2.ID_CIUDAD = r2.ID_CIUDAD_DESTINO JOIN " + paisTable + " po1 ON po1.ID_PAIS = co1.ID_PAIS JOIN " + paisTable + " pd1 ON pd1.ID_PAIS = cd1.ID_PAIS JOIN " + paisTable + " po2 ON po2.ID_PAIS = co2.ID_PAIS JOIN " + paisTable + " pd2 ON pd2.ID_PAIS = cd2.ID_PAIS JOIN " + estadosTable + " e1 ON e1.ID_ESTADO = v1.ID_ESTADO JOIN " + estadosTable + " e2 ON e2.ID_ESTADO = v2.ID_ESTADO LEFT JOIN " + vueloConEscalaClaseTable + " vcec ON vcec.ID_VUELO_CON_ESCALA = vce.ID_VUELO_CON_ESCALA WHERE vce.ACTIVO = 1 AND NVL(v1.ACTIVO,1) = 1 AND NVL(v2.ACTIVO,1) = 1 AND UPPER(e1.Estado) <> 'CANCELADO' AND UPPER(e2.Estado) <> 'CANCELADO' AND vce.ID_VUELO_CON_ESCALA > ? ORDER BY vce.ID_VUELO_CON_ESCALA";
+  });
+
+  // recorrerVuelos: una variante por combinación de soloActivos y keyset
+  private static final String[] SQL_RECORRER = {
+      Sentencias.registrar("vuelo.recorrer", () -> sqlRecorrer(false, false)),
+      Sentencias.registrar("vuelo.recorrer.desde", () -> sqlRecorrer(false, true)),
+      Sentencias.registrar("vuelo.recorrer.activos", () -> sqlRecorrer(true, false)),
+      Sentencias.registrar("vuelo.recorrer.activos.desde", () -> sqlRecorrer(true, true))
+  };
+
+  private static String sqlRecorrer(boolean soloActivos, boolean conAfter) {
+    String vueloTable = DB.table("VUELO");
+    String rutaTable = DB.table("RUTA");
+    String ciudadTable = DB.table("CIUDAD");
+    String paisTable = DB.table("PAIS");
+    String estadosTable = DB.table("ESTADOS");
+    String salidaClaseTable = DB.table("SALIDA_CLASE");
+    return "SELECT v.ID_VUELO, v.CODIGO, v.ID_RUTA, co.NOMBRE AS ORIGEN, cd.NOMBRE AS DESTINO, po.NOMBRE AS ORIGEN_PAIS, pd.NOMBRE AS DESTINO_PAIS, v.FECHA_SALIDA, v.FECHA_LLEGADA, NVL(v.ACTIVO,1) AS ACTIVO, v.ID_ESTADO, e.Estado AS ESTADO, v.ID_VUELO_PAREJA AS PAREJA, sc.ID_CLASE, sc.CUPO_TOTAL, sc.PRECIO FROM " + vueloTable + " v JOIN " + rutaTable + " r ON r.ID_RUTA = v.ID_RUTA JOIN " + ciudadTable + " co ON co.ID_CIUDAD = r.ID_CIUDAD_ORIGEN JOIN " + ciudadTable + " cd ON cd.ID_CIUDAD = r.ID_CIUDAD_DESTINO JOIN " + paisTable + " po ON po.ID_PAIS = co.ID_PAIS JOIN " + paisTable + " pd ON pd.ID_PAIS = cd.ID_PAIS JOIN " + estadosTable + " e ON e.ID_ESTADO = v.ID_ESTADO JOIN " + salidaClaseTable + " sc ON v.ID_VUELO = sc.ID_VUELO WHERE 1=1" + (soloActivos ? " AND NVL(v.ACTIVO,1)=1" : "") + (conAfter ? " AND v.ID_VUELO > ?" : "") + " ORDER BY v.ID_VUELO";
+  }
+
+  // Se invoca tras cada escritura confirmada (p.ej. para reconstruir el catálogo público)
+  private static volatile Runnable onCambio = () -> {};
+
+  public static void alCambiar(Runnable listener) {
+    onCambio = listener == null ? () -> {} : listener;
+  }
+
+  private static void notificarCambio() {
+    try { onCambio.run(); } catch (Exception e) {
+      System.out.println("[VueloDAO] listener de cambios falló: " + e.getMessage());
+    }
+  }
+
   public void crearVuelo(VueloDTO.Create dto) throws SQLException {
     try (Connection conn = DB.getConnection()) {
       conn.setAutoCommit(false);
       try {
         crearVueloTx(conn, dto);
         conn.commit();
+        notificarCambio();
       } catch (Exception e) {
         conn.rollback();
         if (e instanceof SQLException) throw (SQLException) e;
@@ -36,6 +171,7 @@ public class VueloDAO {
       try {
         long id = crearVueloTx(conn, dto);
         conn.commit();
+        notificarCambio();
         return id;
       } catch (Exception e) {
         conn.rollback();
@@ -95,6 +231,7 @@ public class VueloDAO {
         }
 
         conn.commit();
+        notificarCambio();
       } catch (Exception e) {
         conn.rollback();
         if (e instanceof SQLException) throw (SQLException) e;
@@ -134,6 +271,7 @@ public class VueloDAO {
         }
 
         conn.commit();
+        notificarCambio();
       } catch (Exception e) {
         conn.rollback();
         if (e instanceof SQLException) throw (SQLException) e;
@@ -145,13 +283,7 @@ public class VueloDAO {
   }
 
   public VueloDTO.View obtenerVuelo(long id) throws Exception {
-    String vueloTable = DB.table("VUELO");
-    String rutaTable = DB.table("RUTA");
-    String ciudadTable = DB.table("CIUDAD");
-    String paisTable = DB.table("PAIS");
-    String estadosTable = DB.table("ESTADOS");
-    String salidaClaseTable = DB.table("SALIDA_CLASE");
-    String sql = "SELECT v.ID_VUELO, v.CODIGO, v.ID_RUTA, co.NOMBRE AS ORIGEN, cd.NOMBRE AS DESTINO, po.NOMBRE AS ORIGEN_PAIS, pd.NOMBRE AS DESTINO_PAIS, v.FECHA_SALIDA, v.FECHA_LLEGADA, NVL(v.ACTIVO,1) AS ACTIVO, v.ID_ESTADO, e.Estado AS ESTADO, v.ID_VUELO_PAREJA AS PAREJA_ID, vp.CODIGO AS PAREJA_CODIGO, sc.ID_CLASE, sc.CUPO_TOTAL, sc.PRECIO FROM " + vueloTable + " v JOIN " + rutaTable + " r ON r.ID_RUTA = v.ID_RUTA JOIN " + ciudadTable + " co ON co.ID_CIUDAD = r.ID_CIUDAD_ORIGEN JOIN " + ciudadTable + " cd ON cd.ID_CIUDAD = r.ID_CIUDAD_DESTINO JOIN " + paisTable + " po ON po.ID_PAIS = co.ID_PAIS JOIN " + paisTable + " pd ON pd.ID_PAIS = cd.ID_PAIS JOIN " + estadosTable + " e ON e.ID_ESTADO = v.ID_ESTADO LEFT JOIN " + vueloTable + " vp ON vp.ID_VUELO = v.ID_VUELO_PAREJA LEFT JOIN " + salidaClaseTable + " sc ON v.ID_VUELO = sc.ID_VUELO WHERE v.ID_VUELO = ?";
+    String sql = Sentencias.sql(SQL_OBTENER);
 
     VueloDTO.View view = null;
     List<VueloDTO.ClaseConfig> clases = new ArrayList<>();
@@ -200,8 +332,7 @@ public class VueloDAO {
 
     // ---- Escalas desactivadas ----
     if (ESCALAS_ENABLED) {
-      String vueloEscalaTable = DB.table("VUELO_ESCALA");
-      String sqlEsc = "SELECT ve.ID_CIUDAD, c.NOMBRE AS CIUDAD, p.NOMBRE AS PAIS, ve.LLEGADA, ve.SALIDA FROM " + vueloEscalaTable + " ve JOIN " + ciudadTable + " c ON c.ID_CIUDAD = ve.ID_CIUDAD JOIN " + paisTable + " p ON p.ID_PAIS = c.ID_PAIS WHERE ve.ID_VUELO = ?";
+      String sqlEsc = Sentencias.sql(SQL_ESCALAS);
       try (Connection cn = DB.getConnection();
            PreparedStatement ps = cn.prepareStatement(sqlEsc)) {
         ps.setLong(1, id);
@@ -222,16 +353,7 @@ public class VueloDAO {
   }
 
   public VueloDTO.View obtenerVueloPublic(long id) throws Exception {
-    String vueloTable = DB.table("VUELO");
-    String rutaTable = DB.table("RUTA");
-    String ciudadTable = DB.table("CIUDAD");
-    String paisTable = DB.table("PAIS");
-    String estadosTable = DB.table("ESTADOS");
-    String salidaClaseTable = DB.table("SALIDA_CLASE");
-    String reservaItemTable = DB.table("RESERVA_ITEM");
-    String reservaTable = DB.table("RESERVA");
-    String carritoItemTable = DB.table("CARRITO_ITEM");
-    String sql = "SELECT v.ID_VUELO, v.CODIGO, v.ID_RUTA, co.NOMBRE AS ORIGEN, cd.NOMBRE AS DESTINO, po.NOMBRE AS ORIGEN_PAIS, pd.NOMBRE AS DESTINO_PAIS, v.FECHA_SALIDA, v.FECHA_LLEGADA, NVL(v.ACTIVO,1) AS ACTIVO, v.ID_ESTADO, e.Estado AS ESTADO, v.ID_VUELO_PAREJA AS PAREJA_ID, vp.CODIGO AS PAREJA_CODIGO, sc.ID_CLASE, sc.CUPO_TOTAL, sc.PRECIO, (sc.CUPO_TOTAL - NVL((SELECT COUNT(*) FROM " + reservaItemTable + " ri JOIN " + reservaTable + " r ON r.ID_RESERVA = ri.ID_RESERVA WHERE ri.ID_VUELO = v.ID_VUELO AND ri.ID_CLASE = sc.ID_CLASE AND r.ID_ESTADO = 1), 0) - NVL((SELECT SUM(ci.CANTIDAD) FROM " + carritoItemTable + " ci WHERE ci.ID_VUELO = v.ID_VUELO AND ci.ID_CLASE = sc.ID_CLASE), 0)) AS DISPONIBLE FROM " + vueloTable + " v JOIN " + rutaTable + " r ON r.ID_RUTA = v.ID_RUTA JOIN " + ciudadTable + " co ON co.ID_CIUDAD = r.ID_CIUDAD_ORIGEN JOIN " + ciudadTable + " cd ON cd.ID_CIUDAD = r.ID_CIUDAD_DESTINO JOIN " + paisTable + " po ON po.ID_PAIS = co.ID_PAIS JOIN " + paisTable + " pd ON pd.ID_PAIS = cd.ID_PAIS JOIN " + estadosTable + " e ON e.ID_ESTADO = v.ID_ESTADO LEFT JOIN " + vueloTable + " vp ON vp.ID_VUELO = v.ID_VUELO_PAREJA LEFT JOIN " + salidaClaseTable + " sc ON v.ID_VUELO = sc.ID_VUELO WHERE v.ID_VUELO = ? AND NVL(v.ACTIVO,1) = 1 AND UPPER(e.Estado) <> 'CANCELADO'";
+    String sql = Sentencias.sql(SQL_OBTENER_PUBLICO);
 
     VueloDTO.View view = null;
     List<VueloDTO.ClaseConfig> clases = new ArrayList<>();
@@ -284,8 +406,7 @@ public class VueloDAO {
 
     // ---- Escalas desactivadas ----
     if (ESCALAS_ENABLED) {
-      String vueloEscalaTable = DB.table("VUELO_ESCALA");
-      String sqlEsc = "SELECT ve.ID_CIUDAD, c.NOMBRE AS CIUDAD, p.NOMBRE AS PAIS, ve.LLEGADA, ve.SALIDA FROM " + vueloEscalaTable + " ve JOIN " + ciudadTable + " c ON c.ID_CIUDAD = ve.ID_CIUDAD JOIN " + paisTable + " p ON p.ID_PAIS = c.ID_PAIS WHERE ve.ID_VUELO = ?";
+      String sqlEsc = Sentencias.sql(SQL_ESCALAS);
       try (Connection cn = DB.getConnection();
            PreparedStatement ps = cn.prepareStatement(sqlEsc)) {
         ps.setLong(1, id);
@@ -307,16 +428,11 @@ public class VueloDAO {
   }
 
   public List<VueloDTO.View> listarVuelosPublic() throws SQLException {
-    String vueloTable = DB.table("VUELO");
-    String rutaTable = DB.table("RUTA");
-    String ciudadTable = DB.table("CIUDAD");
-    String paisTable = DB.table("PAIS");
-    String estadosTable = DB.table("ESTADOS");
-    String salidaClaseTable = DB.table("SALIDA_CLASE");
-    String reservaItemTable = DB.table("RESERVA_ITEM");
-    String reservaTable = DB.table("RESERVA");
-    String carritoItemTable = DB.table("CARRITO_ITEM");
-    String sql = "SELECT v.ID_VUELO, v.CODIGO, v.ID_RUTA, co.NOMBRE AS ORIGEN, cd.NOMBRE AS DESTINO, po.NOMBRE AS ORIGEN_PAIS, pd.NOMBRE AS DESTINO_PAIS, v.FECHA_SALIDA, v.FECHA_LLEGADA, NVL(v.ACTIVO,1) AS ACTIVO, v.ID_ESTADO, e.Estado AS ESTADO, v.ID_VUELO_PAREJA AS PAREJA, sc.ID_CLASE, sc.CUPO_TOTAL, sc.PRECIO, (sc.CUPO_TOTAL - NVL((SELECT COUNT(*) FROM " + reservaItemTable + " ri JOIN " + reservaTable + " r ON r.ID_RESERVA = ri.ID_RESERVA WHERE ri.ID_VUELO = v.ID_VUELO AND ri.ID_CLASE = sc.ID_CLASE AND r.ID_ESTADO = 1), 0) - NVL((SELECT SUM(ci.CANTIDAD) FROM " + carritoItemTable + " ci WHERE ci.ID_VUELO = v.ID_VUELO AND ci.ID_CLASE = sc.ID_CLASE), 0)) AS DISPONIBLE FROM " + vueloTable + " v JOIN " + rutaTable + " r ON r.ID_RUTA = v.ID_RUTA JOIN " + ciudadTable + " co ON co.ID_CIUDAD = r.ID_CIUDAD_ORIGEN JOIN " + ciudadTable + " cd ON cd.ID_CIUDAD = r.ID_CIUDAD_DESTINO JOIN " + paisTable + " po ON po.ID_PAIS = co.ID_PAIS JOIN " + paisTable + " pd ON pd.ID_PAIS = cd.ID_PAIS JOIN " + estadosTable + " e ON e.ID_ESTADO = v.ID_ESTADO JOIN " + salidaClaseTable + " sc ON v.ID_VUELO = sc.ID_VUELO WHERE NVL(v.ACTIVO,1)=1 AND UPPER(e.Estado) <> 'CANCELADO' ORDER BY v.ID_VUELO";
+    return listarVuelosPublic(true);
+  }
+
+  public List<VueloDTO.View> listarVuelosPublic(boolean soloConCupo) throws SQLException {
+    String sql = Sentencias.sql(SQL_LISTAR_PUBLICO);
 
     Map<Long, VueloDTO.View> vuelos = new LinkedHashMap<>();
 
@@ -325,8 +441,10 @@ public class VueloDAO {
          ResultSet rs = ps.executeQuery()) {
 
       while (rs.next()) {
-        int disp = rs.getInt("DISPONIBLE");
-        if (rs.wasNull() || disp <= 0) continue;
+        if (soloConCupo) {
+          int disp = rs.getInt("DISPONIBLE");
+          if (rs.wasNull() || disp <= 0) continue;
+        }
 
         long idVuelo = rs.getLong("ID_VUELO");
         VueloDTO.View view = vuelos.get(idVuelo);
@@ -375,6 +493,8 @@ public class VueloDAO {
         placeholders.append('?');
       }
 
+      String ciudadTable = DB.table("CIUDAD");
+      String paisTable = DB.table("PAIS");
       String vueloEscalaTable = DB.table("VUELO_ESCALA");
       String sqlEsc = "SELECT ve.ID_VUELO, ve.ID_CIUDAD, c.NOMBRE AS CIUDAD, p.NOMBRE AS PAIS, ve.LLEGADA, ve.SALIDA FROM " + vueloEscalaTable + " ve JOIN " + ciudadTable + " c ON c.ID_CIUDAD = ve.ID_CIUDAD JOIN " + paisTable + " p ON p.ID_PAIS = c.ID_PAIS WHERE ve.ID_VUELO IN (" + placeholders.toString() + ")";
 
@@ -402,13 +522,7 @@ public class VueloDAO {
   }
 
   public VueloDTO.ViewAdmin obtenerVueloAdmin(long id) throws Exception {
-    String vueloTable = DB.table("VUELO");
-    String rutaTable = DB.table("RUTA");
-    String ciudadTable = DB.table("CIUDAD");
-    String paisTable = DB.table("PAIS");
-    String estadosTable = DB.table("ESTADOS");
-    String salidaClaseTable = DB.table("SALIDA_CLASE");
-    String sql = "SELECT v.ID_VUELO, v.CODIGO, v.ID_RUTA, co.NOMBRE AS ORIGEN, cd.NOMBRE AS DESTINO, po.NOMBRE AS ORIGEN_PAIS, pd.NOMBRE AS DESTINO_PAIS, v.FECHA_SALIDA, v.FECHA_LLEGADA, NVL(v.ACTIVO,1) AS ACTIVO, v.ID_ESTADO, e.Estado AS ESTADO, v.ID_VUELO_PAREJA AS PAREJA_ID, vp.CODIGO AS PAREJA_CODIGO, sc.ID_CLASE, sc.CUPO_TOTAL, sc.PRECIO FROM " + vueloTable + " v JOIN " + rutaTable + " r ON r.ID_RUTA = v.ID_RUTA JOIN " + ciudadTable + " co ON co.ID_CIUDAD = r.ID_CIUDAD_ORIGEN JOIN " + ciudadTable + " cd ON cd.ID_CIUDAD = r.ID_CIUDAD_DESTINO JOIN " + paisTable + " po ON po.ID_PAIS = co.ID_PAIS JOIN " + paisTable + " pd ON pd.ID_PAIS = cd.ID_PAIS JOIN " + estadosTable + " e ON e.ID_ESTADO = v.ID_ESTADO LEFT JOIN " + vueloTable + " vp ON vp.ID_VUELO = v.ID_VUELO_PAREJA LEFT JOIN " + salidaClaseTable + " sc ON sc.ID_VUELO = v.ID_VUELO WHERE v.ID_VUELO = ?";
+    String sql = Sentencias.sql(SQL_OBTENER_ADMIN);
 
     VueloDTO.ViewAdmin view = null;
     List<VueloDTO.ClaseConfig> clases = new ArrayList<>();
@@ -456,8 +570,7 @@ public class VueloDAO {
 
     // ---- Escalas desactivadas ----
     if (ESCALAS_ENABLED) {
-      String vueloEscalaTable = DB.table("VUELO_ESCALA");
-      String sqlEsc = "SELECT ve.ID_CIUDAD, c.NOMBRE AS CIUDAD, p.NOMBRE AS PAIS, ve.LLEGADA, ve.SALIDA FROM " + vueloEscalaTable + " ve JOIN " + ciudadTable + " c ON c.ID_CIUDAD = ve.ID_CIUDAD JOIN " + paisTable + " p ON p.ID_PAIS = c.ID_PAIS WHERE ve.ID_VUELO = ?";
+      String sqlEsc = Sentencias.sql(SQL_ESCALAS);
       try (Connection cn = DB.getConnection();
            PreparedStatement ps = cn.prepareStatement(sqlEsc)) {
         ps.setLong(1, id);
@@ -478,61 +591,26 @@ public class VueloDAO {
   }
 
   public List<VueloDTO.View> listarVuelos(boolean soloActivos) throws SQLException {
-    String vueloTable = DB.table("VUELO");
-    String rutaTable = DB.table("RUTA");
-    String ciudadTable = DB.table("CIUDAD");
-    String paisTable = DB.table("PAIS");
-    String estadosTable = DB.table("ESTADOS");
-    String salidaClaseTable = DB.table("SALIDA_CLASE");
-    String sql = "SELECT v.ID_VUELO, v.CODIGO, v.ID_RUTA, co.NOMBRE AS ORIGEN, cd.NOMBRE AS DESTINO, po.NOMBRE AS ORIGEN_PAIS, pd.NOMBRE AS DESTINO_PAIS, v.FECHA_SALIDA, v.FECHA_LLEGADA, NVL(v.ACTIVO,1) AS ACTIVO, v.ID_ESTADO, e.Estado AS ESTADO, v.ID_VUELO_PAREJA AS PAREJA, sc.ID_CLASE, sc.CUPO_TOTAL, sc.PRECIO FROM " + vueloTable + " v JOIN " + rutaTable + " r ON r.ID_RUTA = v.ID_RUTA JOIN " + ciudadTable + " co ON co.ID_CIUDAD = r.ID_CIUDAD_ORIGEN JOIN " + ciudadTable + " cd ON cd.ID_CIUDAD = r.ID_CIUDAD_DESTINO JOIN " + paisTable + " po ON po.ID_PAIS = co.ID_PAIS JOIN " + paisTable + " pd ON pd.ID_PAIS = cd.ID_PAIS JOIN " + estadosTable + " e ON e.ID_ESTADO = v.ID_ESTADO JOIN " + salidaClaseTable + " sc ON v.ID_VUELO = sc.ID_VUELO" + (soloActivos ? " WHERE NVL(v.ACTIVO,1)=1 " : "") + " ORDER BY v.ID_VUELO";
-
-    Map<Long, VueloDTO.View> vuelos = new LinkedHashMap<>();
-
-    try (Connection conn = DB.getConnection();
-         PreparedStatement ps = conn.prepareStatement(sql);
-         ResultSet rs = ps.executeQuery()) {
-
-      while (rs.next()) {
-        long idVuelo = rs.getLong("ID_VUELO");
-        VueloDTO.View view = vuelos.get(idVuelo);
-
-        VueloDTO.ClaseConfig clase = new VueloDTO.ClaseConfig(
-            rs.getInt("ID_CLASE"),
-            rs.getInt("CUPO_TOTAL"),
-            rs.getDouble("PRECIO")
-        );
+    return listarVuelos(soloActivos, null, 0);
+  }
 
-        if (view == null) {
-          Integer idEstado = rs.getObject("ID_ESTADO") == null ? null : rs.getInt("ID_ESTADO");
-          Long pareja = (rs.getObject("PAREJA") == null) ? null : rs.getLong("PAREJA");
-          view = new VueloDTO.View(
-              idVuelo,
-              rs.getString("CODIGO"),
-              rs.getLong("ID_RUTA"),
-              rs.getString("ORIGEN"),
-              rs.getString("DESTINO"),
-              rs.getTimestamp("FECHA_SALIDA").toLocalDateTime(),
-              rs.getTimestamp("FECHA_LLEGADA").toLocalDateTime(),
-              rs.getInt("ACTIVO") == 1,
-              idEstado,
-              rs.getString("ESTADO"),
-              new ArrayList<>(List.of(clase)),
-              new ArrayList<>(),
-              pareja,
-              rs.getString("ORIGEN_PAIS"),
-              rs.getString("DESTINO_PAIS")
-          );
-          vuelos.put(idVuelo, view);
-        } else {
-          view.clases().add(clase);
-        }
-      }
+  /** Keyset sobre ID_VUELO: solo vuelos con ID mayor a {@code after}; {@code limit <= 0} no limita. */
+  public List<VueloDTO.View> listarVuelos(boolean soloActivos, Long after, int limit) throws SQLException {
+    List<VueloDTO.View> out = new ArrayList<>();
+    try {
+      recorrerVuelos(soloActivos, after, limit, out::add);
+    } catch (IOException e) {
+      throw new SQLException("Error al listar vuelos", e);
     }
 
-    if (vuelos.isEmpty()) return List.of();
+    if (out.isEmpty()) return List.of();
 
     // ---- Escalas desactivadas ----
     if (ESCALAS_ENABLED) {
+      Map<Long, VueloDTO.View> vuelos = new LinkedHashMap<>();
+      for (VueloDTO.View v : out) vuelos.put(v.idVuelo(), v);
+      String ciudadTable = DB.table("CIUDAD");
+      String paisTable = DB.table("PAIS");
       StringBuilder placeholders = new StringBuilder();
       int size = vuelos.size();
       for (int i = 0; i < size; i++) {
@@ -563,7 +641,66 @@ public class VueloDAO {
       }
     }
 
-    return new ArrayList<>(vuelos.values());
+    return out;
+  }
+
+  /**
+   * Recorre los vuelos en orden de ID y emite cada uno en cuanto termina de leer sus clases,
+   * con el cursor aún abierto. Devuelve la cantidad emitida.
+   */
+  public int recorrerVuelos(boolean soloActivos, Long after, int limit, Emisor<VueloDTO.View> emisor) throws SQLException, IOException {
+    String sql = Sentencias.sql(SQL_RECORRER[(soloActivos ? 2 : 0) + (after != null ? 1 : 0)]);
+
+    int emitidos = 0;
+    VueloDTO.View actual = null;
+
+    try (Connection conn = DB.getConnection();
+         PreparedStatement ps = conn.prepareStatement(sql)) {
+      ps.setFetchSize(DB.fetchSize());
+      if (after != null) ps.setLong(1, after);
+      try (ResultSet rs = ps.executeQuery()) {
+        while (rs.next()) {
+          long idVuelo = rs.getLong("ID_VUELO");
+          if (actual == null || actual.idVuelo() != idVuelo) {
+            // Filas ordenadas por ID: al aparecer un vuelo nuevo el anterior ya está completo
+            if (actual != null) { emisor.emitir(actual); emitidos++; actual = null; }
+            if (limit > 0 && emitidos >= limit) break;
+          }
+
+          VueloDTO.ClaseConfig clase = new VueloDTO.ClaseConfig(
+              rs.getInt("ID_CLASE"),
+              rs.getInt("CUPO_TOTAL"),
+              rs.getDouble("PRECIO")
+          );
+
+          if (actual == null) {
+            Integer idEstado = rs.getObject("ID_ESTADO") == null ? null : rs.getInt("ID_ESTADO");
+            Long pareja = (rs.getObject("PAREJA") == null) ? null : rs.getLong("PAREJA");
+            actual = new VueloDTO.View(
+                idVuelo,
+                rs.getString("CODIGO"),
+                rs.getLong("ID_RUTA"),
+                rs.getString("ORIGEN"),
+                rs.getString("DESTINO"),
+                rs.getTimestamp("FECHA_SALIDA").toLocalDateTime(),
+                rs.getTimestamp("FECHA_LLEGADA").toLocalDateTime(),
+                rs.getInt("ACTIVO") == 1,
+                idEstado,
+                rs.getString("ESTADO"),
+                new ArrayList<>(List.of(clase)),
+                new ArrayList<>(),
+                pareja,
+                rs.getString("ORIGEN_PAIS"),
+                rs.getString("DESTINO_PAIS")
+            );
+          } else {
+            actual.clases().add(clase);
+          }
+        }
+      }
+      if (actual != null) { emisor.emitir(actual); emitidos++; }
+    }
+    return emitidos;
   }
 
   public List<VueloDTO.View> listarVuelos() throws SQLException {
@@ -625,6 +762,7 @@ public class VueloDAO {
         }
 
         conn.commit();
+        notificarCambio();
       } catch (Exception e) {
         conn.rollback();
         if (e instanceof SQLException) throw (SQLException) e;
@@ -633,6 +771,105 @@ public class VueloDAO {
     }
   }
 
+  /**
+   * Cambia de estado todos los vuelos del filtro en una transacción (cierre de aeropuerto, clima).
+   * Los vuelos se bloquean y listan en una consulta; los motivos, las reservas afectadas y el
+   * estado se escriben por conjunto enlazando solo esa lista de ids.
+   */
+  public VueloDTO.EstadoMasivoResultado actualizarEstadoMasivo(VueloDTO.EstadoMasivo f) throws SQLException {
+    if (f == null || f.idEstado() == null || !VALID.contains(f.idEstado())) throw new SQLException("Estado inválido");
+    int idEstado = f.idEstado();
+    boolean cancelacion = idEstado == CANCELADO;
+    if (cancelacion && (f.motivo() == null || f.motivo().isBlank())) {
+      throw new SQLException("Debe proporcionar el motivo de cancelación.");
+    }
+    List<Long> rutas = f.rutas() == null ? List.of() : f.rutas();
+    if (f.idCiudad() == null && f.idCiudadOrigen() == null && f.idCiudadDestino() == null && rutas.isEmpty()) {
+      throw new SQLException("Debe indicar al menos una ciudad o una ruta.");
+    }
+    if (rutas.size() > MAX_RUTAS_MASIVO) throw new SQLException("Máximo " + MAX_RUTAS_MASIVO + " rutas por operación.");
+    if (f.desde() != null && f.hasta() != null && !f.desde().isBefore(f.hasta())) {
+      throw new SQLException("La ventana es inválida: desde debe ser anterior a hasta.");
+    }
+
+    String vueloTable = DB.table("VUELO");
+    String rutaTable = DB.table("RUTA");
+    StringBuilder filtro = new StringBuilder(
+        "SELECT fv.ID_VUELO FROM " + vueloTable + " fv JOIN " + rutaTable + " fr ON fr.ID_RUTA = fv.ID_RUTA " +
+        "WHERE NVL(fv.ACTIVO,1) = 1 AND fv.ID_ESTADO <> ? AND fv.ID_ESTADO <> ?");
+    List<Object> params = new ArrayList<>(List.of(CANCELADO, idEstado));
+    if (f.idCiudad() != null) {
+      filtro.append(" AND (fr.ID_CIUDAD_ORIGEN = ? OR fr.ID_CIUDAD_DESTINO = ?)");
+      params.add(f.idCiudad());
+      params.add(f.idCiudad());
+    }
+    if (f.idCiudadOrigen() != null) { filtro.append(" AND fr.ID_CIUDAD_ORIGEN = ?"); params.add(f.idCiudadOrigen()); }
+    if (f.idCiudadDestino() != null) { filtro.append(" AND fr.ID_CIUDAD_DESTINO = ?"); params.add(f.idCiudadDestino()); }
+    if (!rutas.isEmpty()) {
+      filtro.append(" AND fv.ID_RUTA IN (").append(String.join(",", Collections.nCopies(rutas.size(), "?"))).append(")");
+      params.addAll(rutas);
+    }
+    if (f.desde() != null) { filtro.append(" AND fv.FECHA_SALIDA >= ?"); params.add(Timestamp.valueOf(f.desde())); }
+    if (f.hasta() != null) { filtro.append(" AND fv.FECHA_SALIDA < ?"); params.add(Timestamp.valueOf(f.hasta())); }
+    String vuelosSql = filtro.toString();
+
+    try (Connection cn = DB.getConnection()) {
+      cn.setAutoCommit(false);
+      try {
+        long t0 = System.nanoTime();
+        List<Long> vuelos = new ArrayList<>();
+        try (PreparedStatement ps = cn.prepareStatement(vuelosSql + " FOR UPDATE OF fv.ID_ESTADO")) {
+          for (int i = 0; i < params.size(); i++) ps.setObject(i + 1, params.get(i));
+          try (ResultSet rs = ps.executeQuery()) {
+            while (rs.next()) vuelos.add(rs.getLong(1));
+          }
+        }
+        if (vuelos.size() > MAX_VUELOS_MASIVO) {
+          throw new SQLException("El filtro afecta " + vuelos.size() + " vuelos; el máximo por operación es " + MAX_VUELOS_MASIVO + ".");
+        }
+        long t1 = System.nanoTime();
+        if (vuelos.isEmpty()) {
+          cn.commit();
+          return new VueloDTO.EstadoMasivoResultado(vuelos, 0, List.of(), (t1 - t0) / 1_000_000, 0);
+        }
+
+        // Desde aquí se trabaja sobre los ids ya bloqueados (a lo sumo MAX_VUELOS_MASIVO, bajo el
+        // límite de 1000 de un IN), sin volver a evaluar el filtro en cada sentencia.
+        String ids = String.join(",", Collections.nCopies(vuelos.size(), "?"));
+        int motivos = 0;
+        List<Long> reservas = List.of();
+        if (cancelacion) {
+          try (PreparedStatement ps = cn.prepareStatement(
+              "INSERT INTO " + DB.table("VUELO_MOTIVO") + " (ID_VUELO, TIPO, MOTIVO) " +
+              "SELECT v.ID_VUELO, 'CANCELACION', ? FROM " + vueloTable + " v WHERE v.ID_VUELO IN (" + ids + ")")) {
+            ps.setString(1, f.motivo().trim());
+            for (int i = 0; i < vuelos.size(); i++) ps.setLong(i + 2, vuelos.get(i));
+            motivos = ps.executeUpdate();
+          }
+          reservas = new ComprasDAO().cancelarReservasDeVuelos(cn, ids, vuelos);
+        }
+
+        try (PreparedStatement ps = cn.prepareStatement(
+            "UPDATE " + vueloTable + " SET ID_ESTADO = ? WHERE ID_VUELO IN (" + ids + ")")) {
+          ps.setInt(1, idEstado);
+          for (int i = 0; i < vuelos.size(); i++) ps.setLong(i + 2, vuelos.get(i));
+          ps.executeUpdate();
+        }
+
+        cn.commit();
+        notificarCambio();
+        return new VueloDTO.EstadoMasivoResultado(vuelos, motivos, reservas,
+            (t1 - t0) / 1_000_000, (System.nanoTime() - t1) / 1_000_000);
+      } catch (Exception e) {
+        cn.rollback();
+        if (e instanceof SQLException) throw (SQLException) e;
+        throw new SQLException("Error al actualizar estado", e);
+      } finally {
+        cn.setAutoCommit(true);
+      }
+    }
+  }
+
   public void actualizarVueloAdmin(long idVuelo, VueloDTO.UpdateAdmin dto) throws Exception {
     try (Connection cn = DB.getConnection()) {
       cn.setAutoCommit(false);
@@ -687,6 +924,7 @@ public class VueloDAO {
             }
             ps.executeBatch();
           }
+          new DisponibilidadDAO().recalcularVuelo(cn, idVuelo);
         } else {
           throw new SQLException("Debe indicar al menos una clase");
         }
@@ -725,6 +963,7 @@ public class VueloDAO {
         }
 
         cn.commit();
+        notificarCambio();
       } catch (Exception e) {
         cn.rollback();
         throw e;
@@ -834,6 +1073,7 @@ public class VueloDAO {
             }
 
             conn.commit();
+            notificarCambio();
             return idVueloConEscala;
           }
         }
@@ -894,14 +1134,7 @@ public class VueloDAO {
   }
 
   public VueloDTO.VueloConEscalaView obtenerVueloConEscala(long id) throws Exception {
-    String vueloConEscalaTable = DB.table("VUELO_CON_ESCALA");
-    String vueloTable = DB.table("VUELO");
-    String rutaTable = DB.table("RUTA");
-    String ciudadTable = DB.table("CIUDAD");
-    String paisTable = DB.table("PAIS");
-    String estadosTable = DB.table("ESTADOS");
-    String vueloConEscalaClaseTable = DB.table("VUELO_CON_ESCALA_CLASE");
-    String sql = "SELECT vce.ID_VUELO_CON_ESCALA, vce.CODIGO, vce.ACTIVO, v1.ID_VUELO AS ID_VUELO1, v1.CODIGO AS CODIGO1, v1.FECHA_SALIDA AS FECHA_SALIDA1, v1.FECHA_LLEGADA AS FECHA_LLEGADA1, v2.ID_VUELO AS ID_VUELO2, v2.CODIGO AS CODIGO2, v2.FECHA_SALIDA AS FECHA_SALIDA2, v2.FECHA_LLEGADA AS FECHA_LLEGADA2, co1.NOMBRE AS ORIGEN1, cd1.NOMBRE AS DESTINO1, po1.NOMBRE AS ORIGEN_PAIS1, pd1.NOMBRE AS DESTINO_PAIS1, co2.NOMBRE AS ORIGEN2, cd2.NOMBRE AS DESTINO2, po2.NOMBRE AS ORIGEN_PAIS2, pd2.NOMBRE AS DESTINO_PAIS2, e1.Estado AS ESTADO1, e2.Estado AS ESTADO2, vcec.ID_CLASE, vcec.CUPO_TOTAL, vcec.PRECIO FROM " + vueloConEscalaTable + " vce JOIN " + vueloTable + " v1 ON v1.ID_VUELO = vce.ID_VUELO_PRIMER_TRAMO JOIN " + vueloTable + " v2 ON v2.ID_VUELO = vce.ID_VUELO_SEGUNDO_TRAMO JOIN " + rutaTable + " r1 ON r1.ID_RUTA = v1.ID_RUTA JOIN " + rutaTable + " r2 ON r2.ID_RUTA = v2.ID_RUTA JOIN " + ciudadTable + " co1 ON co1.ID_CIUDAD = r1.ID_CIUDAD_ORIGEN JOIN " + ciudadTable + " cd1 ON cd1.ID_CIUDAD = r1.ID_CIUDAD_DESTINO JOIN " + ciudadTable + " co2 ON co2.ID_CIUDAD = r2.ID_CIUDAD_ORIGEN JOIN " + ciudadTable + " cd2 ON cd2.ID_CIUDAD = r2.ID_CIUDAD_DESTINO JOIN " + paisTable + " po1 ON po1.ID_PAIS = co1.ID_PAIS JOIN " + paisTable + " pd1 ON pd1.ID_PAIS = cd1.ID_PAIS JOIN " + paisTable + " po2 ON po2.ID_PAIS = co2.ID_PAIS JOIN " + paisTable + " pd2 ON pd2.ID_PAIS = cd2.ID_PAIS JOIN " + estadosTable + " e1 ON e1.ID_ESTADO = v1.ID_ESTADO JOIN " + estadosTable + " e2 ON e2.ID_ESTADO = v2.ID_ESTADO LEFT JOIN " + vueloConEscalaClaseTable + " vcec ON vcec.ID_VUELO_CON_ESCALA = vce.ID_VUELO_CON_ESCALA WHERE vce.ID_VUELO_CON_ESCALA = ?";
+    String sql = Sentencias.sql(SQL_OBTENER_CON_ESCALA);
 
     VueloDTO.VueloConEscalaView view = null;
     List<VueloDTO.ClaseConfig> clases = new ArrayList<>();
@@ -983,14 +1216,7 @@ public class VueloDAO {
   }
 
   public List<VueloDTO.VueloConEscalaView> listarVuelosConEscala() throws SQLException {
-    String vueloConEscalaTable = DB.table("VUELO_CON_ESCALA");
-    String vueloTable = DB.table("VUELO");
-    String rutaTable = DB.table("RUTA");
-    String ciudadTable = DB.table("CIUDAD");
-    String paisTable = DB.table("PAIS");
-    String estadosTable = DB.table("ESTADOS");
-    String vueloConEscalaClaseTable = DB.table("VUELO_CON_ESCALA_CLASE");
-    String sql = "SELECT vce.ID_VUELO_CON_ESCALA, vce.CODIGO, vce.ACTIVO, v1.ID_VUELO AS ID_VUELO1, v1.CODIGO AS CODIGO1, v1.FECHA_SALIDA AS FECHA_SALIDA1, v1.FECHA_LLEGADA AS FECHA_LLEGADA1, v2.ID_VUELO AS ID_VUELO2, v2.CODIGO AS CODIGO2, v2.FECHA_SALIDA AS FECHA_SALIDA2, v2.FECHA_LLEGADA AS FECHA_LLEGADA2, co1.NOMBRE AS ORIGEN1, cd1.NOMBRE AS DESTINO1, po1.NOMBRE AS ORIGEN_PAIS1, pd1.NOMBRE AS DESTINO_PAIS1, co2.NOMBRE AS ORIGEN2, cd2.NOMBRE AS DESTINO2, po2.NOMBRE AS ORIGEN_PAIS2, pd2.NOMBRE AS DESTINO_PAIS2, e1.Estado AS ESTADO1, e2.Estado AS ESTADO2, vcec.ID_CLASE, vcec.CUPO_TOTAL, vcec.PRECIO FROM " + vueloConEscalaTable + " vce JOIN " + vueloTable + " v1 ON v1.ID_VUELO = vce.ID_VUELO_PRIMER_TRAMO JOIN " + vueloTable + " v2 ON v2.ID_VUELO = vce.ID_VUELO_SEGUNDO_TRAMO JOIN " + rutaTable + " r1 ON r1.ID_RUTA = v1.ID_RUTA JOIN " + rutaTable + " r2 ON r2.ID_RUTA = v2.ID_RUTA JOIN " + ciudadTable + " co1 ON co1.ID_CIUDAD = r1.ID_CIUDAD_ORIGEN JOIN " + ciudadTable + " cd1 ON cd1.ID_CIUDAD = r1.ID_CIUDAD_DESTINO JOIN " + ciudadTable + " co2 ON co2.ID_CIUDAD = r2.ID_CIUDAD_ORIGEN JOIN " + ciudadTable + " cd2 ON cd2.ID_CIUDAD = r2.ID_CIUDAD_DESTINO JOIN " + paisTable + " po1 ON po1.ID_PAIS = co1.ID_PAIS JOIN " + paisTable + " pd1 ON pd1.ID_PAIS = cd1.ID_PAIS JOIN " + paisTable + " po2 ON po2.ID_PAIS = co2.ID_PAIS JOIN " + paisTable + " pd2 ON pd2.ID_PAIS = cd2.ID_PAIS JOIN " + estadosTable + " e1 ON e1.ID_ESTADO = v1.ID_ESTADO JOIN " + estadosTable + " e2 ON e2.ID_ESTADO = v2.ID_ESTADO LEFT JOIN " + vueloConEscalaClaseTable + " vcec ON vcec.ID_VUELO_CON_ESCALA = vce.ID_VUELO_CON_ESCALA WHERE vce.ACTIVO = 1 ORDER BY vce.ID_VUELO_CON_ESCALA";
+    String sql = Sentencias.sql(SQL_LISTAR_CON_ESCALA);
 
     Map<Long, VueloDTO.VueloConEscalaView> vuelos = new LinkedHashMap<>();
 
@@ -1074,89 +1300,88 @@ public class VueloDAO {
   }
 
   public List<VueloDTO.VueloConEscalaView> listarVuelosConEscalaPublic() throws SQLException {
-    String vueloConEscalaTable = DB.table("VUELO_CON_ESCALA");
-    String vueloTable = DB.table("VUELO");
-    String rutaTable = DB.table("RUTA");
-    String ciudadTable = DB.table("CIUDAD");
-    String paisTable = DB.table("PAIS");
-    String estadosTable = DB.table("ESTADOS");
-    String vueloConEscalaClaseTable = DB.table("VUELO_CON_ESCALA_CLASE");
-    String sql = "SELECT vce.ID_VUELO_CON_ESCALA, vce.CODIGO, vce.ACTIVO, v1.ID_VUELO AS ID_VUELO1, v1.CODIGO AS CODIGO1, v1.FECHA_SALIDA AS FECHA_SALIDA1, v1.FECHA_LLEGADA AS FECHA_LLEGADA1, v2.ID_VUELO AS ID_VUELO2, v2.CODIGO AS CODIGO2, v2.FECHA_SALIDA AS FECHA_SALIDA2, v2.FECHA_LLEGADA AS FECHA_LLEGADA2, co1.NOMBRE AS ORIGEN1, cd1.NOMBRE AS DESTINO1, po1.NOMBRE AS ORIGEN_PAIS1, pd1.NOMBRE AS DESTINO_PAIS1, co2.NOMBRE AS ORIGEN2, cd2.NOMBRE AS DESTINO2, po2.NOMBRE AS ORIGEN_PAIS2, pd2.NOMBRE AS DESTINO_PAIS2, e1.Estado AS ESTADO1, e2.Estado AS ESTADO2, vcec.ID_CLASE, vcec.CUPO_TOTAL, vcec.PRECIO FROM " + vueloConEscalaTable + " vce JOIN " + vueloTable + " v1 ON v1.ID_VUELO = vce.ID_VUELO_PRIMER_TRAMO JOIN " + vueloTable + " v2 ON v2.ID_VUELO = vce.ID_VUELO_SEGUNDO_TRAMO JOIN " + rutaTable + " r1 ON r1.ID_RUTA = v1.ID_RUTA JOIN " + rutaTable + " r2 ON r2.ID_RUTA = v2.ID_RUTA JOIN " + ciudadTable + " co1 ON co1.ID_CIUDAD = r1.ID_CIUDAD_ORIGEN JOIN " + ciudadTable + " cd1 ON cd1.ID_CIUDAD = r1.ID_CIUDAD_DESTINO JOIN " + ciudadTable + " co2 ON co2.ID_CIUDAD = r2.ID_CIUDAD_ORIGEN JOIN " + ciudadTable + " cd2 ON cd2.ID_CIUDAD = r2.ID_CIUDAD_DESTINO JOIN " + paisTable + " po1 ON po1.ID_PAIS = co1.ID_PAIS JOIN " + paisTable + " pd1 ON pd1.ID_PAIS = cd1.ID_PAIS JOIN " + paisTable + " po2 ON po2.ID_PAIS = co2.ID_PAIS JOIN " + paisTable + " pd2 ON pd2.ID_PAIS = cd2.ID_PAIS JOIN " + estadosTable + " e1 ON e1.ID_ESTADO = v1.ID_ESTADO JOIN " + estadosTable + " e2 ON e2.ID_ESTADO = v2.ID_ESTADO LEFT JOIN " + vueloConEscalaClaseTable + " vcec ON vcec.ID_VUELO_CON_ESCALA = vce.ID_VUELO_CON_ESCALA WHERE vce.ACTIVO = 1 AND NVL(v1.ACTIVO,1) = 1 AND NVL(v2.ACTIVO,1) = 1 AND UPPER(e1.Estado) <> 'CANCELADO' AND UPPER(e2.Estado) <> 'CANCELADO' ORDER BY vce.ID_VUELO_CON_ESCALA";
+    return listarVuelosConEscalaPublic(null, 0);
+  }
+
+  public List<VueloDTO.VueloConEscalaView> listarVuelosConEscalaPublic(Long after, int limit) throws SQLException {
+    String sql = Sentencias.sql(after != null ? SQL_LISTAR_CON_ESCALA_PUBLICO_DESDE : SQL_LISTAR_CON_ESCALA_PUBLICO);
 
     Map<Long, VueloDTO.VueloConEscalaView> vuelos = new LinkedHashMap<>();
 
     try (Connection conn = DB.getConnection();
-         PreparedStatement ps = conn.prepareStatement(sql);
-         ResultSet rs = ps.executeQuery()) {
-
-      while (rs.next()) {
-        long idVueloConEscala = rs.getLong("ID_VUELO_CON_ESCALA");
-        VueloDTO.VueloConEscalaView view = vuelos.get(idVueloConEscala);
+         PreparedStatement ps = conn.prepareStatement(sql)) {
+      if (after != null) ps.setLong(1, after);
+      try (ResultSet rs = ps.executeQuery()) {
+        while (rs.next()) {
+          long idVueloConEscala = rs.getLong("ID_VUELO_CON_ESCALA");
+          VueloDTO.VueloConEscalaView view = vuelos.get(idVueloConEscala);
+          if (view == null && limit > 0 && vuelos.size() >= limit) break;
 
-        if (view == null) {
-          VueloDTO.View primerTramo = new VueloDTO.View(
-              rs.getLong("ID_VUELO1"),
-              rs.getString("CODIGO1"),
-              rs.getLong("ID_VUELO1"),
-              rs.getString("ORIGEN1"),
-              rs.getString("DESTINO1"),
-              rs.getTimestamp("FECHA_SALIDA1").toLocalDateTime(),
-              rs.getTimestamp("FECHA_LLEGADA1").toLocalDateTime(),
-              true,
-              null,
-              rs.getString("ESTADO1"),
-              new ArrayList<>(),
-              new ArrayList<>(),
-              null,
-              rs.getString("ORIGEN_PAIS1"),
-              rs.getString("DESTINO_PAIS1")
-          );
+          if (view == null) {
+            VueloDTO.View primerTramo = new VueloDTO.View(
+                rs.getLong("ID_VUELO1"),
+                rs.getString("CODIGO1"),
+                rs.getLong("ID_VUELO1"),
+                rs.getString("ORIGEN1"),
+                rs.getString("DESTINO1"),
+                rs.getTimestamp("FECHA_SALIDA1").toLocalDateTime(),
+                rs.getTimestamp("FECHA_LLEGADA1").toLocalDateTime(),
+                true,
+                null,
+                rs.getString("ESTADO1"),
+                new ArrayList<>(),
+                new ArrayList<>(),
+                null,
+                rs.getString("ORIGEN_PAIS1"),
+                rs.getString("DESTINO_PAIS1")
+            );
 
-          VueloDTO.View segundoTramo = new VueloDTO.View(
-              rs.getLong("ID_VUELO2"),
-              rs.getString("CODIGO2"),
-              rs.getLong("ID_VUELO2"),
-              rs.getString("ORIGEN2"),
-              rs.getString("DESTINO2"),
-              rs.getTimestamp("FECHA_SALIDA2").toLocalDateTime(),
-              rs.getTimestamp("FECHA_LLEGADA2").toLocalDateTime(),
-              true,
-              null,
-              rs.getString("ESTADO2"),
-              new ArrayList<>(),
-              new ArrayList<>(),
-              null,
-              rs.getString("ORIGEN_PAIS2"),
-              rs.getString("DESTINO_PAIS2")
-          );
+            VueloDTO.View segundoTramo = new VueloDTO.View(
+                rs.getLong("ID_VUELO2"),
+                rs.getString("CODIGO2"),
+                rs.getLong("ID_VUELO2"),
+                rs.getString("ORIGEN2"),
+                rs.getString("DESTINO2"),
+                rs.getTimestamp("FECHA_SALIDA2").toLocalDateTime(),
+                rs.getTimestamp("FECHA_LLEGADA2").toLocalDateTime(),
+                true,
+                null,
+                rs.getString("ESTADO2"),
+                new ArrayList<>(),
+                new ArrayList<>(),
+                null,
+                rs.getString("ORIGEN_PAIS2"),
+                rs.getString("DESTINO_PAIS2")
+            );
 
-          view = new VueloDTO.VueloConEscalaView(
-              idVueloConEscala,
-              rs.getString("CODIGO"),
-              primerTramo,
-              segundoTramo,
-              rs.getString("ORIGEN1"),
-              rs.getString("DESTINO2"),
-              rs.getString("ORIGEN_PAIS1"),
-              rs.getString("DESTINO_PAIS2"),
-              rs.getTimestamp("FECHA_SALIDA1").toLocalDateTime(),
-              rs.getTimestamp("FECHA_LLEGADA2").toLocalDateTime(),
-              rs.getInt("ACTIVO") == 1,
-              null,
-              "ACTIVO",
-              new ArrayList<>(),
-              null
-          );
-          vuelos.put(idVueloConEscala, view);
-        }
+            view = new VueloDTO.VueloConEscalaView(
+                idVueloConEscala,
+                rs.getString("CODIGO"),
+                primerTramo,
+                segundoTramo,
+                rs.getString("ORIGEN1"),
+                rs.getString("DESTINO2"),
+                rs.getString("ORIGEN_PAIS1"),
+                rs.getString("DESTINO_PAIS2"),
+                rs.getTimestamp("FECHA_SALIDA1").toLocalDateTime(),
+                rs.getTimestamp("FECHA_LLEGADA2").toLocalDateTime(),
+                rs.getInt("ACTIVO") == 1,
+                null,
+                "ACTIVO",
+                new ArrayList<>(),
+                null
+            );
+            vuelos.put(idVueloConEscala, view);
+          }
 
-        int idClase = rs.getInt("ID_CLASE");
-        if (!rs.wasNull()) {
-          view.clases().add(new VueloDTO.ClaseConfig(
-              idClase,
-              rs.getInt("CUPO_TOTAL"),
-              rs.getDouble("PRECIO")
-          ));
+          int idClase = rs.getInt("ID_CLASE");
+          if (!rs.wasNull()) {
+            view.clases().add(new VueloDTO.ClaseConfig(
+                idClase,
+                rs.getInt("CUPO_TOTAL"),
+                rs.getDouble("PRECIO")
+            ));
+          }
         }
       }
     }
@@ -1165,14 +1390,7 @@ public class VueloDAO {
   }
 
   public VueloDTO.VueloConEscalaView obtenerVueloConEscalaPublic(long id) throws Exception {
-    String vueloConEscalaTable = DB.table("VUELO_CON_ESCALA");
-    String vueloTable = DB.table("VUELO");
-    String rutaTable = DB.table("RUTA");
-    String ciudadTable = DB.table("CIUDAD");
-    String paisTable = DB.table("PAIS");
-    String estadosTable = DB.table("ESTADOS");
-    String vueloConEscalaClaseTable = DB.table("VUELO_CON_ESCALA_CLASE");
-    String sql = "SELECT vce.ID_VUELO_CON_ESCALA, vce.CODIGO, vce.ACTIVO, v1.ID_VUELO AS ID_VUELO1, v1.CODIGO AS CODIGO1, v1.FECHA_SALIDA AS FECHA_SALIDA1, v1.FECHA_LLEGADA AS FECHA_LLEGADA1, v2.ID_VUELO AS ID_VUELO2, v2.CODIGO AS CODIGO2, v2.FECHA_SALIDA AS FECHA_SALIDA2, v2.FECHA_LLEGADA AS FECHA_LLEGADA2, co1.NOMBRE AS ORIGEN1, cd1.NOMBRE AS DESTINO1, po1.NOMBRE AS ORIGEN_PAIS1, pd1.NOMBRE AS DESTINO_PAIS1, co2.NOMBRE AS ORIGEN2, cd2.NOMBRE AS DESTINO2, po2.NOMBRE AS ORIGEN_PAIS2, pd2.NOMBRE AS DESTINO_PAIS2, e1.Estado AS ESTADO1, e2.Estado AS ESTADO2, vcec.ID_CLASE, vcec.CUPO_TOTAL, vcec.PRECIO FROM " + vueloConEscalaTable + " vce JOIN " + vueloTable + " v1 ON v1.ID_VUELO = vce.ID_VUELO_PRIMER_TRAMO JOIN " + vueloTable + " v2 ON v2.ID_VUELO = vce.ID_VUELO_SEGUNDO_TRAMO JOIN " + rutaTable + " r1 ON r1.ID_RUTA = v1.ID_RUTA JOIN " + rutaTable + " r2 ON r2.ID_RUTA = v2.ID_RUTA JOIN " + ciudadTable + " co1 ON co1.ID_CIUDAD = r1.ID_CIUDAD_ORIGEN JOIN " + ciudadTable + " cd1 ON cd1.ID_CIUDAD = r1.ID_CIUDAD_DESTINO JOIN " + ciudadTable + " co2 ON co2.ID_CIUDAD = r2.ID_CIUDAD_ORIGEN JOIN " + ciudadTable + " cd2 ON cd2.ID_CIUDAD = r2.ID_CIUDAD_DESTINO JOIN " + paisTable + " po1 ON po1.ID_PAIS = co1.ID_PAIS JOIN " + paisTable + " pd1 ON pd1.ID_PAIS = cd1.ID_PAIS JOIN " + paisTable + " po2 ON po2.ID_PAIS = co2.ID_PAIS JOIN " + paisTable + " pd2 ON pd2.ID_PAIS = cd2.ID_PAIS JOIN " + estadosTable + " e1 ON e1.ID_ESTADO = v1.ID_ESTADO JOIN " + estadosTable + " e2 ON e2.ID_ESTADO = v2.ID_ESTADO LEFT JOIN " + vueloConEscalaClaseTable + " vcec ON vcec.ID_VUELO_CON_ESCALA = vce.ID_VUELO_CON_ESCALA WHERE vce.ID_VUELO_CON_ESCALA = ? AND vce.ACTIVO = 1 AND NVL(v1.ACTIVO,1) = 1 AND NVL(v2.ACTIVO,1) = 1 AND UPPER(e1.Estado) <> 'CANCELADO' AND UPPER(e2.Estado) <> 'CANCELADO'";
+    String sql = Sentencias.sql(SQL_OBTENER_CON_ESCALA_PUBLICO);
 
     VueloDTO.VueloConEscalaView view = null;
     List<VueloDTO.ClaseConfig> clases = new ArrayList<>();
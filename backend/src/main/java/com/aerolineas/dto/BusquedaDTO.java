@@ -0,0 +1,23 @@
+package com.aerolineas.dto;
+
+import java.time.LocalDate;
+import java.util.List;
+
+public class BusquedaDTO {
+
+  public record Criterios(String origen, String destino, LocalDate desde, LocalDate hasta,
+                          LocalDate regresoDesde, LocalDate regresoHasta,
+                          Integer idClase, int boletos, boolean soloDirectos) {
+    public boolean idaYVuelta() { return regresoDesde != null; }
+  }
+
+  public record Opcion(VueloDTO.View ida, VueloDTO.View regreso) {}
+
+  public record Resultado(List<Opcion> directos, List<VueloDTO.VueloConEscalaView> conEscala) {
+    public int total() { return directos.size() + conEscala.size(); }
+  }
+
+  public record Log(Long idUsuario, String tipoViaje, String ciudadOrigen, String ciudadDestino,
+                    LocalDate desde, LocalDate hasta, LocalDate regresoDesde, LocalDate regresoHasta,
+                    Integer idClase, int boletos, boolean directo, int cantidadResultados, String fuente) {}
+}
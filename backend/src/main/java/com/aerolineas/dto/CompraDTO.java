@@ -12,6 +12,21 @@ public class CompraDTO {
     public Boolean incluirPareja;
   }
 
+  public static class ItemLoteResp {
+    public int indice;
+    public long idVuelo;
+    public int idClase;
+    public int cantidad;
+    public Long idVueloPareja;
+    public boolean ok;
+    public String error;
+  }
+
+  public static class LoteItemsResp {
+    public boolean ok;
+    public List<ItemLoteResp> items;
+  }
+
   public static class UpdateQtyReq {
     public int cantidad;
   }
@@ -44,7 +59,9 @@ public class CompraDTO {
 
   public static class CheckoutResp {
     public long idReserva;
+    public String codigo;
     public CheckoutResp(long id) { this.idReserva = id; }
+    public CheckoutResp(long id, String codigo) { this.idReserva = id; this.codigo = codigo; }
   }
 
   public static class CarritoResp {
@@ -70,6 +87,8 @@ public class CompraDTO {
     public String paisOrigen;
     public String ciudadDestino;
     public String paisDestino;
+    /** Hasta cuándo se retienen los asientos; null si la retención no vence. */
+    public String retenidoHasta;
   }
 
   public static class ReservaListItem {
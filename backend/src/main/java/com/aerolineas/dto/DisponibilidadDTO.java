@@ -0,0 +1,7 @@
+package com.aerolineas.dto;
+
+public class DisponibilidadDTO {
+  public record Desfase(long idVuelo, int idClase,
+                        int reservadosLedger, int enCarritoLedger,
+                        int reservadosReal, int enCarritoReal) {}
+}
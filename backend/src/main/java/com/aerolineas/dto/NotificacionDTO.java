@@ -0,0 +1,20 @@
+package com.aerolineas.dto;
+
+import java.time.Instant;
+
+public class NotificacionDTO {
+
+  public static final String PENDIENTE = "PENDIENTE";
+  public static final String ENVIADO   = "ENVIADO";
+  public static final String FALLIDO   = "FALLIDO";
+
+  public record Destinatario(long idReserva, long idUsuario, String email, String nombres, String apellidos) {}
+
+  public record DestinatarioVuelo(long idVuelo, Destinatario destinatario) {}
+
+  public record Entrega(long idReserva, String email, String estado, int intentos, String error) {}
+
+  public record Progreso(long idNotificacion, long idVuelo, String tipo, String estado,
+                         int total, int enviados, int fallidos, int pendientes,
+                         String error, Instant iniciada, Instant terminada) {}
+}
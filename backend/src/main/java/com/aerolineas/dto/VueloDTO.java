@@ -27,6 +27,12 @@ public class VueloDTO {
 
     public static record EstadoUpdate(Integer idEstado, String motivo) {}
 
+    // Operación masiva: idCiudad filtra por origen o destino; los demás filtros se combinan con AND
+    public record EstadoMasivo(Integer idEstado, String motivo, Long idCiudad, Long idCiudadOrigen, Long idCiudadDestino,
+                               LocalDateTime desde, LocalDateTime hasta, List<Long> rutas) {}
+
+    public record EstadoMasivoResultado(List<Long> vuelos, int motivos, List<Long> reservas, long msBloqueo, long msEscritura) {}
+
     public record EscalaCreate(Long idCiudad, LocalDateTime llegada, LocalDateTime salida) {}
 
     public record EscalaView(Long idCiudad, String ciudad, String pais, LocalDateTime llegada, LocalDateTime salida) {}
@@ -0,0 +1,47 @@
+package com.aerolineas.http;
+
+import io.javalin.http.Context;
+import org.eclipse.jetty.server.HttpOutput;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Envía un archivo del disco sin copiarlo al heap. Con Jetty se pasa el archivo mapeado a
+ * HttpOutput.sendContent; con otro contenedor se usa FileChannel.transferTo.
+ */
+public final class Archivos {
+
+  private Archivos() {}
+
+  public static long enviar(Context ctx, Path archivo, String contentType) throws IOException {
+    try (FileChannel ch = FileChannel.open(archivo, StandardOpenOption.READ)) {
+      long size = ch.size();
+      ctx.contentType(contentType);
+      ctx.res().setContentLengthLong(size);
+      // Directo al response: el compresor de Javalin no ayuda con PDFs y obligaría a copiar
+      OutputStream out = ctx.res().getOutputStream();
+      if (out instanceof HttpOutput http) {
+        http.sendContent(ch.map(FileChannel.MapMode.READ_ONLY, 0, size));
+        return size;
+      }
+      transferir(ch, Channels.newChannel(out));
+      out.flush();
+      return size;
+    }
+  }
+
+  static long transferir(FileChannel ch, WritableByteChannel destino) throws IOException {
+    long size = ch.size();
+    long pos = 0;
+    while (pos < size) {
+      pos += ch.transferTo(pos, size - pos, destino);
+    }
+    return pos;
+  }
+}
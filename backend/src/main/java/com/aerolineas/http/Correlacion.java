@@ -0,0 +1,57 @@
+package com.aerolineas.http;
+
+import com.aerolineas.util.Traza;
+import io.javalin.http.Context;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Id de correlación por request (X-Request-Id; se respeta el del cliente si es válido) y,
+ * si el request sale en el muestreo, su traza. Un traceparent W3C entrante pone el id de
+ * traza y el span padre. Al terminar, la traza vuelve en Server-Timing.
+ */
+public final class Correlacion {
+
+  public static final String HEADER = "X-Request-Id";
+
+  private static final Pattern ID_VALIDO = Pattern.compile("[A-Za-z0-9._-]{1,64}");
+  private static final Pattern HEX32 = Pattern.compile("[0-9a-f]{32}");
+  private static final Pattern TRACEPARENT = Pattern.compile("00-([0-9a-f]{32})-([0-9a-f]{16})-([0-9a-f]{2})");
+
+  private Correlacion() {}
+
+  public static String iniciar(Context ctx) {
+    String idTraza = null, padre = null;
+    boolean forzada = false;
+    String tp = ctx.header("traceparent");
+    if (tp != null) {
+      Matcher m = TRACEPARENT.matcher(tp.trim());
+      if (m.matches()) {
+        idTraza = m.group(1);
+        padre = m.group(2);
+        forzada = (Integer.parseInt(m.group(3), 16) & 1) == 1;
+      }
+    }
+
+    String id = ctx.header(HEADER);
+    if (id != null && !ID_VALIDO.matcher(id).matches()) id = null;
+    if (idTraza == null) idTraza = id != null && HEX32.matcher(id).matches() ? id : Traza.idTraza();
+    if (id == null) id = idTraza;
+    ctx.header(HEADER, id);
+
+    if (Traza.muestrear(forzada)) {
+      Traza.iniciar(idTraza, padre, String.valueOf(ctx.method()))
+          .raiz().etiqueta("request.id", id).etiqueta("http.path", ctx.path());
+    }
+    return id;
+  }
+
+  public static void terminar(Context ctx) {
+    Traza t = Traza.actual();
+    if (t == null) return;
+    t.raiz().etiqueta("http.status_code", String.valueOf(ctx.statusCode()));
+    Traza.terminar();
+    ctx.header("Server-Timing", t.serverTiming());
+  }
+}
@@ -0,0 +1,208 @@
+package com.aerolineas.http;
+
+import com.aerolineas.config.Entorno;
+import io.javalin.http.Context;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Header Idempotency-Key para escrituras que las agencias reintentan (carrito, checkout, cancelación).
+ * La primera respuesta 2xx se guarda por (usuario, llave) durante IDEMPOTENCIA_TTL_SEG y se
+ * devuelve tal cual en los reintentos; un duplicado que llega mientras la original corre espera
+ * su resultado en vez de ejecutarse otra vez (503 si la original lanza). Las respuestas de error
+ * no se guardan: el reintento vuelve a ejecutar. El almacén es de este proceso.
+ */
+public final class Idempotencia {
+
+  public static final String HEADER = "Idempotency-Key";
+
+  public record Respuesta(int status, Object cuerpo) {
+    public static Respuesta error(int status, String mensaje) {
+      return new Respuesta(status, Map.of("error", String.valueOf(mensaje)));
+    }
+
+    boolean exitosa() { return status >= 200 && status < 300; }
+  }
+
+  @FunctionalInterface
+  public interface Accion {
+    Respuesta ejecutar() throws Exception;
+  }
+
+  private record Entrada(String huella, CompletableFuture<Respuesta> resultado, long creadaEn) {}
+
+  private static volatile Idempotencia global;
+
+  private final Map<String, Entrada> entradas = new ConcurrentHashMap<>();
+  private final long ttlMs;
+  private final int max;
+  private final long esperaMs;
+
+  private final LongAdder ejecuciones = new LongAdder();
+  private final LongAdder repetidas = new LongAdder();
+  private final LongAdder esperas = new LongAdder();
+  private final LongAdder conflictos = new LongAdder();
+  private final LongAdder desalojos = new LongAdder();
+
+  public Idempotencia(long ttlMs, int max, long esperaMs) {
+    this.ttlMs = ttlMs;
+    this.max = Math.max(1, max);
+    this.esperaMs = esperaMs;
+  }
+
+  public static Idempotencia global() {
+    if (global == null) {
+      synchronized (Idempotencia.class) {
+        if (global == null) {
+          global = new Idempotencia(
+              Entorno.numero("IDEMPOTENCIA_TTL_SEG", 86_400) * 1000L,
+              (int) Entorno.numero("IDEMPOTENCIA_MAX", 10_000),
+              Entorno.numero("IDEMPOTENCIA_ESPERA_MS", 30_000));
+        }
+      }
+    }
+    return global;
+  }
+
+  /**
+   * Ejecuta la acción (o repite la respuesta guardada) y la escribe en ctx. Sin header, o con
+   * TTL 0, solo ejecuta. Devuelve la respuesta escrita.
+   */
+  public Respuesta responder(Context ctx, long userId, Accion accion) throws Exception {
+    String llave = ctx.header(HEADER);
+    if (llave == null || llave.isBlank() || ttlMs <= 0) {
+      Respuesta r = accion.ejecutar();
+      escribir(ctx, r);
+      return r;
+    }
+    llave = llave.trim();
+    if (llave.length() > 255) {
+      Respuesta r = Respuesta.error(400, HEADER + " demasiado larga (máximo 255).");
+      escribir(ctx, r);
+      return r;
+    }
+
+    String id = userId + ":" + llave;
+    String huella = huella(ctx);
+    long ahora = System.currentTimeMillis();
+    Entrada nueva = new Entrada(huella, new CompletableFuture<>(), ahora);
+
+    Entrada previa;
+    while (true) {
+      previa = entradas.putIfAbsent(id, nueva);
+      if (previa == null || !vencida(previa, ahora)) break;
+      entradas.remove(id, previa);
+    }
+
+    if (previa != null) {
+      Respuesta r;
+      if (!previa.huella().equals(huella)) {
+        conflictos.increment();
+        r = Respuesta.error(422, "La " + HEADER + " ya se usó con otra solicitud.");
+      } else {
+        r = esperar(previa);
+        if (r.exitosa()) ctx.header("Idempotent-Replayed", "true");
+      }
+      escribir(ctx, r);
+      return r;
+    }
+
+    if (entradas.size() > max) desalojar(ahora);
+    ejecuciones.increment();
+    Respuesta r;
+    try {
+      r = accion.ejecutar();
+    } catch (Exception | Error ex) {
+      entradas.remove(id, nueva);
+      nueva.resultado().completeExceptionally(ex);
+      throw ex;
+    }
+    if (!r.exitosa()) entradas.remove(id, nueva);
+    nueva.resultado().complete(r);
+    escribir(ctx, r);
+    return r;
+  }
+
+  private Respuesta esperar(Entrada previa) {
+    CompletableFuture<Respuesta> f = previa.resultado();
+    if (f.isDone()) {
+      repetidas.increment();
+    } else {
+      esperas.increment();
+    }
+    try {
+      return f.get(esperaMs, TimeUnit.MILLISECONDS);
+    } catch (TimeoutException | InterruptedException e) {
+      if (e instanceof InterruptedException) Thread.currentThread().interrupt();
+      return Respuesta.error(409, "La solicitud original con esta " + HEADER + " sigue en curso.");
+    } catch (ExecutionException e) {
+      // La original falló del lado del servidor y no quedó guardada: el reintento vuelve a ejecutar
+      return Respuesta.error(503, "La solicitud original con esta " + HEADER + " falló; reintenta.");
+    }
+  }
+
+  private static void escribir(Context ctx, Respuesta r) {
+    if (r.status() != 200) ctx.status(r.status());
+    if (r.cuerpo() != null) ctx.json(r.cuerpo());
+  }
+
+  private static String huella(Context ctx) {
+    try {
+      MessageDigest md = MessageDigest.getInstance("SHA-256");
+      md.update(Objects.toString(ctx.method(), "").getBytes(StandardCharsets.UTF_8));
+      md.update((byte) 0);
+      md.update(Objects.toString(ctx.path(), "").getBytes(StandardCharsets.UTF_8));
+      md.update((byte) 0);
+      md.update(Objects.toString(ctx.body(), "").getBytes(StandardCharsets.UTF_8));
+      return Base64.getEncoder().encodeToString(md.digest());
+    } catch (Exception e) {
+      throw new IllegalStateException("No se pudo calcular la huella de la solicitud", e);
+    }
+  }
+
+  private boolean vencida(Entrada e, long ahora) {
+    return e.resultado().isDone() && e.creadaEn() + ttlMs <= ahora;
+  }
+
+  private void desalojar(long ahora) {
+    entradas.entrySet().removeIf(en -> {
+      boolean v = vencida(en.getValue(), ahora);
+      if (v) desalojos.increment();
+      return v;
+    });
+    while (entradas.size() > max) {
+      String masVieja = null;
+      long min = Long.MAX_VALUE;
+      for (var en : entradas.entrySet()) {
+        Entrada e = en.getValue();
+        if (e.resultado().isDone() && e.creadaEn() < min) { min = e.creadaEn(); masVieja = en.getKey(); }
+      }
+      if (masVieja == null || entradas.remove(masVieja) == null) break;
+      desalojos.increment();
+    }
+  }
+
+  public Map<String, Object> stats() {
+    Map<String, Object> m = new LinkedHashMap<>();
+    m.put("size", entradas.size());
+    m.put("max", max);
+    m.put("ttlSeconds", ttlMs / 1000L);
+    m.put("ejecuciones", ejecuciones.sum());
+    m.put("repetidas", repetidas.sum());
+    m.put("esperas", esperas.sum());
+    m.put("conflictos", conflictos.sum());
+    m.put("desalojos", desalojos.sum());
+    return m;
+  }
+}
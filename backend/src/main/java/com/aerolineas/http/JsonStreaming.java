@@ -0,0 +1,107 @@
+package com.aerolineas.http;
+
+import com.aerolineas.dao.Emisor;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import io.javalin.http.Context;
+import io.javalin.json.JavalinJackson;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Respuesta JSON en streaming: cada fila se serializa con un JsonGenerator directo al
+ * output stream mientras el DAO mantiene el cursor abierto. No se arma la lista en memoria.
+ */
+public final class JsonStreaming {
+
+  @FunctionalInterface
+  public interface Fuente<T> {
+    int recorrer(Emisor<T> emisor) throws Exception;
+  }
+
+  static final int FLUSH_CADA = 200;
+
+  private static final ObjectMapper MAPPER = JavalinJackson.defaultMapper();
+  // Sin flush por valor: el envío lo controla FLUSH_CADA
+  private static final ObjectWriter WRITER = MAPPER.writer().without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+
+  private JsonStreaming() {}
+
+  /**
+   * Escribe el arreglo en la respuesta; devuelve las filas escritas, o -1 si el cursor falló con
+   * parte del JSON ya enviado. En ese caso no se propaga el error: un cuerpo de error se pegaría
+   * al JSON truncado. Mientras no salió nada ni está comprometida, se propaga para que el
+   * manejador de errores responda limpio.
+   */
+  public static <T> int responder(Context ctx, Fuente<T> fuente) throws Exception {
+    ctx.contentType("application/json");
+    Salida out = new Salida(ctx.outputStream());
+    try {
+      return escribir(out, fuente);
+    } catch (Exception e) {
+      if (out.bytes == 0 && !ctx.res().isCommitted()) throw e;
+      return -1;
+    }
+  }
+
+  static <T> int escribir(OutputStream out, Fuente<T> fuente) throws Exception {
+    return escribir(new Salida(out), fuente);
+  }
+
+  private static <T> int escribir(Salida out, Fuente<T> fuente) throws Exception {
+    JsonGenerator g = MAPPER.getFactory().createGenerator(out);
+    // Si el cursor falla a mitad, no se debe cerrar el arreglo: el cliente tiene que ver un JSON truncado
+    g.disable(JsonGenerator.Feature.AUTO_CLOSE_JSON_CONTENT);
+    g.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+    int[] escritas = {0};
+    boolean completo = false;
+    try {
+      g.writeStartArray();
+      fuente.recorrer(fila -> {
+        WRITER.writeValue(g, fila);
+        int n = ++escritas[0];
+        if (n == 1 || n % FLUSH_CADA == 0) g.flush();
+      });
+      g.writeEndArray();
+      completo = true;
+      return escritas[0];
+    } finally {
+      if (completo) {
+        g.close();
+      } else {
+        // Sin nada enviado se descarta el buffer del generador, que igual se cierra para soltarlo
+        if (out.bytes == 0) out.descartar = true;
+        else System.out.println("[JsonStreaming] cursor interrumpido tras " + escritas[0] + " filas");
+        try { g.close(); } catch (IOException ignore) {}
+      }
+    }
+  }
+
+  /** Cuenta lo que pasa al stream real; con descartar activo lo tira. */
+  private static final class Salida extends FilterOutputStream {
+    long bytes;
+    boolean descartar;
+
+    Salida(OutputStream out) { super(out); }
+
+    @Override public void write(int b) throws IOException {
+      if (descartar) return;
+      out.write(b);
+      bytes++;
+    }
+
+    @Override public void write(byte[] b, int off, int len) throws IOException {
+      if (descartar) return;
+      out.write(b, off, len);
+      bytes += len;
+    }
+
+    @Override public void flush() throws IOException {
+      if (!descartar) out.flush();
+    }
+  }
+}
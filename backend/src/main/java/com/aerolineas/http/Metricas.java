@@ -0,0 +1,318 @@
+package com.aerolineas.http;
+
+import com.aerolineas.config.TelemetriaPool;
+import com.aerolineas.middleware.WebServiceCredCache;
+import com.aerolineas.service.BoletoCache;
+import com.aerolineas.service.ColaCorreos;
+import com.aerolineas.util.Histograma;
+import com.aerolineas.util.HistogramaFino;
+import io.javalin.http.HandlerType;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+import java.lang.management.ThreadMXBean;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Latencia y códigos de estado por plantilla de ruta (/api/public/vuelos/{id}, no la ruta cruda),
+ * exportados en /metrics con el formato de texto de Prometheus junto a los medidores del pool,
+ * los cachés, la cola de correos y la JVM. Medir un request no reserva memoria: la serie se
+ * crea la primera vez que se ve la ruta y el inicio va en un arreglo del hilo.
+ */
+public final class Metricas {
+
+  static final String SIN_RUTA = "(sin ruta)";
+  static final String OTRAS = "(otras)";
+  static final int MAX_RUTAS = 500;
+  static final String PREFIJO = "aerolineas_";
+
+  /** Bordes exportados: potencias de 2 de 256 µs a ~33 s, exactas en HistogramaFino. */
+  static final long[] BORDES_US = new long[18];
+  private static final String[] BORDES_TXT = new String[BORDES_US.length];
+
+  static {
+    for (int i = 0; i < BORDES_US.length; i++) {
+      BORDES_US[i] = 1L << (i + 8);
+      BORDES_TXT[i] = BigDecimal.valueOf(BORDES_US[i], 6).stripTrailingZeros().toPlainString();
+    }
+  }
+
+  /** Una plantilla de ruta con su método. */
+  public static final class Serie {
+    final String metodo;
+    final String ruta;
+    final String nombre;
+    final HistogramaFino latencia = new HistogramaFino();
+    final AtomicReferenceArray<LongAdder> estados = new AtomicReferenceArray<>(600);
+
+    Serie(String metodo, String ruta) {
+      this.metodo = metodo;
+      this.ruta = ruta;
+      this.nombre = metodo + " " + ruta;
+    }
+
+    /** "GET /api/..." ya armado, para etiquetar sin concatenar en cada request. */
+    public String nombre() { return nombre; }
+
+    void registrar(int status, long micros) {
+      latencia.registrar(micros);
+      int i = status >= 0 && status < 600 ? status : 0;
+      LongAdder c = estados.get(i);
+      if (c == null) {
+        estados.compareAndSet(i, null, new LongAdder());
+        c = estados.get(i);
+      }
+      c.increment();
+    }
+  }
+
+  private static final class Marca {
+    long inicio;
+    Serie serie;
+  }
+
+  private static volatile Metricas global;
+
+  private final Map<HandlerType, Map<String, Serie>> series = new EnumMap<>(HandlerType.class);
+  private final LongAdder totalSeries = new LongAdder();
+  private final ThreadLocal<Marca> marcas = ThreadLocal.withInitial(Marca::new);
+  private final List<Consumer<Texto>> fuentes = new ArrayList<>();
+
+  public Metricas() {
+    for (HandlerType t : HandlerType.values()) series.put(t, new ConcurrentHashMap<>());
+  }
+
+  public static Metricas global() {
+    if (global == null) {
+      synchronized (Metricas.class) {
+        if (global == null) {
+          Metricas m = new Metricas();
+          m.agregarFuente(Metricas::pool);
+          m.agregarFuente(Metricas::caches);
+          m.agregarFuente(Metricas::correos);
+          m.agregarFuente(Metricas::jvm);
+          global = m;
+        }
+      }
+    }
+    return global;
+  }
+
+  /** Suma medidores al texto exportado. */
+  public synchronized void agregarFuente(Consumer<Texto> fuente) {
+    fuentes.add(fuente);
+  }
+
+  /** Al entrar el request, antes de saber la ruta. */
+  public void iniciar() {
+    Marca m = marcas.get();
+    m.inicio = System.nanoTime();
+    m.serie = null;
+  }
+
+  /** Cuando Javalin ya resolvió el endpoint; devuelve la serie para reusar su nombre. */
+  public Serie enRuta(HandlerType metodo, String ruta) {
+    Serie s = serie(metodo, ruta);
+    marcas.get().serie = s;
+    return s;
+  }
+
+  /** Al terminar el request (también en 404 y errores). */
+  public void terminar(HandlerType metodo, int status) {
+    Marca m = marcas.get();
+    if (m.inicio == 0) return;
+    Serie s = m.serie != null ? m.serie : serie(metodo, SIN_RUTA);
+    s.registrar(status, (System.nanoTime() - m.inicio) / 1000);
+    m.inicio = 0;
+    m.serie = null;
+  }
+
+  Serie serie(HandlerType metodo, String ruta) {
+    Map<String, Serie> porRuta = series.get(metodo);
+    Serie s = porRuta.get(ruta);
+    if (s != null) return s;
+    // Las rutas son plantillas, pero se acota por si algo registra rutas dinámicas
+    String clave = totalSeries.sum() >= MAX_RUTAS ? OTRAS : ruta;
+    return porRuta.computeIfAbsent(clave, k -> {
+      totalSeries.increment();
+      return new Serie(metodo.name(), k);
+    });
+  }
+
+  /** Texto para /metrics (text/plain; version=0.0.4). */
+  public String prometheus() {
+    Texto t = new Texto();
+    http(t);
+    List<Consumer<Texto>> fs;
+    synchronized (this) { fs = new ArrayList<>(fuentes); }
+    for (Consumer<Texto> f : fs) {
+      try {
+        f.accept(t);
+      } catch (Exception e) {
+        System.out.println("[Metricas] fuente con error: " + e.getMessage());
+      }
+    }
+    return t.toString();
+  }
+
+  private void http(Texto t) {
+    Map<String, Serie> orden = new TreeMap<>();
+    series.values().forEach(m -> m.values().forEach(s -> orden.put(s.ruta + " " + s.metodo, s)));
+
+    t.familia("http_peticiones_total", "counter", "Peticiones atendidas por ruta y código de estado.");
+    for (Serie s : orden.values()) {
+      for (int i = 0; i < s.estados.length(); i++) {
+        LongAdder c = s.estados.get(i);
+        if (c != null) t.muestra("http_peticiones_total", c.sum(),
+            "metodo", s.metodo, "ruta", s.ruta, "estado", String.valueOf(i));
+      }
+    }
+
+    t.familia("http_duracion_seconds", "histogram", "Duración de las peticiones por ruta.");
+    for (Serie s : orden.values()) {
+      long[] f = s.latencia.foto();
+      for (int i = 0; i < BORDES_US.length; i++) {
+        t.muestra("http_duracion_seconds_bucket", HistogramaFino.hasta(f, BORDES_US[i]),
+            "metodo", s.metodo, "ruta", s.ruta, "le", BORDES_TXT[i]);
+      }
+      long n = Histograma.cuenta(f);
+      t.muestra("http_duracion_seconds_bucket", n, "metodo", s.metodo, "ruta", s.ruta, "le", "+Inf");
+      t.muestra("http_duracion_seconds_sum", s.latencia.sumaMicros() / 1e6, "metodo", s.metodo, "ruta", s.ruta);
+      t.muestra("http_duracion_seconds_count", n, "metodo", s.metodo, "ruta", s.ruta);
+    }
+  }
+
+  static void pool(Texto t) {
+    TelemetriaPool p = TelemetriaPool.global();
+    t.familia("db_pool_conexiones", "gauge", "Conexiones del pool por estado.");
+    t.muestra("db_pool_conexiones", p.activas(), "estado", "activas");
+    t.muestra("db_pool_conexiones", p.inactivas(), "estado", "inactivas");
+    t.muestra("db_pool_conexiones", p.total(), "estado", "total");
+    t.familia("db_pool_pendientes", "gauge", "Hilos esperando una conexión.");
+    t.muestra("db_pool_pendientes", p.pendientes());
+    t.familia("db_pool_timeouts_total", "counter", "Pedidos de conexión que vencieron.");
+    t.muestra("db_pool_timeouts_total", p.timeouts());
+    long[] adq = p.adquisicion().foto();
+    t.familia("db_pool_espera_p95_seconds", "gauge", "p95 histórico de la espera por conexión.");
+    t.muestra("db_pool_espera_p95_seconds", Histograma.percentil(adq, 0.95) / 1e6);
+  }
+
+  static void caches(Texto t) {
+    t.familia("cache_aciertos_total", "counter", "Aciertos por caché.");
+    t.familia("cache_fallos_total", "counter", "Fallos por caché.");
+    t.familia("cache_entradas", "gauge", "Entradas en memoria por caché.");
+    Map<String, Object> ws = WebServiceCredCache.stats();
+    t.muestra("cache_aciertos_total", numero(ws.get("hits")), "cache", "credenciales_ws");
+    t.muestra("cache_fallos_total", numero(ws.get("misses")), "cache", "credenciales_ws");
+    t.muestra("cache_entradas", numero(ws.get("size")), "cache", "credenciales_ws");
+    Map<String, Object> bol = BoletoCache.global().stats();
+    t.muestra("cache_aciertos_total", numero(bol.get("hits")), "cache", "boletos");
+    t.muestra("cache_fallos_total", numero(bol.get("misses")), "cache", "boletos");
+    Map<String, Object> idem = Idempotencia.global().stats();
+    t.muestra("cache_aciertos_total", numero(idem.get("repetidas")), "cache", "idempotencia");
+    t.muestra("cache_fallos_total", numero(idem.get("ejecuciones")), "cache", "idempotencia");
+    t.muestra("cache_entradas", numero(idem.get("size")), "cache", "idempotencia");
+  }
+
+  static void correos(Texto t) {
+    ColaCorreos c = ColaCorreos.global();
+    try {
+      long pendientes = c.pendientes();
+      t.familia("correos_pendientes", "gauge", "Correos en OUTBOX_EVENTO sin entregar.");
+      t.muestra("correos_pendientes", pendientes);
+    } catch (Exception e) {
+      System.out.println("[Metricas] sin pendientes de correo: " + e.getMessage());
+    }
+    t.familia("correos_total", "counter", "Correos por resultado.");
+    t.muestra("correos_total", c.encolados(), "resultado", "encolado");
+    t.muestra("correos_total", c.enviados(), "resultado", "enviado");
+    t.muestra("correos_total", c.reintentos(), "resultado", "reintento");
+    t.muestra("correos_total", c.descartados(), "resultado", "descartado");
+  }
+
+  static void jvm(Texto t) {
+    var mem = ManagementFactory.getMemoryMXBean();
+    t.familia("jvm_memoria_bytes", "gauge", "Memoria de la JVM.");
+    memoria(t, "heap", mem.getHeapMemoryUsage());
+    memoria(t, "noheap", mem.getNonHeapMemoryUsage());
+
+    t.familia("jvm_gc_colecciones_total", "counter", "Recolecciones por colector.");
+    t.familia("jvm_gc_seconds_total", "counter", "Tiempo en recolección por colector.");
+    for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+      t.muestra("jvm_gc_colecciones_total", Math.max(0, gc.getCollectionCount()), "gc", gc.getName());
+      t.muestra("jvm_gc_seconds_total", Math.max(0, gc.getCollectionTime()) / 1000.0, "gc", gc.getName());
+    }
+
+    ThreadMXBean hilos = ManagementFactory.getThreadMXBean();
+    t.familia("jvm_hilos", "gauge", "Hilos de la JVM.");
+    t.muestra("jvm_hilos", hilos.getThreadCount(), "tipo", "vivos");
+    t.muestra("jvm_hilos", hilos.getDaemonThreadCount(), "tipo", "daemon");
+    t.muestra("jvm_hilos", hilos.getPeakThreadCount(), "tipo", "pico");
+
+    t.familia("jvm_uptime_seconds", "gauge", "Segundos desde que arrancó la JVM.");
+    t.muestra("jvm_uptime_seconds", ManagementFactory.getRuntimeMXBean().getUptime() / 1000.0);
+  }
+
+  private static void memoria(Texto t, String area, MemoryUsage u) {
+    t.muestra("jvm_memoria_bytes", u.getUsed(), "area", area, "tipo", "usada");
+    t.muestra("jvm_memoria_bytes", u.getCommitted(), "area", area, "tipo", "reservada");
+    if (u.getMax() >= 0) t.muestra("jvm_memoria_bytes", u.getMax(), "area", area, "tipo", "maxima");
+  }
+
+  private static double numero(Object o) {
+    return o instanceof Number n ? n.doubleValue() : 0;
+  }
+
+  /** Arma el texto de exposición; los nombres llevan el prefijo "aerolineas_". */
+  public static final class Texto {
+    private final StringBuilder sb = new StringBuilder(16 * 1024);
+
+    public void familia(String nombre, String tipo, String ayuda) {
+      sb.append("# HELP ").append(PREFIJO).append(nombre).append(' ').append(ayuda).append('\n');
+      sb.append("# TYPE ").append(PREFIJO).append(nombre).append(' ').append(tipo).append('\n');
+    }
+
+    /** etiquetas: pares nombre, valor. */
+    public void muestra(String nombre, double valor, String... etiquetas) {
+      sb.append(PREFIJO).append(nombre);
+      if (etiquetas.length > 0) {
+        sb.append('{');
+        for (int i = 0; i + 1 < etiquetas.length; i += 2) {
+          if (i > 0) sb.append(',');
+          sb.append(etiquetas[i]).append("=\"");
+          escapar(etiquetas[i + 1]);
+          sb.append('"');
+        }
+        sb.append('}');
+      }
+      sb.append(' ');
+      if (valor == Math.rint(valor) && Math.abs(valor) < 1e15) sb.append((long) valor);
+      else sb.append(valor);
+      sb.append('\n');
+    }
+
+    private void escapar(String v) {
+      for (int i = 0; i < v.length(); i++) {
+        char c = v.charAt(i);
+        if (c == '\\' || c == '"') sb.append('\\').append(c);
+        else if (c == '\n') sb.append("\\n");
+        else sb.append(c);
+      }
+    }
+
+    @Override
+    public String toString() {
+      return sb.toString();
+    }
+  }
+}
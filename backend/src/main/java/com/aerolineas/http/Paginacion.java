@@ -0,0 +1,82 @@
+package com.aerolineas.http;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import io.javalin.http.Context;
+import io.javalin.json.JavalinJackson;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.ToLongFunction;
+
+/**
+ * Paginación keyset (limit/after sobre el ID) y proyección opcional con fields=.
+ * El cuerpo sigue siendo un arreglo JSON; el cursor de la siguiente página va en X-Next-Cursor.
+ */
+public final class Paginacion {
+
+  public static final String HEADER_CURSOR = "X-Next-Cursor";
+  public static final int LIMIT_MAX = 500;
+
+  private static final ObjectMapper MAPPER = JavalinJackson.defaultMapper();
+
+  public record Cursor(Long after, int limit) {
+    /** Filas a pedir al DAO: una extra para saber si hay más páginas. */
+    public int limitConSonda() { return limit + 1; }
+  }
+
+  private Paginacion() {}
+
+  /** null si el cliente no pidió paginar y no hay límite por defecto para el endpoint. */
+  public static Cursor cursor(Context ctx, int limitPorDefecto) {
+    Long after = parseLong(ctx.queryParam("after"), "after");
+    Long limit = parseLong(ctx.queryParam("limit"), "limit");
+    if (after == null && limit == null && limitPorDefecto <= 0) return null;
+    int l = limit == null ? (limitPorDefecto > 0 ? limitPorDefecto : LIMIT_MAX) : limit.intValue();
+    if (l < 1) throw new IllegalArgumentException("limit debe ser mayor que 0");
+    return new Cursor(after, Math.min(l, LIMIT_MAX));
+  }
+
+  public static Set<String> campos(Context ctx) {
+    String raw = ctx.queryParam("fields");
+    if (raw == null || raw.isBlank()) return null;
+    Set<String> out = new LinkedHashSet<>();
+    for (String f : raw.split(",")) {
+      if (!f.isBlank()) out.add(f.trim());
+    }
+    return out.isEmpty() ? null : out;
+  }
+
+  /** Recorta la sonda, publica el cursor siguiente y aplica la proyección. */
+  public static <T> void responder(Context ctx, List<T> filas, Cursor cursor, ToLongFunction<T> id) {
+    List<T> pagina = filas;
+    if (cursor != null && filas.size() > cursor.limit()) {
+      pagina = filas.subList(0, cursor.limit());
+      ctx.header(HEADER_CURSOR, String.valueOf(id.applyAsLong(pagina.get(pagina.size() - 1))));
+    }
+    Set<String> campos = campos(ctx);
+    ctx.json(campos == null ? pagina : proyectar(pagina, campos));
+  }
+
+  public static List<JsonNode> proyectar(List<?> filas, Set<String> campos) {
+    List<JsonNode> out = new ArrayList<>(filas.size());
+    for (Object f : filas) {
+      JsonNode n = MAPPER.valueToTree(f);
+      if (n instanceof ObjectNode o) o.retain(campos);
+      out.add(n);
+    }
+    return out;
+  }
+
+  private static Long parseLong(String raw, String nombre) {
+    if (raw == null || raw.isBlank()) return null;
+    try {
+      return Long.parseLong(raw.trim());
+    } catch (NumberFormatException e) {
+      throw new IllegalArgumentException(nombre + " inválido");
+    }
+  }
+}
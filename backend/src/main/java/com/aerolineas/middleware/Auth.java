@@ -1,6 +1,7 @@
 package com.aerolineas.middleware;
 
 import com.aerolineas.util.JwtUtil;
+import com.aerolineas.util.Traza;
 import io.javalin.http.Context;
 import io.javalin.http.Handler;
 import io.javalin.http.UnauthorizedResponse;
@@ -36,22 +37,25 @@ public final class Auth {
     return null;
   }
 
+  @SuppressWarnings("try")
   private static Map<String,Object> parseAndAttach(Context ctx) {
-    String auth = ctx.header("Authorization");
-    if (auth == null || !auth.startsWith("Bearer ")) {
-      throw new UnauthorizedResponse("token requerido");
+    try (Traza.Span ignored = Traza.span("auth")) {
+      String auth = ctx.header("Authorization");
+      if (auth == null || !auth.startsWith("Bearer ")) {
+        throw new UnauthorizedResponse("token requerido");
+      }
+      var token = auth.substring(7);
+      var c = JwtUtil.parse(token);
+      Map<String,Object> claims = Map.of(
+          "sub",   c.get("sub"),
+          "idUsuario", c.get("sub"),
+          "email", c.get("email"),
+          "rol",   c.get("rol"),
+          "name",  c.get("name")
+      );
+      ctx.attribute("claims", claims);
+      return claims;
     }
-    var token = auth.substring(7);
-    var c = JwtUtil.parse(token);
-    Map<String,Object> claims = Map.of(
-        "sub",   c.get("sub"),
-        "idUsuario", c.get("sub"),
-        "email", c.get("email"),
-        "rol",   c.get("rol"),
-        "name",  c.get("name")
-    );
-    ctx.attribute("claims", claims);
-    return claims;
   }
 
   private static int toInt(Object v) {
@@ -3,6 +3,7 @@ package com.aerolineas.middleware;
 import com.aerolineas.dao.UsuarioDAO;
 import com.aerolineas.model.Usuario;
 import com.aerolineas.util.PasswordUtil;
+import com.aerolineas.util.Traza;
 import io.javalin.http.Context;
 import io.javalin.http.Handler;
 import io.javalin.http.UnauthorizedResponse;
@@ -16,50 +17,65 @@ public final class WebServiceAuth {
         return e == null ? null : e.trim().toLowerCase();
     }
 
+    @SuppressWarnings("try")
     public static Handler validate() {
         return ctx -> {
-
-            if ("OPTIONS".equalsIgnoreCase(String.valueOf(ctx.method()))) {
-                return;
+            try (Traza.Span ignored = Traza.span("auth-ws")) {
+                validar(ctx);
             }
-
-            String email = ctx.header("X-WebService-Email");
-            String password = ctx.header("X-WebService-Password");
-
-            if (email == null || email.isBlank() || password == null || password.isBlank()) {
-                throw new UnauthorizedResponse("Credenciales WebService requeridas: X-WebService-Email y X-WebService-Password");
-            }
-
-            email = normEmail(email);
-
-            UsuarioDAO usuarioDAO = new UsuarioDAO();
-            Usuario usuario = usuarioDAO.findByEmail(email);
-
-            if (usuario == null) {
-                throw new UnauthorizedResponse("Credenciales WebService inválidas");
-            }
-
-            if (!usuario.isHabilitado()) {
-                throw new UnauthorizedResponse("Usuario WebService deshabilitado");
-            }
-
-            if (usuario.getIdRol() != 2) {
-                throw new UnauthorizedResponse("Usuario no es de tipo WebService");
-            }
-
-            if (!PasswordUtil.verify(password, usuario.getContrasenaHash())) {
-                throw new UnauthorizedResponse("Credenciales WebService inválidas");
-            }
-
-            Map<String, Object> claims = Map.of(
-                "sub", String.valueOf(usuario.getIdUsuario()),
-                "idUsuario", String.valueOf(usuario.getIdUsuario()),
-                "email", usuario.getEmail(),
-                "rol", usuario.getIdRol(),
-                "name", usuario.getNombres() + " " + usuario.getApellidos()
-            );
-            ctx.attribute("claims", claims);
         };
     }
+
+    private static void validar(Context ctx) throws Exception {
+        if ("OPTIONS".equalsIgnoreCase(String.valueOf(ctx.method()))) {
+            return;
+        }
+
+        String email = ctx.header("X-WebService-Email");
+        String password = ctx.header("X-WebService-Password");
+
+        if (email == null || email.isBlank() || password == null || password.isBlank()) {
+            throw new UnauthorizedResponse("Credenciales WebService requeridas: X-WebService-Email y X-WebService-Password");
+        }
+
+        email = normEmail(email);
+
+        Map<String, Object> cached = WebServiceCredCache.get(email, password);
+        if (cached != null) {
+            ctx.attribute("claims", cached);
+            return;
+        }
+
+        UsuarioDAO usuarioDAO = new UsuarioDAO();
+        Usuario usuario = usuarioDAO.findByEmail(email);
+
+        if (usuario == null) {
+            throw new UnauthorizedResponse("Credenciales WebService inválidas");
+        }
+
+        if (!usuario.isHabilitado()) {
+            throw new UnauthorizedResponse("Usuario WebService deshabilitado");
+        }
+
+        if (usuario.getIdRol() != 2) {
+            throw new UnauthorizedResponse("Usuario no es de tipo WebService");
+        }
+
+        if (!PasswordUtil.verify(password, usuario.getContrasenaHash())) {
+            throw new UnauthorizedResponse("Credenciales WebService inválidas");
+        }
+
+        Map<String, Object> claims = Map.of(
+            "sub", String.valueOf(usuario.getIdUsuario()),
+            "idUsuario", String.valueOf(usuario.getIdUsuario()),
+            "email", usuario.getEmail(),
+            "rol", usuario.getIdRol(),
+            "name", usuario.getNombres() + " " + usuario.getApellidos()
+        );
+        if (usuario.getIdUsuario() != null) {
+            WebServiceCredCache.put(email, password, usuario.getIdUsuario(), claims);
+        }
+        ctx.attribute("claims", claims);
+    }
 }
 
@@ -0,0 +1,117 @@
+package com.aerolineas.middleware;
+
+import com.aerolineas.config.Entorno;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Cache de credenciales WebService ya verificadas (email + password -> claims).
+ * La llave es un HMAC-SHA256 con secreto aleatorio por proceso, así nunca se guarda la contraseña.
+ * Solo se cachean validaciones exitosas; se invalida por usuario desde el admin.
+ */
+public final class WebServiceCredCache {
+
+  private record Entry(long idUsuario, Map<String, Object> claims, long expiraEn) {}
+
+  private static final byte[] SECRET = new byte[32];
+  static { new SecureRandom().nextBytes(SECRET); }
+
+  private static final Map<String, Entry> CACHE = new ConcurrentHashMap<>();
+  private static final LongAdder HITS = new LongAdder();
+  private static final LongAdder MISSES = new LongAdder();
+  private static final LongAdder EVICTIONS = new LongAdder();
+
+  private WebServiceCredCache() {}
+
+  private static long ttlMillis() {
+    return Math.max(0, Entorno.numero("WS_AUTH_CACHE_TTL_SECONDS", 300)) * 1000L;
+  }
+
+  private static int maxEntries() {
+    return (int) Math.max(1, Math.min(Integer.MAX_VALUE, Entorno.numero("WS_AUTH_CACHE_MAX", 1000)));
+  }
+
+  static String key(String email, String password) {
+    try {
+      Mac mac = Mac.getInstance("HmacSHA256");
+      mac.init(new SecretKeySpec(SECRET, "HmacSHA256"));
+      mac.update(email.getBytes(StandardCharsets.UTF_8));
+      mac.update((byte) 0);
+      mac.update(password.getBytes(StandardCharsets.UTF_8));
+      return Base64.getEncoder().encodeToString(mac.doFinal());
+    } catch (Exception e) {
+      throw new IllegalStateException("No se pudo calcular HMAC de credenciales", e);
+    }
+  }
+
+  public static Map<String, Object> get(String email, String password) {
+    if (ttlMillis() <= 0) { MISSES.increment(); return null; }
+    String k = key(email, password);
+    Entry e = CACHE.get(k);
+    if (e == null) { MISSES.increment(); return null; }
+    if (e.expiraEn() <= System.currentTimeMillis()) {
+      CACHE.remove(k, e);
+      MISSES.increment();
+      return null;
+    }
+    HITS.increment();
+    return e.claims();
+  }
+
+  public static void put(String email, String password, long idUsuario, Map<String, Object> claims) {
+    long ttl = ttlMillis();
+    if (ttl <= 0) return;
+    long now = System.currentTimeMillis();
+    if (CACHE.size() >= maxEntries()) evict(now);
+    CACHE.put(key(email, password), new Entry(idUsuario, claims, now + ttl));
+  }
+
+  private static void evict(long now) {
+    CACHE.entrySet().removeIf(en -> {
+      boolean vencida = en.getValue().expiraEn() <= now;
+      if (vencida) EVICTIONS.increment();
+      return vencida;
+    });
+    while (CACHE.size() >= maxEntries()) {
+      String masViejo = null;
+      long min = Long.MAX_VALUE;
+      for (var en : CACHE.entrySet()) {
+        if (en.getValue().expiraEn() < min) { min = en.getValue().expiraEn(); masViejo = en.getKey(); }
+      }
+      if (masViejo == null || CACHE.remove(masViejo) == null) break;
+      EVICTIONS.increment();
+    }
+  }
+
+  public static void invalidateUser(long idUsuario) {
+    CACHE.values().removeIf(e -> e.idUsuario() == idUsuario);
+  }
+
+  public static void clear() {
+    CACHE.clear();
+    HITS.reset();
+    MISSES.reset();
+    EVICTIONS.reset();
+  }
+
+  public static long hits() { return HITS.sum(); }
+  public static long misses() { return MISSES.sum(); }
+
+  public static Map<String, Object> stats() {
+    Map<String, Object> m = new LinkedHashMap<>();
+    m.put("size", CACHE.size());
+    m.put("max", maxEntries());
+    m.put("ttlSeconds", ttlMillis() / 1000L);
+    m.put("hits", HITS.sum());
+    m.put("misses", MISSES.sum());
+    m.put("evictions", EVICTIONS.sum());
+    return m;
+  }
+}
@@ -0,0 +1,149 @@
+package com.aerolineas.service;
+
+import com.aerolineas.config.DB;
+import com.aerolineas.config.Entorno;
+import com.aerolineas.config.TelemetriaPool;
+import com.aerolineas.util.Histograma;
+
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntConsumer;
+import java.util.function.IntSupplier;
+
+/**
+ * Ajusta el máximo del pool entre DB_POOL_MIN y DB_POOL_MAX mirando la última ventana:
+ * si hay hilos esperando conexión (p95 de adquisición sobre DB_POOL_ESPERA_MS, pendientes o
+ * timeouts) crece un 25%, salvo que el p95 de uso pase DB_POOL_LATENCIA_MS: con la BD lenta
+ * más conexiones solo le suman carga. Tras DB_POOL_CALMAS ventanas sin espera baja de a una.
+ */
+public class AjustePoolJob {
+
+  private final TelemetriaPool telemetria;
+  private final IntSupplier leer;
+  private final IntConsumer fijar;
+  private final int minimo;
+  private final int maximo;
+  private final long esperaObjetivoUs;
+  private final long latenciaMaxUs;
+  private final int ventanasCalmas;
+
+  private long[] fotoAdquisicion;
+  private long[] fotoUso;
+  private long timeoutsAntes;
+  private int calmas;
+
+  private long crecimientos;
+  private long reducciones;
+  private long contenidos;
+  private volatile String ultimaDecision;
+  private volatile String ultimoAjuste;
+  private volatile double ultimaEsperaP95Ms;
+  private volatile double ultimoUsoP95Ms;
+
+  private ScheduledExecutorService scheduler;
+
+  public AjustePoolJob() {
+    this(TelemetriaPool.global(), DB::tamanoPool, DB::tamanoPool, DB.poolMinimo(), DB.poolMaximo(),
+        Entorno.numero("DB_POOL_ESPERA_MS", 10),
+        Entorno.numero("DB_POOL_LATENCIA_MS", 250),
+        (int) Entorno.numero("DB_POOL_CALMAS", 3));
+  }
+
+  public AjustePoolJob(TelemetriaPool telemetria, IntSupplier leer, IntConsumer fijar, int minimo, int maximo,
+                       long esperaObjetivoMs, long latenciaMaxMs, int ventanasCalmas) {
+    this.telemetria = telemetria;
+    this.leer = leer;
+    this.fijar = fijar;
+    this.minimo = Math.max(1, minimo);
+    this.maximo = Math.max(this.minimo, maximo);
+    this.esperaObjetivoUs = esperaObjetivoMs * 1000;
+    this.latenciaMaxUs = latenciaMaxMs * 1000;
+    this.ventanasCalmas = Math.max(1, ventanasCalmas);
+    this.fotoAdquisicion = telemetria.adquisicion().foto();
+    this.fotoUso = telemetria.uso().foto();
+    this.timeoutsAntes = telemetria.timeouts();
+  }
+
+  public synchronized void start() {
+    long seg = Entorno.numero("DB_POOL_AJUSTE_SEG", 30);
+    if (seg <= 0 || minimo == maximo || scheduler != null) return;
+    scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+      Thread t = new Thread(r, "ajuste-pool");
+      t.setDaemon(true);
+      return t;
+    });
+    scheduler.scheduleWithFixedDelay(this::evaluar, seg, seg, TimeUnit.SECONDS);
+  }
+
+  public synchronized void stop() {
+    if (scheduler != null) {
+      scheduler.shutdownNow();
+      scheduler = null;
+    }
+  }
+
+  /** Cierra la ventana actual y, si hace falta, cambia el máximo; devuelve el máximo resultante. */
+  public synchronized int evaluar() {
+    long[] adq = telemetria.adquisicion().foto();
+    long[] uso = telemetria.uso().foto();
+    long timeouts = telemetria.timeouts();
+    long[] ventanaAdq = Histograma.diferencia(adq, fotoAdquisicion);
+    long[] ventanaUso = Histograma.diferencia(uso, fotoUso);
+    long nuevosTimeouts = timeouts - timeoutsAntes;
+    fotoAdquisicion = adq;
+    fotoUso = uso;
+    timeoutsAntes = timeouts;
+
+    long esperaP95 = Histograma.percentil(ventanaAdq, 0.95);
+    long usoP95 = Histograma.percentil(ventanaUso, 0.95);
+    ultimaEsperaP95Ms = esperaP95 / 1000.0;
+    ultimoUsoP95Ms = usoP95 / 1000.0;
+
+    int actual = leer.getAsInt();
+    if (actual <= 0) return actual;
+    int nuevo = Math.max(minimo, Math.min(maximo, actual));
+    boolean presion = nuevosTimeouts > 0 || telemetria.pendientes() > 0 || esperaP95 > esperaObjetivoUs;
+
+    if (presion) {
+      calmas = 0;
+      if (usoP95 > latenciaMaxUs) {
+        contenidos++;
+        ultimaDecision = "sin crecer: uso p95 " + ultimoUsoP95Ms + " ms, la BD está lenta";
+      } else {
+        nuevo = Math.min(maximo, nuevo + Math.max(1, nuevo / 4));
+        ultimaDecision = "crecer: espera p95 " + ultimaEsperaP95Ms + " ms, " + nuevosTimeouts + " timeout(s)";
+      }
+    } else if (esperaP95 <= esperaObjetivoUs / 4 && ++calmas >= ventanasCalmas) {
+      calmas = 0;
+      nuevo = Math.max(minimo, nuevo - 1);
+      ultimaDecision = "reducir: " + ventanasCalmas + " ventana(s) sin espera";
+    }
+
+    if (nuevo != actual) {
+      fijar.accept(nuevo);
+      if (nuevo > actual) crecimientos++; else reducciones++;
+      ultimoAjuste = Instant.now().toString();
+      System.out.println("[Pool] máximo " + actual + " -> " + nuevo + " (" + ultimaDecision + ")");
+    }
+    return nuevo;
+  }
+
+  public synchronized Map<String, Object> stats() {
+    Map<String, Object> m = new LinkedHashMap<>();
+    m.put("tamano", leer.getAsInt());
+    m.put("minimo", minimo);
+    m.put("maximo", maximo);
+    m.put("crecimientos", crecimientos);
+    m.put("reducciones", reducciones);
+    m.put("contenidosPorLatencia", contenidos);
+    m.put("esperaP95Ms", ultimaEsperaP95Ms);
+    m.put("usoP95Ms", ultimoUsoP95Ms);
+    m.put("ultimaDecision", ultimaDecision);
+    m.put("ultimoAjuste", ultimoAjuste);
+    return m;
+  }
+}
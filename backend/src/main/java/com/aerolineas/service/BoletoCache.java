@@ -0,0 +1,205 @@
+package com.aerolineas.service;
+
+import com.aerolineas.config.Entorno;
+import com.aerolineas.dto.CompraDTO;
+import com.aerolineas.util.PdfBoleto;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.javalin.json.JavalinJackson;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+
+/**
+ * Caché en disco de boletos PDF. La ruta es {reserva}/{sha256 de los datos}.pdf: si cambia la
+ * reserva o el vuelo cambia el hash, así que nunca se sirve un boleto viejo. invalidar* solo
+ * borra archivos que ya no se van a pedir.
+ */
+public class BoletoCache {
+
+  /** Cambiar si cambia el diseño del PDF: invalida todo lo generado con el anterior. */
+  static final String FORMATO = "boleto-v1";
+
+  @FunctionalInterface
+  public interface Render {
+    byte[] render(CompraDTO.ReservaDetalle det, String codigo, String comprador, String email) throws Exception;
+  }
+
+  public record Entrada(CompraDTO.ReservaDetalle det, String codigo, String comprador, String email) {}
+
+  private static volatile BoletoCache global;
+  private static final ObjectMapper MAPPER = JavalinJackson.defaultMapper();
+
+  private final Path dir;
+  private final Render render;
+  private final Executor ejecutor;
+  private final ConcurrentHashMap<String, CompletableFuture<Path>> enCurso = new ConcurrentHashMap<>();
+  // vuelo -> reservas con boleto generado en esta ejecución
+  private final ConcurrentHashMap<Long, Set<Long>> porVuelo = new ConcurrentHashMap<>();
+
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+  private final LongAdder invalidados = new LongAdder();
+
+  public BoletoCache(Path dir, Render render, Executor ejecutor) {
+    this.dir = dir;
+    this.render = render;
+    this.ejecutor = ejecutor;
+  }
+
+  public static BoletoCache global() {
+    if (global == null) {
+      synchronized (BoletoCache.class) {
+        if (global == null) {
+          String raw = Entorno.texto("BOLETOS_DIR",
+              Path.of(System.getProperty("java.io.tmpdir"), "aerolineas-boletos").toString());
+          ThreadPoolExecutor ex = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+              new ArrayBlockingQueue<>(200), r -> {
+                Thread t = new Thread(r, "boletos-pdf");
+                t.setDaemon(true);
+                return t;
+              }, new ThreadPoolExecutor.DiscardPolicy());
+          global = new BoletoCache(Path.of(raw), PdfBoleto::build, ex);
+        }
+      }
+    }
+    return global;
+  }
+
+  /** Devuelve el archivo del boleto; si no existe lo genera en este hilo. */
+  public Path obtener(Entrada e) throws Exception {
+    String clave = clave(e);
+    Path archivo = dir.resolve(String.valueOf(e.det().idReserva)).resolve(clave + ".pdf");
+    if (Files.exists(archivo)) {
+      hits.increment();
+      return archivo;
+    }
+
+    CompletableFuture<Path> nuevo = new CompletableFuture<>();
+    CompletableFuture<Path> previo = enCurso.putIfAbsent(clave, nuevo);
+    if (previo != null) {
+      // Otro hilo (p. ej. el evento de boleto del outbox) ya lo está generando
+      hits.increment();
+      try {
+        return previo.get();
+      } catch (ExecutionException ex) {
+        throw ex.getCause() instanceof Exception c ? c : ex;
+      }
+    }
+    try {
+      misses.increment();
+      Path p = escribir(archivo, render.render(e.det(), e.codigo(), e.comprador(), e.email()));
+      indexar(e.det());
+      nuevo.complete(p);
+      return p;
+    } catch (Exception ex) {
+      nuevo.completeExceptionally(ex);
+      throw ex;
+    } finally {
+      enCurso.remove(clave, nuevo);
+    }
+  }
+
+  public int invalidarReserva(long idReserva) {
+    Path sub = dir.resolve(String.valueOf(idReserva));
+    if (!Files.isDirectory(sub)) return 0;
+    int n = 0;
+    try (Stream<Path> s = Files.list(sub)) {
+      for (Path p : (Iterable<Path>) s::iterator) {
+        if (Files.deleteIfExists(p)) n++;
+      }
+    } catch (IOException e) {
+      System.out.println("[Boletos] error invalidando reserva " + idReserva + ": " + e.getMessage());
+    }
+    invalidados.add(n);
+    return n;
+  }
+
+  public int invalidarVuelo(long idVuelo) {
+    Set<Long> reservas = porVuelo.remove(idVuelo);
+    if (reservas == null) return 0;
+    int n = 0;
+    for (Long id : reservas) n += invalidarReserva(id);
+    return n;
+  }
+
+  /** Borra boletos no accedidos en el período indicado; cubre los que quedaron de ejecuciones anteriores. */
+  public int purgar(Duration antiguedad) {
+    if (!Files.isDirectory(dir)) return 0;
+    Instant limite = Instant.now().minus(antiguedad);
+    int n = 0;
+    try (Stream<Path> s = Files.walk(dir, 2)) {
+      for (Path p : (Iterable<Path>) s::iterator) {
+        if (!p.toString().endsWith(".pdf")) continue;
+        FileTime t = Files.getLastModifiedTime(p);
+        if (t.toInstant().isBefore(limite) && Files.deleteIfExists(p)) n++;
+      }
+    } catch (IOException e) {
+      System.out.println("[Boletos] error purgando caché: " + e.getMessage());
+    }
+    return n;
+  }
+
+  /** Purga en segundo plano lo que quedó de ejecuciones anteriores (BOLETOS_TTL_DIAS, 30 por defecto). */
+  public void purgarAlIniciar() {
+    Duration ttl = Duration.ofDays(Math.max(1, Entorno.numero("BOLETOS_TTL_DIAS", 30)));
+    try {
+      ejecutor.execute(() -> {
+        int n = purgar(ttl);
+        if (n > 0) System.out.println("[Boletos] purgados " + n + " PDFs viejos de " + dir);
+      });
+    } catch (RejectedExecutionException ignore) {}
+  }
+
+  public Map<String, Object> stats() {
+    Map<String, Object> m = new LinkedHashMap<>();
+    m.put("dir", dir.toString());
+    m.put("hits", hits.sum());
+    m.put("misses", misses.sum());
+    m.put("invalidados", invalidados.sum());
+    m.put("enCurso", enCurso.size());
+    return m;
+  }
+
+  static String clave(Entrada e) throws Exception {
+    MessageDigest md = MessageDigest.getInstance("SHA-256");
+    md.update(FORMATO.getBytes(StandardCharsets.UTF_8));
+    md.update(MAPPER.writeValueAsBytes(e.det()));
+    for (String s : new String[]{e.codigo(), e.comprador(), e.email()}) {
+      md.update((byte) 0);
+      if (s != null) md.update(s.getBytes(StandardCharsets.UTF_8));
+    }
+    return HexFormat.of().formatHex(md.digest());
+  }
+
+  private static Path escribir(Path archivo, byte[] pdf) throws IOException {
+    Files.createDirectories(archivo.getParent());
+    Path tmp = Files.createTempFile(archivo.getParent(), ".boleto", ".tmp");
+    try {
+      Files.write(tmp, pdf);
+      // Quien lea nunca ve un PDF a medio escribir
+      Files.move(tmp, archivo, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    } finally {
+      Files.deleteIfExists(tmp);
+    }
+    return archivo;
+  }
+
+  private void indexar(CompraDTO.ReservaDetalle det) {
+    if (det.items == null) return;
+    for (var it : det.items) {
+      porVuelo.computeIfAbsent(it.idVuelo, k -> ConcurrentHashMap.newKeySet()).add(det.idReserva);
+    }
+  }
+}
@@ -0,0 +1,113 @@
+package com.aerolineas.service;
+
+import com.aerolineas.config.Entorno;
+import com.aerolineas.dao.LogBusquedaDAO;
+import com.aerolineas.dto.BusquedaDTO;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Escribe LOGS_BUSQUEDA por lotes en un hilo aparte. registrar() solo encola y nunca bloquea:
+ * si la cola está llena la búsqueda se descarta del log en lugar de frenar la respuesta.
+ */
+public class BusquedaLogWriter {
+
+  private static volatile BusquedaLogWriter global;
+
+  private final LogBusquedaDAO dao;
+  private final BlockingQueue<BusquedaDTO.Log> cola;
+  private final int lote;
+  private final long flushMs;
+  private final LongAdder escritos = new LongAdder();
+  private final LongAdder descartados = new LongAdder();
+  private ScheduledExecutorService scheduler;
+
+  public BusquedaLogWriter(LogBusquedaDAO dao, int capacidad, int lote, long flushMs) {
+    this.dao = dao;
+    this.cola = new ArrayBlockingQueue<>(Math.max(1, capacidad));
+    this.lote = Math.max(1, lote);
+    this.flushMs = flushMs;
+  }
+
+  public static BusquedaLogWriter global() {
+    if (global == null) {
+      synchronized (BusquedaLogWriter.class) {
+        if (global == null) {
+          global = new BusquedaLogWriter(new LogBusquedaDAO(),
+              (int) Entorno.numero("BUSQUEDA_LOG_CAPACIDAD", 10_000),
+              (int) Entorno.numero("BUSQUEDA_LOG_LOTE", 200),
+              Entorno.numero("BUSQUEDA_LOG_FLUSH_MS", 1000));
+        }
+      }
+    }
+    return global;
+  }
+
+  public synchronized void start() {
+    if (flushMs <= 0 || scheduler != null) return;
+    scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+      Thread t = new Thread(r, "logs-busqueda");
+      t.setDaemon(true);
+      return t;
+    });
+    scheduler.scheduleWithFixedDelay(this::vaciar, flushMs, flushMs, TimeUnit.MILLISECONDS);
+  }
+
+  public synchronized void stop() {
+    if (scheduler != null) {
+      scheduler.shutdownNow();
+      scheduler = null;
+    }
+    vaciar();
+  }
+
+  public void registrar(BusquedaDTO.Log log) {
+    if (log == null) return;
+    if (!cola.offer(log)) descartados.increment();
+  }
+
+  public int vaciar() {
+    int total = 0;
+    List<BusquedaDTO.Log> buffer = new ArrayList<>(lote);
+    while (cola.drainTo(buffer, lote) > 0) {
+      try {
+        int n = dao.insertarLote(buffer);
+        total += n;
+        descartados.add(buffer.size() - n);
+      } catch (Exception e) {
+        System.out.println("[LogsBusqueda] error al escribir lote de " + buffer.size() + ", se reintenta uno por uno: " + e.getMessage());
+        total += unoPorUno(buffer);
+      }
+      buffer.clear();
+    }
+    escritos.add(total);
+    return total;
+  }
+
+  /** Tras un lote fallido: así una fila mala no se lleva al resto. */
+  private int unoPorUno(List<BusquedaDTO.Log> buffer) {
+    int total = 0;
+    for (BusquedaDTO.Log l : buffer) {
+      try {
+        int n = dao.insertarLote(List.of(l));
+        total += n;
+        descartados.add(1 - n);
+      } catch (Exception e) {
+        descartados.increment();
+        System.out.println("[LogsBusqueda] log descartado: " + e.getMessage());
+      }
+    }
+    return total;
+  }
+
+  public int pendientes() { return cola.size(); }
+  public long escritos() { return escritos.sum(); }
+  public long descartados() { return descartados.sum(); }
+}
@@ -0,0 +1,198 @@
+package com.aerolineas.service;
+
+import com.aerolineas.dao.VueloDAO;
+import com.aerolineas.dto.BusquedaDTO;
+import com.aerolineas.dto.VueloDTO;
+
+import java.text.Normalizer;
+import java.time.LocalDate;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Búsqueda por ruta y fecha sobre un índice en memoria (origen, destino, día de salida)
+ * construido a partir del snapshot de CatalogoVuelosService. El índice se rehace solo cuando
+ * cambia la versión o el ETag del catálogo; los vuelos con escala se recargan cuando cambia su versión.
+ */
+public class BusquedaVuelosService {
+
+  public interface CargadorEscalas { List<VueloDTO.VueloConEscalaView> cargar() throws Exception; }
+
+  static final int MAX_DIAS = 62;
+
+  private record Clave(String origen, String destino, LocalDate dia) {}
+  private record Escalas(long version, List<VueloDTO.VueloConEscalaView> vuelos) {}
+  private record Indice(long version, String etag,
+                        Map<Clave, List<VueloDTO.View>> directos,
+                        Map<Long, VueloDTO.View> porId,
+                        Map<Clave, List<VueloDTO.VueloConEscalaView>> escalas) {}
+
+  private static volatile BusquedaVuelosService global;
+
+  private final CatalogoVuelosService catalogo;
+  private final CargadorEscalas cargadorEscalas;
+  private final BusquedaLogWriter logWriter;
+
+  private final AtomicReference<Indice> indice = new AtomicReference<>();
+  private final AtomicReference<Escalas> escalas = new AtomicReference<>();
+
+  public BusquedaVuelosService(CatalogoVuelosService catalogo, CargadorEscalas cargadorEscalas, BusquedaLogWriter logWriter) {
+    this.catalogo = catalogo;
+    this.cargadorEscalas = cargadorEscalas;
+    this.logWriter = logWriter;
+  }
+
+  public static BusquedaVuelosService global() {
+    if (global == null) {
+      synchronized (BusquedaVuelosService.class) {
+        if (global == null) {
+          global = new BusquedaVuelosService(CatalogoVuelosService.global(),
+              () -> new VueloDAO().listarVuelosConEscalaPublic(),
+              BusquedaLogWriter.global());
+        }
+      }
+    }
+    return global;
+  }
+
+  public BusquedaDTO.Resultado buscar(BusquedaDTO.Criterios c, Long idUsuario, String fuente) throws Exception {
+    validar(c);
+    var vista = catalogo.vista();
+    Indice idx = indice(vista);
+    Map<Long, Map<Integer, Integer>> disp = vista.disponibles();
+    String o = normalizar(c.origen());
+    String d = normalizar(c.destino());
+    LocalDate hasta = c.hasta() == null ? c.desde() : c.hasta();
+
+    List<BusquedaDTO.Opcion> directos = new ArrayList<>();
+    List<VueloDTO.VueloConEscalaView> conEscala = new ArrayList<>();
+    for (LocalDate dia = c.desde(); !dia.isAfter(hasta); dia = dia.plusDays(1)) {
+      Clave k = new Clave(o, d, dia);
+      for (var v : idx.directos().getOrDefault(k, List.of())) {
+        if (!cumple(v, c, disp)) continue;
+        VueloDTO.View regreso = null;
+        if (c.idaYVuelta()) {
+          regreso = v.idVueloPareja() == null ? null : idx.porId().get(v.idVueloPareja());
+          if (regreso == null || !cumple(regreso, c, disp) || !regresoEnRango(regreso, c)) continue;
+        }
+        directos.add(new BusquedaDTO.Opcion(v, regreso));
+      }
+      if (!c.soloDirectos() && !c.idaYVuelta()) {
+        for (var e : idx.escalas().getOrDefault(k, List.of())) {
+          if (cumpleEscala(e, c, idx.porId(), disp)) conEscala.add(e);
+        }
+      }
+    }
+
+    var resultado = new BusquedaDTO.Resultado(directos, conEscala);
+    if (logWriter != null) {
+      logWriter.registrar(new BusquedaDTO.Log(idUsuario, c.idaYVuelta() ? "ida_vuelta" : "solo_ida",
+          c.origen(), c.destino(), c.desde(), hasta, c.regresoDesde(), c.regresoHasta(),
+          c.idClase(), c.boletos(), c.soloDirectos(), resultado.total(), fuente));
+    }
+    return resultado;
+  }
+
+  static void validar(BusquedaDTO.Criterios c) {
+    if (c.origen() == null || c.origen().isBlank() || c.destino() == null || c.destino().isBlank()) {
+      throw new IllegalArgumentException("origen y destino son requeridos");
+    }
+    if (c.desde() == null) throw new IllegalArgumentException("desde es requerido");
+    LocalDate hasta = c.hasta() == null ? c.desde() : c.hasta();
+    if (hasta.isBefore(c.desde())) throw new IllegalArgumentException("hasta no puede ser anterior a desde");
+    if (ChronoUnit.DAYS.between(c.desde(), hasta) > MAX_DIAS) {
+      throw new IllegalArgumentException("El rango de fechas no puede exceder " + MAX_DIAS + " días");
+    }
+    if (c.regresoHasta() != null && c.regresoDesde() != null && c.regresoHasta().isBefore(c.regresoDesde())) {
+      throw new IllegalArgumentException("regresoHasta no puede ser anterior a regresoDesde");
+    }
+    if (c.boletos() < 1 || c.boletos() > 99) throw new IllegalArgumentException("boletos debe estar entre 1 y 99");
+  }
+
+  private Indice indice(CatalogoVuelosService.Vista vista) throws Exception {
+    Indice actual = indice.get();
+    if (actual != null && actual.version() == vista.version() && actual.etag().equals(vista.etag())) return actual;
+
+    Map<Clave, List<VueloDTO.View>> directos = new HashMap<>();
+    Map<Long, VueloDTO.View> porId = new HashMap<>();
+    for (var v : vista.vuelos()) {
+      porId.put(v.idVuelo(), v);
+      if (v.fechaSalida() == null) continue;
+      directos.computeIfAbsent(new Clave(normalizar(v.origen()), normalizar(v.destino()), v.fechaSalida().toLocalDate()),
+          k -> new ArrayList<>()).add(v);
+    }
+    directos.values().forEach(l -> l.sort(Comparator.comparing(VueloDTO.View::fechaSalida)));
+
+    Map<Clave, List<VueloDTO.VueloConEscalaView>> porRuta = new HashMap<>();
+    for (var e : escalas(vista.version())) {
+      if (e.fechaSalida() == null) continue;
+      porRuta.computeIfAbsent(new Clave(normalizar(e.origen()), normalizar(e.destino()), e.fechaSalida().toLocalDate()),
+          k -> new ArrayList<>()).add(e);
+    }
+    porRuta.values().forEach(l -> l.sort(Comparator.comparing(VueloDTO.VueloConEscalaView::fechaSalida)));
+
+    Indice nuevo = new Indice(vista.version(), vista.etag(), directos, porId, porRuta);
+    indice.set(nuevo);
+    return nuevo;
+  }
+
+  private List<VueloDTO.VueloConEscalaView> escalas(long version) throws Exception {
+    Escalas e = escalas.get();
+    if (e != null && e.version() == version) return e.vuelos();
+    if (cargadorEscalas == null) return List.of();
+    synchronized (escalas) {
+      e = escalas.get();
+      if (e != null && e.version() == version) return e.vuelos();
+      List<VueloDTO.VueloConEscalaView> cargadas = cargadorEscalas.cargar();
+      e = new Escalas(version, cargadas == null ? List.of() : List.copyOf(cargadas));
+      escalas.set(e);
+      return e.vuelos();
+    }
+  }
+
+  private static boolean cumple(VueloDTO.View v, BusquedaDTO.Criterios c, Map<Long, Map<Integer, Integer>> disp) {
+    if (v.clases() == null) return false;
+    for (var cc : v.clases()) {
+      if (c.idClase() != null && cc.idClase() != c.idClase()) continue;
+      if (cupo(v.idVuelo(), cc, disp) >= c.boletos()) return true;
+    }
+    return false;
+  }
+
+  private static boolean cumpleEscala(VueloDTO.VueloConEscalaView e, BusquedaDTO.Criterios c,
+                                      Map<Long, VueloDTO.View> porId, Map<Long, Map<Integer, Integer>> disp) {
+    if (e.primerTramo() == null || e.segundoTramo() == null) return false;
+    VueloDTO.View t1 = porId.get(e.primerTramo().idVuelo());
+    VueloDTO.View t2 = porId.get(e.segundoTramo().idVuelo());
+    if (t1 == null || t2 == null) return false;
+    if (c.idClase() != null && (e.clases() == null || e.clases().stream().noneMatch(cc -> cc.idClase() == c.idClase()))) {
+      return false;
+    }
+    return cumple(t1, c, disp) && cumple(t2, c, disp);
+  }
+
+  private static int cupo(long idVuelo, VueloDTO.ClaseConfig cc, Map<Long, Map<Integer, Integer>> disp) {
+    if (disp == null) return cc.cupoTotal();
+    Integer n = disp.getOrDefault(idVuelo, Map.of()).get(cc.idClase());
+    return n == null ? 0 : n;
+  }
+
+  private static boolean regresoEnRango(VueloDTO.View regreso, BusquedaDTO.Criterios c) {
+    if (regreso.fechaSalida() == null) return false;
+    LocalDate dia = regreso.fechaSalida().toLocalDate();
+    LocalDate hasta = c.regresoHasta() == null ? c.regresoDesde() : c.regresoHasta();
+    return !dia.isBefore(c.regresoDesde()) && !dia.isAfter(hasta);
+  }
+
+  static String normalizar(String s) {
+    if (s == null) return "";
+    String sinTildes = Normalizer.normalize(s.trim(), Normalizer.Form.NFD).replaceAll("\\p{M}", "");
+    return sinTildes.toUpperCase(Locale.ROOT);
+  }
+}
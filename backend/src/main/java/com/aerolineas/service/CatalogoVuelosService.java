@@ -0,0 +1,202 @@
+package com.aerolineas.service;
+
+import com.aerolineas.config.Entorno;
+import com.aerolineas.dao.DisponibilidadDAO;
+import com.aerolineas.dao.VueloDAO;
+import com.aerolineas.dto.VueloDTO;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import io.javalin.json.JavalinJackson;
+
+import java.io.OutputStream;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.time.Instant;
+import java.util.HexFormat;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Snapshot inmutable y versionado del catálogo público de vuelos.
+ * Se reconstruye en segundo plano cuando VueloDAO confirma una escritura; las lecturas no toman locks.
+ * La disponibilidad se superpone desde una fuente rápida (ledger de SALIDA_CLASE) con TTL corto.
+ * El ETag es una huella del contenido (vuelos y disponibilidad), así que es el mismo en todas
+ * las instancias y sobrevive a un reinicio o a una reconstrucción que no cambió nada.
+ */
+public class CatalogoVuelosService {
+
+  public interface Cargador { List<VueloDTO.View> cargar() throws Exception; }
+  public interface FuenteDisponibilidad { Map<Long, Map<Integer, Integer>> disponibles() throws Exception; }
+
+  public record Snapshot(long version, String huella, List<VueloDTO.View> vuelos, Instant generado) {}
+  public record Vista(long version, String etag, List<VueloDTO.View> vuelos, Map<Long, Map<Integer, Integer>> disponibles) {}
+  private record Superpuesta(long version, Map<Long, Map<Integer, Integer>> disp, long leidaEn, Vista vista) {}
+
+  private static final ObjectMapper MAPPER = JavalinJackson.defaultMapper()
+      .configure(SerializationFeature.ORDER_MAP_ENTRIES_BY_KEYS, true);
+
+  private static volatile CatalogoVuelosService global;
+
+  private final Cargador cargador;
+  private final FuenteDisponibilidad fuente;
+  private final long ttlDisponibilidadMs;
+
+  private final AtomicReference<Snapshot> snapshot = new AtomicReference<>();
+  private final AtomicReference<Superpuesta> superpuesta = new AtomicReference<>();
+  private final AtomicLong versiones = new AtomicLong();
+  private final AtomicBoolean pendiente = new AtomicBoolean();
+  private final AtomicBoolean refrescando = new AtomicBoolean();
+  private final Object buildLock = new Object();
+  private volatile ExecutorService executor;
+
+  public CatalogoVuelosService(Cargador cargador, FuenteDisponibilidad fuente, long ttlDisponibilidadMs) {
+    this.cargador = cargador;
+    this.fuente = fuente;
+    this.ttlDisponibilidadMs = ttlDisponibilidadMs;
+  }
+
+  public static CatalogoVuelosService global() {
+    if (global == null) {
+      synchronized (CatalogoVuelosService.class) {
+        if (global == null) {
+          global = new CatalogoVuelosService(
+              () -> new VueloDAO().listarVuelosPublic(false),
+              () -> new DisponibilidadDAO().disponibles(),
+              ttlDesdeEnv());
+        }
+      }
+    }
+    return global;
+  }
+
+  static long ttlDesdeEnv() {
+    return Math.max(0, Entorno.numero("CATALOGO_DISPONIBILIDAD_TTL_MS", 2000));
+  }
+
+  private ExecutorService executor() {
+    if (executor == null) {
+      synchronized (this) {
+        if (executor == null) {
+          executor = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "catalogo-vuelos");
+            t.setDaemon(true);
+            return t;
+          });
+        }
+      }
+    }
+    return executor;
+  }
+
+  /** Pide una reconstrucción asíncrona; varias invalidaciones seguidas se agrupan en una sola. */
+  public void invalidar() {
+    if (pendiente.compareAndSet(false, true)) {
+      executor().execute(() -> {
+        pendiente.set(false);
+        try {
+          reconstruir();
+        } catch (Exception e) {
+          System.out.println("[Catalogo] error al reconstruir: " + e.getMessage());
+        }
+      });
+    }
+  }
+
+  public Snapshot reconstruir() throws Exception {
+    synchronized (buildLock) {
+      List<VueloDTO.View> cargados = cargador.cargar();
+      List<VueloDTO.View> copia = new ArrayList<>(cargados == null ? 0 : cargados.size());
+      if (cargados != null) for (var v : cargados) copia.add(congelar(v, v.clases()));
+      List<VueloDTO.View> vuelos = List.copyOf(copia);
+      Snapshot s = new Snapshot(versiones.incrementAndGet(), huella(vuelos), vuelos, Instant.now());
+      snapshot.set(s);
+      return s;
+    }
+  }
+
+  public Snapshot snapshot() throws Exception {
+    Snapshot s = snapshot.get();
+    if (s != null) return s;
+    synchronized (buildLock) {
+      s = snapshot.get();
+      return s != null ? s : reconstruir();
+    }
+  }
+
+  public Vista vista() throws Exception {
+    Snapshot s = snapshot();
+    if (fuente == null) {
+      Superpuesta p = superpuesta.get();
+      if (p != null && p.version() == s.version()) return p.vista();
+      Vista v = new Vista(s.version(), "\"" + s.huella() + "\"", s.vuelos(), null);
+      superpuesta.set(new Superpuesta(s.version(), null, 0L, v));
+      return v;
+    }
+
+    long ahora = System.currentTimeMillis();
+    Superpuesta p = superpuesta.get();
+    boolean misma = p != null && p.version() == s.version();
+    if (misma && ahora - p.leidaEn() < ttlDisponibilidadMs) return p.vista();
+    // Solo un hilo refresca; el resto sirve la vista anterior mientras tanto
+    boolean tomado = misma && refrescando.compareAndSet(false, true);
+    if (misma && !tomado) return p.vista();
+    try {
+      Map<Long, Map<Integer, Integer>> disp = fuente.disponibles();
+      Vista v = (misma && disp.equals(p.disp()))
+          ? p.vista()
+          : new Vista(s.version(), "\"" + s.huella() + "-" + huella(disp) + "\"", aplicar(s.vuelos(), disp), disp);
+      superpuesta.set(new Superpuesta(s.version(), disp, ahora, v));
+      return v;
+    } finally {
+      if (tomado) refrescando.set(false);
+    }
+  }
+
+  /** SHA-256 (primeros 8 bytes en hex) del JSON con las claves de los mapas ordenadas. */
+  static String huella(Object contenido) throws Exception {
+    MessageDigest md = MessageDigest.getInstance("SHA-256");
+    MAPPER.writeValue(new DigestOutputStream(OutputStream.nullOutputStream(), md), contenido);
+    return HexFormat.of().formatHex(md.digest(), 0, 8);
+  }
+
+  static List<VueloDTO.View> aplicar(List<VueloDTO.View> vuelos, Map<Long, Map<Integer, Integer>> disp) {
+    List<VueloDTO.View> out = new ArrayList<>(vuelos.size());
+    for (var v : vuelos) {
+      Map<Integer, Integer> porClase = disp.get(v.idVuelo());
+      if (porClase == null) continue;
+      List<VueloDTO.ClaseConfig> clases = new ArrayList<>(v.clases().size());
+      for (var c : v.clases()) {
+        Integer d = porClase.get(c.idClase());
+        if (d != null && d > 0) clases.add(c);
+      }
+      if (clases.isEmpty()) continue;
+      out.add(clases.size() == v.clases().size() ? v : congelar(v, clases));
+    }
+    return List.copyOf(out);
+  }
+
+  private static VueloDTO.View congelar(VueloDTO.View v, List<VueloDTO.ClaseConfig> clases) {
+    return new VueloDTO.View(
+        v.idVuelo(), v.codigo(), v.idRuta(), v.origen(), v.destino(),
+        v.fechaSalida(), v.fechaLlegada(), v.activo(), v.idEstado(), v.estado(),
+        clases == null ? List.of() : List.copyOf(clases),
+        v.escalas() == null ? List.of() : List.copyOf(v.escalas()),
+        v.idVueloPareja(), v.origenPais(), v.destinoPais());
+  }
+
+  public static boolean coincideEtag(String ifNoneMatch, String etag) {
+    if (ifNoneMatch == null || ifNoneMatch.isBlank() || etag == null) return false;
+    for (String t : ifNoneMatch.split(",")) {
+      String x = t.trim();
+      if (x.startsWith("W/")) x = x.substring(2);
+      if (x.equals("*") || x.equals(etag)) return true;
+    }
+    return false;
+  }
+}
@@ -0,0 +1,296 @@
+package com.aerolineas.service;
+
+import com.aerolineas.dao.OutboxDAO;
+import com.aerolineas.util.Mailer;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.javalin.json.JavalinJackson;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Cola de correos salientes sobre OUTBOX_EVENTO (tipo CORREO): encolar() solo escribe la fila,
+ * así que lo encolado sobrevive a un reinicio, y el despachador del outbox lo entrega con
+ * enviar(), con sus reintentos, backoff y FALLIDO. Quien necesita el resultado encola con una
+ * ref, que viaja en el payload y vuelve al Aviso registrado aunque el nodo sea otro.
+ */
+public class ColaCorreos {
+
+  public static final String EVENTO = "CORREO";
+
+  public record Correo(String para, String asunto, String html) {}
+
+  /** Correo a encolar; ref (opcional) identifica a quién avisar del resultado final. */
+  public record Envio(Correo correo, String ref) {}
+
+  public record Fallido(Correo correo, int intentos, String error) {}
+
+  /** Conexión SMTP; se reutiliza entre mensajes mientras siga ociosa menos de OCIOSO_MS. */
+  public interface Canal extends AutoCloseable {
+    void enviar(Correo c) throws Exception;
+    @Override void close();
+  }
+
+  /** Resultado final de un correo encolado con ref, ya resueltos los reintentos; error null si se entregó. */
+  @FunctionalInterface
+  public interface Aviso {
+    void resuelto(String ref, String para, int intentos, String error);
+  }
+
+  @FunctionalInterface
+  public interface Fabrica {
+    Canal abrir() throws Exception;
+  }
+
+  static final int FALLIDOS_MAX = 500;
+  static final long OCIOSO_MS = 30_000;
+  static final int LIBRES_MAX = 8;
+  static final long PENDIENTES_TTL_MS = 15_000;
+
+  private static final ObjectMapper MAPPER = JavalinJackson.defaultMapper();
+  private static volatile ColaCorreos global;
+
+  private final Fabrica fabrica;
+  private final DespachadorOutbox outbox;
+  private final OutboxDAO dao;
+  private final Deque<Libre> libres = new ArrayDeque<>();
+  private volatile Aviso aviso;
+  private volatile Conteo pendientes;
+
+  private final LongAdder encolados = new LongAdder();
+  private final LongAdder enviados = new LongAdder();
+  private final LongAdder reintentos = new LongAdder();
+  private final LongAdder descartados = new LongAdder();
+  private final LongAdder latenciaTotalNanos = new LongAdder();
+  private final AtomicLong latenciaMaxNanos = new AtomicLong();
+  private final AtomicInteger conexionesAbiertas = new AtomicInteger();
+  private final LongAdder conexionesCreadas = new LongAdder();
+
+  public ColaCorreos(Fabrica fabrica, DespachadorOutbox outbox, OutboxDAO dao) {
+    this.fabrica = fabrica;
+    this.outbox = outbox;
+    this.dao = dao;
+  }
+
+  public static ColaCorreos global() {
+    if (global == null) {
+      synchronized (ColaCorreos.class) {
+        if (global == null) {
+          global = new ColaCorreos(ColaCorreos::canalSmtp, DespachadorOutbox.global(), new OutboxDAO());
+        }
+      }
+    }
+    return global;
+  }
+
+  private static Canal canalSmtp() throws Exception {
+    Mailer.Conexion cx = Mailer.conectar();
+    return new Canal() {
+      @Override public void enviar(Correo c) throws Exception { cx.enviar(c.para(), c.asunto(), c.html()); }
+      @Override public void close() { cx.close(); }
+    };
+  }
+
+  /** Se anota como manejador de CORREO; desde ahí el despachador entrega lo pendiente, también lo de antes del arranque. */
+  public void start() {
+    outbox.registrar(EVENTO, this::manejar);
+  }
+
+  /** Cierra las conexiones ociosas; lo que siga en OUTBOX_EVENTO sale en el próximo arranque. */
+  public void stop() {
+    List<Libre> ociosas;
+    synchronized (libres) {
+      ociosas = new ArrayList<>(libres);
+      libres.clear();
+    }
+    for (Libre l : ociosas) cerrar(l.canal());
+  }
+
+  /** Quién recibe el resultado de los correos encolados con ref (uno por proceso). */
+  public void alResolver(Aviso a) {
+    aviso = a;
+  }
+
+  /**
+   * Escribe los correos en OUTBOX_EVENTO en un solo batch, con la conexión actual (dentro de la
+   * UnidadDeTrabajo del llamador si la hay). Los que no tienen destinatario se omiten; devuelve
+   * cuántos se encolaron.
+   */
+  public int encolar(List<Envio> envios) throws Exception {
+    if (envios == null || envios.isEmpty()) return 0;
+    List<OutboxDAO.Nuevo> eventos = new ArrayList<>(envios.size());
+    for (Envio e : envios) {
+      Correo c = e.correo();
+      if (c == null || c.para() == null || c.para().isBlank()) continue;
+      Map<String, String> payload = new LinkedHashMap<>();
+      payload.put("para", c.para());
+      payload.put("asunto", c.asunto());
+      payload.put("html", c.html());
+      if (e.ref() != null) payload.put("ref", e.ref());
+      eventos.add(new OutboxDAO.Nuevo(EVENTO, null, MAPPER.writeValueAsString(payload)));
+    }
+    outbox.publicar(eventos);
+    encolados.add(eventos.size());
+    return eventos.size();
+  }
+
+  public boolean encolar(String para, String asunto, String html) throws Exception {
+    return encolar(List.of(new Envio(new Correo(para, asunto, html), null))) == 1;
+  }
+
+  /** Manejador del outbox: un error se propaga para que el despachador reintente. */
+  void manejar(OutboxDAO.Evento e) throws Exception {
+    Map<?, ?> p = MAPPER.readValue(e.payload(), Map.class);
+    Correo c = new Correo(texto(p.get("para")), texto(p.get("asunto")), texto(p.get("html")));
+    String ref = texto(p.get("ref"));
+    try {
+      enviar(c);
+    } catch (Exception ex) {
+      if (e.intentos() < outbox.maxIntentos()) {
+        reintentos.increment();
+      } else {
+        descartados.increment();
+        String error = ex.getMessage() == null ? ex.getClass().getSimpleName() : ex.getMessage();
+        System.out.println("[Correo] no enviado a " + c.para() + " tras " + e.intentos() + " intentos: " + error);
+        avisar(ref, c, e.intentos(), error);
+      }
+      throw ex;
+    }
+    avisar(ref, c, e.intentos(), null);
+  }
+
+  private static String texto(Object o) {
+    return o == null ? null : String.valueOf(o);
+  }
+
+  private void avisar(String ref, Correo c, int intentos, String error) {
+    Aviso a = aviso;
+    if (ref == null || a == null) return;
+    try {
+      a.resuelto(ref, c.para(), intentos, error);
+    } catch (Exception e) {
+      System.out.println("[Correo] error en aviso de entrega: " + e.getMessage());
+    }
+  }
+
+  /**
+   * Envía en el hilo que llama, sin cola ni reintentos: un error se propaga para que quien llama
+   * reintente. Usa una conexión ociosa (o abre una) y la devuelve; tras un error la descarta.
+   */
+  public void enviar(Correo c) throws Exception {
+    if (c == null || c.para() == null || c.para().isBlank()) throw new IllegalArgumentException("Destinatario vacío");
+    Canal canal = prestar();
+    long t0 = System.nanoTime();
+    try {
+      canal.enviar(c);
+    } catch (Exception e) {
+      // Tras un error la conexión puede quedar en estado indefinido
+      cerrar(canal);
+      throw e;
+    }
+    long dt = System.nanoTime() - t0;
+    latenciaTotalNanos.add(dt);
+    latenciaMaxNanos.accumulateAndGet(dt, Math::max);
+    enviados.increment();
+    devolver(canal);
+  }
+
+  private Canal prestar() throws Exception {
+    long ahora = System.currentTimeMillis();
+    List<Canal> viejas = new ArrayList<>();
+    Canal canal = null;
+    synchronized (libres) {
+      // La más reciente primero; las que pasaron OCIOSO_MS el servidor ya pudo cortarlas
+      while (canal == null && !libres.isEmpty()) {
+        Libre l = libres.pollLast();
+        if (ahora - l.desde() < OCIOSO_MS) canal = l.canal();
+        else viejas.add(l.canal());
+      }
+    }
+    for (Canal v : viejas) cerrar(v);
+    if (canal != null) return canal;
+    canal = fabrica.abrir();
+    conexionesCreadas.increment();
+    conexionesAbiertas.incrementAndGet();
+    return canal;
+  }
+
+  private void devolver(Canal canal) {
+    synchronized (libres) {
+      if (libres.size() < LIBRES_MAX) {
+        libres.addLast(new Libre(canal, System.currentTimeMillis()));
+        return;
+      }
+    }
+    cerrar(canal);
+  }
+
+  private void cerrar(Canal canal) {
+    if (canal == null) return;
+    try { canal.close(); } catch (Exception ignore) {}
+    conexionesAbiertas.decrementAndGet();
+  }
+
+  /** Vuelve a poner en PENDIENTE los correos FALLIDO, con los intentos en cero. */
+  public int reintentarFallidos() throws Exception {
+    int n = dao.reintentarFallidos(EVENTO);
+    if (n > 0) outbox.despertar();
+    return n;
+  }
+
+  public List<Fallido> fallidos() throws Exception {
+    List<Fallido> out = new ArrayList<>();
+    for (OutboxDAO.Fallido f : dao.fallidos(EVENTO, FALLIDOS_MAX)) {
+      Map<?, ?> p = MAPPER.readValue(f.payload(), Map.class);
+      out.add(new Fallido(new Correo(texto(p.get("para")), texto(p.get("asunto")), texto(p.get("html"))),
+          f.intentos(), f.error()));
+    }
+    return out;
+  }
+
+  /**
+   * Correos en OUTBOX_EVENTO sin terminar (PENDIENTE o EN_CURSO), de todos los nodos. Lo lee cada
+   * scrape de /metrics, así que se consulta a lo sumo una vez cada PENDIENTES_TTL_MS.
+   */
+  public long pendientes() throws Exception {
+    Conteo c = pendientes;
+    long ahora = System.nanoTime();
+    if (c != null && ahora - c.en() < TimeUnit.MILLISECONDS.toNanos(PENDIENTES_TTL_MS)) return c.valor();
+    Map<String, Object> r = dao.resumen(EVENTO);
+    long n = ((Number) r.get(OutboxDAO.PENDIENTE)).longValue() + ((Number) r.get(OutboxDAO.EN_CURSO)).longValue();
+    pendientes = new Conteo(n, ahora);
+    return n;
+  }
+
+  public long encolados() { return encolados.sum(); }
+  public long enviados() { return enviados.sum(); }
+  public long reintentos() { return reintentos.sum(); }
+  public long descartados() { return descartados.sum(); }
+  public long conexionesCreadas() { return conexionesCreadas.sum(); }
+
+  public Map<String, Object> metricas() throws Exception {
+    long n = enviados.sum();
+    Map<String, Object> m = new LinkedHashMap<>(dao.resumen(EVENTO));
+    m.put("encolados", encolados.sum());
+    m.put("enviados", n);
+    m.put("reintentos", reintentos.sum());
+    m.put("descartados", descartados.sum());
+    m.put("latenciaPromedioMs", n == 0 ? 0.0 : latenciaTotalNanos.sum() / 1e6 / n);
+    m.put("latenciaMaxMs", latenciaMaxNanos.get() / 1e6);
+    m.put("conexionesAbiertas", conexionesAbiertas.get());
+    m.put("conexionesCreadas", conexionesCreadas.sum());
+    return m;
+  }
+
+  private record Libre(Canal canal, long desde) {}
+
+  private record Conteo(long valor, long en) {}
+}
@@ -0,0 +1,228 @@
+package com.aerolineas.service;
+
+import com.aerolineas.config.Entorno;
+import com.aerolineas.config.UnidadDeTrabajo;
+import com.aerolineas.dao.OutboxDAO;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Despacha OUTBOX_EVENTO: un hilo de sondeo toma lotes con SKIP LOCKED (varios nodos pueden
+ * correr a la vez), reparte cada evento a su manejador en un grupo de workers y registra el
+ * resultado del lote de una vez. Un fallo se reintenta con backoff exponencial hasta
+ * OUTBOX_REINTENTOS. La entrega es al menos una vez: los manejadores deben tolerar repetidos.
+ */
+public class DespachadorOutbox {
+
+  @FunctionalInterface
+  public interface Manejador {
+    void manejar(OutboxDAO.Evento e) throws Exception;
+  }
+
+  static final long BACKOFF_MAX_MS = 30 * 60_000;
+  static final int MAX_LOTES_POR_CICLO = 20;
+
+  private static volatile DespachadorOutbox global;
+
+  private final OutboxDAO dao;
+  private final int lote;
+  private final int workers;
+  private final int maxIntentos;
+  private final long backoffMs;
+  private final long arriendoSeg;
+  private final long pausaMs;
+  private final Map<String, Manejador> manejadores = new ConcurrentHashMap<>();
+
+  private final LongAdder publicados = new LongAdder();
+  private final LongAdder tomados = new LongAdder();
+  private final LongAdder hechos = new LongAdder();
+  private final LongAdder reintentos = new LongAdder();
+  private final LongAdder agotados = new LongAdder();
+  private volatile String ultimoCiclo;
+  private volatile String ultimoError;
+
+  private ScheduledExecutorService sondeo;
+  private ExecutorService pool;
+
+  public DespachadorOutbox(OutboxDAO dao, int lote, int workers, int maxIntentos, long backoffMs, long arriendoSeg, long pausaMs) {
+    this.dao = dao;
+    this.lote = Math.max(1, lote);
+    this.workers = Math.max(1, workers);
+    this.maxIntentos = Math.max(1, maxIntentos);
+    this.backoffMs = Math.max(0, backoffMs);
+    this.arriendoSeg = Math.max(1, arriendoSeg);
+    this.pausaMs = pausaMs;
+  }
+
+  public static DespachadorOutbox global() {
+    if (global == null) {
+      synchronized (DespachadorOutbox.class) {
+        if (global == null) {
+          global = new DespachadorOutbox(new OutboxDAO(),
+              (int) Entorno.numero("OUTBOX_LOTE", 50),
+              (int) Entorno.numero("OUTBOX_WORKERS", 4),
+              (int) Entorno.numero("OUTBOX_REINTENTOS", 8),
+              Entorno.numero("OUTBOX_BACKOFF_MS", 5000),
+              Entorno.numero("OUTBOX_ARRIENDO_SEG", 300),
+              Entorno.numero("OUTBOX_PAUSA_MS", 1000));
+        }
+      }
+    }
+    return global;
+  }
+
+  /** Intento a partir del cual un fallo deja el evento en FALLIDO. */
+  public int maxIntentos() { return maxIntentos; }
+
+  public void registrar(String tipo, Manejador m) {
+    manejadores.put(tipo, m);
+  }
+
+  /**
+   * Escribe los eventos con la conexión actual (dentro de la UnidadDeTrabajo del llamador) y
+   * despierta al despachador después del commit, sin esperar a la próxima pausa.
+   */
+  public void publicar(List<OutboxDAO.Nuevo> eventos) throws Exception {
+    if (eventos == null || eventos.isEmpty()) return;
+    dao.registrar(eventos);
+    publicados.add(eventos.size());
+    UnidadDeTrabajo.alConfirmar(this::despertar);
+  }
+
+  public synchronized void start() {
+    if (pausaMs <= 0 || sondeo != null) return;
+    sondeo = Executors.newSingleThreadScheduledExecutor(r -> {
+      Thread t = new Thread(r, "outbox-sondeo");
+      t.setDaemon(true);
+      return t;
+    });
+    AtomicInteger n = new AtomicInteger();
+    pool = Executors.newFixedThreadPool(workers, r -> {
+      Thread t = new Thread(r, "outbox-" + n.incrementAndGet());
+      t.setDaemon(true);
+      return t;
+    });
+    sondeo.scheduleWithFixedDelay(this::ciclo, pausaMs, pausaMs, TimeUnit.MILLISECONDS);
+  }
+
+  public synchronized void stop() {
+    if (sondeo != null) {
+      sondeo.shutdownNow();
+      sondeo = null;
+    }
+    if (pool != null) {
+      pool.shutdownNow();
+      pool = null;
+    }
+  }
+
+  /** Pide un ciclo ya; corre en el hilo de sondeo, así que nunca hay dos ciclos a la vez en el nodo. */
+  public void despertar() {
+    ScheduledExecutorService s = sondeo;
+    if (s == null) return;
+    try {
+      s.execute(this::ciclo);
+    } catch (RejectedExecutionException ignore) {}
+  }
+
+  /** Procesa lotes hasta vaciar lo listo (o MAX_LOTES_POR_CICLO); devuelve cuántos eventos tomó. */
+  public int ciclo() {
+    int total = 0;
+    try {
+      for (int i = 0; i < MAX_LOTES_POR_CICLO; i++) {
+        List<OutboxDAO.Evento> eventos = dao.tomar(lote, arriendoSeg);
+        if (eventos.isEmpty()) break;
+        tomados.add(eventos.size());
+        total += eventos.size();
+        dao.registrarResultados(ejecutar(eventos), maxIntentos);
+        if (eventos.size() < lote) break;
+      }
+      ultimoCiclo = Instant.now().toString();
+      ultimoError = null;
+    } catch (Exception e) {
+      ultimoError = e.getMessage();
+      System.out.println("[Outbox] error en ciclo: " + e.getMessage());
+    }
+    return total;
+  }
+
+  private List<OutboxDAO.Resultado> ejecutar(List<OutboxDAO.Evento> eventos) throws InterruptedException {
+    List<OutboxDAO.Resultado> out = new ArrayList<>(eventos.size());
+    ExecutorService p = pool;
+    if (p == null) {
+      for (OutboxDAO.Evento e : eventos) out.add(procesar(e));
+      return out;
+    }
+    List<Callable<OutboxDAO.Resultado>> tareas = new ArrayList<>(eventos.size());
+    for (OutboxDAO.Evento e : eventos) tareas.add(() -> procesar(e));
+    // Lo que no termina dentro del arriendo se cancela: otro nodo ya podría estar tomándolo
+    List<Future<OutboxDAO.Resultado>> fs = p.invokeAll(tareas, arriendoSeg, TimeUnit.SECONDS);
+    for (int i = 0; i < fs.size(); i++) {
+      try {
+        out.add(fs.get(i).get());
+      } catch (CancellationException | ExecutionException ex) {
+        out.add(fallo(eventos.get(i), "tiempo agotado"));
+      }
+    }
+    return out;
+  }
+
+  OutboxDAO.Resultado procesar(OutboxDAO.Evento e) {
+    Manejador m = manejadores.get(e.tipo());
+    if (m == null) return fallo(e, "sin manejador para " + e.tipo());
+    try {
+      m.manejar(e);
+      hechos.increment();
+      return OutboxDAO.Resultado.ok(e.id());
+    } catch (Exception ex) {
+      String msg = ex.getMessage() == null ? ex.getClass().getSimpleName() : ex.getMessage();
+      System.out.println("[Outbox] " + e.tipo() + " #" + e.id() + " intento " + e.intentos() + ": " + msg);
+      return fallo(e, msg);
+    }
+  }
+
+  private OutboxDAO.Resultado fallo(OutboxDAO.Evento e, String error) {
+    if (e.intentos() >= maxIntentos) agotados.increment(); else reintentos.increment();
+    return new OutboxDAO.Resultado(e.id(), error, espera(e.intentos()));
+  }
+
+  long espera(int intentos) {
+    int exp = Math.min(Math.max(0, intentos - 1), 20);
+    return Math.min(BACKOFF_MAX_MS, backoffMs << exp);
+  }
+
+  public int reintentarFallidos() throws Exception {
+    int n = dao.reintentarFallidos();
+    if (n > 0) despertar();
+    return n;
+  }
+
+  public Map<String, Object> stats() throws Exception {
+    Map<String, Object> m = new LinkedHashMap<>(dao.resumen());
+    m.put("publicados", publicados.sum());
+    m.put("tomados", tomados.sum());
+    m.put("hechos", hechos.sum());
+    m.put("reintentos", reintentos.sum());
+    m.put("agotados", agotados.sum());
+    m.put("manejadores", new ArrayList<>(manejadores.keySet()));
+    m.put("ultimoCiclo", ultimoCiclo);
+    m.put("ultimoError", ultimoError);
+    return m;
+  }
+}
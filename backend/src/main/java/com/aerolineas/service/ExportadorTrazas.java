@@ -0,0 +1,154 @@
+package com.aerolineas.service;
+
+import com.aerolineas.config.Entorno;
+import com.aerolineas.util.Traza;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.javalin.json.JavalinJackson;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Escribe las trazas terminadas en TRAZAS_ARCHIVO, una por línea en formato Zipkin v2 (un
+ * arreglo JSON de spans; cada línea se puede mandar tal cual a POST /api/v2/spans). Encolar
+ * nunca bloquea; con la cola llena la traza se descarta. Al pasar TRAZAS_MAX_MB el archivo
+ * se rota a ".1".
+ */
+public class ExportadorTrazas {
+
+  static final String SERVICIO = "aerolineas-api";
+  private static final ObjectMapper MAPPER = JavalinJackson.defaultMapper();
+
+  private static volatile ExportadorTrazas global;
+
+  private final Path archivo;
+  private final BlockingQueue<Traza> cola;
+  private final long flushMs;
+  private final long maxBytes;
+  private final LongAdder escritas = new LongAdder();
+  private final LongAdder descartadas = new LongAdder();
+  private ScheduledExecutorService scheduler;
+
+  public ExportadorTrazas(Path archivo, int capacidad, long flushMs, long maxBytes) {
+    this.archivo = archivo;
+    this.cola = new ArrayBlockingQueue<>(Math.max(1, capacidad));
+    this.flushMs = flushMs;
+    this.maxBytes = maxBytes;
+  }
+
+  public static ExportadorTrazas global() {
+    if (global == null) {
+      synchronized (ExportadorTrazas.class) {
+        if (global == null) {
+          String raw = Entorno.texto("TRAZAS_ARCHIVO",
+              Path.of(System.getProperty("java.io.tmpdir"), "aerolineas-trazas.jsonl").toString());
+          global = new ExportadorTrazas(Path.of(raw),
+              (int) Entorno.numero("TRAZAS_CAPACIDAD", 1000),
+              Entorno.numero("TRAZAS_FLUSH_MS", 1000),
+              Entorno.numero("TRAZAS_MAX_MB", 100) * 1024 * 1024);
+        }
+      }
+    }
+    return global;
+  }
+
+  public synchronized void start() {
+    if (Traza.muestreo() <= 0 || flushMs <= 0 || scheduler != null) return;
+    Traza.alTerminar(this::registrar);
+    scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+      Thread t = new Thread(r, "trazas");
+      t.setDaemon(true);
+      return t;
+    });
+    scheduler.scheduleWithFixedDelay(this::vaciar, flushMs, flushMs, TimeUnit.MILLISECONDS);
+    System.out.println("[Trazas] muestreo " + Traza.muestreo() + " -> " + archivo);
+  }
+
+  public synchronized void stop() {
+    Traza.alTerminar(null);
+    if (scheduler != null) {
+      scheduler.shutdownNow();
+      scheduler = null;
+    }
+    vaciar();
+  }
+
+  public void registrar(Traza t) {
+    if (t == null) return;
+    if (!cola.offer(t)) descartadas.increment();
+  }
+
+  public synchronized int vaciar() {
+    List<Traza> buffer = new ArrayList<>();
+    cola.drainTo(buffer);
+    if (buffer.isEmpty()) return 0;
+    try {
+      rotarSiHaceFalta();
+      Path dir = archivo.toAbsolutePath().getParent();
+      if (dir != null) Files.createDirectories(dir);
+      try (Writer w = Files.newBufferedWriter(archivo, StandardCharsets.UTF_8,
+          StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+        for (Traza t : buffer) {
+          w.write(MAPPER.writeValueAsString(zipkin(t)));
+          w.write('\n');
+        }
+      }
+      escritas.add(buffer.size());
+      return buffer.size();
+    } catch (IOException e) {
+      descartadas.add(buffer.size());
+      System.out.println("[Trazas] error al escribir " + buffer.size() + " traza(s): " + e.getMessage());
+      return 0;
+    }
+  }
+
+  private void rotarSiHaceFalta() throws IOException {
+    if (maxBytes <= 0 || !Files.exists(archivo) || Files.size(archivo) < maxBytes) return;
+    Files.move(archivo, archivo.resolveSibling(archivo.getFileName() + ".1"), StandardCopyOption.REPLACE_EXISTING);
+  }
+
+  static List<Map<String, Object>> zipkin(Traza t) {
+    List<Map<String, Object>> out = new ArrayList<>(t.spans().size());
+    Map<String, Object> endpoint = Map.of("serviceName", SERVICIO);
+    for (Traza.Span s : t.spans()) {
+      Map<String, Object> m = new LinkedHashMap<>();
+      m.put("traceId", t.id());
+      m.put("id", s.id());
+      if (s.padre() != null) m.put("parentId", s.padre());
+      m.put("name", s.nombre());
+      m.put("timestamp", s.inicioEpochMicros());
+      m.put("duration", Math.max(1, s.duracionMicros()));
+      m.put("localEndpoint", endpoint);
+      Map<String, String> tags = new LinkedHashMap<>(s.etiquetas());
+      if (s == t.raiz() && t.descartados() > 0) tags.put("spans.descartados", String.valueOf(t.descartados()));
+      if (!tags.isEmpty()) m.put("tags", tags);
+      out.add(m);
+    }
+    return out;
+  }
+
+  public Map<String, Object> stats() {
+    Map<String, Object> m = new LinkedHashMap<>();
+    m.put("muestreo", Traza.muestreo());
+    m.put("archivo", archivo.toString());
+    m.put("pendientes", cola.size());
+    m.put("escritas", escritas.sum());
+    m.put("descartadas", descartadas.sum());
+    return m;
+  }
+}
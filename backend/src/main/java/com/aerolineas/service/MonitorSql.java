@@ -0,0 +1,123 @@
+package com.aerolineas.service;
+
+import com.aerolineas.config.Entorno;
+import com.aerolineas.config.InstrumentoSql;
+import com.aerolineas.dao.OperacionLogDAO;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lleva las sentencias lentas de InstrumentoSql a OPERACION_LOG en lotes desde un hilo aparte
+ * (encolar nunca bloquea; con la cola llena se descartan) y cada SQL_RESUMEN_SEG imprime las
+ * huellas que más tiempo sumaron desde el resumen anterior.
+ */
+public class MonitorSql {
+
+  private static volatile MonitorSql global;
+
+  private final InstrumentoSql instrumento;
+  private final OperacionLogDAO dao;
+  private final BlockingQueue<InstrumentoSql.Lenta> cola;
+  private final int lote;
+  private final long flushMs;
+  private final long resumenSeg;
+  private final LongAdder escritas = new LongAdder();
+  private final LongAdder descartadas = new LongAdder();
+  private ScheduledExecutorService scheduler;
+
+  public MonitorSql(InstrumentoSql instrumento, OperacionLogDAO dao, int capacidad, int lote, long flushMs, long resumenSeg) {
+    this.instrumento = instrumento;
+    this.dao = dao;
+    this.cola = new ArrayBlockingQueue<>(Math.max(1, capacidad));
+    this.lote = Math.max(1, lote);
+    this.flushMs = flushMs;
+    this.resumenSeg = resumenSeg;
+  }
+
+  public static MonitorSql global() {
+    if (global == null) {
+      synchronized (MonitorSql.class) {
+        if (global == null) {
+          global = new MonitorSql(InstrumentoSql.global(), new OperacionLogDAO(),
+              (int) Entorno.numero("SQL_LENTAS_CAPACIDAD", 1000),
+              (int) Entorno.numero("SQL_LENTAS_LOTE", 50),
+              Entorno.numero("SQL_LENTAS_FLUSH_MS", 5000),
+              Entorno.numero("SQL_RESUMEN_SEG", 300));
+        }
+      }
+    }
+    return global;
+  }
+
+  public synchronized void start() {
+    if (scheduler != null) return;
+    instrumento.alLenta(this::registrar);
+    scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+      Thread t = new Thread(r, "monitor-sql");
+      t.setDaemon(true);
+      return t;
+    });
+    if (flushMs > 0) scheduler.scheduleWithFixedDelay(this::vaciar, flushMs, flushMs, TimeUnit.MILLISECONDS);
+    if (resumenSeg > 0) scheduler.scheduleWithFixedDelay(this::imprimirResumen, resumenSeg, resumenSeg, TimeUnit.SECONDS);
+  }
+
+  public synchronized void stop() {
+    instrumento.alLenta(null);
+    if (scheduler != null) {
+      scheduler.shutdownNow();
+      scheduler = null;
+    }
+    vaciar();
+  }
+
+  public void registrar(InstrumentoSql.Lenta l) {
+    if (l == null) return;
+    if (!cola.offer(l)) descartadas.increment();
+  }
+
+  public int vaciar() {
+    int total = 0;
+    List<InstrumentoSql.Lenta> buffer = new ArrayList<>(lote);
+    // El INSERT a OPERACION_LOG también pasa por el instrumento: que no se reporte a sí mismo
+    InstrumentoSql.silenciar(true);
+    try {
+      while (cola.drainTo(buffer, lote) > 0) {
+        try {
+          total += dao.insertarLentas(buffer);
+        } catch (Exception e) {
+          descartadas.add(buffer.size());
+          System.out.println("[SQL] error al escribir " + buffer.size() + " sentencia(s) lenta(s): " + e.getMessage());
+        }
+        buffer.clear();
+      }
+    } finally {
+      InstrumentoSql.silenciar(false);
+    }
+    escritas.add(total);
+    return total;
+  }
+
+  void imprimirResumen() {
+    List<String> lineas = instrumento.resumen(5);
+    if (lineas.isEmpty()) return;
+    System.out.println("[SQL] más tiempo en los últimos " + resumenSeg + " s:");
+    for (String l : lineas) System.out.println("[SQL]   " + l);
+  }
+
+  public Map<String, Object> stats(int top) {
+    Map<String, Object> m = new LinkedHashMap<>(instrumento.stats(top));
+    m.put("lentasPendientes", cola.size());
+    m.put("lentasEscritas", escritas.sum());
+    m.put("lentasDescartadas", descartadas.sum());
+    return m;
+  }
+}
@@ -1,73 +1,365 @@
 package com.aerolineas.service;
 
-import com.aerolineas.config.DB;
+import com.aerolineas.dao.NotificacionDAO;
 import com.aerolineas.dao.VueloDAO;
+import com.aerolineas.dto.NotificacionDTO;
 import com.aerolineas.dto.VueloDTO;
-import com.aerolineas.util.Mailer;
 
-import java.sql.*;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.time.Instant;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
+/**
+ * Avisos masivos por cambio o cancelación de vuelo. La plantilla se arma una sola vez; los
+ * destinatarios se leen en streaming y se registran por lotes en NOTIFICACION_ENVIO antes de
+ * encolarlos en ColaCorreos, que los persiste en el outbox y reintenta por destinatario. El
+ * estado final vuelve por el Aviso con la ref "notificación:reserva" de cada envío y se guarda
+ * por lotes; si la notificación ya no está en memoria (p.ej. tras un reinicio) se escribe directo.
+ * En una operación masiva cada pasajero recibe un solo correo con todos sus vuelos afectados.
+ */
 public class NotificacionesService {
 
+  static final int LOTE = 100;
+  static final int RECIENTES_MAX = 50;
+
+  private static final Executor EJECUTOR = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+      new ArrayBlockingQueue<>(100), r -> {
+        Thread t = new Thread(r, "notificaciones-vuelo");
+        t.setDaemon(true);
+        return t;
+      });
+
   private final VueloDAO vueloDAO = new VueloDAO();
+  private final ColaCorreos correos;
+  private final NotificacionDAO dao;
+  private final Executor ejecutor;
+  private final Map<Long, Progreso> recientes = Collections.synchronizedMap(new LinkedHashMap<>(16, 0.75f, false) {
+    @Override protected boolean removeEldestEntry(Map.Entry<Long, Progreso> e) { return size() > RECIENTES_MAX; }
+  });
   private static final DateTimeFormatter FMT = DateTimeFormatter.ofPattern("d 'de' MMM yyyy, h:mm a", new Locale("es","MX"));
 
-  public void notificarCambio(long idVuelo, String motivo) {
+  public NotificacionesService() {
+    this(ColaCorreos.global(), new NotificacionDAO(), EJECUTOR);
+  }
+
+  public NotificacionesService(ColaCorreos correos, NotificacionDAO dao, Executor ejecutor) {
+    this.correos = correos;
+    this.dao = dao;
+    this.ejecutor = ejecutor;
+    correos.alResolver(this::resuelto);
+  }
+
+  /** Devuelve el ID de la notificación para seguir su progreso, o 0 si no se pudo iniciar. */
+  public long notificarCambio(long idVuelo, String motivo) {
+    return iniciar(idVuelo, "CAMBIO", motivo);
+  }
+
+  public long notificarCancelacion(long idVuelo, String motivo) {
+    return iniciar(idVuelo, "CANCELACION", motivo);
+  }
+
+  public NotificacionDTO.Progreso progreso(long idNotificacion) throws SQLException {
+    Progreso p = recientes.get(idNotificacion);
+    return p != null ? p.vista() : dao.resumen(idNotificacion);
+  }
+
+  public List<NotificacionDTO.Progreso> recientes() {
+    List<NotificacionDTO.Progreso> out = new ArrayList<>();
+    synchronized (recientes) {
+      for (Progreso p : recientes.values()) out.add(p.vista());
+    }
+    Collections.reverse(out);
+    return out;
+  }
+
+  public List<NotificacionDTO.Entrega> entregas(long idNotificacion, String estado) throws SQLException {
+    return dao.listarEntregas(idNotificacion, estado);
+  }
+
+  /**
+   * Operación masiva: un solo trabajo en el ejecutor. Cada vuelo tiene su propia notificación,
+   * que se sigue igual que las individuales, pero el pasajero con reservas en varios de los
+   * vuelos recibe un único correo que los lista todos. Solo se avisa a las {@code reservas} que
+   * la operación canceló.
+   */
+  public boolean notificarMasivo(List<Long> vuelos, Collection<Long> reservas, String tipo, String motivo) {
+    if (vuelos == null || vuelos.isEmpty()) return false;
+    List<Long> copia = List.copyOf(vuelos);
+    Set<Long> afectadas = reservas == null ? Set.of() : Set.copyOf(reservas);
+    try {
+      ejecutor.execute(() -> {
+        Map<Long, Tarea> tareas = new LinkedHashMap<>();
+        for (Long idVuelo : copia) {
+          Tarea t = preparar(idVuelo, tipo, motivo);
+          if (t != null) tareas.put(idVuelo, t);
+        }
+        if (!tareas.isEmpty()) difundirMasivo(tareas, afectadas, tipo, motivo);
+      });
+      return true;
+    } catch (RejectedExecutionException e) {
+      System.out.println("[Notificaciones] operación masiva de " + copia.size() + " vuelos rechazada: demasiadas notificaciones en curso");
+      return false;
+    }
+  }
+
+  private record Tarea(Progreso p, VueloDTO.View vuelo, String subject, String html) {}
+
+  private Tarea preparar(long idVuelo, String tipo, String motivo) {
     try {
       VueloDTO.View v = vueloDAO.obtenerVuelo(idVuelo);
-      if (v == null) return;
+      if (v == null) return null;
 
-      String subject = "Actualización de tu vuelo " + safe(v.codigo());
-      String html = htmlCambio(v, motivo);
+      boolean cancelacion = "CANCELACION".equals(tipo);
+      String subject = (cancelacion ? "Cancelación de tu vuelo " : "Actualización de tu vuelo ") + safe(v.codigo());
+      String html = cancelacion ? htmlCancelacion(v, motivo) : htmlCambio(v, motivo);
 
-      for (Destinatario d : listarDestinatarios(idVuelo)) {
-        String personalizado = html.replace("{{NOMBRE}}", buildNombre(d.nombres, d.apellidos));
-        Mailer.send(d.email, subject, personalizado);
-      }
-    } catch (Exception ignore) {}
+      long id = dao.crear(idVuelo, tipo, motivo);
+      Progreso p = new Progreso(id, idVuelo, tipo);
+      recientes.put(id, p);
+      return new Tarea(p, v, subject, html);
+    } catch (Exception e) {
+      System.out.println("[Notificaciones] no se pudo iniciar " + tipo + " del vuelo " + idVuelo + ": " + e.getMessage());
+      return null;
+    }
   }
 
-  public void notificarCancelacion(long idVuelo, String motivo) {
+  private long iniciar(long idVuelo, String tipo, String motivo) {
+    Tarea t = preparar(idVuelo, tipo, motivo);
+    if (t == null) return 0;
     try {
-      VueloDTO.View v = vueloDAO.obtenerVuelo(idVuelo);
-      if (v == null) return;
+      ejecutor.execute(() -> difundir(t.p(), t.subject(), t.html()));
+    } catch (RejectedExecutionException e) {
+      t.p().abortar("demasiadas notificaciones en curso");
+    }
+    return t.p().id;
+  }
 
-      String subject = "Cancelación de tu vuelo " + safe(v.codigo());
-      String html = htmlCancelacion(v, motivo);
+  void difundir(Progreso p, String subject, String html) {
+    List<NotificacionDTO.Destinatario> lote = new ArrayList<>(LOTE);
+    try {
+      dao.recorrerDestinatarios(p.idVuelo, d -> {
+        lote.add(d);
+        if (lote.size() < LOTE) return;
+        try {
+          despachar(p, lote, subject, html);
+        } catch (Exception e) {
+          throw new IOException(e.getMessage(), e);
+        }
+      });
+      despachar(p, lote, subject, html);
+      p.cerrarReparto(null);
+    } catch (Exception e) {
+      // Lo ya encolado sigue su curso; el resto del vuelo queda sin registrar
+      System.out.println("[Notificaciones] reparto interrumpido en " + p.id + ": " + e.getMessage());
+      p.cerrarReparto(e.getMessage() == null ? e.getClass().getSimpleName() : e.getMessage());
+    }
+  }
 
-      for (Destinatario d : listarDestinatarios(idVuelo)) {
-        String personalizado = html.replace("{{NOMBRE}}", buildNombre(d.nombres, d.apellidos));
-        Mailer.send(d.email, subject, personalizado);
+  private void despachar(Progreso p, List<NotificacionDTO.Destinatario> lote, String subject, String html) throws Exception {
+    if (lote.isEmpty()) return;
+    dao.registrarPendientes(p.id, lote);
+    p.total.addAndGet(lote.size());
+    List<ColaCorreos.Envio> envios = new ArrayList<>(lote.size());
+    for (NotificacionDTO.Destinatario d : lote) {
+      if (d.email().isBlank()) {
+        p.resolver(new NotificacionDTO.Entrega(d.idReserva(), d.email(), NotificacionDTO.FALLIDO, 0, "sin email"));
+        continue;
       }
-    } catch (Exception ignore) { }
-  }
-
-  private List<Destinatario> listarDestinatarios(long idVuelo) throws SQLException {
-    String reservaItemTable = DB.table("RESERVA_ITEM");
-    String reservaTable = DB.table("RESERVA");
-    String usuarioTable = DB.table("USUARIO");
-    final String sql = "SELECT DISTINCT r.ID_RESERVA, u.ID_USUARIO, u.EMAIL, u.NOMBRES, u.APELLIDOS FROM " + reservaItemTable + " ri JOIN " + reservaTable + " r ON r.ID_RESERVA = ri.ID_RESERVA JOIN " + usuarioTable + " u ON u.ID_USUARIO = r.ID_USUARIO WHERE ri.ID_VUELO = ? AND r.ID_ESTADO IN (2,3) AND NVL(u.HABILITADO,1) = 1";
-
-    List<Destinatario> list = new ArrayList<>();
-    try (Connection cn = DB.getConnection();
-         PreparedStatement ps = cn.prepareStatement(sql)) {
-      ps.setLong(1, idVuelo);
-      try (ResultSet rs = ps.executeQuery()) {
-        while (rs.next()) {
-          list.add(new Destinatario(
-              rs.getLong("ID_RESERVA"),
-              rs.getLong("ID_USUARIO"),
-              safe(rs.getString("EMAIL")),
-              safe(rs.getString("NOMBRES")),
-              safe(rs.getString("APELLIDOS"))
-          ));
+      String personalizado = html.replace("{{NOMBRE}}", buildNombre(d.nombres(), d.apellidos()));
+      envios.add(new ColaCorreos.Envio(new ColaCorreos.Correo(d.email(), subject, personalizado), p.id + ":" + d.idReserva()));
+    }
+    correos.encolar(envios);
+    lote.clear();
+  }
+
+  /**
+   * Reparto de una operación masiva. Los destinatarios llegan ordenados por usuario y los lotes
+   * solo se cortan entre usuarios, así que todos los tramos de un pasajero caen en el mismo lote.
+   */
+  void difundirMasivo(Map<Long, Tarea> tareas, Set<Long> reservas, String tipo, String motivo) {
+    List<NotificacionDTO.DestinatarioVuelo> lote = new ArrayList<>(LOTE);
+    String error = null;
+    try {
+      dao.recorrerDestinatariosDeVuelos(new ArrayList<>(tareas.keySet()), reservas, d -> {
+        if (lote.size() >= LOTE && lote.get(lote.size() - 1).destinatario().idUsuario() != d.destinatario().idUsuario()) {
+          try {
+            despacharMasivo(tareas, lote, tipo, motivo);
+          } catch (Exception e) {
+            throw new IOException(e.getMessage(), e);
+          }
+        }
+        lote.add(d);
+      });
+      despacharMasivo(tareas, lote, tipo, motivo);
+    } catch (Exception e) {
+      System.out.println("[Notificaciones] reparto masivo interrumpido: " + e.getMessage());
+      error = e.getMessage() == null ? e.getClass().getSimpleName() : e.getMessage();
+    }
+    for (Tarea t : tareas.values()) t.p().cerrarReparto(error);
+  }
+
+  private void despacharMasivo(Map<Long, Tarea> tareas, List<NotificacionDTO.DestinatarioVuelo> lote,
+                               String tipo, String motivo) throws Exception {
+    if (lote.isEmpty()) return;
+    Map<Long, List<NotificacionDTO.Destinatario>> porVuelo = new LinkedHashMap<>();
+    Map<Long, List<NotificacionDTO.DestinatarioVuelo>> porUsuario = new LinkedHashMap<>();
+    for (NotificacionDTO.DestinatarioVuelo d : lote) {
+      porVuelo.computeIfAbsent(d.idVuelo(), k -> new ArrayList<>()).add(d.destinatario());
+      porUsuario.computeIfAbsent(d.destinatario().idUsuario(), k -> new ArrayList<>()).add(d);
+    }
+    for (var e : porVuelo.entrySet()) {
+      Progreso p = tareas.get(e.getKey()).p();
+      dao.registrarPendientes(p.id, e.getValue());
+      p.total.addAndGet(e.getValue().size());
+    }
+
+    List<ColaCorreos.Envio> envios = new ArrayList<>(porUsuario.size());
+    for (List<NotificacionDTO.DestinatarioVuelo> tramos : porUsuario.values()) {
+      NotificacionDTO.Destinatario primero = tramos.get(0).destinatario();
+      String email = primero.email();
+      if (email.isBlank()) {
+        for (var d : tramos) {
+          tareas.get(d.idVuelo()).p().resolver(new NotificacionDTO.Entrega(
+              d.destinatario().idReserva(), email, NotificacionDTO.FALLIDO, 0, "sin email"));
         }
+        continue;
+      }
+      List<Tarea> suyas = new ArrayList<>();
+      for (var d : tramos) {
+        Tarea t = tareas.get(d.idVuelo());
+        if (!suyas.contains(t)) suyas.add(t);
+      }
+      String subject;
+      String html;
+      if (suyas.size() == 1) {
+        subject = suyas.get(0).subject();
+        html = suyas.get(0).html();
+      } else {
+        boolean cancelacion = "CANCELACION".equals(tipo);
+        StringJoiner codigos = new StringJoiner(", ");
+        for (Tarea t : suyas) codigos.add(safe(t.vuelo().codigo()));
+        subject = (cancelacion ? "Cancelación de tus vuelos " : "Actualización de tus vuelos ") + codigos;
+        html = htmlVarios(suyas, cancelacion, motivo);
+      }
+      String personalizado = html.replace("{{NOMBRE}}", buildNombre(primero.nombres(), primero.apellidos()));
+      StringJoiner ref = new StringJoiner(",");
+      for (var d : tramos) ref.add(tareas.get(d.idVuelo()).p().id + ":" + d.destinatario().idReserva());
+      envios.add(new ColaCorreos.Envio(new ColaCorreos.Correo(email, subject, personalizado), ref.toString()));
+    }
+    correos.encolar(envios);
+    lote.clear();
+  }
+
+  /**
+   * Resultado de un correo encolado por este servicio; ref lista "notificación:reserva" de cada
+   * entrega que cubre. Sin la notificación en memoria el estado va directo a NOTIFICACION_ENVIO.
+   */
+  void resuelto(String ref, String para, int intentos, String error) {
+    String estado = error == null ? NotificacionDTO.ENVIADO : NotificacionDTO.FALLIDO;
+    Map<Long, List<NotificacionDTO.Entrega>> sinProgreso = new LinkedHashMap<>();
+    for (String par : ref.split(",")) {
+      int i = par.indexOf(':');
+      if (i <= 0) continue;
+      long idNotificacion, idReserva;
+      try {
+        idNotificacion = Long.parseLong(par.substring(0, i));
+        idReserva = Long.parseLong(par.substring(i + 1));
+      } catch (NumberFormatException e) {
+        continue;
+      }
+      NotificacionDTO.Entrega e = new NotificacionDTO.Entrega(idReserva, para, estado, intentos, error);
+      Progreso p = recientes.get(idNotificacion);
+      if (p != null) p.resolver(e);
+      else sinProgreso.computeIfAbsent(idNotificacion, k -> new ArrayList<>()).add(e);
+    }
+    for (var e : sinProgreso.entrySet()) {
+      try {
+        dao.actualizarEstados(e.getKey(), e.getValue());
+      } catch (Exception ex) {
+        System.out.println("[Notificaciones] no se guardó el estado de " + e.getValue().size() + " envíos de " + e.getKey() + ": " + ex.getMessage());
       }
     }
-    return list;
+  }
+
+  /** Estado en memoria de una notificación; los resultados se escriben a la BD por lotes. */
+  final class Progreso {
+    final long id;
+    final long idVuelo;
+    final String tipo;
+    final Instant iniciada = Instant.now();
+    final AtomicInteger total = new AtomicInteger();
+    final AtomicInteger enviados = new AtomicInteger();
+    final AtomicInteger fallidos = new AtomicInteger();
+    private final List<NotificacionDTO.Entrega> porGuardar = new ArrayList<>();
+    private volatile boolean repartoCerrado;
+    private volatile String error;
+    private volatile Instant terminada;
+
+    Progreso(long id, long idVuelo, String tipo) {
+      this.id = id;
+      this.idVuelo = idVuelo;
+      this.tipo = tipo;
+    }
+
+    void resolver(NotificacionDTO.Entrega e) {
+      (NotificacionDTO.ENVIADO.equals(e.estado()) ? enviados : fallidos).incrementAndGet();
+      boolean lleno;
+      synchronized (porGuardar) {
+        porGuardar.add(e);
+        lleno = porGuardar.size() >= LOTE;
+      }
+      if (lleno) guardar();
+      revisarFin();
+    }
+
+    void cerrarReparto(String error) {
+      this.error = error;
+      repartoCerrado = true;
+      revisarFin();
+    }
+
+    void abortar(String error) {
+      this.error = error;
+      repartoCerrado = true;
+      terminada = Instant.now();
+    }
+
+    private void revisarFin() {
+      if (!repartoCerrado || enviados.get() + fallidos.get() < total.get()) return;
+      guardar();
+      synchronized (this) {
+        if (terminada == null) terminada = Instant.now();
+      }
+    }
+
+    private void guardar() {
+      List<NotificacionDTO.Entrega> copia;
+      synchronized (porGuardar) {
+        if (porGuardar.isEmpty()) return;
+        copia = new ArrayList<>(porGuardar);
+        porGuardar.clear();
+      }
+      try {
+        dao.actualizarEstados(id, copia);
+      } catch (Exception ex) {
+        System.out.println("[Notificaciones] no se guardó el estado de " + copia.size() + " envíos de " + id + ": " + ex.getMessage());
+      }
+    }
+
+    NotificacionDTO.Progreso vista() {
+      int t = total.get(), ok = enviados.get(), ko = fallidos.get();
+      String estado = terminada == null ? "EN_CURSO" : (error == null ? "COMPLETADA" : "INCOMPLETA");
+      return new NotificacionDTO.Progreso(id, idVuelo, tipo, estado, t, ok, ko, t - ok - ko, error, iniciada, terminada);
+    }
   }
 
   private String htmlCambio(VueloDTO.View v, String motivo) {
@@ -108,6 +400,30 @@ public class NotificacionesService {
         .toString();
   }
 
+  private String htmlVarios(List<Tarea> tareas, boolean cancelacion, String motivo) {
+    StringBuilder sb = new StringBuilder()
+        .append("<h2>Hola {{NOMBRE}},</h2>")
+        .append(cancelacion
+            ? "<p>Lamentamos informarte que los siguientes vuelos de tus reservas han sido <strong>cancelados</strong>.</p>"
+            : "<p>Queremos informarte que los siguientes vuelos de tus reservas han sido <strong>actualizados</strong>.</p>")
+        .append("<p><strong>Motivo:</strong> ").append(safe(motivo)).append("</p>")
+        .append("<ul style='line-height:1.5'>");
+    for (Tarea t : tareas) {
+      VueloDTO.View v = t.vuelo();
+      sb.append("<li><strong>").append(safe(v.codigo())).append("</strong>: ")
+          .append(ruta(v.origen(), v.origenPais())).append(" &rarr; ").append(ruta(v.destino(), v.destinoPais()))
+          .append(", salida ").append(dt(v.fechaSalida()));
+      if (!cancelacion) sb.append(", llegada ").append(dt(v.fechaLlegada()));
+      sb.append("</li>");
+    }
+    return sb.append("</ul>")
+        .append(cancelacion
+            ? "<p>Nuestro equipo puede ayudarte a reprogramar o gestionar alternativas. Responde a este correo o visita tu historial para más opciones.</p>"
+            : "<p>Si estos cambios no te funcionan, contáctanos para ayudarte con opciones.</p>")
+        .append("<p>").append(cancelacion ? "Disculpa los inconvenientes" : "Gracias por volar con nosotros").append(",<br/>Aerolíneas</p>")
+        .toString();
+  }
+
   private String ruta(String ciudad, String pais) {
     ciudad = safe(ciudad);
     pais   = safe(pais);
@@ -130,6 +446,4 @@ public class NotificacionesService {
   }
 
   private String safe(String s) { return s == null ? "" : s; }
-
-  private record Destinatario(long idReserva, long idUsuario, String email, String nombres, String apellidos) {}
 }
@@ -0,0 +1,83 @@
+package com.aerolineas.service;
+
+import com.aerolineas.config.Entorno;
+import com.aerolineas.dao.OutboxDAO;
+
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Borra periódicamente los eventos HECHO de OUTBOX_EVENTO con más de OUTBOX_RETENCION_DIAS días
+ * (7 por defecto; 0 = se guardan siempre). Sin esto la tabla crece con cada correo y boleto.
+ */
+public class PurgaOutboxJob {
+
+  private final OutboxDAO dao;
+  private final LongAdder borrados = new LongAdder();
+  private ScheduledExecutorService scheduler;
+  private volatile String ultimaPurga;
+  private volatile String ultimoError;
+
+  public PurgaOutboxJob() {
+    this(new OutboxDAO());
+  }
+
+  public PurgaOutboxJob(OutboxDAO dao) {
+    this.dao = dao;
+  }
+
+  static long retencionDias() {
+    return Math.max(0, Entorno.numero("OUTBOX_RETENCION_DIAS", 7));
+  }
+
+  public synchronized void start() {
+    long min = Entorno.numero("OUTBOX_PURGA_MIN", 60);
+    if (min <= 0 || retencionDias() <= 0 || scheduler != null) return;
+    scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+      Thread t = new Thread(r, "purga-outbox");
+      t.setDaemon(true);
+      return t;
+    });
+    scheduler.scheduleWithFixedDelay(this::ejecutar, min, min, TimeUnit.MINUTES);
+  }
+
+  public synchronized void stop() {
+    if (scheduler != null) {
+      scheduler.shutdownNow();
+      scheduler = null;
+    }
+  }
+
+  public int ejecutar() {
+    long dias = retencionDias();
+    if (dias <= 0) return 0;
+    int lote = (int) Math.max(1, Entorno.numero("OUTBOX_PURGA_LOTE", 500));
+    int maxLotes = (int) Math.max(1, Entorno.numero("OUTBOX_PURGA_MAX_LOTES", 20));
+    try {
+      int n = dao.purgarHechos(dias, lote, maxLotes);
+      borrados.add(n);
+      ultimaPurga = Instant.now().toString();
+      ultimoError = null;
+      if (n > 0) System.out.println("[Outbox] purgados " + n + " evento(s) HECHO con más de " + dias + " día(s)");
+      return n;
+    } catch (Exception e) {
+      ultimoError = e.getMessage();
+      System.out.println("[Outbox] error en purga: " + e.getMessage());
+      return 0;
+    }
+  }
+
+  public Map<String, Object> stats() {
+    Map<String, Object> m = new LinkedHashMap<>();
+    m.put("retencionDias", retencionDias());
+    m.put("borrados", borrados.sum());
+    m.put("ultimaPurga", ultimaPurga);
+    m.put("ultimoError", ultimoError);
+    return m;
+  }
+}
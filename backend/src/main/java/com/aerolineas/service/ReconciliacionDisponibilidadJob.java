@@ -0,0 +1,59 @@
+package com.aerolineas.service;
+
+import com.aerolineas.config.Entorno;
+import com.aerolineas.dao.DisponibilidadDAO;
+import com.aerolineas.dto.DisponibilidadDTO;
+
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+public class ReconciliacionDisponibilidadJob {
+
+  private final DisponibilidadDAO dao;
+  private ScheduledExecutorService scheduler;
+
+  public ReconciliacionDisponibilidadJob() {
+    this(new DisponibilidadDAO());
+  }
+
+  public ReconciliacionDisponibilidadJob(DisponibilidadDAO dao) {
+    this.dao = dao;
+  }
+
+  static long intervaloMinutos() {
+    return Entorno.numero("DISPONIBILIDAD_RECONCILIAR_MIN", 15);
+  }
+
+  public synchronized void start() {
+    long min = intervaloMinutos();
+    if (min <= 0 || scheduler != null) return;
+    scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+      Thread t = new Thread(r, "reconciliar-disponibilidad");
+      t.setDaemon(true);
+      return t;
+    });
+    scheduler.scheduleWithFixedDelay(this::ejecutar, min, min, TimeUnit.MINUTES);
+  }
+
+  public synchronized void stop() {
+    if (scheduler != null) {
+      scheduler.shutdownNow();
+      scheduler = null;
+    }
+  }
+
+  public List<DisponibilidadDTO.Desfase> ejecutar() {
+    try {
+      List<DisponibilidadDTO.Desfase> reparados = dao.reconciliar(null);
+      if (!reparados.isEmpty()) {
+        System.out.println("[Disponibilidad] reconciliación: " + reparados.size() + " fila(s) corregidas");
+      }
+      return reparados;
+    } catch (Exception e) {
+      System.out.println("[Disponibilidad] error en reconciliación: " + e.getMessage());
+      return List.of();
+    }
+  }
+}
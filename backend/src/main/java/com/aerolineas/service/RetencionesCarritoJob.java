@@ -0,0 +1,71 @@
+package com.aerolineas.service;
+
+import com.aerolineas.config.Entorno;
+import com.aerolineas.dao.RetencionesDAO;
+
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/** Barre periódicamente los ítems de carrito cuya retención venció y devuelve sus asientos. */
+public class RetencionesCarritoJob {
+
+  private final RetencionesDAO dao;
+  private ScheduledExecutorService scheduler;
+  private volatile String ultimoBarrido;
+  private volatile String ultimoError;
+
+  public RetencionesCarritoJob() {
+    this(new RetencionesDAO());
+  }
+
+  public RetencionesCarritoJob(RetencionesDAO dao) {
+    this.dao = dao;
+  }
+
+  public synchronized void start() {
+    long seg = Entorno.numero("CARRITO_RETENCION_BARRIDO_SEG", 60);
+    if (seg <= 0 || RetencionesDAO.ttlMinutos() <= 0 || scheduler != null) return;
+    scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+      Thread t = new Thread(r, "retenciones-carrito");
+      t.setDaemon(true);
+      return t;
+    });
+    scheduler.scheduleWithFixedDelay(this::ejecutar, seg, seg, TimeUnit.SECONDS);
+  }
+
+  public synchronized void stop() {
+    if (scheduler != null) {
+      scheduler.shutdownNow();
+      scheduler = null;
+    }
+  }
+
+  public RetencionesDAO.Liberacion ejecutar() {
+    int lote = (int) Math.max(1, Entorno.numero("CARRITO_RETENCION_LOTE", 500));
+    int maxLotes = (int) Math.max(1, Entorno.numero("CARRITO_RETENCION_MAX_LOTES", 20));
+    try {
+      RetencionesDAO.Liberacion l = dao.barrer(lote, maxLotes);
+      ultimoBarrido = Instant.now().toString();
+      ultimoError = null;
+      if (l.items() > 0) {
+        System.out.println("[Retenciones] liberados " + l.asientos() + " asiento(s) de " + l.items() + " ítem(s) vencidos");
+      }
+      return l;
+    } catch (Exception e) {
+      ultimoError = e.getMessage();
+      System.out.println("[Retenciones] error en barrido: " + e.getMessage());
+      return RetencionesDAO.Liberacion.NADA;
+    }
+  }
+
+  public Map<String, Object> stats() throws Exception {
+    Map<String, Object> m = new LinkedHashMap<>(dao.resumen());
+    m.put("ultimoBarrido", ultimoBarrido);
+    m.put("ultimoError", ultimoError);
+    return m;
+  }
+}
@@ -0,0 +1,96 @@
+package com.aerolineas.util;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histograma de tiempos en microsegundos con cubetas de potencias de 2 (1 µs .. ~36 min).
+ * Registrar es un incremento sin bloqueo; los percentiles salen del borde superior de la
+ * cubeta, así que tienen a lo sumo un factor 2 de error, suficiente para ver colas.
+ */
+public final class Histograma {
+
+  static final int CUBETAS = 32;
+
+  private final LongAdder[] cubetas = new LongAdder[CUBETAS];
+  private final LongAdder suma = new LongAdder();
+  private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+  public Histograma() {
+    for (int i = 0; i < CUBETAS; i++) cubetas[i] = new LongAdder();
+  }
+
+  public void registrar(long micros) {
+    long v = Math.max(0, micros);
+    cubetas[cubeta(v)].increment();
+    suma.add(v);
+    max.accumulate(v);
+  }
+
+  static int cubeta(long micros) {
+    if (micros <= 1) return 0;
+    return Math.min(CUBETAS - 1, 64 - Long.numberOfLeadingZeros(micros - 1));
+  }
+
+  /** Borde superior (inclusive) de la cubeta i, en µs. */
+  static long borde(int i) {
+    return 1L << i;
+  }
+
+  /** Copia de los contadores por cubeta, para restar dos fotos y medir una ventana. */
+  public long[] foto() {
+    long[] f = new long[CUBETAS];
+    for (int i = 0; i < CUBETAS; i++) f[i] = cubetas[i].sum();
+    return f;
+  }
+
+  public long cuenta() {
+    long n = 0;
+    for (LongAdder c : cubetas) n += c.sum();
+    return n;
+  }
+
+  public static long[] diferencia(long[] despues, long[] antes) {
+    long[] d = new long[CUBETAS];
+    for (int i = 0; i < CUBETAS; i++) d[i] = despues[i] - (antes == null ? 0 : antes[i]);
+    return d;
+  }
+
+  public static long cuenta(long[] f) {
+    long n = 0;
+    for (long c : f) n += c;
+    return n;
+  }
+
+  /** Percentil p (0..1) en µs; 0 si no hay muestras. */
+  public static long percentil(long[] f, double p) {
+    long n = cuenta(f);
+    if (n == 0) return 0;
+    long objetivo = Math.max(1, (long) Math.ceil(n * p));
+    long acumulado = 0;
+    for (int i = 0; i < f.length; i++) {
+      acumulado += f[i];
+      if (acumulado >= objetivo) return borde(i);
+    }
+    return borde(f.length - 1);
+  }
+
+  public Map<String, Object> resumen() {
+    long[] f = foto();
+    long n = cuenta(f);
+    Map<String, Object> m = new LinkedHashMap<>();
+    m.put("n", n);
+    m.put("mediaMs", n == 0 ? 0.0 : ms(suma.sum() / (double) n));
+    m.put("p50Ms", ms(percentil(f, 0.50)));
+    m.put("p95Ms", ms(percentil(f, 0.95)));
+    m.put("p99Ms", ms(percentil(f, 0.99)));
+    m.put("maxMs", ms(max.get()));
+    return m;
+  }
+
+  private static double ms(double micros) {
+    return Math.round(micros) / 1000.0;
+  }
+}
@@ -0,0 +1,73 @@
+package com.aerolineas.util;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histograma de tiempos en microsegundos al estilo HDR: cada potencia de 2 se parte en 4
+ * cubetas lineales, así que el error relativo de un percentil es a lo sumo 25% (Histograma
+ * tiene factor 2). Las potencias de 2 son bordes exactos. Registrar no reserva memoria.
+ */
+public final class HistogramaFino {
+
+  static final int SUB = 4;
+  static final int CUBETAS = SUB * 35;
+
+  private final LongAdder[] cubetas = new LongAdder[CUBETAS];
+  private final LongAdder suma = new LongAdder();
+
+  public HistogramaFino() {
+    for (int i = 0; i < CUBETAS; i++) cubetas[i] = new LongAdder();
+  }
+
+  public void registrar(long micros) {
+    long v = Math.max(0, micros);
+    cubetas[cubeta(v)].increment();
+    suma.add(v);
+  }
+
+  /** Cubeta de v: la i cubre (borde(i-1), borde(i)]. */
+  static int cubeta(long micros) {
+    long x = micros - 1;
+    if (x < SUB) return (int) Math.max(0, x);
+    int e = 63 - Long.numberOfLeadingZeros(x);
+    int i = SUB * (e - 1) + (int) ((x >>> (e - 2)) & (SUB - 1));
+    return Math.min(CUBETAS - 1, i);
+  }
+
+  /** Borde superior (inclusive) de la cubeta i, en µs. */
+  public static long borde(int i) {
+    if (i < SUB) return i + 1;
+    int e = i / SUB + 1;
+    return (long) (SUB + 1 + i % SUB) << (e - 2);
+  }
+
+  public long[] foto() {
+    long[] f = new long[CUBETAS];
+    for (int i = 0; i < CUBETAS; i++) f[i] = cubetas[i].sum();
+    return f;
+  }
+
+  public long sumaMicros() {
+    return suma.sum();
+  }
+
+  /** Muestras menores o iguales a micros en la foto f (exacto cuando micros es un borde). */
+  public static long hasta(long[] f, long micros) {
+    long n = 0;
+    for (int i = 0; i < f.length && borde(i) <= micros; i++) n += f[i];
+    return n;
+  }
+
+  /** Percentil p (0..1) en µs; 0 si no hay muestras. */
+  public static long percentil(long[] f, double p) {
+    long n = Histograma.cuenta(f);
+    if (n == 0) return 0;
+    long objetivo = Math.max(1, (long) Math.ceil(n * p));
+    long acumulado = 0;
+    for (int i = 0; i < f.length; i++) {
+      acumulado += f[i];
+      if (acumulado >= objetivo) return borde(i);
+    }
+    return borde(f.length - 1);
+  }
+}
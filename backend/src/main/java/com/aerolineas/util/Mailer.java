@@ -68,10 +68,60 @@ public final class Mailer {
     return s;
   }
 
+  @SuppressWarnings("try")
   public static void send(String to, String subject, String html) throws Exception {
     if (to == null || to.isBlank()) throw new IllegalArgumentException("Destinatario vacío");
+    try (Traza.Span ignored = Traza.span("smtp")) {
+      Transport.send(mensaje(buildSession(), to, subject, html));
+    }
+  }
 
+  /** Abre una conexión SMTP reutilizable; la cola de correos mantiene una por worker. */
+  public static Conexion conectar() throws MessagingException {
     Session session = buildSession();
+    Conexion c = new Conexion(session, session.getTransport("smtp"),
+        env("MAIL_HOST", "smtp.gmail.com"), Integer.parseInt(env("MAIL_PORT", "587")),
+        env("MAIL_USER", ""), env("MAIL_PASS", ""));
+    c.abrir();
+    return c;
+  }
+
+  public static final class Conexion implements AutoCloseable {
+    private final Session session;
+    private final Transport transport;
+    private final String host, user, pass;
+    private final int port;
+
+    Conexion(Session session, Transport transport, String host, int port, String user, String pass) {
+      this.session = session;
+      this.transport = transport;
+      this.host = host;
+      this.port = port;
+      this.user = user;
+      this.pass = pass;
+    }
+
+    private void abrir() throws MessagingException {
+      transport.connect(host, port, user, pass);
+    }
+
+    @SuppressWarnings("try")
+    public void enviar(String to, String subject, String html) throws Exception {
+      if (to == null || to.isBlank()) throw new IllegalArgumentException("Destinatario vacío");
+      // El servidor puede cortar conexiones ociosas; se reabre en el mismo Transport
+      if (!transport.isConnected()) abrir();
+      try (Traza.Span ignored = Traza.span("smtp")) {
+        MimeMessage msg = mensaje(session, to, subject, html);
+        transport.sendMessage(msg, msg.getAllRecipients());
+      }
+    }
+
+    @Override public void close() {
+      try { transport.close(); } catch (MessagingException ignore) {}
+    }
+  }
+
+  static MimeMessage mensaje(Session session, String to, String subject, String html) throws Exception {
     String from = env("MAIL_FROM", env("MAIL_USER", ""));
     if (from.isBlank()) from = env("MAIL_USER", "");
 
@@ -96,6 +146,7 @@ public final class Mailer {
     mp.addBodyPart(htmlPart);
 
     msg.setContent(mp);
-    Transport.send(msg);
+    msg.saveChanges();
+    return msg;
   }
 }
@@ -1,27 +1,26 @@
 package com.aerolineas.util;
 
+import com.aerolineas.config.Entorno;
 import org.mindrot.jbcrypt.BCrypt;
 
 public class PasswordUtil {
 
   private static int cost() {
-    String raw = System.getenv("BCRYPT_COST");
-    if (raw == null || raw.isBlank()) {
-      raw = System.getProperty("BCRYPT_COST", "10");
-    }
-    try {
-      return Integer.parseInt(raw);
-    } catch (Exception e) {
-      return 10;
-    }
+    return (int) Entorno.numero("BCRYPT_COST", 10);
   }
 
+  @SuppressWarnings("try")
   public static String hash(String plain) {
-    return BCrypt.hashpw(plain, BCrypt.gensalt(cost()));
+    try (Traza.Span ignored = Traza.span("bcrypt")) {
+      return BCrypt.hashpw(plain, BCrypt.gensalt(cost()));
+    }
   }
 
+  @SuppressWarnings("try")
   public static boolean verify(String plain, String hash) {
     if (hash == null || hash.isBlank()) return false;
-    return BCrypt.checkpw(plain, hash);
+    try (Traza.Span ignored = Traza.span("bcrypt")) {
+      return BCrypt.checkpw(plain, hash);
+    }
   }
 }
@@ -42,14 +42,8 @@ public final class PdfBoleto {
     } catch (Exception e) { return s != null ? s : "-"; }
   }
 
-  private static String getOpt(Object bean, String field) {
-    if (bean == null) return "";
-    try {
-      var f = bean.getClass().getDeclaredField(field);
-      f.setAccessible(true);
-      Object v = f.get(bean);
-      return v == null ? "" : String.valueOf(v);
-    } catch (Exception ignore) { return ""; }
+  private static String txt(String s) {
+    return s == null ? "" : s;
   }
 
   private static String sanitize(String s) {
@@ -215,17 +209,17 @@ public final class PdfBoleto {
 
     PDPageContentStream cs = csRef[0];
 
-    String paisO = getOpt(it, "paisOrigen");
-    String paisD = getOpt(it, "paisDestino");
-    String ciuO  = getOpt(it, "ciudadOrigen");
-    String ciuD  = getOpt(it, "ciudadDestino");
+    String paisO = txt(it.paisOrigen);
+    String paisD = txt(it.paisDestino);
+    String ciuO  = txt(it.ciudadOrigen);
+    String ciuD  = txt(it.ciudadDestino);
     String origen  = (!ciuO.isBlank() || !paisO.isBlank()) ? (ciuO.isBlank()? paisO : (ciuO + ", " + paisO)) : "-";
     String destino = (!ciuD.isBlank() || !paisD.isBlank()) ? (ciuD.isBlank()? paisD : (ciuD + ", " + paisD)) : "-";
 
-    String escalaCiudad  = getOpt(it, "escalaCiudad");
-    String escalaPais    = getOpt(it, "escalaPais");
-    String escalaLlegada = getOpt(it, "escalaLlegada");
-    String escalaSalida  = getOpt(it, "escalaSalida");
+    String escalaCiudad  = txt(it.escalaCiudad);
+    String escalaPais    = txt(it.escalaPais);
+    String escalaLlegada = txt(it.escalaLlegada);
+    String escalaSalida  = txt(it.escalaSalida);
     boolean hasEscala = !((escalaCiudad==null?"":escalaCiudad)
             + (escalaPais==null?"":escalaPais)
             + (escalaLlegada==null?"":escalaLlegada)
@@ -242,13 +236,13 @@ public final class PdfBoleto {
         ? (escalaRuta + " — " + dt(escalaLlegada) + " -> " + dt(escalaSalida))
         : "-";
 
-    String regCod = getOpt(it, "regresoCodigo");
-    String regCO  = getOpt(it, "regresoCiudadOrigen");
-    String regPO  = getOpt(it, "regresoPaisOrigen");
-    String regCD  = getOpt(it, "regresoCiudadDestino");
-    String regPD  = getOpt(it, "regresoPaisDestino");
-    String regFS  = getOpt(it, "regresoFechaSalida");
-    String regFL  = getOpt(it, "regresoFechaLlegada");
+    String regCod = txt(it.regresoCodigo);
+    String regCO  = txt(it.regresoCiudadOrigen);
+    String regPO  = txt(it.regresoPaisOrigen);
+    String regCD  = txt(it.regresoCiudadDestino);
+    String regPD  = txt(it.regresoPaisDestino);
+    String regFS  = txt(it.regresoFechaSalida);
+    String regFL  = txt(it.regresoFechaLlegada);
 
     boolean hasRegresoBase = !((regCod==null?"":regCod) + (regCO==null?"":regCO) + (regPO==null?"":regPO)
             + (regCD==null?"":regCD) + (regPD==null?"":regPD)
@@ -347,8 +341,10 @@ public final class PdfBoleto {
     return cardY - 16;
   }
 
+  @SuppressWarnings("try")
   public static byte[] build(CompraDTO.ReservaDetalle det, String codigo, String comprador, String email) throws Exception {
-    try (PDDocument doc = new PDDocument(); ByteArrayOutputStream out = new ByteArrayOutputStream()) {
+    try (Traza.Span ignored = Traza.span("pdf");
+         PDDocument doc = new PDDocument(); ByteArrayOutputStream out = new ByteArrayOutputStream()) {
       PDPage page = new PDPage(PDRectangle.LETTER);
       doc.addPage(page);
       PDPage[] pageRef = new PDPage[]{ page };
@@ -379,7 +375,7 @@ public final class PdfBoleto {
         
         Set<String> allCodes = new HashSet<>();
         for (var it : det.items) {
-          String c = String.valueOf(getOpt(it, "codigoVuelo")).trim();
+          String c = txt(it.codigoVuelo).trim();
           if (!c.isEmpty()) allCodes.add(c);
         }
         for (var it : det.items) {
@@ -0,0 +1,206 @@
+package com.aerolineas.util;
+
+import com.aerolineas.config.Entorno;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Consumer;
+
+/**
+ * Traza de un request (o de una tarea de fondo) con sus spans: auth, bcrypt, cada sentencia
+ * SQL, PDF y SMTP. Vive en un ThreadLocal del hilo que la atiende; sin traza activa span()
+ * devuelve null (try-with-resources lo acepta), así que con TRAZAS_MUESTREO=0 medir cuesta
+ * una lectura del ThreadLocal. Al terminar se entrega al exportador.
+ */
+public final class Traza {
+
+  public static final class Span implements AutoCloseable {
+    private final Traza traza;
+    private final Span padre;
+    final String id;
+    String nombre;
+    final long inicioNanos;
+    long finNanos;
+    private Map<String, String> etiquetas;
+
+    private Span(Traza traza, Span padre, String nombre, long inicioNanos) {
+      this.traza = traza;
+      this.padre = padre;
+      this.id = idSpan();
+      this.nombre = nombre;
+      this.inicioNanos = inicioNanos;
+    }
+
+    public Span etiqueta(String clave, String valor) {
+      if (valor == null) return this;
+      if (etiquetas == null) etiquetas = new LinkedHashMap<>(4);
+      etiquetas.put(clave, valor);
+      return this;
+    }
+
+    public String id() { return id; }
+    public String nombre() { return nombre; }
+    public String padre() { return padre == null ? traza.padreRemoto : padre.id; }
+    public long duracionMicros() { return Math.max(0, finNanos - inicioNanos) / 1000; }
+    public long inicioEpochMicros() { return traza.inicioEpochMicros + (inicioNanos - traza.inicioNanos) / 1000; }
+    public Map<String, String> etiquetas() { return etiquetas == null ? Map.of() : etiquetas; }
+
+    @Override
+    public void close() {
+      if (finNanos != 0) return;
+      finNanos = System.nanoTime();
+      if (traza.abierto == this) traza.abierto = padre;
+    }
+  }
+
+  static final int MAX_SPANS = 500;
+
+  private static final ThreadLocal<Traza> ACTUAL = new ThreadLocal<>();
+  private static volatile double muestreo = tasaConfigurada();
+  private static volatile Consumer<Traza> exportador;
+
+  private final String id;
+  private final String padreRemoto;
+  private final long inicioNanos = System.nanoTime();
+  private final long inicioEpochMicros = System.currentTimeMillis() * 1000;
+  private final Span raiz;
+  private final List<Span> spans = new ArrayList<>();
+  private Span abierto;
+  private int descartados;
+
+  private Traza(String id, String padreRemoto, String nombre) {
+    this.id = id;
+    this.padreRemoto = padreRemoto;
+    this.raiz = new Span(this, null, nombre, inicioNanos);
+    this.spans.add(raiz);
+    this.abierto = raiz;
+  }
+
+  private static double tasaConfigurada() {
+    double t = Entorno.decimal("TRAZAS_MUESTREO", 0);
+    return Double.isNaN(t) ? 0 : Math.max(0, Math.min(1, t));
+  }
+
+  /** Fracción de requests a trazar (0 apaga las trazas por completo). */
+  public static double muestreo() { return muestreo; }
+
+  public static void muestreo(double tasa) { muestreo = Math.max(0, Math.min(1, tasa)); }
+
+  /** Quién recibe las trazas terminadas; null las descarta. */
+  public static void alTerminar(Consumer<Traza> destino) { exportador = destino; }
+
+  /** Decide si trazar; forzada (p.ej. traceparent con la marca de muestreo) solo cuenta si está encendido. */
+  public static boolean muestrear(boolean forzada) {
+    double t = muestreo;
+    if (t <= 0) return false;
+    return forzada || t >= 1 || ThreadLocalRandom.current().nextDouble() < t;
+  }
+
+  /** Abre la traza del hilo; id de 32 hex, padreRemoto el span de quien llamó (o null). */
+  public static Traza iniciar(String id, String padreRemoto, String nombre) {
+    Traza t = new Traza(id, padreRemoto, nombre);
+    ACTUAL.set(t);
+    return t;
+  }
+
+  public static Traza actual() { return ACTUAL.get(); }
+
+  /** Renombra la raíz (la ruta se conoce después de abrir la traza). */
+  public static void nombrar(String nombre) {
+    Traza t = ACTUAL.get();
+    if (t != null && nombre != null) t.raiz.nombre = nombre;
+  }
+
+  /** Cierra la traza del hilo y la entrega al exportador; null si no había. */
+  public static Traza terminar() {
+    Traza t = ACTUAL.get();
+    if (t == null) return null;
+    ACTUAL.remove();
+    t.raiz.close();
+    Consumer<Traza> destino = exportador;
+    if (destino != null) {
+      try {
+        destino.accept(t);
+      } catch (Exception e) {
+        System.out.println("[Trazas] error al exportar: " + e.getMessage());
+      }
+    }
+    return t;
+  }
+
+  /** Span hijo del abierto; null sin traza activa. */
+  public static Span span(String nombre) {
+    Traza t = ACTUAL.get();
+    if (t == null) return null;
+    Span s = new Span(t, t.abierto, nombre, System.nanoTime());
+    if (!t.agregar(s)) return null;
+    t.abierto = s;
+    return s;
+  }
+
+  /** Span ya medido por quien llama (p.ej. el instrumento SQL), sin reabrir el reloj. */
+  public static Span registrar(String nombre, long inicioNanos, long finNanos) {
+    Traza t = ACTUAL.get();
+    if (t == null) return null;
+    Span s = new Span(t, t.abierto, nombre, inicioNanos);
+    s.finNanos = Math.max(inicioNanos + 1, finNanos);
+    return t.agregar(s) ? s : null;
+  }
+
+  private boolean agregar(Span s) {
+    if (spans.size() >= MAX_SPANS) {
+      descartados++;
+      return false;
+    }
+    spans.add(s);
+    return true;
+  }
+
+  public String id() { return id; }
+  public Span raiz() { return raiz; }
+  public List<Span> spans() { return spans; }
+  public int descartados() { return descartados; }
+
+  /**
+   * Header Server-Timing: tiempo total por nombre de span (los anidados también suman en su
+   * propia entrada) y el total del request.
+   */
+  public String serverTiming() {
+    Map<String, long[]> porNombre = new LinkedHashMap<>();
+    for (int i = 1; i < spans.size(); i++) {
+      Span s = spans.get(i);
+      long[] acc = porNombre.computeIfAbsent(s.nombre, k -> new long[2]);
+      acc[0] += s.duracionMicros();
+      acc[1]++;
+    }
+    StringBuilder sb = new StringBuilder();
+    porNombre.forEach((nombre, acc) -> {
+      sb.append(nombre).append(";dur=").append(ms(acc[0]));
+      if (acc[1] > 1) sb.append(";desc=\"").append(acc[1]).append("x\"");
+      sb.append(", ");
+    });
+    sb.append("total;dur=").append(ms(raiz.duracionMicros()));
+    return sb.toString();
+  }
+
+  private static String ms(long micros) {
+    return String.valueOf(Math.round(micros / 10.0) / 100.0);
+  }
+
+  public static String idTraza() {
+    ThreadLocalRandom r = ThreadLocalRandom.current();
+    return hex(r.nextLong()) + hex(r.nextLong());
+  }
+
+  static String idSpan() {
+    return hex(ThreadLocalRandom.current().nextLong());
+  }
+
+  private static String hex(long v) {
+    String h = Long.toHexString(v);
+    return h.length() == 16 ? h : "0".repeat(16 - h.length()) + h;
+  }
+}
@@ -54,6 +54,7 @@ class AppTest {
     System.clearProperty("oracle.user");
     System.clearProperty("oracle.password");
     System.clearProperty("port");
+    System.clearProperty("METRICAS_TOKEN");
   }
 
 
@@ -195,4 +196,29 @@ class AppTest {
       verify(ctx).json(any(Map.class));
     }
   }
+
+  private static boolean callMetricasAutorizadas(Context ctx) throws Exception {
+    Method m = App.class.getDeclaredMethod("metricasAutorizadas", Context.class);
+    m.setAccessible(true);
+    return (boolean) m.invoke(null, ctx);
+  }
+
+  @Test
+  void metricasAutorizadas_sinTokenQuedaAbierto() throws Exception {
+    Context ctx = mock(Context.class);
+    assertTrue(callMetricasAutorizadas(ctx));
+  }
+
+  @Test
+  void metricasAutorizadas_conTokenExigeBearer() throws Exception {
+    System.setProperty("METRICAS_TOKEN", "s3creto");
+    Context ok = mock(Context.class);
+    when(ok.header("Authorization")).thenReturn("Bearer s3creto");
+    Context malo = mock(Context.class);
+    when(malo.header("Authorization")).thenReturn("Bearer otro");
+
+    assertTrue(callMetricasAutorizadas(ok));
+    assertFalse(callMetricasAutorizadas(malo));
+    assertFalse(callMetricasAutorizadas(mock(Context.class)));
+  }
 }
@@ -0,0 +1,112 @@
+package com.aerolineas.bench;
+
+import com.aerolineas.dto.CompraDTO;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Costo por ítem de leer/escribir los campos opcionales de origen/destino, comparando el
+ * acceso por reflexión que usaban ComprasDAO/PdfBoleto/ComprasController con el acceso tipado.
+ *
+ * mvn -q test-compile exec:exec -Dexec.classpathScope=test -Dexec.executable=java \
+ *   -Dexec.args="-cp %classpath org.openjdk.jmh.Main AccesoItemsBench"
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AccesoItemsBench {
+
+  static final int ITEMS = 20;
+
+  List<CompraDTO.ReservaItem> items;
+
+  @Setup
+  public void setup() {
+    items = new ArrayList<>(ITEMS);
+    for (int i = 0; i < ITEMS; i++) {
+      var it = new CompraDTO.ReservaItem();
+      it.paisOrigen = "Guatemala";
+      it.paisDestino = "España";
+      it.ciudadOrigen = "Guatemala";
+      it.ciudadDestino = i % 2 == 0 ? "Madrid" : null;
+      items.add(it);
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(ITEMS)
+  public void leerReflexion(Blackhole bh) {
+    for (var it : items) {
+      bh.consume(getOpt(it, "paisOrigen"));
+      bh.consume(getOpt(it, "paisDestino"));
+      bh.consume(getOpt(it, "ciudadOrigen"));
+      bh.consume(getOpt(it, "ciudadDestino"));
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(ITEMS)
+  public void leerDirecto(Blackhole bh) {
+    for (var it : items) {
+      bh.consume(txt(it.paisOrigen));
+      bh.consume(txt(it.paisDestino));
+      bh.consume(txt(it.ciudadOrigen));
+      bh.consume(txt(it.ciudadDestino));
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(ITEMS)
+  public void escribirReflexion() {
+    for (var it : items) {
+      setFieldIfExists(it, "paisOrigen", "Guatemala");
+      setFieldIfExists(it, "paisDestino", "España");
+      setFieldIfExists(it, "ciudadOrigen", "Guatemala");
+      setFieldIfExists(it, "ciudadDestino", "Madrid");
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(ITEMS)
+  public void escribirDirecto() {
+    for (var it : items) {
+      it.paisOrigen = "Guatemala";
+      it.paisDestino = "España";
+      it.ciudadOrigen = "Guatemala";
+      it.ciudadDestino = "Madrid";
+    }
+  }
+
+  // Copias de los helpers reflexivos anteriores, como línea base
+  private static String getOpt(Object bean, String field) {
+    if (bean == null) return "";
+    try {
+      var f = bean.getClass().getDeclaredField(field);
+      f.setAccessible(true);
+      Object v = f.get(bean);
+      return v == null ? "" : String.valueOf(v);
+    } catch (Exception ignore) {
+      return "";
+    }
+  }
+
+  private static void setFieldIfExists(Object obj, String field, Object value) {
+    try {
+      var f = obj.getClass().getDeclaredField(field);
+      f.setAccessible(true);
+      f.set(obj, value);
+    } catch (Exception ignore) {
+    }
+  }
+
+  private static String txt(String s) {
+    return s == null ? "" : s;
+  }
+}
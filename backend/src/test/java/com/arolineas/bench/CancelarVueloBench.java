@@ -0,0 +1,184 @@
+package com.aerolineas.bench;
+
+import com.aerolineas.config.DB;
+import com.aerolineas.dao.ComprasDAO;
+import org.openjdk.jmh.annotations.*;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cancelación de un vuelo con 50, 500 y 5000 reservas activas contra una BD real.
+ * "fila" es el camino anterior (GROUP BY + batch por reserva e IN dinámico); "conjunto" es
+ * ComprasDAO.cancelarVuelo. Antes de cada invocación se crean las reservas con INSERT ... SELECT
+ * y después se devuelven el estado del vuelo y el CUPO_TOTAL originales. Las reservas canceladas
+ * quedan en la BD de pruebas.
+ *
+ * BENCH_USUARIO=.. BENCH_VUELO=.. BENCH_CLASE=.. (más las variables DB_* de siempre)
+ * mvn -q test-compile exec:exec -Dexec.classpathScope=test -Dexec.executable=java \
+ *   -Dexec.args="-cp %classpath org.openjdk.jmh.Main CancelarVueloBench"
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 10)
+@Fork(1)
+public class CancelarVueloBench {
+
+  @Param({"50", "500", "5000"})
+  int reservas;
+
+  @Param({"fila", "conjunto"})
+  String modo;
+
+  ComprasDAO dao;
+  long usuario;
+  long vuelo;
+  int clase;
+  int estadoOriginal;
+  int cupoOriginal;
+
+  private static String env(String k) {
+    String v = System.getenv(k);
+    if (v == null || v.isBlank()) v = System.getProperty(k);
+    if (v == null || v.isBlank()) throw new IllegalStateException("Falta " + k);
+    return v.trim();
+  }
+
+  @Setup(Level.Trial)
+  public void conectar() throws Exception {
+    DB.init();
+    dao = new ComprasDAO();
+    usuario = Long.parseLong(env("BENCH_USUARIO"));
+    vuelo = Long.parseLong(env("BENCH_VUELO"));
+    clase = Integer.parseInt(env("BENCH_CLASE"));
+    try (Connection cn = DB.getConnection();
+         PreparedStatement ps = cn.prepareStatement(
+             "SELECT v.ID_ESTADO, sc.CUPO_TOTAL FROM " + DB.table("VUELO") + " v JOIN " + DB.table("SALIDA_CLASE") +
+             " sc ON sc.ID_VUELO = v.ID_VUELO WHERE v.ID_VUELO = ? AND sc.ID_CLASE = ?")) {
+      ps.setLong(1, vuelo);
+      ps.setInt(2, clase);
+      try (ResultSet rs = ps.executeQuery()) {
+        if (!rs.next()) throw new IllegalStateException("No existe la salida " + vuelo + "/" + clase);
+        estadoOriginal = rs.getInt(1);
+        cupoOriginal = rs.getInt(2);
+      }
+    }
+  }
+
+  @Setup(Level.Invocation)
+  public void crearReservas() throws Exception {
+    try (Connection cn = DB.getConnection()) {
+      cn.setAutoCommit(false);
+      try (PreparedStatement ps = cn.prepareStatement(
+          "INSERT INTO " + DB.table("RESERVA") + " (ID_USUARIO, ID_ESTADO, TOTAL) " +
+          "SELECT ?, 1, 0 FROM dual CONNECT BY LEVEL <= ?")) {
+        ps.setLong(1, usuario);
+        ps.setInt(2, reservas);
+        ps.executeUpdate();
+      }
+      try (PreparedStatement ps = cn.prepareStatement(
+          "INSERT INTO " + DB.table("RESERVA_ITEM") + " (ID_RESERVA, ID_VUELO, ID_CLASE, PRECIO_UNITARIO, ID_ESTADO_RESERVA) " +
+          "SELECT r.ID_RESERVA, ?, ?, 0, 1 FROM " + DB.table("RESERVA") + " r WHERE r.ID_USUARIO = ? AND r.ID_ESTADO = 1 " +
+          "AND NOT EXISTS (SELECT 1 FROM " + DB.table("RESERVA_ITEM") + " x WHERE x.ID_RESERVA = r.ID_RESERVA)")) {
+        ps.setLong(1, vuelo);
+        ps.setInt(2, clase);
+        ps.setLong(3, usuario);
+        ps.executeUpdate();
+      }
+      cn.commit();
+    }
+  }
+
+  @TearDown(Level.Invocation)
+  public void restaurarVuelo() throws Exception {
+    try (Connection cn = DB.getConnection()) {
+      try (PreparedStatement ps = cn.prepareStatement("UPDATE " + DB.table("VUELO") + " SET ID_ESTADO = ? WHERE ID_VUELO = ?")) {
+        ps.setInt(1, estadoOriginal);
+        ps.setLong(2, vuelo);
+        ps.executeUpdate();
+      }
+      try (PreparedStatement ps = cn.prepareStatement(
+          "UPDATE " + DB.table("SALIDA_CLASE") + " SET CUPO_TOTAL = ? WHERE ID_VUELO = ? AND ID_CLASE = ?")) {
+        ps.setInt(1, cupoOriginal);
+        ps.setLong(2, vuelo);
+        ps.setInt(3, clase);
+        ps.executeUpdate();
+      }
+    }
+  }
+
+  @Benchmark
+  public int cancelar() throws Exception {
+    if ("conjunto".equals(modo)) return dao.cancelarVuelo(vuelo).size();
+    return cancelarPorReserva();
+  }
+
+  /** El camino anterior, para comparar. */
+  private int cancelarPorReserva() throws Exception {
+    try (Connection cn = DB.getConnection()) {
+      cn.setAutoCommit(false);
+      try {
+        try (PreparedStatement ps = cn.prepareStatement(
+            "UPDATE " + DB.table("VUELO") + " SET ID_ESTADO = " +
+            "(SELECT ID_ESTADO FROM " + DB.table("ESTADOS") + " WHERE ESTADO = 'CANCELADO' FETCH FIRST 1 ROWS ONLY) " +
+            "WHERE ID_VUELO = ?")) {
+          ps.setLong(1, vuelo);
+          ps.executeUpdate();
+        }
+        List<Long> ids = new ArrayList<>();
+        try (PreparedStatement ps = cn.prepareStatement(
+            "SELECT DISTINCT r.ID_RESERVA FROM " + DB.table("RESERVA") + " r JOIN " + DB.table("RESERVA_ITEM") +
+            " ri ON ri.ID_RESERVA = r.ID_RESERVA WHERE r.ID_ESTADO = 1 AND ri.ID_VUELO = ?")) {
+          ps.setLong(1, vuelo);
+          try (ResultSet rs = ps.executeQuery()) {
+            while (rs.next()) ids.add(rs.getLong(1));
+          }
+        }
+        int updated = 0;
+        if (!ids.isEmpty()) {
+          for (Long idRes : ids) {
+            try (PreparedStatement ps = cn.prepareStatement(
+                "SELECT ID_VUELO, ID_CLASE, COUNT(*) AS CANT FROM " + DB.table("RESERVA_ITEM") +
+                " WHERE ID_RESERVA = ? GROUP BY ID_VUELO, ID_CLASE")) {
+              ps.setLong(1, idRes);
+              try (ResultSet rs = ps.executeQuery();
+                   PreparedStatement upd = cn.prepareStatement(
+                       "UPDATE " + DB.table("SALIDA_CLASE") + " SET CUPO_TOTAL = CUPO_TOTAL + ? WHERE ID_VUELO=? AND ID_CLASE=?")) {
+                while (rs.next()) {
+                  upd.setInt(1, rs.getInt("CANT"));
+                  upd.setLong(2, rs.getLong("ID_VUELO"));
+                  upd.setInt(3, rs.getInt("ID_CLASE"));
+                  upd.addBatch();
+                }
+                upd.executeBatch();
+              }
+            }
+          }
+          // Oracle admite hasta 1000 expresiones por IN: se parte en trozos para poder medir 5000
+          for (int i = 0; i < ids.size(); i += 1000) {
+            List<Long> trozo = ids.subList(i, Math.min(ids.size(), i + 1000));
+            try (PreparedStatement ps = cn.prepareStatement(
+                "UPDATE " + DB.table("RESERVA") + " SET ID_ESTADO = 2 WHERE ID_RESERVA IN (" +
+                String.join(",", Collections.nCopies(trozo.size(), "?")) + ")")) {
+              for (int k = 0; k < trozo.size(); k++) ps.setLong(k + 1, trozo.get(k));
+              updated += ps.executeUpdate();
+            }
+          }
+        }
+        cn.commit();
+        return updated;
+      } catch (Exception ex) {
+        cn.rollback(); throw ex;
+      } finally {
+        cn.setAutoCommit(true);
+      }
+    }
+  }
+}
@@ -0,0 +1,84 @@
+package com.aerolineas.bench;
+
+import com.aerolineas.config.DB;
+import com.aerolineas.dao.ComprasDAO;
+import org.openjdk.jmh.annotations.*;
+
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Checkout contra una BD real: PR_CHECKOUT_CARRITO (fila por fila) vs PR_CHECKOUT_CARRITO_SET.
+ * Cada invocación llena el carrito y al final cancela la reserva para devolver el cupo.
+ * El vuelo necesita cupo para al menos 100 asientos en BENCH_CLASE.
+ *
+ * BENCH_USUARIO=.. BENCH_VUELO=.. BENCH_CLASE=.. (más las variables DB_* de siempre)
+ * mvn -q test-compile exec:exec -Dexec.classpathScope=test -Dexec.executable=java \
+ *   -Dexec.args="-cp %classpath org.openjdk.jmh.Main CheckoutBench"
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 30)
+@Fork(1)
+public class CheckoutBench {
+
+  @Param({"1", "10", "100"})
+  int asientos;
+
+  @Param({"fila", "conjunto"})
+  String modo;
+
+  ComprasDAO dao;
+  long usuario;
+  long vuelo;
+  int clase;
+  long reserva;
+
+  private static String env(String k) {
+    String v = System.getenv(k);
+    if (v == null || v.isBlank()) v = System.getProperty(k);
+    if (v == null || v.isBlank()) throw new IllegalStateException("Falta " + k);
+    return v.trim();
+  }
+
+  @Setup(Level.Trial)
+  public void conectar() {
+    DB.init();
+    dao = new ComprasDAO();
+    usuario = Long.parseLong(env("BENCH_USUARIO"));
+    vuelo = Long.parseLong(env("BENCH_VUELO"));
+    clase = Integer.parseInt(env("BENCH_CLASE"));
+  }
+
+  @Setup(Level.Invocation)
+  public void llenarCarrito() throws Exception {
+    dao.addOrIncrementItem(usuario, vuelo, clase, asientos, false);
+  }
+
+  @TearDown(Level.Invocation)
+  public void devolverCupo() throws Exception {
+    if (reserva > 0) dao.cancelarReserva(usuario, reserva, true);
+    reserva = 0;
+  }
+
+  @Benchmark
+  public long checkout() throws Exception {
+    if ("conjunto".equals(modo)) {
+      reserva = dao.checkout(usuario);
+      return reserva;
+    }
+    long cartId = dao.ensureCartForUser(usuario);
+    try (Connection cn = DB.getConnection();
+         CallableStatement cs = cn.prepareCall("{ call " + DB.getSchema() + ".PR_CHECKOUT_CARRITO(?,?,?) }")) {
+      cs.setLong(1, usuario);
+      cs.setLong(2, cartId);
+      cs.registerOutParameter(3, java.sql.Types.NUMERIC);
+      cs.execute();
+      reserva = cs.getLong(3);
+    }
+    return reserva;
+  }
+}
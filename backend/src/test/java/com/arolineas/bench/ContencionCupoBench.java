@@ -0,0 +1,132 @@
+package com.aerolineas.bench;
+
+import com.aerolineas.config.DB;
+import com.aerolineas.config.UnidadDeTrabajo;
+import com.aerolineas.dao.ComprasDAO;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.ThreadParams;
+
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Venta masiva: 200 compradores agregando 1 asiento de la misma clase/vuelo a la vez.
+ * "bloqueo" es el camino anterior (SELECT ... FOR UPDATE de SALIDA_CLASE al inicio y MERGE);
+ * "compuerta" es addOrIncrementItem (lectura sin bloqueo, compuerta en la JVM, MERGE y verificación);
+ * "compuerta-uow" lo mismo dentro de una UnidadDeTrabajo, como lo llama ComprasController: ahí el
+ * paso se suelta al commit real de la unidad y no al commit del DAO.
+ * Se mira el p99 de SampleTime. Cada invocación borra luego su ítem para devolver el cupo.
+ *
+ * Usa los usuarios BENCH_USUARIO_BASE .. BENCH_USUARIO_BASE+199, que deben existir.
+ * BENCH_USUARIO_BASE=.. BENCH_VUELO=.. BENCH_CLASE=.. (más las variables DB_* de siempre)
+ * mvn -q test-compile exec:exec -Dexec.classpathScope=test -Dexec.executable=java \
+ *   -Dexec.args="-cp %classpath org.openjdk.jmh.Main ContencionCupoBench"
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 10)
+@Threads(200)
+@Fork(1)
+public class ContencionCupoBench {
+
+  @Param({"bloqueo", "compuerta", "compuerta-uow"})
+  String modo;
+
+  ComprasDAO dao;
+  long usuarioBase;
+  long vuelo;
+  int clase;
+
+  private static String env(String k) {
+    String v = System.getenv(k);
+    if (v == null || v.isBlank()) v = System.getProperty(k);
+    if (v == null || v.isBlank()) throw new IllegalStateException("Falta " + k);
+    return v.trim();
+  }
+
+  @State(Scope.Thread)
+  public static class Comprador {
+    long usuario;
+    long carrito;
+
+    @Setup(Level.Trial)
+    public void preparar(ContencionCupoBench b, ThreadParams t) throws Exception {
+      usuario = b.usuarioBase + t.getThreadIndex();
+      carrito = b.dao.ensureCartForUser(usuario);
+    }
+
+    @TearDown(Level.Invocation)
+    public void devolverCupo(ContencionCupoBench b) throws Exception {
+      try (Connection cn = DB.getConnection();
+           PreparedStatement ps = cn.prepareStatement(
+               "DELETE FROM " + DB.table("CARRITO_ITEM") + " WHERE ID_CARRITO = ? AND ID_VUELO = ? AND ID_CLASE = ?")) {
+        ps.setLong(1, carrito);
+        ps.setLong(2, b.vuelo);
+        ps.setInt(3, b.clase);
+        ps.executeUpdate();
+      }
+    }
+  }
+
+  @Setup(Level.Trial)
+  public void conectar() {
+    DB.init();
+    dao = new ComprasDAO();
+    usuarioBase = Long.parseLong(env("BENCH_USUARIO_BASE"));
+    vuelo = Long.parseLong(env("BENCH_VUELO"));
+    clase = Integer.parseInt(env("BENCH_CLASE"));
+  }
+
+  @Benchmark
+  public void agregar(Comprador c) throws Exception {
+    if ("compuerta".equals(modo)) {
+      dao.addOrIncrementItem(c.usuario, vuelo, clase, 1, false);
+      return;
+    }
+    if ("compuerta-uow".equals(modo)) {
+      UnidadDeTrabajo.ejecutar(() -> {
+        dao.addOrIncrementItem(c.usuario, vuelo, clase, 1, false);
+        return null;
+      });
+      return;
+    }
+    try (Connection cn = DB.getConnection()) {
+      cn.setAutoCommit(false);
+      try {
+        BigDecimal precio;
+        try (PreparedStatement ps = cn.prepareStatement(
+            "SELECT PRECIO FROM " + DB.table("SALIDA_CLASE") + " WHERE ID_VUELO = ? AND ID_CLASE = ? FOR UPDATE")) {
+          ps.setLong(1, vuelo);
+          ps.setInt(2, clase);
+          try (ResultSet rs = ps.executeQuery()) {
+            rs.next();
+            precio = rs.getBigDecimal(1);
+          }
+        }
+        try (PreparedStatement ps = cn.prepareStatement(
+            "MERGE INTO " + DB.table("CARRITO_ITEM") + " t " +
+            "USING (SELECT ? idc, ? idv, ? idcl FROM dual) s " +
+            "ON (t.ID_CARRITO = s.idc AND t.ID_VUELO = s.idv AND t.ID_CLASE = s.idcl) " +
+            "WHEN MATCHED THEN UPDATE SET t.CANTIDAD = t.CANTIDAD + 1, t.RETENIDO_EN = SYSTIMESTAMP " +
+            "WHEN NOT MATCHED THEN INSERT (ID_CARRITO, ID_VUELO, ID_CLASE, CANTIDAD, PRECIO_UNITARIO) " +
+            "VALUES (s.idc, s.idv, s.idcl, 1, ?)")) {
+          ps.setLong(1, c.carrito);
+          ps.setLong(2, vuelo);
+          ps.setInt(3, clase);
+          ps.setBigDecimal(4, precio);
+          ps.executeUpdate();
+        }
+        cn.commit();
+      } catch (Exception ex) {
+        cn.rollback(); throw ex;
+      } finally {
+        cn.setAutoCommit(true);
+      }
+    }
+  }
+}
@@ -0,0 +1,43 @@
+package com.aerolineas.config;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class EntornoTest {
+
+  private static final String K = "ENTORNO_TEST_VALOR";
+
+  @AfterEach
+  void limpiar() {
+    System.clearProperty(K);
+  }
+
+  @Test
+  void sinValor_devuelveElDefecto() {
+    assertEquals("x", Entorno.texto(K, "x"));
+    assertNull(Entorno.texto(K, null));
+    assertEquals(200, Entorno.numero(K, 200));
+    assertEquals(0.5, Entorno.decimal(K, 0.5));
+  }
+
+  @Test
+  void leeLaPropiedadDeSistemaRecortada() {
+    System.setProperty(K, " 42 ");
+    assertEquals("42", Entorno.texto(K, "x"));
+    assertEquals(42, Entorno.numero(K, 200));
+    assertEquals(42.0, Entorno.decimal(K, 0.5));
+  }
+
+  @Test
+  void enBlancoOInvalido_cuentaComoAusente() {
+    System.setProperty(K, "  ");
+    assertEquals("x", Entorno.texto(K, "x"));
+    assertEquals(200, Entorno.numero(K, 200));
+
+    System.setProperty(K, "x");
+    assertEquals(200, Entorno.numero(K, 200));
+    assertEquals(0.5, Entorno.decimal(K, 0.5));
+  }
+}
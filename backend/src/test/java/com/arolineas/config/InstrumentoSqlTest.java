@@ -0,0 +1,163 @@
+package com.aerolineas.config;
+
+import com.aerolineas.util.Traza;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+class InstrumentoSqlTest {
+
+  @Test
+  void normalizar_quitaLiteralesYListas() {
+    assertEquals("SELECT * FROM A.VUELO v1 WHERE v1.ID = ? AND ESTADO = ? AND ID_CLASE IN (?..)",
+        InstrumentoSql.normalizar("SELECT *  FROM A.VUELO v1\n WHERE v1.ID = 15 AND ESTADO = 'it''s' AND ID_CLASE IN (?, ?,?)"));
+    assertEquals(InstrumentoSql.normalizar("WHERE X IN (?,?)"), InstrumentoSql.normalizar("WHERE X IN (?,?,?,?)"));
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  void consulta_cuentaEjecucionesYFilasLeidas() throws Exception {
+    var ins = new InstrumentoSql(true, 60_000);
+    Connection real = mock(Connection.class);
+    PreparedStatement ps = mock(PreparedStatement.class);
+    ResultSet rs = mock(ResultSet.class);
+    when(real.prepareStatement(anyString())).thenReturn(ps);
+    when(ps.executeQuery()).thenReturn(rs);
+    when(rs.next()).thenReturn(true, true, false);
+
+    Connection cn = ins.envolver(real);
+    try (PreparedStatement p = cn.prepareStatement("SELECT 1 FROM dual WHERE X = 7")) {
+      p.setLong(1, 9L);
+      try (ResultSet r = p.executeQuery()) {
+        while (r.next()) r.getLong(1);
+      }
+    }
+
+    verify(ps).setLong(1, 9L);
+    List<Map<String, Object>> ss = (List<Map<String, Object>>) ins.stats(10).get("sentencias");
+    assertEquals(1, ss.size());
+    assertEquals("SELECT ? FROM dual WHERE X = ?", ss.get(0).get("sql"));
+    assertEquals(1L, ss.get(0).get("ejecuciones"));
+    assertEquals(2L, ss.get(0).get("filasLeidas"));
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  void lote_registraTamanoYFilasAfectadas() throws Exception {
+    var ins = new InstrumentoSql(true, 60_000);
+    Connection real = mock(Connection.class);
+    PreparedStatement ps = mock(PreparedStatement.class);
+    when(real.prepareStatement(anyString())).thenReturn(ps);
+    when(ps.executeBatch()).thenReturn(new int[]{1, 1, 1});
+
+    PreparedStatement p = ins.envolver(real).prepareStatement("UPDATE T SET A = ? WHERE ID = ?");
+    for (int i = 0; i < 3; i++) {
+      p.setInt(1, i);
+      p.addBatch();
+    }
+    p.executeBatch();
+
+    Map<String, Object> s = ((List<Map<String, Object>>) ins.stats(10).get("sentencias")).get(0);
+    assertEquals(1L, s.get("lotes"));
+    assertEquals(3L, s.get("itemsPorLote"));
+    assertEquals(3L, s.get("filasAfectadas"));
+  }
+
+  @Test
+  void lenta_seEntregaConBindsRedactados() throws Exception {
+    var ins = new InstrumentoSql(true, 0);
+    List<InstrumentoSql.Lenta> lentas = new ArrayList<>();
+    ins.alLenta(lentas::add);
+    Connection real = mock(Connection.class);
+    PreparedStatement ps = mock(PreparedStatement.class);
+    when(real.prepareStatement(anyString())).thenReturn(ps);
+    when(ps.executeUpdate()).thenReturn(1);
+
+    PreparedStatement p = ins.envolver(real).prepareStatement("UPDATE USUARIO SET EMAIL = ? WHERE ID_USUARIO = ?");
+    p.setString(1, "ana@x.com");
+    p.setLong(2, 41L);
+    p.executeUpdate();
+
+    assertEquals(1, lentas.size());
+    assertEquals(List.of("String(9)", "Long"), lentas.get(0).binds());
+    assertEquals(1L, lentas.get(0).filasAfectadas());
+    assertFalse(lentas.get(0).toString().contains("ana@x.com"));
+  }
+
+  @Test
+  void silenciado_noReportaLentas() throws Exception {
+    var ins = new InstrumentoSql(true, 0);
+    List<InstrumentoSql.Lenta> lentas = new ArrayList<>();
+    ins.alLenta(lentas::add);
+    Connection real = mock(Connection.class);
+    when(real.prepareStatement(anyString())).thenReturn(mock(PreparedStatement.class));
+
+    InstrumentoSql.silenciar(true);
+    try {
+      ins.envolver(real).prepareStatement("INSERT INTO X VALUES (?)").executeUpdate();
+    } finally {
+      InstrumentoSql.silenciar(false);
+    }
+    assertTrue(lentas.isEmpty());
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  void error_seCuentaYSePropaga() throws Exception {
+    var ins = new InstrumentoSql(true, 60_000);
+    Connection real = mock(Connection.class);
+    PreparedStatement ps = mock(PreparedStatement.class);
+    when(real.prepareStatement(anyString())).thenReturn(ps);
+    when(ps.executeUpdate()).thenThrow(new SQLException("ORA-00001"));
+
+    PreparedStatement p = ins.envolver(real).prepareStatement("INSERT INTO X VALUES (?)");
+    assertThrows(SQLException.class, p::executeUpdate);
+    Map<String, Object> s = ((List<Map<String, Object>>) ins.stats(10).get("sentencias")).get(0);
+    assertEquals(1L, s.get("errores"));
+  }
+
+  @Test
+  void inactivo_devuelveLaConexionTalCual() {
+    Connection real = mock(Connection.class);
+    assertSame(real, new InstrumentoSql(false, 0).envolver(real));
+  }
+
+  @Test
+  void resumen_soloCuentaLaVentana() throws Exception {
+    var ins = new InstrumentoSql(true, 60_000);
+    Connection real = mock(Connection.class);
+    when(real.prepareStatement(anyString())).thenReturn(mock(PreparedStatement.class));
+    Connection cn = ins.envolver(real);
+
+    cn.prepareStatement("DELETE FROM X").executeUpdate();
+    assertEquals(1, ins.resumen(5).size());
+    assertTrue(ins.resumen(5).isEmpty());
+  }
+
+  @Test
+  void conTrazaActiva_cadaEjecucionEsUnSpanDb() throws Exception {
+    var ins = new InstrumentoSql(true, 60_000);
+    Connection real = mock(Connection.class);
+    when(real.prepareStatement(anyString())).thenReturn(mock(PreparedStatement.class));
+
+    Traza t = Traza.iniciar(Traza.idTraza(), null, "GET");
+    try {
+      ins.envolver(real).prepareStatement("DELETE FROM X WHERE ID = 3").executeUpdate();
+    } finally {
+      Traza.terminar();
+    }
+    assertEquals(2, t.spans().size());
+    assertEquals("db", t.spans().get(1).nombre());
+    assertEquals("DELETE FROM X WHERE ID = ?", t.spans().get(1).etiquetas().get("sql"));
+  }
+}
@@ -0,0 +1,88 @@
+package com.aerolineas.config;
+
+import com.zaxxer.hikari.metrics.IMetricsTracker;
+import com.zaxxer.hikari.metrics.PoolStats;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TelemetriaPoolTest {
+
+  @AfterEach
+  void limpiar() {
+    TelemetriaPool.salirDeRuta();
+  }
+
+  private static PoolStats stats(int activas, int inactivas, int pendientes) {
+    return new PoolStats(0) {
+      @Override
+      protected void update() {
+        activeConnections = activas;
+        idleConnections = inactivas;
+        pendingThreads = pendientes;
+        totalConnections = activas + inactivas;
+        maxConnections = 10;
+        minConnections = 2;
+      }
+    };
+  }
+
+  @Test
+  void tracker_registraAdquisicionUsoYTimeouts() {
+    var t = new TelemetriaPool();
+    IMetricsTracker tr = t.create("p", stats(3, 2, 1));
+
+    tr.recordConnectionAcquiredNanos(2_000_000);
+    tr.recordConnectionUsageMillis(15);
+    tr.recordConnectionTimeout();
+
+    assertEquals(1, t.adquisicion().cuenta());
+    assertEquals(1, t.uso().cuenta());
+    assertEquals(1, t.timeouts());
+    Map<String, Object> m = t.stats();
+    assertEquals(3, m.get("activas"));
+    assertEquals(2, m.get("inactivas"));
+    assertEquals(1, m.get("pendientes"));
+    assertEquals(5, m.get("total"));
+    assertEquals(10, m.get("maximo"));
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  void uso_seCargaALaRutaDelHilo() {
+    var t = new TelemetriaPool();
+    IMetricsTracker tr = t.create("p", stats(0, 0, 0));
+
+    TelemetriaPool.enRuta("POST /api/compras/checkout");
+    tr.recordConnectionUsageMillis(40);
+    tr.recordConnectionUsageMillis(60);
+    TelemetriaPool.salirDeRuta();
+    tr.recordConnectionUsageMillis(5);
+
+    Map<String, Object> rutas = (Map<String, Object>) t.stats().get("retencionPorRuta");
+    assertEquals(2L, ((Map<String, Object>) rutas.get("POST /api/compras/checkout")).get("n"));
+    assertEquals(1L, ((Map<String, Object>) rutas.get(TelemetriaPool.SIN_RUTA)).get("n"));
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  void rutas_seAcotan() {
+    var t = new TelemetriaPool();
+    for (int i = 0; i < TelemetriaPool.MAX_RUTAS + 50; i++) t.registrarUso("GET /x/" + i, 100);
+
+    Map<String, Object> rutas = (Map<String, Object>) t.stats().get("retencionPorRuta");
+    assertTrue(rutas.size() <= TelemetriaPool.MAX_RUTAS + 1);
+    assertEquals((long) TelemetriaPool.MAX_RUTAS + 50, t.uso().cuenta());
+  }
+
+  @Test
+  void sinPool_losContadoresSonCero() {
+    var t = new TelemetriaPool();
+    assertEquals(0, t.activas());
+    assertEquals(0, t.pendientes());
+    assertEquals(0, t.stats().get("maximo"));
+  }
+}
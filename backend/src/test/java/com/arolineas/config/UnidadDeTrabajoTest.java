@@ -0,0 +1,172 @@
+package com.aerolineas.config;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.InOrder;
+import org.mockito.MockedStatic;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class UnidadDeTrabajoTest {
+
+  MockedStatic<DB> db;
+  Connection real;
+  final AtomicInteger prestadas = new AtomicInteger();
+
+  @BeforeEach
+  void setUp() {
+    real = mock(Connection.class);
+    db = mockStatic(DB.class, CALLS_REAL_METHODS);
+    db.when(DB::conexionDelPool).thenAnswer(inv -> {
+      prestadas.incrementAndGet();
+      return real;
+    });
+  }
+
+  @AfterEach
+  void tearDown() {
+    db.close();
+  }
+
+  @Test
+  void variosGetConnection_usanUnaSolaConexionYUnCommit() throws Exception {
+    UnidadDeTrabajo.ejecutar(() -> {
+      try (Connection a = DB.getConnection()) {
+        a.prepareStatement("SELECT 1 FROM DUAL");
+      }
+      try (Connection b = DB.getConnection()) {
+        b.commit();
+      }
+      return null;
+    });
+
+    assertEquals(1, prestadas.get());
+    InOrder orden = inOrder(real);
+    orden.verify(real).setAutoCommit(false);
+    orden.verify(real).prepareStatement("SELECT 1 FROM DUAL");
+    orden.verify(real).commit();
+    orden.verify(real).setAutoCommit(true);
+    orden.verify(real).close();
+    assertFalse(UnidadDeTrabajo.activa());
+  }
+
+  @Test
+  void sinUsarLaBase_noPideConexion() throws Exception {
+    assertEquals("ok", UnidadDeTrabajo.ejecutar(() -> "ok"));
+    assertEquals(0, prestadas.get());
+  }
+
+  @Test
+  void excepcion_revierteTodoYSePropaga() throws Exception {
+    IllegalStateException ex = assertThrows(IllegalStateException.class, () ->
+        UnidadDeTrabajo.ejecutar(() -> {
+          DB.getConnection().prepareStatement("INSERT");
+          throw new IllegalStateException("sin cupo");
+        }));
+
+    assertEquals("sin cupo", ex.getMessage());
+    verify(real).rollback();
+    verify(real, never()).commit();
+    verify(real).close();
+  }
+
+  @Test
+  void rollbackDelDao_vuelveSoloASuPuntoDeGuardado() throws Exception {
+    Savepoint sp = mock(Savepoint.class);
+    when(real.setSavepoint()).thenReturn(sp);
+
+    UnidadDeTrabajo.ejecutar(() -> {
+      Connection cn = DB.getConnection();
+      cn.setAutoCommit(false);
+      assertFalse(cn.getAutoCommit());
+      cn.rollback();
+      cn.setAutoCommit(true);
+      cn.close();
+      return null;
+    });
+
+    verify(real).rollback(sp);
+    verify(real, never()).rollback();
+    verify(real).commit();
+  }
+
+  @Test
+  void rollbackSinPuntoDeGuardado_noConfirma() throws Exception {
+    assertThrows(SQLException.class, () ->
+        UnidadDeTrabajo.ejecutar(() -> {
+          DB.getConnection().rollback();
+          return null;
+        }));
+
+    verify(real, never()).commit();
+    verify(real).rollback();
+  }
+
+  @Test
+  void anidada_seSumaALaExterna() throws Exception {
+    UnidadDeTrabajo.ejecutar(() -> UnidadDeTrabajo.ejecutar(() -> {
+      DB.getConnection();
+      return null;
+    }));
+
+    verify(real, times(1)).commit();
+    verify(real, times(1)).close();
+  }
+
+  @Test
+  void alConfirmar_correDespuesDelCommitYNoSiRevierte() throws Exception {
+    List<String> hechos = new ArrayList<>();
+
+    UnidadDeTrabajo.ejecutar(() -> {
+      DB.getConnection();
+      UnidadDeTrabajo.alConfirmar(() -> hechos.add("ok"));
+      assertTrue(hechos.isEmpty());
+      return null;
+    });
+    assertEquals(List.of("ok"), hechos);
+
+    assertThrows(IllegalStateException.class, () -> UnidadDeTrabajo.ejecutar(() -> {
+      UnidadDeTrabajo.alConfirmar(() -> hechos.add("revertido"));
+      throw new IllegalStateException("x");
+    }));
+    assertEquals(List.of("ok"), hechos);
+
+    UnidadDeTrabajo.alConfirmar(() -> hechos.add("sin unidad"));
+    assertEquals(List.of("ok", "sin unidad"), hechos);
+  }
+
+  @Test
+  void alTerminar_correTrasCommitYTrasRollback() throws Exception {
+    List<String> hechos = new ArrayList<>();
+
+    UnidadDeTrabajo.ejecutar(() -> {
+      DB.getConnection();
+      UnidadDeTrabajo.alTerminar(() -> hechos.add("confirmada"));
+      assertTrue(hechos.isEmpty());
+      return null;
+    });
+    assertEquals(List.of("confirmada"), hechos);
+
+    assertThrows(IllegalStateException.class, () -> UnidadDeTrabajo.ejecutar(() -> {
+      DB.getConnection();
+      UnidadDeTrabajo.alTerminar(() -> hechos.add("revertida"));
+      throw new IllegalStateException("x");
+    }));
+    assertEquals(List.of("confirmada", "revertida"), hechos);
+    InOrder orden = inOrder(real);
+    orden.verify(real).rollback();
+    orden.verify(real).close();
+
+    UnidadDeTrabajo.alTerminar(() -> hechos.add("sin unidad"));
+    assertEquals(List.of("confirmada", "revertida", "sin unidad"), hechos);
+  }
+}
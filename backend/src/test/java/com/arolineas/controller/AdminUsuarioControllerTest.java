@@ -2,6 +2,7 @@ package com.aerolineas.controller;
 
 import com.aerolineas.dao.UsuarioDAO;
 import com.aerolineas.dto.UsuarioAdminDTOs;
+import com.aerolineas.middleware.WebServiceCredCache;
 import com.aerolineas.model.Usuario;
 import io.javalin.http.Context;
 import io.javalin.validation.BodyValidator;
@@ -549,4 +550,33 @@ class AdminUsuarioControllerTest {
             
         }
     }
+
+    @Test
+    @DisplayName("update invalida credenciales WebService cacheadas del usuario")
+    void update_invalidaCacheWebService() throws Exception {
+        WebServiceCredCache.clear();
+        WebServiceCredCache.put("ws@test.com", "secret", 7L, Map.of("sub", "7"));
+
+        Context ctx = mock(Context.class);
+        when(ctx.pathParam("id")).thenReturn("7");
+
+        @SuppressWarnings("unchecked")
+        BodyValidator<UsuarioAdminDTOs.UpdateAdmin> validator = mock(BodyValidator.class);
+        UsuarioAdminDTOs.UpdateAdmin body = new UsuarioAdminDTOs.UpdateAdmin(
+                "Nombre", "Apellido", null, 2, 0,
+                "2000-01-01", 1L, "P123"
+        );
+
+        when(ctx.bodyValidator(UsuarioAdminDTOs.UpdateAdmin.class)).thenReturn(validator);
+        stubChecksUpdate(validator, body);
+        when(validator.get()).thenReturn(body);
+
+        try (MockedConstruction<UsuarioDAO> mocked = mockConstruction(UsuarioDAO.class)) {
+            new AdminUsuarioController().update(ctx);
+
+            assertNull(WebServiceCredCache.get("ws@test.com", "secret"));
+        } finally {
+            WebServiceCredCache.clear();
+        }
+    }
 }
@@ -2,17 +2,21 @@ package com.arolineas.controller;
 
 import com.aerolineas.controller.ComprasController;
 import com.aerolineas.dao.ComprasDAO;
+import com.aerolineas.dao.OutboxDAO;
 import com.aerolineas.dao.UsuarioDAO;
 import com.aerolineas.dto.CompraDTO.*;
 import com.aerolineas.model.Usuario;
+import com.aerolineas.service.BoletoCache;
+import com.aerolineas.service.DespachadorOutbox;
+import com.aerolineas.http.Idempotencia;
 import io.javalin.Javalin;
 import io.javalin.http.Context;
 import io.javalin.http.Handler;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 import org.mockito.ArgumentCaptor;
 import java.lang.reflect.Method;
 import java.math.BigDecimal;
-import java.lang.reflect.InvocationTargetException;
 import java.sql.Timestamp;
 import java.util.Map;
 import java.util.List;
@@ -25,20 +29,24 @@ import static org.mockito.Mockito.*;
 
 public class ComprasControllerTest {
 
+  @TempDir
+  java.nio.file.Path boletosDir;
+
   private Handler jwtHandlerNoOp() {
     return ctx -> {
     };
   }
-  static class DummyBean {
-    public String nombre = "Kat";
-    public String otro = null;
-}
 
 
   private Handler wsHandlerNoOp() {
     return ctx -> {};
   }
 
+  private ComprasController conOutbox(ComprasDAO dao, UsuarioDAO usuarioDAO, BoletoCache boletos, DespachadorOutbox outbox) {
+    return new ComprasController(dao, usuarioDAO, jwtHandlerNoOp(), wsHandlerNoOp(), boletos,
+        new Idempotencia(60_000, 100, 1000), outbox);
+  }
+
   @Test
   void getCarrito_ok() throws Exception {
     ComprasDAO dao = mock(ComprasDAO.class);
@@ -240,7 +248,7 @@ public class ComprasControllerTest {
     verify(ctx).status(400);
     verify(ctx).json(any(Map.class));
     verify(dao, never()).getCart(anyLong());
-    verify(dao, never()).checkout(anyLong());
+    verify(dao, never()).checkoutReserva(anyLong());
   }
 
 
@@ -555,10 +563,11 @@ void updateItem_ok() throws Exception {
   @Test
   void cancelarReserva_admin_ok_devuelveStatusOk() throws Exception {
     ComprasDAO dao = mock(ComprasDAO.class);
+    BoletoCache boletos = mock(BoletoCache.class);
 
     ComprasController controller = new ComprasController(
             dao, mock(UsuarioDAO.class),
-            jwtHandlerNoOp(), wsHandlerNoOp()
+            jwtHandlerNoOp(), wsHandlerNoOp(), boletos
     );
 
     Javalin app = mock(Javalin.class);
@@ -587,6 +596,7 @@ void updateItem_ok() throws Exception {
     h.handle(ctx);
 
     verify(dao).cancelarReserva(1L, 777L, true);
+    verify(boletos).invalidarReserva(777L);
     verify(ctx).json(jsonCap.capture());
 
     Map<String, Object> body = jsonCap.getValue();
@@ -640,23 +650,12 @@ void dt_convierteFechasYSoportaNull() throws Exception {
 
 
 @Test
-void getOpt_leeCampoYDevuelveVacioSiNullOError() throws Exception {
-    Method m = ComprasController.class.getDeclaredMethod("getOpt", Object.class, String.class);
+void txt_devuelveVacioSiNull() throws Exception {
+    Method m = ComprasController.class.getDeclaredMethod("txt", String.class);
     m.setAccessible(true);
 
-    DummyBean bean = new DummyBean();
-
-    String nombre = (String) m.invoke(null, bean, "nombre");
-    assertEquals("Kat", nombre);
-
-    String otro = (String) m.invoke(null, bean, "otro");
-    assertEquals("", otro);
-
-    String inexistente = (String) m.invoke(null, bean, "noExiste");
-    assertEquals("", inexistente);
-
-    String beanNull = (String) m.invoke(null, new Object[]{null, "nombre"});
-    assertEquals("", beanNull);
+    assertEquals("Kat", m.invoke(null, "Kat"));
+    assertEquals("", m.invoke(null, new Object[]{null}));
 }
 
   @Test
@@ -685,31 +684,16 @@ void getOpt_leeCampoYDevuelveVacioSiNullOError() throws Exception {
   }
 
   @Test
-void sendEmail_seEjecuta_sinReventarElTest() throws Exception {
-    ComprasController c = new ComprasController(
-            mock(ComprasDAO.class),
-            mock(UsuarioDAO.class),
-            jwtHandlerNoOp(),
-            wsHandlerNoOp()
-    );
-
-    Method m = ComprasController.class.getDeclaredMethod(
-            "sendEmail",
-            Context.class,
-            CarritoResp.class,
-            long.class
-    );
+void destinatario_sinClaimsNiHeader_esNulo() throws Exception {
+    Method m = ComprasController.class.getDeclaredMethod("destinatario", Context.class, Map.class);
     m.setAccessible(true);
 
     Context ctx = mock(Context.class);
-    CarritoResp carrito = new CarritoResp();
-    carrito.idUsuario = 42L; 
+    assertNull(m.invoke(null, ctx, null));
 
-    try {
-        m.invoke(c, ctx, carrito, 42L);
-    } catch (InvocationTargetException ex) {
-        assertNotNull(ex.getCause());
-    }
+    when(ctx.header("X-User-Email")).thenReturn(" otro@correo.com ");
+    assertEquals("otro@correo.com", m.invoke(null, ctx, Map.of("email", "")));
+    assertEquals("cliente@example.com", m.invoke(null, ctx, Map.of("email", "cliente@example.com")));
 }
 
 @Test
@@ -1050,33 +1034,15 @@ void authenticate_conCredencialesWebServiceValida_noLanza() throws Exception {
 }
 
     @Test
-void sendEmail_enviaOGeneraExcepcionControlada() throws Exception {
-    ComprasController c = new ComprasController(
-            mock(ComprasDAO.class),
-            mock(UsuarioDAO.class),
-            jwtHandlerNoOp(),
-            wsHandlerNoOp()
-    );
-
-    Method m = ComprasController.class.getDeclaredMethod(
-            "sendEmail",
-            Context.class,
-            CarritoResp.class,
-            long.class
-    );
+void htmlConfirmacion_sinItems_igualArmaElCorreo() throws Exception {
+    Method m = ComprasController.class.getDeclaredMethod("htmlConfirmacion", CarritoResp.class, long.class);
     m.setAccessible(true);
 
-    Context ctx = mock(Context.class);
-    when(ctx.queryParam("to")).thenReturn("destino@correo.com");
-
     CarritoResp carrito = new CarritoResp();
     carrito.idUsuario = 1L;
 
-    try {
-        m.invoke(c, ctx, carrito, 1L);
-    } catch (InvocationTargetException ex) {
-        assertNotNull(ex.getCause());
-    }
+    String html = (String) m.invoke(null, carrito, 1L);
+    assertTrue(html.contains("Confirmación de reserva #1"));
 }
 @Test
 void boletoPdf_reservaNoEncontrada_devuelve404() throws Exception {
@@ -1120,11 +1086,9 @@ void boletoPdf_reservaNoEncontrada_devuelve404() throws Exception {
 void checkout_ok_usuarioFinal() throws Exception {
     ComprasDAO dao = mock(ComprasDAO.class);
     UsuarioDAO usuarioDAO = mock(UsuarioDAO.class);
+    DespachadorOutbox outbox = mock(DespachadorOutbox.class);
 
-    ComprasController controller = new ComprasController(
-            dao, usuarioDAO,
-            jwtHandlerNoOp(), wsHandlerNoOp()
-    );
+    ComprasController controller = conOutbox(dao, usuarioDAO, mock(BoletoCache.class), outbox);
 
     Javalin app = mock(Javalin.class);
     ArgumentCaptor<Handler> cap = ArgumentCaptor.forClass(Handler.class);
@@ -1185,7 +1149,7 @@ void checkout_ok_usuarioFinal() throws Exception {
     carrito.items = List.of(item);
 
     when(dao.getCart(10L)).thenReturn(carrito);
-    when(dao.checkout(10L)).thenReturn(999L);
+    when(dao.checkoutReserva(10L)).thenReturn(new CheckoutResp(999L, "AR250101-000999"));
 
     
     when(ctx.json(any(CheckoutResp.class))).thenReturn(ctx);
@@ -1200,33 +1164,23 @@ void checkout_ok_usuarioFinal() throws Exception {
 
     
     verify(dao).getCart(10L);
-    verify(dao).checkout(10L);
+    verify(dao).checkoutReserva(10L);
     verify(ctx).json(any(CheckoutResp.class));
+
+    @SuppressWarnings("unchecked")
+    ArgumentCaptor<List<OutboxDAO.Nuevo>> eventos = ArgumentCaptor.forClass(List.class);
+    verify(outbox).publicar(eventos.capture());
+    assertEquals(List.of("CORREO_CONFIRMACION", "BOLETO_PDF"),
+            eventos.getValue().stream().map(OutboxDAO.Nuevo::tipo).toList());
+    assertTrue(eventos.getValue().get(0).payload().contains("test@example.com"));
+    assertTrue(eventos.getValue().get(0).payload().contains("AV123"));
 }
 
 @Test
-void sendEmail_conClaimsYItems_recorreDetalle() throws Exception {
-    ComprasController c = new ComprasController(
-            mock(ComprasDAO.class),
-            mock(UsuarioDAO.class),
-            jwtHandlerNoOp(),
-            wsHandlerNoOp()
-    );
-
-    Method m = ComprasController.class.getDeclaredMethod(
-            "sendEmail",
-            Context.class,
-            CarritoResp.class,
-            long.class
-    );
+void htmlConfirmacion_conItems_recorreDetalle() throws Exception {
+    Method m = ComprasController.class.getDeclaredMethod("htmlConfirmacion", CarritoResp.class, long.class);
     m.setAccessible(true);
 
-    Context ctx = mock(Context.class);
-
-    when(ctx.attribute("claims")).thenReturn(Map.of(
-            "email", "cliente@example.com"
-    ));
-
     CarritoResp carrito = new CarritoResp();
     carrito.idUsuario = 1L;
     carrito.total = new BigDecimal("250.00");
@@ -1240,12 +1194,9 @@ void sendEmail_conClaimsYItems_recorreDetalle() throws Exception {
 
     carrito.items = List.of(item);
 
-    try {
-        m.invoke(c, ctx, carrito, 123L);
-    } catch (InvocationTargetException ex) {
-        
-        assertNotNull(ex.getCause());
-    }
+    String html = (String) m.invoke(null, carrito, 123L);
+    assertTrue(html.contains("<strong>AV555</strong> (BUSINESS)"));
+    assertTrue(html.contains("Confirmación de reserva #123"));
 }
 
 @Test
@@ -1253,10 +1204,7 @@ void checkout_webservice_conClienteFinalExistente_ok() throws Exception {
     ComprasDAO dao = mock(ComprasDAO.class);
     UsuarioDAO usuarioDAO = mock(UsuarioDAO.class);
 
-    ComprasController controller = new ComprasController(
-            dao, usuarioDAO,
-            jwtHandlerNoOp(), wsHandlerNoOp()
-    );
+    ComprasController controller = conOutbox(dao, usuarioDAO, mock(BoletoCache.class), mock(DespachadorOutbox.class));
 
     Javalin app = mock(Javalin.class);
     ArgumentCaptor<Handler> cap = ArgumentCaptor.forClass(Handler.class);
@@ -1337,7 +1285,7 @@ void checkout_webservice_conClienteFinalExistente_ok() throws Exception {
     when(usuarioCliente.getIdUsuario()).thenReturn(300L);
     when(usuarioDAO.findByEmail("cliente@example.com")).thenReturn(usuarioCliente);
 
-    when(dao.checkoutConClienteFinal(200L, 300L)).thenReturn(888L);
+    when(dao.checkoutConClienteFinalReserva(200L, 300L)).thenReturn(new CheckoutResp(888L, "AR250101-000888"));
     when(ctx.json(any(CheckoutResp.class))).thenReturn(ctx);
 
     when(ctx.header("X-User-Email")).thenReturn("ws@example.com");
@@ -1348,7 +1296,7 @@ void checkout_webservice_conClienteFinalExistente_ok() throws Exception {
 
     verify(dao).getCart(200L);
     verify(usuarioDAO).findByEmail("cliente@example.com");
-    verify(dao).checkoutConClienteFinal(200L, 300L);
+    verify(dao).checkoutConClienteFinalReserva(200L, 300L);
     verify(dao).guardarReservaWebService(888L, 200L);
     verify(ctx).json(any(CheckoutResp.class));
 }
@@ -1362,7 +1310,8 @@ void boletoPdf_ok_conCodigoEnDetalle() throws Exception {
             dao,
             usuarioDAO,
             jwtHandlerNoOp(),
-            wsHandlerNoOp()
+            wsHandlerNoOp(),
+            new BoletoCache(boletosDir, com.aerolineas.util.PdfBoleto::build, Runnable::run)
     );
 
     Javalin app = mock(Javalin.class);
@@ -1385,21 +1334,161 @@ void boletoPdf_ok_conCodigoEnDetalle() throws Exception {
     when(ctx.pathParam("id")).thenReturn("123");
 
     ReservaDetalle det = new ReservaDetalle();
-    Field codField = det.getClass().getDeclaredField("codigo");
-    codField.setAccessible(true);
-    codField.set(det, "ABC123");
+    det.idReserva = 123L;
+    det.codigo = "ABC123";
 
     when(dao.getReservaDetalle(5L, 123L)).thenReturn(det);
 
+    jakarta.servlet.http.HttpServletResponse res = mock(jakarta.servlet.http.HttpServletResponse.class);
+    java.io.ByteArrayOutputStream body = new java.io.ByteArrayOutputStream();
+    when(ctx.res()).thenReturn(res);
+    when(res.getOutputStream()).thenReturn(new jakarta.servlet.ServletOutputStream() {
+        @Override public void write(int b) { body.write(b); }
+        @Override public boolean isReady() { return true; }
+        @Override public void setWriteListener(jakarta.servlet.WriteListener l) {}
+    });
     when(ctx.header(anyString(), anyString())).thenReturn(ctx);
-    when(ctx.result(any(byte[].class))).thenReturn(ctx);
     when(ctx.status(anyInt())).thenReturn(ctx);
 
     h.handle(ctx);
 
     verify(dao).getReservaDetalle(5L, 123L);
-    verify(ctx).header(eq("Content-Type"), eq("application/pdf"));
-    verify(ctx).result(any(byte[].class));
+    verify(ctx).contentType("application/pdf");
+    verify(ctx).header("Content-Disposition", "attachment; filename=\"boleto-ABC123.pdf\"");
+    verify(res).setContentLengthLong(body.size());
+    assertTrue(body.toString(java.nio.charset.StandardCharsets.ISO_8859_1).startsWith("%PDF"));
+}
+
+@Test
+void boletoPdf_segundaDescarga_usaCacheYCompradorDeLaReserva() throws Exception {
+    ComprasDAO dao = mock(ComprasDAO.class);
+    java.util.List<String> compradores = new java.util.ArrayList<>();
+    BoletoCache boletos = new BoletoCache(boletosDir, (d, codigo, comprador, email) -> {
+        compradores.add(comprador + "|" + email);
+        return "%PDF-1.4".getBytes();
+    }, Runnable::run);
+
+    ComprasController controller = new ComprasController(
+            dao, mock(UsuarioDAO.class), jwtHandlerNoOp(), wsHandlerNoOp(), boletos);
+
+    Javalin app = mock(Javalin.class);
+    ArgumentCaptor<Handler> cap = ArgumentCaptor.forClass(Handler.class);
+    when(app.get(eq("/api/compras/reservas/{id}/boleto.pdf"), any())).thenReturn(app);
+    controller.register(app);
+    verify(app).get(eq("/api/compras/reservas/{id}/boleto.pdf"), cap.capture());
+
+    ReservaDetalle det = new ReservaDetalle();
+    det.idReserva = 9L;
+    det.compradorNombre = "Ana López";
+    det.compradorEmail = "ana@test.com";
+    when(dao.getReservaDetalle(5L, 9L)).thenReturn(det);
+
+    for (int i = 0; i < 2; i++) {
+        Context ctx = mock(Context.class);
+        when(ctx.attribute("claims")).thenReturn(Map.of("idUsuario", 5L, "nombre", "Agencia", "email", "ws@test.com"));
+        when(ctx.pathParam("id")).thenReturn("9");
+        jakarta.servlet.http.HttpServletResponse res = mock(jakarta.servlet.http.HttpServletResponse.class);
+        when(ctx.res()).thenReturn(res);
+        when(res.getOutputStream()).thenReturn(new jakarta.servlet.ServletOutputStream() {
+            @Override public void write(int b) {}
+            @Override public boolean isReady() { return true; }
+            @Override public void setWriteListener(jakarta.servlet.WriteListener l) {}
+        });
+        cap.getValue().handle(ctx);
+        verify(ctx).header("Content-Disposition", "attachment; filename=\"boleto-9.pdf\"");
+    }
+
+    assertEquals(List.of("Ana López|ana@test.com"), compradores);
+    assertEquals(1L, boletos.stats().get("hits"));
+}
+
+@Test
+void checkout_ok_elBoletoSeGeneraDesdeElOutbox() throws Exception {
+    ComprasDAO dao = mock(ComprasDAO.class);
+    BoletoCache boletos = mock(BoletoCache.class);
+    DespachadorOutbox outbox = mock(DespachadorOutbox.class);
+    ComprasController controller = conOutbox(dao, mock(UsuarioDAO.class), boletos, outbox);
+
+    Javalin app = mock(Javalin.class);
+    ArgumentCaptor<Handler> cap = ArgumentCaptor.forClass(Handler.class);
+    when(app.post(eq("/api/compras/checkout"), any())).thenReturn(app);
+    controller.register(app);
+    verify(app).post(eq("/api/compras/checkout"), cap.capture());
+
+    Context ctx = mock(Context.class);
+    when(ctx.attribute("claims")).thenReturn(Map.of("idUsuario", 5L, "rol", 3));
+    PaymentReq req = new PaymentReq();
+    req.tarjeta = new PaymentReq.Tarjeta();
+    req.tarjeta.numero = "4111111111111111";
+    req.tarjeta.cvv = "123";
+    req.facturacion = new PaymentReq.Facturacion();
+    when(ctx.bodyAsClass(PaymentReq.class)).thenReturn(req);
+    CarritoResp carrito = new CarritoResp();
+    carrito.items = List.of(new CarritoItem());
+    when(dao.getCart(5L)).thenReturn(carrito);
+    when(dao.checkoutReserva(5L)).thenReturn(new CheckoutResp(31L, "ZX31"));
+
+    ReservaDetalle det = new ReservaDetalle();
+    det.idReserva = 31L;
+    det.codigo = "ZX31";
+    det.compradorNombre = "Ana López";
+    when(dao.getReservaDetalleAdmin(31L)).thenReturn(det);
+
+    cap.getValue().handle(ctx);
+
+    // Sin correo en claims ni header solo va el boleto; nada se genera en el request
+    @SuppressWarnings("unchecked")
+    ArgumentCaptor<List<OutboxDAO.Nuevo>> eventos = ArgumentCaptor.forClass(List.class);
+    verify(outbox).publicar(eventos.capture());
+    assertEquals(List.of(new OutboxDAO.Nuevo("BOLETO_PDF", 31L, null)), eventos.getValue());
+    verify(boletos, never()).obtener(any());
+
+    // El constructor no toca el despachador; los manejadores se anotan una vez, al arrancar
+    verify(outbox, never()).registrar(anyString(), any());
+    controller.registrarManejadores();
+    ArgumentCaptor<DespachadorOutbox.Manejador> manejador = ArgumentCaptor.forClass(DespachadorOutbox.Manejador.class);
+    verify(outbox).registrar(eq("BOLETO_PDF"), manejador.capture());
+    verify(outbox).registrar(eq("CORREO_CONFIRMACION"), any());
+    manejador.getValue().manejar(new OutboxDAO.Evento(1L, "BOLETO_PDF", 31L, null, 1));
+
+    ArgumentCaptor<BoletoCache.Entrada> e = ArgumentCaptor.forClass(BoletoCache.Entrada.class);
+    verify(boletos).obtener(e.capture());
+    assertEquals("ZX31", e.getValue().codigo());
+    assertEquals("Ana López", e.getValue().comprador());
+}
+
+@Test
+void checkout_webservice_falloAlGuardarRelacion_responde400SinReserva() throws Exception {
+    ComprasDAO dao = mock(ComprasDAO.class);
+    DespachadorOutbox outbox = mock(DespachadorOutbox.class);
+    ComprasController controller = conOutbox(dao, mock(UsuarioDAO.class), mock(BoletoCache.class), outbox);
+
+    Javalin app = mock(Javalin.class);
+    ArgumentCaptor<Handler> cap = ArgumentCaptor.forClass(Handler.class);
+    when(app.post(eq("/api/compras/checkout"), any())).thenReturn(app);
+    controller.register(app);
+    verify(app).post(eq("/api/compras/checkout"), cap.capture());
+
+    Context ctx = mock(Context.class);
+    when(ctx.attribute("claims")).thenReturn(Map.of("idUsuario", 200L, "rol", 2));
+    when(ctx.status(anyInt())).thenReturn(ctx);
+    PaymentReq req = new PaymentReq();
+    req.tarjeta = new PaymentReq.Tarjeta();
+    req.tarjeta.numero = "4111111111111111";
+    req.tarjeta.cvv = "123";
+    req.facturacion = new PaymentReq.Facturacion();
+    when(ctx.bodyAsClass(PaymentReq.class)).thenReturn(req);
+    CarritoResp carrito = new CarritoResp();
+    carrito.items = List.of(new CarritoItem());
+    when(dao.getCart(200L)).thenReturn(carrito);
+    when(dao.checkoutReserva(200L)).thenReturn(new CheckoutResp(40L, "WS40"));
+    doThrow(new java.sql.SQLException("ORA-00001")).when(dao).guardarReservaWebService(40L, 200L);
+
+    cap.getValue().handle(ctx);
+
+    verify(ctx).status(400);
+    verify(ctx, never()).json(any(CheckoutResp.class));
+    verify(outbox, never()).publicar(any());
 }
 
 @Test
@@ -1434,7 +1523,7 @@ void adminListReservas_noAdmin_responde403() throws Exception {
     verify(ctx).status(403);
     verify(ctx).json(any(Map.class));
     verify(dao, never()).listReservasAdmin(
-            any(), any(), any(), any(), any(), any(), any());
+            any(), any(), any(), any(), any(), any(), any(), any(), anyInt());
 }
 
 @Test
@@ -1474,17 +1563,69 @@ void adminListReservas_admin_ok() throws Exception {
     List<ReservaListItem> lista = List.of(item);
 
     when(dao.listReservasAdmin(
-            any(), any(), any(), any(), any(), any(), any()
+            any(), any(), any(), any(), any(), any(), any(), any(), anyInt()
     )).thenReturn(lista);
 
     h.handle(ctx);
 
     verify(dao).listReservasAdmin(
-            any(), any(), any(), any(), any(), any(), any()
+            any(), any(), any(), any(), any(), any(), any(), any(), anyInt()
     );
     verify(ctx).json(lista);
 }
 
+@Test
+void adminExportReservas_admin_streamingSinLimite() throws Exception {
+    ComprasDAO dao = mock(ComprasDAO.class);
+    UsuarioDAO usuarioDAO = mock(UsuarioDAO.class);
+
+    ComprasController controller = new ComprasController(
+            dao,
+            usuarioDAO,
+            jwtHandlerNoOp(),
+            wsHandlerNoOp()
+    );
+
+    Javalin app = mock(Javalin.class);
+    ArgumentCaptor<Handler> cap = ArgumentCaptor.forClass(Handler.class);
+    when(app.get(eq("/api/admin/reservas/export"), any())).thenReturn(app);
+
+    controller.register(app);
+
+    verify(app).get(eq("/api/admin/reservas/export"), cap.capture());
+    Handler h = cap.getValue();
+
+    Context ctx = mock(Context.class);
+    when(ctx.attribute("claims")).thenReturn(Map.of("rol", 1));
+    when(ctx.queryParam(anyString())).thenReturn(null);
+    when(ctx.queryParam("desde")).thenReturn("2030-01-01");
+    var body = new java.io.ByteArrayOutputStream();
+    when(ctx.outputStream()).thenReturn(new jakarta.servlet.ServletOutputStream() {
+        @Override public void write(int b) { body.write(b); }
+        @Override public boolean isReady() { return true; }
+        @Override public void setWriteListener(jakarta.servlet.WriteListener l) {}
+    });
+
+    ReservaListItem item = new ReservaListItem();
+    item.idReserva = 7L;
+    item.codigo = "ABC";
+    when(dao.recorrerReservasAdmin(any(), any(), any(), any(), any(), any(), any(), isNull(), eq(0), any()))
+            .thenAnswer(inv -> {
+                com.aerolineas.dao.Emisor<ReservaListItem> e = inv.getArgument(9);
+                e.emitir(item);
+                return 1;
+            });
+
+    h.handle(ctx);
+
+    verify(dao).recorrerReservasAdmin(isNull(), isNull(), isNull(), isNull(),
+            eq(java.sql.Timestamp.valueOf("2030-01-01 00:00:00")), isNull(), isNull(), isNull(), eq(0), any());
+    verify(dao, never()).listReservasAdmin(any(), any(), any(), any(), any(), any(), any(), any(), anyInt());
+    assertTrue(body.toString().startsWith("[{"));
+    assertTrue(body.toString().contains("\"codigo\":\"ABC\""));
+    assertTrue(body.toString().endsWith("}]"));
+}
+
 @Test
 void adminListEstados_admin_ok() throws Exception {
     ComprasDAO dao = mock(ComprasDAO.class);
@@ -1775,7 +1916,7 @@ void adminListReservas_admin_conFiltros_parseaFechasYEstado() throws Exception {
     when(ctx.queryParam("estado")).thenReturn("2");
 
     when(dao.listReservasAdmin(
-            any(), any(), any(), any(), any(), any(), any()
+            any(), any(), any(), any(), any(), any(), any(), any(), anyInt()
     )).thenReturn(List.of());
 
     h.handle(ctx);
@@ -1787,10 +1928,79 @@ void adminListReservas_admin_conFiltros_parseaFechasYEstado() throws Exception {
             eq("AV123"),
             any(Timestamp.class),
             any(Timestamp.class),
-            eq(2)
+            eq(2),
+            isNull(),
+            eq(101)
     );
     verify(ctx).json(any(List.class));
 }
 
+@Test
+void checkout_reintentoConIdempotencyKey_noCompraDosVeces() throws Exception {
+    ComprasDAO dao = mock(ComprasDAO.class);
+    DespachadorOutbox outbox = mock(DespachadorOutbox.class);
+    ComprasController controller = conOutbox(dao, mock(UsuarioDAO.class), mock(BoletoCache.class), outbox);
+
+    Javalin app = mock(Javalin.class);
+    ArgumentCaptor<Handler> cap = ArgumentCaptor.forClass(Handler.class);
+    when(app.post(eq("/api/compras/checkout"), any())).thenReturn(app);
+    controller.register(app);
+    verify(app).post(eq("/api/compras/checkout"), cap.capture());
+
+    PaymentReq req = new PaymentReq();
+    req.tarjeta = new PaymentReq.Tarjeta();
+    req.tarjeta.numero = "4111111111111111";
+    req.tarjeta.cvv = "123";
+    req.facturacion = new PaymentReq.Facturacion();
+    CarritoResp carrito = new CarritoResp();
+    carrito.items = List.of(new CarritoItem());
+    when(dao.getCart(5L)).thenReturn(carrito);
+    CheckoutResp reserva = new CheckoutResp(31L, "ZX31");
+    when(dao.checkoutReserva(5L)).thenReturn(reserva);
+
+    for (int i = 0; i < 2; i++) {
+        Context ctx = mock(Context.class);
+        when(ctx.attribute("claims")).thenReturn(Map.of("idUsuario", 5L, "rol", 3));
+        when(ctx.header("Idempotency-Key")).thenReturn("pago-31");
+        when(ctx.body()).thenReturn("{\"tarjeta\":1}");
+        when(ctx.bodyAsClass(PaymentReq.class)).thenReturn(req);
+
+        cap.getValue().handle(ctx);
+
+        verify(ctx).json(reserva);
+    }
+    verify(dao, times(1)).checkoutReserva(5L);
+    verify(outbox, times(1)).publicar(anyList());
+}
+
+@Test
+void addItemsBatch_conFallo_responde409ConDetalle() throws Exception {
+    ComprasDAO dao = mock(ComprasDAO.class);
+    ComprasController controller = new ComprasController(
+            dao, mock(UsuarioDAO.class), jwtHandlerNoOp(), wsHandlerNoOp(), mock(BoletoCache.class));
+
+    Javalin app = mock(Javalin.class);
+    ArgumentCaptor<Handler> cap = ArgumentCaptor.forClass(Handler.class);
+    when(app.post(eq("/api/compras/items:batch"), any())).thenReturn(app);
+    controller.register(app);
+    verify(app).post(eq("/api/compras/items:batch"), cap.capture());
+
+    Context ctx = mock(Context.class);
+    when(ctx.attribute("claims")).thenReturn(Map.of("idUsuario", 8L));
+    AddItemReq a = new AddItemReq();
+    a.idVuelo = 20L;
+    a.idClase = 1;
+    a.cantidad = 2;
+    when(ctx.bodyAsClass(AddItemReq[].class)).thenReturn(new AddItemReq[]{a});
+    LoteItemsResp lote = new LoteItemsResp();
+    lote.ok = false;
+    when(dao.addItems(eq(8L), anyList())).thenReturn(lote);
+
+    cap.getValue().handle(ctx);
+
+    verify(dao).addItems(8L, List.of(a));
+    verify(ctx).status(409);
+    verify(ctx).json(lote);
+}
 
 }
@@ -0,0 +1,87 @@
+package com.aerolineas.controller;
+
+import com.aerolineas.dao.DisponibilidadDAO;
+import com.aerolineas.dto.DisponibilidadDTO;
+import com.aerolineas.middleware.Auth;
+import io.javalin.Javalin;
+import io.javalin.http.Context;
+import io.javalin.http.Handler;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.MockedStatic;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class DisponibilidadControllerTest {
+
+    private Handler capture(Javalin app, boolean post, String path) {
+        ArgumentCaptor<Handler> cap = ArgumentCaptor.forClass(Handler.class);
+        if (post) verify(app).post(eq(path), cap.capture());
+        else verify(app).get(eq(path), cap.capture());
+        return cap.getValue();
+    }
+
+    @Test
+    @DisplayName("GET desfases valida admin y filtra por idVuelo")
+    void desfases_conIdVuelo() throws Exception {
+        DisponibilidadDAO dao = mock(DisponibilidadDAO.class);
+        Javalin app = mock(Javalin.class);
+        Context ctx = mock(Context.class);
+        List<DisponibilidadDTO.Desfase> lista = List.of(new DisponibilidadDTO.Desfase(3L, 1, 1, 0, 0, 0));
+        when(ctx.queryParam("idVuelo")).thenReturn("3");
+        when(dao.detectarDesfases(3L)).thenReturn(lista);
+
+        try (MockedStatic<Auth> authMock = mockStatic(Auth.class)) {
+            Handler authHandler = mock(Handler.class);
+            authMock.when(Auth::adminOrEmpleado).thenReturn(authHandler);
+
+            new DisponibilidadController(dao).routes(app);
+            capture(app, false, "/api/v1/admin/disponibilidad/desfases").handle(ctx);
+
+            verify(authHandler).handle(ctx);
+            verify(ctx).json(lista);
+        }
+    }
+
+    @Test
+    @DisplayName("POST reconciliar sin idVuelo reconcilia todo y responde el conteo")
+    void reconciliar_todo() throws Exception {
+        DisponibilidadDAO dao = mock(DisponibilidadDAO.class);
+        Javalin app = mock(Javalin.class);
+        Context ctx = mock(Context.class);
+        when(dao.reconciliar(null)).thenReturn(List.of());
+
+        try (MockedStatic<Auth> authMock = mockStatic(Auth.class)) {
+            authMock.when(Auth::adminOrEmpleado).thenReturn(mock(Handler.class));
+
+            new DisponibilidadController(dao).routes(app);
+            capture(app, true, "/api/v1/admin/disponibilidad/reconciliar").handle(ctx);
+
+            verify(ctx).json(Map.of("reparados", 0, "items", List.of()));
+        }
+    }
+
+    @Test
+    @DisplayName("idVuelo no numérico lanza IllegalArgumentException")
+    void idVueloInvalido_lanza() throws Exception {
+        DisponibilidadDAO dao = mock(DisponibilidadDAO.class);
+        Javalin app = mock(Javalin.class);
+        Context ctx = mock(Context.class);
+        when(ctx.queryParam("idVuelo")).thenReturn("x");
+
+        try (MockedStatic<Auth> authMock = mockStatic(Auth.class)) {
+            authMock.when(Auth::adminOrEmpleado).thenReturn(mock(Handler.class));
+
+            new DisponibilidadController(dao).routes(app);
+            Handler h = capture(app, false, "/api/v1/admin/disponibilidad/desfases");
+            assertThrows(IllegalArgumentException.class, () -> h.handle(ctx));
+            verifyNoInteractions(dao);
+        }
+    }
+}
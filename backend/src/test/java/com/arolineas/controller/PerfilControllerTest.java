@@ -6,6 +6,7 @@ import com.aerolineas.dao.PasajeroDAO;
 import com.aerolineas.dao.UsuarioDAO;
 import com.aerolineas.dto.UsuarioAdminDTOs;
 import com.aerolineas.dto.PaisDTOs;
+import com.aerolineas.middleware.WebServiceCredCache;
 import com.aerolineas.model.Pasajero;
 import com.aerolineas.model.Usuario;
 import io.javalin.http.Context;
@@ -16,6 +17,7 @@ import java.time.LocalDate;
 import java.util.List;
 import java.util.Map;
 
+import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.*;
 import static org.mockito.Mockito.*;
 
@@ -150,12 +152,20 @@ public class PerfilControllerTest {
         );
         when(validator.get()).thenReturn(req);
 
-        controller.updatePerfil(ctx);
-
-        verify(usuarioDAO).selfUpdate(eq(20L), any(UsuarioAdminDTOs.UpdateSelf.class));
-        verify(ctx).json(Map.of("ok", true));
-        verify(ctx, never()).status(400);
-        verify(ctx, never()).status(500);
+        WebServiceCredCache.put("ana@x.com", "viejo", 20L, Map.of("sub", "20"));
+        WebServiceCredCache.put("otro@x.com", "clave", 21L, Map.of("sub", "21"));
+        try {
+            controller.updatePerfil(ctx);
+
+            verify(usuarioDAO).selfUpdate(eq(20L), any(UsuarioAdminDTOs.UpdateSelf.class));
+            verify(ctx).json(Map.of("ok", true));
+            verify(ctx, never()).status(400);
+            verify(ctx, never()).status(500);
+            assertNull(WebServiceCredCache.get("ana@x.com", "viejo"));
+            assertNotNull(WebServiceCredCache.get("otro@x.com", "clave"));
+        } finally {
+            WebServiceCredCache.clear();
+        }
     }
 
     @Test
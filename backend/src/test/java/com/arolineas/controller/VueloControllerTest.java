@@ -47,6 +47,86 @@ public class VueloControllerTest {
         new com.aerolineas.controller.VueloController();
     }
 
+    @Test
+    void listarPublic_ifNoneMatchIgual_responde304() throws Exception {
+        VueloDAO dao = mock(VueloDAO.class);
+        Handler h = captureGetHandler("/api/public/vuelos", dao);
+
+        Context ctx = mock(Context.class);
+        h.handle(ctx);
+        ArgumentCaptor<String> etag = ArgumentCaptor.forClass(String.class);
+        verify(ctx).header(eq("ETag"), etag.capture());
+
+        Context ctx2 = mock(Context.class);
+        when(ctx2.header("If-None-Match")).thenReturn(etag.getValue());
+        h.handle(ctx2);
+
+        verify(ctx2).status(304);
+        verify(ctx2, never()).json(any());
+        verify(dao, times(1)).listarVuelosPublic();
+    }
+
+    @Test
+    void search_devuelveResultadoDesdeCatalogo() throws Exception {
+        VueloDAO dao = mock(VueloDAO.class);
+        LocalDateTime salida = LocalDateTime.of(2030, 5, 10, 8, 0);
+        when(dao.listarVuelosPublic()).thenReturn(List.of(new VueloDTO.View(1L, "V1", 1L, "Guatemala", "Miami",
+                salida, salida.plusHours(2), true, List.of(new VueloDTO.ClaseConfig(1, 10, 100.0)), List.of())));
+        Handler h = captureGetHandler("/api/v1/vuelos/search", dao);
+
+        Context ctx = mock(Context.class);
+        when(ctx.queryParam("origen")).thenReturn("guatemala");
+        when(ctx.queryParam("destino")).thenReturn("miami");
+        when(ctx.queryParam("desde")).thenReturn("2030-05-10");
+        when(ctx.queryParam("boletos")).thenReturn("2");
+
+        h.handle(ctx);
+
+        ArgumentCaptor<Object> body = ArgumentCaptor.forClass(Object.class);
+        verify(ctx).json(body.capture());
+        var r = (com.aerolineas.dto.BusquedaDTO.Resultado) body.getValue();
+        assertEquals(1, r.directos().size());
+        assertEquals(1L, r.directos().get(0).ida().idVuelo());
+    }
+
+    @Test
+    void search_fechaInvalida_lanzaIllegalArgument() throws Exception {
+        VueloDAO dao = mock(VueloDAO.class);
+        Handler h = captureGetHandler("/api/v1/vuelos/search", dao);
+
+        Context ctx = mock(Context.class);
+        when(ctx.queryParam("origen")).thenReturn("GUA");
+        when(ctx.queryParam("destino")).thenReturn("MIA");
+        when(ctx.queryParam("desde")).thenReturn("10/05/2030");
+
+        assertThrows(IllegalArgumentException.class, () -> h.handle(ctx));
+        verify(ctx, never()).json(any());
+    }
+
+    @Test
+    void listarPublic_conLimitYAfter_paginaPorIdYPublicaCursor() throws Exception {
+        VueloDAO dao = mock(VueloDAO.class);
+        LocalDateTime t = LocalDateTime.of(2030, 1, 1, 8, 0);
+        List<VueloDTO.View> vuelos = new java.util.ArrayList<>();
+        for (long id = 1; id <= 4; id++) {
+            vuelos.add(new VueloDTO.View(id, "V" + id, 1L, t, t.plusHours(1), true, List.of(), List.of()));
+        }
+        when(dao.listarVuelosPublic()).thenReturn(vuelos);
+        Handler h = captureGetHandler("/api/public/vuelos", dao);
+
+        Context ctx = mock(Context.class);
+        when(ctx.queryParam("after")).thenReturn("1");
+        when(ctx.queryParam("limit")).thenReturn("2");
+        h.handle(ctx);
+
+        verify(ctx).header("X-Next-Cursor", "3");
+        ArgumentCaptor<Object> body = ArgumentCaptor.forClass(Object.class);
+        verify(ctx).json(body.capture());
+        @SuppressWarnings("unchecked")
+        List<VueloDTO.View> pagina = (List<VueloDTO.View>) body.getValue();
+        assertEquals(List.of(2L, 3L), pagina.stream().map(VueloDTO.View::idVuelo).toList());
+    }
+
     @Test
     void listarPublic_sinWebService_ok() throws Exception {
         VueloDAO dao = mock(VueloDAO.class);
@@ -476,13 +556,106 @@ public class VueloControllerTest {
             );
             List<VueloDTO.View> lista = List.of(v);
 
-            when(dao.listarVuelos(false)).thenReturn(lista);
+            var body = new java.io.ByteArrayOutputStream();
+            when(ctx.outputStream()).thenReturn(new jakarta.servlet.ServletOutputStream() {
+                @Override public void write(int b) { body.write(b); }
+                @Override public boolean isReady() { return true; }
+                @Override public void setWriteListener(jakarta.servlet.WriteListener l) {}
+            });
+            when(dao.recorrerVuelos(eq(false), isNull(), eq(0), any())).thenAnswer(inv -> {
+                com.aerolineas.dao.Emisor<VueloDTO.View> e = inv.getArgument(3);
+                for (VueloDTO.View x : lista) e.emitir(x);
+                return lista.size();
+            });
 
             h.handle(ctx);
 
             verify(authHandler).handle(ctx);
-            verify(dao).listarVuelos(false);
-            verify(ctx).json(lista);
+            verify(dao).recorrerVuelos(eq(false), isNull(), eq(0), any());
+            verify(dao, never()).listarVuelos(false);
+            verify(ctx).contentType("application/json");
+            String json = body.toString();
+            assertTrue(json.startsWith("[{") && json.endsWith("}]"));
+            assertTrue(json.contains("\"codigo\":\"COD-1\""));
+        }
+    }
+
+    @Test
+    void admin_estadoMasivo_cancelaYEncolaUnaNotificacion() throws Exception {
+        VueloDAO dao = mock(VueloDAO.class);
+        NotificacionesService notifySvc = mock(NotificacionesService.class);
+
+        try (MockedStatic<Auth> authMock = mockStatic(Auth.class)) {
+            authMock.when(Auth::adminOrEmpleado).thenReturn(mock(Handler.class));
+
+            VueloController controller = new VueloController(dao, notifySvc);
+            Javalin app = mock(Javalin.class);
+            ArgumentCaptor<Handler> captor = ArgumentCaptor.forClass(Handler.class);
+            when(app.post(eq("/api/v1/admin/vuelos/estado-masivo"), captor.capture())).thenReturn(app);
+
+            controller.routes(app);
+            Handler h = captor.getValue();
+
+            var dto = new VueloDTO.EstadoMasivo(CANCELADO, "Huracán", 7L, null, null, null, null, null);
+            when(dao.actualizarEstadoMasivo(dto)).thenReturn(
+                    new VueloDTO.EstadoMasivoResultado(List.of(10L, 11L), 2, List.of(500L, 501L, 502L), 3, 40));
+            when(notifySvc.notificarMasivo(List.of(10L, 11L), List.of(500L, 501L, 502L), "CANCELACION", "Huracán")).thenReturn(true);
+
+            Context ctx = mock(Context.class);
+            when(ctx.bodyAsClass(VueloDTO.EstadoMasivo.class)).thenReturn(dto);
+            h.handle(ctx);
+
+            @SuppressWarnings("unchecked")
+            ArgumentCaptor<Map<String, Object>> json = ArgumentCaptor.forClass(Map.class);
+            verify(ctx).json(json.capture());
+            assertEquals(2, json.getValue().get("vuelos"));
+            assertEquals(2, json.getValue().get("motivos"));
+            assertEquals(3, json.getValue().get("reservas"));
+            assertEquals("ENCOLADA", json.getValue().get("notificacion"));
+            assertTrue(json.getValue().containsKey("tiemposMs"));
+            verify(notifySvc, times(1)).notificarMasivo(anyList(), anyCollection(), anyString(), anyString());
+            verify(notifySvc, never()).notificarCancelacion(anyLong(), anyString());
+
+            Context ctx2 = mock(Context.class);
+            when(ctx2.status(anyInt())).thenReturn(ctx2);
+            when(ctx2.bodyAsClass(VueloDTO.EstadoMasivo.class)).thenReturn(dto);
+            when(dao.actualizarEstadoMasivo(dto)).thenThrow(new SQLException("El filtro afecta 900 vuelos; el máximo por operación es 500."));
+            h.handle(ctx2);
+            verify(ctx2).status(409);
+        }
+    }
+
+    @Test
+    void admin_progresoNotificacion_404yOk() throws Exception {
+        VueloDAO dao = mock(VueloDAO.class);
+        NotificacionesService notifySvc = mock(NotificacionesService.class);
+
+        try (MockedStatic<Auth> authMock = mockStatic(Auth.class)) {
+            authMock.when(Auth::adminOrEmpleado).thenReturn(mock(Handler.class));
+
+            VueloController controller = new VueloController(dao, notifySvc);
+            Javalin app = mock(Javalin.class);
+            ArgumentCaptor<Handler> captor = ArgumentCaptor.forClass(Handler.class);
+            when(app.get(eq("/api/v1/admin/notificaciones/{id}"), captor.capture())).thenReturn(app);
+
+            controller.routes(app);
+            Handler h = captor.getValue();
+
+            Context ctx = mock(Context.class);
+            @SuppressWarnings("unchecked")
+            Validator<Long> val = (Validator<Long>) mock(Validator.class);
+            when(ctx.pathParamAsClass("id", Long.class)).thenReturn(val);
+            when(val.get()).thenReturn(5L, 6L);
+            when(ctx.status(404)).thenReturn(ctx);
+            var p = new com.aerolineas.dto.NotificacionDTO.Progreso(6L, 1L, "CANCELACION", "EN_CURSO",
+                    300, 120, 1, 179, null, null, null);
+            when(notifySvc.progreso(6L)).thenReturn(p);
+
+            h.handle(ctx);
+            verify(ctx).status(404);
+
+            h.handle(ctx);
+            verify(ctx).json(p);
         }
     }
 
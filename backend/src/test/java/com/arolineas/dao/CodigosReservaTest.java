@@ -0,0 +1,74 @@
+package com.aerolineas.dao;
+
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.mock;
+
+class CodigosReservaTest {
+
+  @Test
+  void unBloquePorCadaMilCodigos() throws Exception {
+    AtomicLong hi = new AtomicLong();
+    var c = new CodigosReserva(cn -> hi.incrementAndGet());
+    Connection cn = mock(Connection.class);
+
+    Set<String> vistos = new HashSet<>();
+    for (int i = 0; i < CodigosReserva.BLOQUE * 2 + 1; i++) assertTrue(vistos.add(c.siguiente(cn)));
+
+    assertEquals(3L, hi.get());
+    assertEquals(3L, c.stats().get("bloques"));
+    assertEquals((long) CodigosReserva.BLOQUE - 1, c.stats().get("restantes"));
+  }
+
+  @Test
+  void dosNodos_noRepitenCodigos() throws Exception {
+    AtomicLong secuencia = new AtomicLong();
+    var a = new CodigosReserva(cn -> secuencia.incrementAndGet());
+    var b = new CodigosReserva(cn -> secuencia.incrementAndGet());
+
+    Set<String> vistos = new HashSet<>();
+    for (int i = 0; i < 5000; i++) {
+      assertTrue(vistos.add(a.siguiente(null)));
+      assertTrue(vistos.add(b.siguiente(null)));
+    }
+  }
+
+  @Test
+  void formato_y_digitoDeControl() {
+    String codigo = CodigosReserva.formatear(1000L);
+    assertEquals(10, codigo.length());
+    assertTrue(codigo.startsWith("AR"));
+    assertTrue(CodigosReserva.valido(codigo));
+    assertFalse(CodigosReserva.valido("AR251002-000001"));
+
+    // cualquier símbolo cambiado se detecta
+    for (int i = 2; i < codigo.length(); i++) {
+      for (char s : CodigosReserva.ALFABETO.toCharArray()) {
+        if (s == codigo.charAt(i)) continue;
+        String malo = codigo.substring(0, i) + s + codigo.substring(i + 1);
+        assertFalse(CodigosReserva.valido(malo), malo);
+      }
+    }
+  }
+
+  @Test
+  void mezclar_esBiyectiva() {
+    Set<Long> vistos = new HashSet<>();
+    for (long n = 0; n < 200_000; n++) assertTrue(vistos.add(CodigosReserva.mezclar(n)));
+    assertNotEquals(CodigosReserva.formatear(5000L).substring(2, 7), CodigosReserva.formatear(5001L).substring(2, 7));
+  }
+
+  @Test
+  void bloqueFueraDeRango_falla() {
+    var c = new CodigosReserva(cn -> 0L);
+    assertThrows(SQLException.class, () -> c.siguiente(null));
+    assertThrows(IllegalArgumentException.class, () -> CodigosReserva.formatear(-1L));
+  }
+}
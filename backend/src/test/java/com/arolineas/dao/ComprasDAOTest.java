@@ -1,6 +1,7 @@
 package com.aerolineas.dao;
 
 import com.aerolineas.config.DB;
+import com.aerolineas.config.UnidadDeTrabajo;
 import com.aerolineas.dto.CompraDTO;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
@@ -8,6 +9,7 @@ import org.mockito.MockedStatic;
 
 import java.lang.reflect.Method;
 import java.sql.*;
+import java.util.ArrayList;
 import java.util.List;
 
 import static org.junit.jupiter.api.Assertions.*;
@@ -160,69 +162,6 @@ class ComprasDAOTest {
         }
     }
 
-    @Test
-    @DisplayName("getReservados devuelve el conteo de reservas confirmadas")
-    void getReservados_devuelveConteo() throws Exception {
-        Connection cn = mock(Connection.class);
-        PreparedStatement ps = mock(PreparedStatement.class);
-        ResultSet rs = mock(ResultSet.class);
-
-        try (MockedStatic<DB> dbMock = mockStatic(DB.class)) {
-            dbMock.when(() -> DB.table("RESERVA_ITEM")).thenReturn("RESERVA_ITEM");
-            dbMock.when(() -> DB.table("RESERVA")).thenReturn("RESERVA");
-
-            String expectedSql =
-                    "SELECT NVL(COUNT(*),0) FROM RESERVA_ITEM ri " +
-                    "JOIN RESERVA r ON r.ID_RESERVA = ri.ID_RESERVA " +
-                    "WHERE ri.ID_VUELO=? AND ri.ID_CLASE=? AND r.ID_ESTADO=1";
-            when(cn.prepareStatement(expectedSql)).thenReturn(ps);
-            when(ps.executeQuery()).thenReturn(rs);
-
-            when(rs.next()).thenReturn(true);
-            when(rs.getInt(1)).thenReturn(5);
-
-            ComprasDAO dao = new ComprasDAO();
-            int reservados = (int) invokePrivate(
-                    dao,
-                    "getReservados",
-                    new Class<?>[]{Connection.class, long.class, int.class},
-                    cn, 50L, 2
-            );
-
-            assertEquals(5, reservados);
-        }
-    }
-
-    @Test
-    @DisplayName("getEnCarritos devuelve la suma de cantidades en carritos")
-    void getEnCarritos_devuelveSuma() throws Exception {
-        Connection cn = mock(Connection.class);
-        PreparedStatement ps = mock(PreparedStatement.class);
-        ResultSet rs = mock(ResultSet.class);
-
-        try (MockedStatic<DB> dbMock = mockStatic(DB.class)) {
-            dbMock.when(() -> DB.table("CARRITO_ITEM")).thenReturn("CARRITO_ITEM");
-
-            String expectedSql =
-                    "SELECT NVL(SUM(CANTIDAD),0) FROM CARRITO_ITEM WHERE ID_VUELO=? AND ID_CLASE=?";
-            when(cn.prepareStatement(expectedSql)).thenReturn(ps);
-            when(ps.executeQuery()).thenReturn(rs);
-
-            when(rs.next()).thenReturn(true);
-            when(rs.getInt(1)).thenReturn(3);
-
-            ComprasDAO dao = new ComprasDAO();
-            int enCarritos = (int) invokePrivate(
-                    dao,
-                    "getEnCarritos",
-                    new Class<?>[]{Connection.class, long.class, int.class},
-                    cn, 50L, 2
-            );
-
-            assertEquals(3, enCarritos);
-        }
-    }
-
     @Test
     @DisplayName("findCartItemIdFor devuelve null cuando no existe item en ese carrito")
     void findCartItemIdFor_sinItem_devuelveNull() throws Exception {
@@ -489,29 +428,25 @@ class ComprasDAOTest {
     }
 
     @Test
-    @DisplayName("checkout lanza IllegalStateException cuando el carrito está vacío")
+    @DisplayName("checkout lanza IllegalStateException cuando el procedimiento reporta carrito vacío")
     void checkout_carritoVacio_lanzaExcepcion() throws Exception {
         Connection cn = mock(Connection.class);
-        PreparedStatement ps = mock(PreparedStatement.class);
-        ResultSet rs = mock(ResultSet.class);
+        CallableStatement cs = mock(CallableStatement.class);
 
         long userId = 123L;
         long cartId = 999L;
 
-        ComprasDAO dao = spy(new ComprasDAO());
+        ComprasDAO dao = spy(new ComprasDAO(new CodigosReserva(c -> 7L)));
         doReturn(cartId).when(dao).ensureCartForUser(userId);
 
         try (MockedStatic<DB> dbMock = mockStatic(DB.class)) {
-            dbMock.when(() -> DB.table("CARRITO_ITEM")).thenReturn("CARRITO_ITEM");
             dbMock.when(DB::getConnection).thenReturn(cn);
+            dbMock.when(DB::getSchema).thenReturn("SCHEMA");
 
-            String expectedSql =
-                    "SELECT COUNT(*) FROM CARRITO_ITEM WHERE ID_CARRITO = ?";
-            when(cn.prepareStatement(expectedSql)).thenReturn(ps);
-            when(ps.executeQuery()).thenReturn(rs);
-
-            when(rs.next()).thenReturn(true);
-            when(rs.getInt(1)).thenReturn(0); 
+            when(cn.prepareCall("{ call SCHEMA.PR_CHECKOUT_CARRITO_SET(?,?,?,?) }")).thenReturn(cs);
+            when(cs.execute()).thenThrow(new SQLException(
+                    "ORA-20003: El carrito está vacío o ya fue procesado.\nORA-06512: en \"AEROLINEA.PR_CHECKOUT_CARRITO_SET\", línea 30",
+                    "72000", 20003));
 
             IllegalStateException ex = assertThrows(
                     IllegalStateException.class,
@@ -519,7 +454,33 @@ class ComprasDAOTest {
             );
 
             assertEquals("El carrito está vacío o ya fue procesado.", ex.getMessage());
-            verify(ps).setLong(1, cartId);
+            verify(cs).setLong(2, cartId);
+            verify(cn, never()).prepareStatement(anyString());
+        }
+    }
+
+    @Test
+    @DisplayName("checkout propaga sin cupo como IllegalStateException y otros errores como SQLException")
+    void checkout_sinCupo_yErrorTecnico() throws Exception {
+        Connection cn = mock(Connection.class);
+        CallableStatement cs = mock(CallableStatement.class);
+
+        ComprasDAO dao = spy(new ComprasDAO());
+        doReturn(5L).when(dao).ensureCartForUser(1L);
+
+        try (MockedStatic<DB> dbMock = mockStatic(DB.class)) {
+            dbMock.when(DB::getConnection).thenReturn(cn);
+            dbMock.when(DB::getSchema).thenReturn("SCHEMA");
+            when(cn.prepareCall(anyString())).thenReturn(cs);
+            when(cs.execute())
+                    .thenThrow(new SQLException("ORA-20004: Sin cupo para vuelo 21 clase 1", "72000", 20004))
+                    .thenThrow(new SQLException("ORA-00060: deadlock detected", "61000", 60));
+
+            IllegalStateException sinCupo = assertThrows(IllegalStateException.class, () -> dao.checkout(1L));
+            assertEquals("Sin cupo para vuelo 21 clase 1", sinCupo.getMessage());
+
+            SQLException tecnico = assertThrows(SQLException.class, () -> dao.checkout(1L));
+            assertEquals(60, tecnico.getErrorCode());
         }
     }
 
@@ -629,12 +590,39 @@ class ComprasDAOTest {
         }
     }
 
+    @Test
+    @DisplayName("ensureCartForUser: la segunda llamada usa el id cacheado sin ir a la BD")
+    void ensureCartForUser_segundaLlamada_usaCache() throws Exception {
+        Connection cn = mock(Connection.class);
+        PreparedStatement ps = mock(PreparedStatement.class);
+        ResultSet rs = mock(ResultSet.class);
+
+        try (MockedStatic<DB> dbMock = mockStatic(DB.class)) {
+            dbMock.when(() -> DB.table("CARRITO")).thenReturn("CARRITO");
+            dbMock.when(DB::getConnection).thenReturn(cn);
+
+            when(cn.prepareStatement(anyString())).thenReturn(ps);
+            when(ps.executeQuery()).thenReturn(rs);
+            when(rs.next()).thenReturn(true);
+            when(rs.getLong(1)).thenReturn(42L);
+
+            ComprasDAO dao = new ComprasDAO();
+
+            assertEquals(42L, dao.ensureCartForUser(123L));
+            assertEquals(42L, dao.ensureCartForUser(123L));
+
+            verify(cn, times(1)).prepareStatement(anyString());
+            dbMock.verify(DB::getConnection, times(1));
+        }
+    }
+
         @Test
     @DisplayName("checkoutConClienteFinal lanza IllegalStateException cuando el carrito del webservice está vacío")
     void checkoutConClienteFinal_carritoVacio_lanzaExcepcion() throws Exception {
         Connection cn = mock(Connection.class);
         PreparedStatement ps = mock(PreparedStatement.class);
         ResultSet rs = mock(ResultSet.class);
+        CallableStatement cs = mock(CallableStatement.class);
 
         long userWs = 10L;
         long userFinal = 20L;
@@ -644,14 +632,19 @@ class ComprasDAOTest {
         doReturn(cartWsId).when(dao).ensureCartForUser(userWs);
 
         try (MockedStatic<DB> dbMock = mockStatic(DB.class)) {
-            dbMock.when(() -> DB.table("CARRITO_ITEM")).thenReturn("CARRITO_ITEM");
+            dbMock.when(() -> DB.table(anyString())).thenAnswer(inv -> inv.getArgument(0));
             dbMock.when(DB::getConnection).thenReturn(cn);
+            dbMock.when(DB::getSchema).thenReturn("SCHEMA");
 
             when(cn.prepareStatement(anyString())).thenReturn(ps);
             when(ps.executeQuery()).thenReturn(rs);
-
             when(rs.next()).thenReturn(true);
-            when(rs.getInt(1)).thenReturn(0);
+            when(rs.getLong(1)).thenReturn(55L);
+            when(ps.executeUpdate()).thenReturn(0);
+
+            when(cn.prepareCall(anyString())).thenReturn(cs);
+            when(cs.execute()).thenThrow(new SQLException(
+                    "ORA-20003: El carrito está vacío o ya fue procesado.", "72000", 20003));
 
             IllegalStateException ex = assertThrows(
                     IllegalStateException.class,
@@ -659,65 +652,12 @@ class ComprasDAOTest {
             );
 
             assertEquals("El carrito está vacío o ya fue procesado.", ex.getMessage());
-            verify(ps).setLong(1, cartWsId);
+            verify(ps).setLong(2, cartWsId);
+            verify(cs).setLong(2, 55L);
         }
     }
 
 
-@Test
-@DisplayName("setFieldIfExists asigna el valor cuando el campo existe")
-void setFieldIfExists_campoExiste_asignaValor() throws Exception {
-    class Dummy {
-        private String ciudadOrigen;
-    }
-
-    Dummy d = new Dummy();
-
-    Method m = ComprasDAO.class.getDeclaredMethod(
-            "setFieldIfExists",
-            Object.class,
-            String.class,
-            Object.class
-    );
-    m.setAccessible(true);
-
-    m.invoke(null, d, "ciudadOrigen", "Madrid");
-
-    java.lang.reflect.Field f = Dummy.class.getDeclaredField("ciudadOrigen");
-    f.setAccessible(true);
-    Object value = f.get(d);
-
-    assertEquals("Madrid", value);
-}
-
-@Test
-@DisplayName("setFieldIfExists no lanza excepción cuando el campo no existe")
-void setFieldIfExists_campoNoExiste_noLanza() throws Exception {
-    class Dummy {
-        private String otroCampo;
-    }
-
-    Dummy d = new Dummy();
-
-    Method m = ComprasDAO.class.getDeclaredMethod(
-            "setFieldIfExists",
-            Object.class,
-            String.class,
-            Object.class
-    );
-    m.setAccessible(true);
-
-    assertDoesNotThrow(() -> {
-        try {
-            m.invoke(null, d, "campoInexistente", "X");
-        } catch (java.lang.reflect.InvocationTargetException ite) {
-    
-            throw new RuntimeException(ite.getTargetException());
-        }
-    });
-}
-
-
 @Test
 @DisplayName("updateQuantity disminuye cantidad sin validar cupo cuando cantidad nueva es menor")
 void updateQuantity_disminuyeCantidad_ok() throws Exception {
@@ -876,6 +816,9 @@ void getCart_mapeaCorrectamente() throws Exception {
         assertEquals(2, it.cantidad);
         assertEquals(new BigDecimal("75.00"), it.precioUnitario);
         assertEquals(new BigDecimal("150.00"), it.subtotal);
+        assertEquals("Guatemala", it.paisOrigen);
+        assertEquals("España", it.paisDestino);
+        assertEquals("Madrid", it.ciudadDestino);
     }
 
     verify(dao).ensureCartForUser(userId);
@@ -1052,6 +995,81 @@ void cancelarVueloYAfectarReservas_conReservas() throws Exception {
     }
 }
 
+@Test
+@DisplayName("cancelarVuelo usa las mismas cinco sentencias sin importar cuántas reservas haya")
+void cancelarVuelo_sentenciasFijas() throws Exception {
+    long idVuelo = 10L;
+    int reservas = 1_000;
+
+    Connection cn = mock(Connection.class);
+    PreparedStatement ps = mock(PreparedStatement.class);
+    ResultSet rs = mock(ResultSet.class);
+
+    ComprasDAO dao = new ComprasDAO();
+
+    try (MockedStatic<DB> dbMock = mockStatic(DB.class)) {
+        dbMock.when(DB::getConnection).thenReturn(cn);
+        dbMock.when(() -> DB.table(anyString())).thenAnswer(inv -> inv.getArgument(0));
+
+        when(cn.prepareStatement(anyString())).thenReturn(ps);
+        when(ps.executeQuery()).thenReturn(rs);
+        int[] n = {0};
+        when(rs.next()).thenAnswer(inv -> n[0]++ < reservas);
+        when(rs.getLong(1)).thenAnswer(inv -> (long) n[0]);
+
+        List<Long> ids = dao.cancelarVuelo(idVuelo);
+
+        assertEquals(reservas, ids.size());
+        assertEquals(1L, ids.get(0));
+        verify(cn, times(5)).prepareStatement(anyString());
+        verify(cn).prepareStatement(startsWith("MERGE INTO SALIDA_CLASE sc USING (SELECT ri.ID_VUELO, ri.ID_CLASE, COUNT(*)"));
+        verify(cn).prepareStatement(startsWith("UPDATE RESERVA_ITEM SET ID_ESTADO_RESERVA = 2"));
+        verify(cn).prepareStatement(startsWith("UPDATE RESERVA SET ID_ESTADO = 2 WHERE ID_RESERVA IN (?,?"));
+        verify(ps, never()).executeBatch();
+        verify(ps).setLong(1, idVuelo);
+        // El vuelo solo se enlaza en el SELECT ... FOR UPDATE; las DML usan los ids bloqueados
+        verify(ps, times(1)).setObject(1, idVuelo);
+        verify(ps, times(3)).setLong(reservas, (long) reservas);
+        verify(cn).commit();
+    }
+}
+
+@Test
+@DisplayName("cancelarVuelo parte los ids bloqueados en listas IN de hasta MAX_IN")
+void cancelarVuelo_idsEnTramos() throws Exception {
+    int reservas = 2_500;
+
+    Connection cn = mock(Connection.class);
+    PreparedStatement ps = mock(PreparedStatement.class);
+    ResultSet rs = mock(ResultSet.class);
+
+    try (MockedStatic<DB> dbMock = mockStatic(DB.class)) {
+        dbMock.when(DB::getConnection).thenReturn(cn);
+        dbMock.when(() -> DB.table(anyString())).thenAnswer(inv -> inv.getArgument(0));
+
+        List<String> sqls = new ArrayList<>();
+        when(cn.prepareStatement(anyString())).thenAnswer(inv -> { sqls.add(inv.getArgument(0)); return ps; });
+        when(ps.executeQuery()).thenReturn(rs);
+        int[] n = {0};
+        when(rs.next()).thenAnswer(inv -> n[0]++ < reservas);
+        when(rs.getLong(1)).thenAnswer(inv -> (long) n[0]);
+
+        List<Long> ids = new ComprasDAO().cancelarVuelo(10L);
+
+        assertEquals(reservas, ids.size());
+        assertEquals(2 + 3 * 3, sqls.size());
+        // Solo el SELECT ... FOR UPDATE evalúa el filtro de reservas activas
+        for (String sql : sqls.subList(2, sqls.size())) assertFalse(sql.contains("ID_ESTADO = 1"), sql);
+        List<Integer> largos = new ArrayList<>();
+        for (String sql : sqls) {
+            if (sql.startsWith("UPDATE RESERVA SET")) largos.add(sql.length() - sql.replace("?", "").length());
+        }
+        assertEquals(List.of(1_000, 1_000, 500), largos);
+        verify(ps, times(3)).setLong(500, 2_500L);
+        verify(cn).commit();
+    }
+}
+
 @Test
 @DisplayName("cancelarReserva lanza IllegalStateException cuando solicitante no es dueño y no es admin")
 void cancelarReserva_noAutorizado_lanzaExcepcion() throws Exception {
@@ -1482,38 +1500,38 @@ void ensureCartForUser_creaCarritoCuandoNoExiste() throws Exception {
 }
 
 @Test
-@DisplayName("checkout procesa el carrito y devuelve el id de reserva generado")
+@DisplayName("checkout hace una sola llamada y devuelve id y código de la reserva")
 void checkout_ok() throws Exception {
     long userId = 123L;
     long cartId = 999L;
 
     Connection cn = mock(Connection.class);
-    PreparedStatement ps = mock(PreparedStatement.class);
-    ResultSet rs = mock(ResultSet.class);
     CallableStatement cs = mock(CallableStatement.class);
 
-    ComprasDAO dao = spy(new ComprasDAO());
+    ComprasDAO dao = spy(new ComprasDAO(new CodigosReserva(c -> 7L)));
     doReturn(cartId).when(dao).ensureCartForUser(userId);
 
     try (MockedStatic<DB> dbMock = mockStatic(DB.class)) {
-        dbMock.when(() -> DB.table("CARRITO_ITEM")).thenReturn("CARRITO_ITEM");
         dbMock.when(DB::getConnection).thenReturn(cn);
         dbMock.when(DB::getSchema).thenReturn("SCHEMA");
 
-        when(cn.prepareStatement(anyString())).thenReturn(ps);
-        when(ps.executeQuery()).thenReturn(rs);
-        when(rs.next()).thenReturn(true);
-        when(rs.getInt(1)).thenReturn(2);
-
         when(cn.prepareCall(anyString())).thenReturn(cs);
         when(cs.execute()).thenReturn(false); 
         when(cs.getLong(3)).thenReturn(555L);
+        when(cs.getString(4)).thenReturn("AR261018-000555");
 
-        long idReserva = dao.checkout(userId);
+        CompraDTO.CheckoutResp r = dao.checkoutReserva(userId);
 
-        assertEquals(555L, idReserva);
+        assertEquals(555L, r.idReserva);
+        assertEquals("AR261018-000555", r.codigo);
+        verify(cn).prepareCall("{ call SCHEMA.PR_CHECKOUT_CARRITO_SET(?,?,?,?) }");
         verify(cs).setLong(1, userId);
         verify(cs).setLong(2, cartId);
+        verify(cs).setString(4, CodigosReserva.formatear(7000L));
+        verify(cs).registerOutParameter(4, Types.VARCHAR);
+        verify(cn, never()).prepareStatement(anyString());
+        assertEquals(555L, dao.checkout(userId));
+        verify(cs).setString(4, CodigosReserva.formatear(7001L));
     }
 }
 
@@ -1526,11 +1544,9 @@ void checkoutConClienteFinal_ok() throws Exception {
     long cartFinalId = 200L;
 
     Connection cn = mock(Connection.class);
-    PreparedStatement psCount = mock(PreparedStatement.class);
     PreparedStatement psSelectCart = mock(PreparedStatement.class);
     PreparedStatement psDeleteItems = mock(PreparedStatement.class);
     PreparedStatement psMerge = mock(PreparedStatement.class);
-    ResultSet rsCount = mock(ResultSet.class);
     ResultSet rsSelectCart = mock(ResultSet.class);
     CallableStatement cs = mock(CallableStatement.class);
 
@@ -1544,11 +1560,7 @@ void checkoutConClienteFinal_ok() throws Exception {
         dbMock.when(() -> DB.table("CARRITO")).thenReturn("CARRITO");
 
         when(cn.prepareStatement(anyString()))
-                .thenReturn(psCount, psSelectCart, psDeleteItems, psMerge);
-
-        when(psCount.executeQuery()).thenReturn(rsCount);
-        when(rsCount.next()).thenReturn(true);
-        when(rsCount.getInt(1)).thenReturn(3);
+                .thenReturn(psSelectCart, psDeleteItems, psMerge);
 
         when(psSelectCart.executeQuery()).thenReturn(rsSelectCart);
         when(rsSelectCart.next()).thenReturn(true);
@@ -1561,9 +1573,13 @@ void checkoutConClienteFinal_ok() throws Exception {
         when(cs.execute()).thenReturn(false); 
         when(cs.getLong(3)).thenReturn(999L);
 
-        long idReserva = dao.checkoutConClienteFinal(userWs, userFinal);
+        when(cs.getString(4)).thenReturn("AR261018-000999");
+
+        CompraDTO.CheckoutResp r = dao.checkoutConClienteFinalReserva(userWs, userFinal);
 
-        assertEquals(999L, idReserva);
+        assertEquals(999L, r.idReserva);
+        assertEquals("AR261018-000999", r.codigo);
+        verify(psMerge).setLong(2, cartWsId);
         verify(cs).setLong(1, userFinal);
         verify(cs).setLong(2, cartFinalId);
     }
@@ -1654,13 +1670,9 @@ void checkoutConClienteFinal_ok() throws Exception {
         Connection cn = mock(Connection.class);
         PreparedStatement ps1 = mock(PreparedStatement.class); 
         PreparedStatement ps2 = mock(PreparedStatement.class); 
-        PreparedStatement ps3 = mock(PreparedStatement.class); 
-        PreparedStatement ps4 = mock(PreparedStatement.class); 
 
         ResultSet rs1 = mock(ResultSet.class);
         ResultSet rs2 = mock(ResultSet.class);
-        ResultSet rs3 = mock(ResultSet.class);
-        ResultSet rs4 = mock(ResultSet.class);
 
         ComprasDAO dao = spy(new ComprasDAO());
         doReturn(cartId).when(dao).ensureCartForUser(userId);
@@ -1676,7 +1688,7 @@ void checkoutConClienteFinal_ok() throws Exception {
             dbMock.when(() -> DB.table("CARRITO_ITEM")).thenReturn("CARRITO_ITEM");
 
             when(cn.prepareStatement(anyString()))
-                    .thenReturn(ps1, ps2, ps3, ps4);
+                    .thenReturn(ps1, ps2);
 
             when(ps1.executeQuery()).thenReturn(rs1);
             when(rs1.next()).thenReturn(true);
@@ -1687,14 +1699,8 @@ void checkoutConClienteFinal_ok() throws Exception {
             when(rs2.next()).thenReturn(true);
             when(rs2.getInt("CUPO_TOTAL")).thenReturn(5);
             when(rs2.getBigDecimal("PRECIO")).thenReturn(new BigDecimal("100.00"));
-            
-            when(ps3.executeQuery()).thenReturn(rs3);
-            when(rs3.next()).thenReturn(true);
-            when(rs3.getInt(1)).thenReturn(3);
-            
-            when(ps4.executeQuery()).thenReturn(rs4);
-            when(rs4.next()).thenReturn(true);
-            when(rs4.getInt(1)).thenReturn(2); 
+            when(rs2.getInt("RESERVADOS")).thenReturn(3);
+            when(rs2.getInt("EN_CARRITO")).thenReturn(2);
 
             SQLException ex = assertThrows(
                     SQLException.class,
@@ -2372,23 +2378,6 @@ void getRealConnection_exceptionNoSql_sinMensaje() throws Exception {
   }
 }
 
-@Test
-@DisplayName("setFieldIfExists atrapa Exception cuando no puede asignar el valor")
-void setFieldIfExists_errorAsignando_noLanza() throws Exception {
-  class Dummy {
-    private int ciudadOrigen; 
-  }
-  Dummy d = new Dummy();
-
-  Method m = ComprasDAO.class.getDeclaredMethod("setFieldIfExists", Object.class, String.class, Object.class);
-  m.setAccessible(true);
-  
-  assertDoesNotThrow(() -> {
-    try { m.invoke(null, d, "ciudadOrigen", "Madrid"); }
-    catch (java.lang.reflect.InvocationTargetException ite) { throw new RuntimeException(ite.getTargetException()); }
-  });
-}
-
 @Test
 @DisplayName("addOrIncrementItem normaliza cantidad<=0 a 1")
 void addOrIncrementItem_cantidadCero_seVuelveUno() throws Exception {
@@ -2606,7 +2595,8 @@ void updateQuantity_aumenta_cupoInsuficiente_lanza() throws Exception {
     when(rs.getString("ESTADO")).thenReturn("DISPONIBLE");
     when(rs.getInt("CUPO_TOTAL")).thenReturn(5);
     when(rs.getBigDecimal("PRECIO")).thenReturn(new BigDecimal("10"));
-    when(rs.getInt(1)).thenReturn(3, 2);
+    when(rs.getInt("RESERVADOS")).thenReturn(3);
+    when(rs.getInt("EN_CARRITO")).thenReturn(2);
 
     SQLException ex = assertThrows(SQLException.class, () ->
         dao.updateQuantity(userId, idItem, 5, false)
@@ -2652,48 +2642,14 @@ void updateQuantity_syncPareja_sinItemPareja_actualizaSoloUno() throws Exception
 }
 
 @Test
-@DisplayName("checkout continúa si COUNT no retorna fila (rs.next=false) y llama al SP")
-void checkout_rsNextFalse_aunLlamaSP() throws Exception {
-  long userId = 1L, cartId = 10L;
-
-  Connection cn = mock(Connection.class);
-  PreparedStatement ps = mock(PreparedStatement.class);
-  ResultSet rs = mock(ResultSet.class);
-  CallableStatement cs = mock(CallableStatement.class);
-
-  ComprasDAO dao = spy(new ComprasDAO());
-  doReturn(cartId).when(dao).ensureCartForUser(userId);
-
-  try (MockedStatic<DB> dbMock = mockStatic(DB.class)) {
-    dbMock.when(DB::getConnection).thenReturn(cn);
-    dbMock.when(() -> DB.table(anyString())).thenAnswer(inv -> inv.getArgument(0));
-    dbMock.when(DB::getSchema).thenReturn("SCHEMA");
-
-    when(cn.prepareStatement(anyString())).thenReturn(ps);
-    when(ps.executeQuery()).thenReturn(rs);
-    when(rs.next()).thenReturn(false);
-
-    when(cn.prepareCall(anyString())).thenReturn(cs);
-    when(cs.execute()).thenReturn(false);
-    when(cs.getLong(3)).thenReturn(123L);
-
-    long id = dao.checkout(userId);
-    assertEquals(123L, id);
-    verify(cn).prepareCall(contains("PR_CHECKOUT_CARRITO"));
-  }
-}
-
-@Test
-@DisplayName("checkoutConClienteFinal si rs.next=false no lanza por vacío y sigue a crear carrito")
-void checkoutConClienteFinal_rsNextFalse_sigue() throws Exception {
+@DisplayName("checkoutConClienteFinal crea el carrito del cliente final si no existe")
+void checkoutConClienteFinal_sinCarritoFinal_loCrea() throws Exception {
   long userWs = 10L, userFinal = 20L, cartWsId = 100L;
   long cartFinalId = 200L;
 
   Connection cn = mock(Connection.class);
 
   
-  PreparedStatement psCount = mock(PreparedStatement.class);
-  ResultSet rsCount = mock(ResultSet.class);
 
   
   PreparedStatement psSelectFinal = mock(PreparedStatement.class);
@@ -2723,15 +2679,12 @@ void checkoutConClienteFinal_rsNextFalse_sigue() throws Exception {
     
     when(cn.prepareStatement(anyString()))
         .thenReturn(
-            psCount,        
             psSelectFinal,  
             psInsertFinal,  
             psSelectNew,    
             psMerge         
         );
 
-    when(psCount.executeQuery()).thenReturn(rsCount);
-    when(rsCount.next()).thenReturn(false); 
 
     
     when(psSelectFinal.executeQuery()).thenReturn(rsSelectFinal);
@@ -2750,7 +2703,9 @@ void checkoutConClienteFinal_rsNextFalse_sigue() throws Exception {
     when(cs.execute()).thenReturn(false);
     when(cs.getLong(3)).thenReturn(999L);
 
-    assertDoesNotThrow(() -> dao.checkoutConClienteFinal(userWs, userFinal));
+    assertEquals(999L, dao.checkoutConClienteFinal(userWs, userFinal));
+    verify(psInsertFinal).setLong(1, userFinal);
+    verify(cs).setLong(2, cartFinalId);
   }
 }
 
@@ -2791,26 +2746,18 @@ void updateQuantity_aumenta_syncPareja_cupoInsuficienteRegreso_lanza() throws Ex
   PreparedStatement psFindParejaItem = mock(PreparedStatement.class); 
   PreparedStatement psValidarIda = mock(PreparedStatement.class); 
   PreparedStatement psClaseIda = mock(PreparedStatement.class);   
-  PreparedStatement psReservadosIda = mock(PreparedStatement.class);
-  PreparedStatement psEnCarritosIda = mock(PreparedStatement.class);
   PreparedStatement psValidarReg = mock(PreparedStatement.class); 
   PreparedStatement psClaseReg = mock(PreparedStatement.class);   
   PreparedStatement psCantPareja = mock(PreparedStatement.class); 
-  PreparedStatement psReservadosReg = mock(PreparedStatement.class);
-  PreparedStatement psEnCarritosReg = mock(PreparedStatement.class);
 
   ResultSet rsItem = mock(ResultSet.class);
   ResultSet rsParejaId = mock(ResultSet.class);
   ResultSet rsFindParejaItem = mock(ResultSet.class);
   ResultSet rsValidarIda = mock(ResultSet.class);
   ResultSet rsClaseIda = mock(ResultSet.class);
-  ResultSet rsReservadosIda = mock(ResultSet.class);
-  ResultSet rsEnCarritosIda = mock(ResultSet.class);
   ResultSet rsValidarReg = mock(ResultSet.class);
   ResultSet rsClaseReg = mock(ResultSet.class);
   ResultSet rsCantPareja = mock(ResultSet.class);
-  ResultSet rsReservadosReg = mock(ResultSet.class);
-  ResultSet rsEnCarritosReg = mock(ResultSet.class);
 
   ComprasDAO dao = spy(new ComprasDAO());
   doReturn(cartId).when(dao).ensureCartForUser(userId);
@@ -2825,13 +2772,9 @@ void updateQuantity_aumenta_syncPareja_cupoInsuficienteRegreso_lanza() throws Ex
         psFindParejaItem,
         psValidarIda,
         psClaseIda,
-        psReservadosIda,
-        psEnCarritosIda,
         psValidarReg,
         psClaseReg,
-        psCantPareja,
-        psReservadosReg,
-        psEnCarritosReg
+        psCantPareja
     );
 
     
@@ -2864,14 +2807,6 @@ void updateQuantity_aumenta_syncPareja_cupoInsuficienteRegreso_lanza() throws Ex
     when(rsClaseIda.getInt("CUPO_TOTAL")).thenReturn(100);
     when(rsClaseIda.getBigDecimal("PRECIO")).thenReturn(new BigDecimal("10"));
 
-    
-    when(psReservadosIda.executeQuery()).thenReturn(rsReservadosIda);
-    when(rsReservadosIda.next()).thenReturn(true);
-    when(rsReservadosIda.getInt(1)).thenReturn(0);
-
-    when(psEnCarritosIda.executeQuery()).thenReturn(rsEnCarritosIda);
-    when(rsEnCarritosIda.next()).thenReturn(true);
-    when(rsEnCarritosIda.getInt(1)).thenReturn(0);
 
     
     when(psValidarReg.executeQuery()).thenReturn(rsValidarReg);
@@ -2884,21 +2819,13 @@ void updateQuantity_aumenta_syncPareja_cupoInsuficienteRegreso_lanza() throws Ex
     when(rsClaseReg.next()).thenReturn(true);
     when(rsClaseReg.getInt("CUPO_TOTAL")).thenReturn(5);
     when(rsClaseReg.getBigDecimal("PRECIO")).thenReturn(new BigDecimal("10"));
+    when(rsClaseReg.getInt("RESERVADOS")).thenReturn(3);
 
     
     when(psCantPareja.executeQuery()).thenReturn(rsCantPareja);
     when(rsCantPareja.next()).thenReturn(true);
     when(rsCantPareja.getInt(1)).thenReturn(2);
 
-    
-    when(psReservadosReg.executeQuery()).thenReturn(rsReservadosReg);
-    when(rsReservadosReg.next()).thenReturn(true);
-    when(rsReservadosReg.getInt(1)).thenReturn(3);
-
-    when(psEnCarritosReg.executeQuery()).thenReturn(rsEnCarritosReg);
-    when(rsEnCarritosReg.next()).thenReturn(true);
-    when(rsEnCarritosReg.getInt(1)).thenReturn(0);
-
     SQLException ex = assertThrows(SQLException.class, () ->
         dao.updateQuantity(userId, idItem, 5, true)
     );
@@ -3005,4 +2932,422 @@ void cancelarReservaAdmin_noCancelable_lanzaExcepcion() throws Exception {
   assertEquals("La reserva no está en estado cancelable.", ex.getMessage());
 }
 
+@Test
+@DisplayName("listReservasAdmin con keyset usa ID_RESERVA < ?, FETCH FIRST y EXISTS sin GROUP BY")
+void listReservasAdmin_keyset_sinGroupBy() throws Exception {
+  Connection cn = mock(Connection.class);
+  PreparedStatement ps = mock(PreparedStatement.class);
+  ResultSet rs = mock(ResultSet.class);
+
+  try (MockedStatic<DB> dbMock = mockStatic(DB.class)) {
+    dbMock.when(DB::getConnection).thenReturn(cn);
+    dbMock.when(() -> DB.table(anyString())).thenAnswer(inv -> inv.getArgument(0));
+
+    org.mockito.ArgumentCaptor<String> sql = org.mockito.ArgumentCaptor.forClass(String.class);
+    when(cn.prepareStatement(sql.capture())).thenReturn(ps);
+    when(ps.executeQuery()).thenReturn(rs);
+    when(rs.next()).thenReturn(false);
+
+    new ComprasDAO().listReservasAdmin(null, null, null, "123", null, null, null, 500L, 101);
+
+    String s = sql.getValue();
+    assertTrue(s.contains("EXISTS (SELECT 1 FROM RESERVA_ITEM ri"));
+    assertTrue(s.contains("r.ID_RESERVA < ?"));
+    assertTrue(s.contains("FETCH FIRST 101 ROWS ONLY"));
+    assertFalse(s.contains("GROUP BY"));
+    verify(ps).setObject(1, 123L);
+    verify(ps).setObject(2, 500L);
+  }
+}
+
+@Test
+@DisplayName("recorrerReservasAdmin sin límite emite fila por fila con fetch size configurado")
+void recorrerReservasAdmin_emitePorFila() throws Exception {
+  Connection cn = mock(Connection.class);
+  PreparedStatement ps = mock(PreparedStatement.class);
+  ResultSet rs = mock(ResultSet.class);
+
+  try (MockedStatic<DB> dbMock = mockStatic(DB.class)) {
+    dbMock.when(DB::getConnection).thenReturn(cn);
+    dbMock.when(DB::fetchSize).thenReturn(250);
+    dbMock.when(() -> DB.table(anyString())).thenAnswer(inv -> inv.getArgument(0));
+
+    org.mockito.ArgumentCaptor<String> sql = org.mockito.ArgumentCaptor.forClass(String.class);
+    when(cn.prepareStatement(sql.capture())).thenReturn(ps);
+    when(ps.executeQuery()).thenReturn(rs);
+    when(rs.next()).thenReturn(true, true, false);
+    when(rs.getLong("ID_RESERVA")).thenReturn(9L, 8L);
+    when(rs.getString("CODIGO")).thenReturn("R9", "R8");
+
+    List<Long> ids = new java.util.ArrayList<>();
+    int n = new ComprasDAO().recorrerReservasAdmin(null, null, null, null, null, null, null, null, 0,
+        r -> ids.add(r.idReserva));
+
+    assertEquals(2, n);
+    assertEquals(List.of(9L, 8L), ids);
+    assertFalse(sql.getValue().contains("FETCH FIRST"));
+    verify(ps).setFetchSize(250);
+  }
+}
+
+@Test
+@DisplayName("addOrIncrementItem revierte si otro comprador se llevó el cupo entre la lectura y el MERGE")
+void addOrIncrementItem_cupoNegativoTrasEscribir_revierte() throws Exception {
+  long userId = 1L, cartId = 10L, idVuelo = 20L;
+  int idClase = 1;
+
+  Connection cn = mock(Connection.class);
+  PreparedStatement ps = mock(PreparedStatement.class);
+  PreparedStatement psResto = mock(PreparedStatement.class);
+  ResultSet rs = mock(ResultSet.class);
+  ResultSet rsResto = mock(ResultSet.class);
+
+  ComprasDAO dao = spy(new ComprasDAO());
+  doReturn(cartId).when(dao).ensureCartForUser(userId);
+
+  try (MockedStatic<DB> dbMock = mockStatic(DB.class)) {
+    dbMock.when(DB::getConnection).thenReturn(cn);
+    dbMock.when(() -> DB.table(anyString())).thenAnswer(inv -> inv.getArgument(0));
+
+    when(cn.prepareStatement(anyString())).thenReturn(ps);
+    when(cn.prepareStatement(startsWith("SELECT CUPO_TOTAL - NVL(RESERVADOS,0)"))).thenReturn(psResto);
+    when(ps.executeQuery()).thenReturn(rs);
+    when(psResto.executeQuery()).thenReturn(rsResto);
+
+    when(rs.next()).thenReturn(true);
+    when(rs.getInt("ACTIVO")).thenReturn(1);
+    when(rs.getString("ESTADO")).thenReturn("DISPONIBLE");
+    when(rs.getInt("CUPO_TOTAL")).thenReturn(100);
+    when(rs.getBigDecimal("PRECIO")).thenReturn(new BigDecimal("10"));
+
+    when(rsResto.next()).thenReturn(true);
+    when(rsResto.getInt(1)).thenReturn(-2);
+
+    SQLException ex = assertThrows(SQLException.class,
+        () -> dao.addOrIncrementItem(userId, idVuelo, idClase, 3, false));
+
+    assertEquals("Cupo insuficiente: quedan 1", ex.getMessage());
+    verify(cn).rollback();
+    verify(cn, never()).commit();
+    assertEquals(0, CompuertaCupo.global().stats().get("ocupadas"));
+  }
+}
+
+@Test
+@DisplayName("addOrIncrementItem dentro de una unidad de trabajo suelta la compuerta recién al terminar la unidad")
+void addOrIncrementItem_enUnidadDeTrabajo_retieneLaCompuertaHastaElCommitReal() throws Exception {
+  long userId = 1L, cartId = 10L, idVuelo = 21L;
+  int idClase = 1;
+
+  Connection cn = mock(Connection.class);
+  PreparedStatement ps = mock(PreparedStatement.class);
+  PreparedStatement psResto = mock(PreparedStatement.class);
+  ResultSet rs = mock(ResultSet.class);
+  ResultSet rsResto = mock(ResultSet.class);
+
+  ComprasDAO dao = spy(new ComprasDAO());
+  doReturn(cartId).when(dao).ensureCartForUser(userId);
+
+  try (MockedStatic<DB> dbMock = mockStatic(DB.class)) {
+    dbMock.when(DB::getConnection).thenReturn(cn);
+    dbMock.when(() -> DB.table(anyString())).thenAnswer(inv -> inv.getArgument(0));
+
+    when(cn.prepareStatement(anyString())).thenReturn(ps);
+    when(cn.prepareStatement(startsWith("SELECT CUPO_TOTAL - NVL(RESERVADOS,0)"))).thenReturn(psResto);
+    when(ps.executeQuery()).thenReturn(rs);
+    when(psResto.executeQuery()).thenReturn(rsResto);
+
+    when(rs.next()).thenReturn(true);
+    when(rs.getInt("ACTIVO")).thenReturn(1);
+    when(rs.getString("ESTADO")).thenReturn("DISPONIBLE");
+    when(rs.getInt("CUPO_TOTAL")).thenReturn(100);
+    when(rs.getBigDecimal("PRECIO")).thenReturn(new BigDecimal("10"));
+    when(rsResto.next()).thenReturn(true);
+    when(rsResto.getInt(1)).thenReturn(50);
+
+    UnidadDeTrabajo.ejecutar(() -> {
+      dao.addOrIncrementItem(userId, idVuelo, idClase, 2, false);
+      verify(cn).commit();
+      assertEquals(1, CompuertaCupo.global().stats().get("ocupadas"));
+      return null;
+    });
+    assertEquals(0, CompuertaCupo.global().stats().get("ocupadas"));
+
+    assertThrows(IllegalStateException.class, () -> UnidadDeTrabajo.ejecutar(() -> {
+      dao.addOrIncrementItem(userId, idVuelo, idClase, 2, false);
+      assertEquals(1, CompuertaCupo.global().stats().get("ocupadas"));
+      throw new IllegalStateException("falla otro paso del request");
+    }));
+    assertEquals(0, CompuertaCupo.global().stats().get("ocupadas"));
+  }
+}
+
+@Test
+@DisplayName("addOrIncrementItem toma la compuerta antes de liberar retenciones vencidas")
+void addOrIncrementItem_liberaVencidasConLaCompuertaTomada() throws Exception {
+  long userId = 1L, cartId = 10L, idVuelo = 22L;
+  int idClase = 1;
+
+  Connection cn = mock(Connection.class);
+  PreparedStatement ps = mock(PreparedStatement.class);
+  PreparedStatement psVencidas = mock(PreparedStatement.class);
+  ResultSet rs = mock(ResultSet.class);
+  ResultSet rsVencidas = mock(ResultSet.class);
+
+  ComprasDAO dao = spy(new ComprasDAO());
+  doReturn(cartId).when(dao).ensureCartForUser(userId);
+
+  try (MockedStatic<DB> dbMock = mockStatic(DB.class)) {
+    dbMock.when(DB::getConnection).thenReturn(cn);
+    dbMock.when(() -> DB.table(anyString())).thenAnswer(inv -> inv.getArgument(0));
+
+    List<Object> ocupadasAlLiberar = new ArrayList<>();
+    when(cn.prepareStatement(anyString())).thenReturn(ps);
+    when(cn.prepareStatement(contains("SKIP LOCKED"))).thenAnswer(inv -> {
+      ocupadasAlLiberar.add(CompuertaCupo.global().stats().get("ocupadas"));
+      return psVencidas;
+    });
+    when(ps.executeQuery()).thenReturn(rs);
+    when(psVencidas.executeQuery()).thenReturn(rsVencidas);
+
+    when(rs.next()).thenReturn(true);
+    when(rs.getInt("ACTIVO")).thenReturn(1);
+    when(rs.getString("ESTADO")).thenReturn("DISPONIBLE");
+    when(rs.getInt("CUPO_TOTAL")).thenReturn(100);
+    when(rs.getBigDecimal("PRECIO")).thenReturn(new BigDecimal("10"));
+    when(rsVencidas.next()).thenReturn(false);
+
+    SQLException ex = assertThrows(SQLException.class,
+        () -> dao.addOrIncrementItem(userId, idVuelo, idClase, 200, false));
+
+    assertEquals("Cupo insuficiente: quedan 100", ex.getMessage());
+    assertEquals(List.of(1), ocupadasAlLiberar);
+    assertEquals(0, CompuertaCupo.global().stats().get("ocupadas"));
+  }
+}
+
+@Test
+@DisplayName("addOrIncrementItem con pareja escribe el regreso con la compuerta de ambas clases tomada")
+void addOrIncrementItem_conPareja_tomaLaCompuertaDelRegreso() throws Exception {
+  long userId = 1L, cartId = 10L, idVuelo = 30L, idPareja = 31L;
+  int idClase = 1;
+
+  Connection cn = mock(Connection.class);
+  PreparedStatement ps = mock(PreparedStatement.class);
+  PreparedStatement psPareja = mock(PreparedStatement.class);
+  PreparedStatement psResto = mock(PreparedStatement.class);
+  ResultSet rs = mock(ResultSet.class);
+  ResultSet rsPareja = mock(ResultSet.class);
+  ResultSet rsResto = mock(ResultSet.class);
+
+  ComprasDAO dao = spy(new ComprasDAO());
+  doReturn(cartId).when(dao).ensureCartForUser(userId);
+
+  try (MockedStatic<DB> dbMock = mockStatic(DB.class)) {
+    dbMock.when(DB::getConnection).thenReturn(cn);
+    dbMock.when(() -> DB.table(anyString())).thenAnswer(inv -> inv.getArgument(0));
+
+    List<Object> ocupadasAlEscribir = new ArrayList<>();
+    when(cn.prepareStatement(anyString())).thenReturn(ps);
+    when(cn.prepareStatement(startsWith("SELECT ID_VUELO_PAREJA"))).thenReturn(psPareja);
+    when(cn.prepareStatement(startsWith("SELECT CUPO_TOTAL - NVL(RESERVADOS,0)"))).thenReturn(psResto);
+    when(cn.prepareStatement(startsWith("MERGE INTO CARRITO_ITEM"))).thenAnswer(inv -> {
+      ocupadasAlEscribir.add(CompuertaCupo.global().stats().get("ocupadas"));
+      return ps;
+    });
+    when(ps.executeQuery()).thenReturn(rs);
+    when(psPareja.executeQuery()).thenReturn(rsPareja);
+    when(psResto.executeQuery()).thenReturn(rsResto);
+
+    when(rs.next()).thenReturn(true);
+    when(rs.getInt("ACTIVO")).thenReturn(1);
+    when(rs.getString("ESTADO")).thenReturn("DISPONIBLE");
+    when(rs.getInt("CUPO_TOTAL")).thenReturn(100);
+    when(rs.getBigDecimal("PRECIO")).thenReturn(new BigDecimal("10"));
+    when(rsPareja.next()).thenReturn(true);
+    when(rsPareja.getLong(1)).thenReturn(idPareja);
+    when(rsResto.next()).thenReturn(true);
+    when(rsResto.getInt(1)).thenReturn(50);
+
+    CompuertaCupo c = CompuertaCupo.global();
+    assertNotEquals(c.franja(idVuelo, idClase), c.franja(idPareja, idClase));
+
+    dao.addOrIncrementItem(userId, idVuelo, idClase, 2, true);
+
+    assertEquals(List.of(2, 2), ocupadasAlEscribir);
+    verify(cn).commit();
+    assertEquals(0, CompuertaCupo.global().stats().get("ocupadas"));
+  }
+}
+
+@Test
+@DisplayName("addOrIncrementItem que falla dentro de una unidad de trabajo retiene la compuerta hasta que la unidad termina")
+void addOrIncrementItem_fallaEnUnidadDeTrabajo_retieneLaCompuerta() throws Exception {
+  long userId = 1L, cartId = 10L, idVuelo = 23L;
+  int idClase = 1;
+
+  Connection cn = mock(Connection.class);
+  PreparedStatement ps = mock(PreparedStatement.class);
+  PreparedStatement psResto = mock(PreparedStatement.class);
+  ResultSet rs = mock(ResultSet.class);
+  ResultSet rsResto = mock(ResultSet.class);
+
+  ComprasDAO dao = spy(new ComprasDAO());
+  doReturn(cartId).when(dao).ensureCartForUser(userId);
+
+  try (MockedStatic<DB> dbMock = mockStatic(DB.class)) {
+    dbMock.when(DB::getConnection).thenReturn(cn);
+    dbMock.when(() -> DB.table(anyString())).thenAnswer(inv -> inv.getArgument(0));
+
+    when(cn.prepareStatement(anyString())).thenReturn(ps);
+    when(cn.prepareStatement(startsWith("SELECT CUPO_TOTAL - NVL(RESERVADOS,0)"))).thenReturn(psResto);
+    when(ps.executeQuery()).thenReturn(rs);
+    when(psResto.executeQuery()).thenReturn(rsResto);
+
+    when(rs.next()).thenReturn(true);
+    when(rs.getInt("ACTIVO")).thenReturn(1);
+    when(rs.getString("ESTADO")).thenReturn("DISPONIBLE");
+    when(rs.getInt("CUPO_TOTAL")).thenReturn(100);
+    when(rs.getBigDecimal("PRECIO")).thenReturn(new BigDecimal("10"));
+    when(rsResto.next()).thenReturn(true);
+    when(rsResto.getInt(1)).thenReturn(-2);
+
+    UnidadDeTrabajo.ejecutar(() -> {
+      // El rollback del DAO vuelve al punto de guardado; quien ya esperaba la fila sigue esperando
+      assertThrows(SQLException.class, () -> dao.addOrIncrementItem(userId, idVuelo, idClase, 3, false));
+      assertEquals(1, CompuertaCupo.global().stats().get("ocupadas"));
+      return null;
+    });
+    assertEquals(0, CompuertaCupo.global().stats().get("ocupadas"));
+  }
+}
+
+private static CompraDTO.AddItemReq itemLote(long idVuelo, int idClase, int cantidad) {
+  CompraDTO.AddItemReq r = new CompraDTO.AddItemReq();
+  r.idVuelo = idVuelo;
+  r.idClase = idClase;
+  r.cantidad = cantidad;
+  return r;
+}
+
+@Test
+@DisplayName("addItems valida en una consulta, hace los MERGE en un batch ordenado y confirma una vez")
+void addItems_ok_unSoloCommit() throws Exception {
+  Connection cn = mock(Connection.class);
+  PreparedStatement psV = mock(PreparedStatement.class);
+  PreparedStatement psC = mock(PreparedStatement.class);
+  PreparedStatement psM = mock(PreparedStatement.class);
+  PreparedStatement psR = mock(PreparedStatement.class);
+  ResultSet rsV = mock(ResultSet.class);
+  ResultSet rsC = mock(ResultSet.class);
+  ResultSet rsR = mock(ResultSet.class);
+
+  ComprasDAO dao = spy(new ComprasDAO());
+  doReturn(10L).when(dao).ensureCartForUser(1L);
+
+  try (MockedStatic<DB> dbMock = mockStatic(DB.class)) {
+    dbMock.when(DB::getConnection).thenReturn(cn);
+    dbMock.when(() -> DB.table(anyString())).thenAnswer(inv -> inv.getArgument(0));
+
+    when(cn.prepareStatement(contains("ID_VUELO_PAREJA FROM VUELO v"))).thenReturn(psV);
+    when(cn.prepareStatement(contains("LEFT JOIN VUELO_CLASE"))).thenReturn(psC);
+    when(cn.prepareStatement(startsWith("MERGE INTO CARRITO_ITEM"))).thenReturn(psM);
+    when(cn.prepareStatement(contains("AS RESTO"))).thenReturn(psR);
+    when(psV.executeQuery()).thenReturn(rsV);
+    when(psC.executeQuery()).thenReturn(rsC);
+    when(psR.executeQuery()).thenReturn(rsR);
+
+    when(rsV.next()).thenReturn(true, true, false);
+    when(rsV.getLong("ID_VUELO")).thenReturn(30L, 20L);
+    when(rsV.getInt("ACTIVO")).thenReturn(1);
+    when(rsV.getString("ESTADO")).thenReturn("PROGRAMADO");
+    when(rsV.wasNull()).thenReturn(true);
+
+    when(rsC.next()).thenReturn(true, true, false);
+    when(rsC.getLong("ID_VUELO")).thenReturn(20L, 30L);
+    when(rsC.getInt("ID_CLASE")).thenReturn(1, 1);
+    when(rsC.getInt("CUPO_TOTAL")).thenReturn(50);
+    when(rsC.getBigDecimal("PRECIO")).thenReturn(new BigDecimal("100"));
+
+    when(rsR.next()).thenReturn(true, true, false);
+    when(rsR.getLong("ID_VUELO")).thenReturn(20L, 30L);
+    when(rsR.getInt("ID_CLASE")).thenReturn(1, 1);
+    when(rsR.getInt("RESTO")).thenReturn(40, 45);
+
+    CompraDTO.LoteItemsResp r = dao.addItems(1L, List.of(itemLote(30L, 1, 2), itemLote(20L, 1, 3), itemLote(30L, 1, 0)));
+
+    assertTrue(r.ok);
+    assertEquals(3, r.items.size());
+    assertEquals(1, r.items.get(2).cantidad);
+
+    var orden = inOrder(psM);
+    orden.verify(psM).setLong(2, 20L);
+    orden.verify(psM).setInt(4, 3);
+    orden.verify(psM).setLong(2, 30L);
+    orden.verify(psM).setInt(4, 3);
+    verify(psM, times(2)).addBatch();
+    verify(psM).executeBatch();
+    verify(cn, times(1)).commit();
+    verify(cn, never()).rollback();
+  }
+}
+
+@Test
+@DisplayName("addItems sin cupo para un ítem no escribe nada y reporta el error por ítem")
+void addItems_sinCupo_noEscribe() throws Exception {
+  Connection cn = mock(Connection.class);
+  PreparedStatement psV = mock(PreparedStatement.class);
+  PreparedStatement psC = mock(PreparedStatement.class);
+  ResultSet rsV = mock(ResultSet.class);
+  ResultSet rsC = mock(ResultSet.class);
+  PreparedStatement otro = mock(PreparedStatement.class);
+  ResultSet rsOtro = mock(ResultSet.class);
+
+  ComprasDAO dao = spy(new ComprasDAO());
+  doReturn(10L).when(dao).ensureCartForUser(1L);
+
+  try (MockedStatic<DB> dbMock = mockStatic(DB.class)) {
+    dbMock.when(DB::getConnection).thenReturn(cn);
+    dbMock.when(() -> DB.table(anyString())).thenAnswer(inv -> inv.getArgument(0));
+
+    when(cn.prepareStatement(anyString())).thenReturn(otro);
+    when(otro.executeQuery()).thenReturn(rsOtro);
+    when(cn.prepareStatement(contains("ID_VUELO_PAREJA FROM VUELO v"))).thenReturn(psV);
+    when(cn.prepareStatement(contains("LEFT JOIN VUELO_CLASE"))).thenReturn(psC);
+    when(psV.executeQuery()).thenReturn(rsV);
+    when(psC.executeQuery()).thenReturn(rsC);
+
+    when(rsV.next()).thenReturn(true, true, false);
+    when(rsV.getLong("ID_VUELO")).thenReturn(20L, 30L);
+    when(rsV.getInt("ACTIVO")).thenReturn(1, 0);
+    when(rsV.getString("ESTADO")).thenReturn("PROGRAMADO");
+    when(rsV.wasNull()).thenReturn(true);
+
+    when(rsC.next()).thenReturn(true, false);
+    when(rsC.getLong("ID_VUELO")).thenReturn(20L);
+    when(rsC.getInt("ID_CLASE")).thenReturn(1);
+    when(rsC.getInt("CUPO_TOTAL")).thenReturn(2);
+    when(rsC.getBigDecimal("PRECIO")).thenReturn(new BigDecimal("100"));
+
+    CompraDTO.LoteItemsResp r = dao.addItems(1L, List.of(itemLote(20L, 1, 5), itemLote(30L, 1, 1)));
+
+    assertFalse(r.ok);
+    assertEquals("Cupo insuficiente: quedan 2", r.items.get(0).error);
+    assertEquals("Vuelo no disponible para compra", r.items.get(1).error);
+    verify(cn, never()).prepareStatement(startsWith("MERGE"));
+    verify(cn).rollback();
+    verify(cn, never()).commit();
+  }
+}
+
+@Test
+@DisplayName("addItems rechaza lotes vacíos o demasiado grandes")
+void addItems_tamanoInvalido() {
+  ComprasDAO dao = new ComprasDAO();
+  assertThrows(IllegalArgumentException.class, () -> dao.addItems(1L, List.of()));
+  List<CompraDTO.AddItemReq> muchos = new java.util.ArrayList<>();
+  for (int i = 0; i < 51; i++) muchos.add(itemLote(i, 1, 1));
+  assertThrows(IllegalArgumentException.class, () -> dao.addItems(1L, muchos));
+}
+
 }
@@ -0,0 +1,128 @@
+package com.aerolineas.dao;
+
+import org.junit.jupiter.api.Test;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CompuertaCupoTest {
+
+  @Test
+  void sinCompetencia_entraSinEsperar() throws Exception {
+    var c = new CompuertaCupo(8, 1000);
+    try (CompuertaCupo.Paso p = c.entrar(10L, 1)) {
+      assertEquals(1, c.stats().get("ocupadas"));
+    }
+    assertEquals(0, c.stats().get("ocupadas"));
+    assertEquals(1L, c.stats().get("entradas"));
+    assertEquals(0L, c.stats().get("esperas"));
+  }
+
+  @Test
+  void mismaClase_unCompradorALaVez() throws Exception {
+    var c = new CompuertaCupo(64, 5000);
+    int compradores = 50;
+    AtomicInteger dentro = new AtomicInteger();
+    AtomicInteger maxDentro = new AtomicInteger();
+    CountDownLatch largada = new CountDownLatch(1);
+    ExecutorService pool = Executors.newFixedThreadPool(16);
+    try {
+      List<Future<?>> fs = new ArrayList<>();
+      for (int i = 0; i < compradores; i++) {
+        fs.add(pool.submit(() -> {
+          largada.await();
+          try (CompuertaCupo.Paso p = c.entrar(10L, 1)) {
+            maxDentro.accumulateAndGet(dentro.incrementAndGet(), Math::max);
+            Thread.sleep(1);
+            dentro.decrementAndGet();
+          }
+          return null;
+        }));
+      }
+      largada.countDown();
+      for (Future<?> f : fs) f.get(10, TimeUnit.SECONDS);
+    } finally {
+      pool.shutdownNow();
+    }
+    assertEquals(1, maxDentro.get());
+    assertEquals((long) compradores, c.stats().get("entradas"));
+    assertTrue((long) c.stats().get("esperas") > 0);
+  }
+
+  @Test
+  void esperaAgotada_rechazaConMensaje() throws Exception {
+    var c = new CompuertaCupo(1, 20);
+    CountDownLatch tomado = new CountDownLatch(1);
+    CountDownLatch soltar = new CountDownLatch(1);
+    Thread dueño = new Thread(() -> {
+      try (CompuertaCupo.Paso p = c.entrar(10L, 1)) {
+        tomado.countDown();
+        soltar.await();
+      } catch (Exception ignore) {}
+    });
+    dueño.start();
+    try {
+      assertTrue(tomado.await(5, TimeUnit.SECONDS));
+      SQLException ex = assertThrows(SQLException.class, () -> c.entrar(10L, 1));
+      assertTrue(ex.getMessage().contains("mucha demanda"));
+      assertEquals(1L, c.stats().get("rechazos"));
+    } finally {
+      soltar.countDown();
+      dueño.join(5000);
+    }
+  }
+
+  @Test
+  void franja_estaDentroDelRangoYEsEstable() {
+    var c = new CompuertaCupo(16, 1000);
+    List<Integer> vistas = Collections.synchronizedList(new ArrayList<>());
+    for (long v = -50; v < 50; v++) {
+      int f = c.franja(v, 3);
+      assertTrue(f >= 0 && f < 16);
+      assertEquals(f, c.franja(v, 3));
+      vistas.add(f);
+    }
+    assertTrue(vistas.stream().distinct().count() > 1);
+  }
+
+  @Test
+  void varias_tomaYSueltaTodasLasFranjas() throws Exception {
+    var c = new CompuertaCupo(16, 1000);
+    var claves = java.util.List.of(new CompuertaCupo.Clave(30L, 1), new CompuertaCupo.Clave(10L, 2), new CompuertaCupo.Clave(30L, 1));
+    try (CompuertaCupo.Paso p = c.entrar(claves)) {
+      assertTrue((int) c.stats().get("ocupadas") >= 1);
+    }
+    assertEquals(0, c.stats().get("ocupadas"));
+  }
+
+  @Test
+  void varias_siUnaNoLlega_sueltaLasTomadas() throws Exception {
+    var c = new CompuertaCupo(1024, 20);
+    var a = new CompuertaCupo.Clave(1L, 1);
+    var b = new CompuertaCupo.Clave(2L, 1);
+    assertNotEquals(c.franja(1L, 1), c.franja(2L, 1));
+    CountDownLatch tomado = new CountDownLatch(1);
+    CountDownLatch soltar = new CountDownLatch(1);
+    Thread dueño = new Thread(() -> {
+      try (CompuertaCupo.Paso p = c.entrar(b.idVuelo(), b.idClase())) {
+        tomado.countDown();
+        soltar.await();
+      } catch (Exception ignore) {}
+    });
+    dueño.start();
+    try {
+      assertTrue(tomado.await(5, TimeUnit.SECONDS));
+      assertThrows(SQLException.class, () -> c.entrar(List.of(a, b)));
+      assertEquals(1, c.stats().get("ocupadas"));
+    } finally {
+      soltar.countDown();
+      dueño.join(5000);
+    }
+  }
+}
@@ -0,0 +1,229 @@
+package com.aerolineas.dao;
+
+import com.aerolineas.config.DB;
+import com.aerolineas.dto.DisponibilidadDTO;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.mockito.MockedStatic;
+
+import java.lang.reflect.Method;
+import java.sql.*;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class DisponibilidadDAOTest {
+
+    private Object invokePrivate(DisponibilidadDAO dao, String name, Class<?>[] types, Object... args) throws Exception {
+        Method m = DisponibilidadDAO.class.getDeclaredMethod(name, types);
+        m.setAccessible(true);
+        return m.invoke(dao, args);
+    }
+
+    @Test
+    @DisplayName("contarReservados devuelve el conteo de reservas confirmadas")
+    void contarReservados_devuelveConteo() throws Exception {
+        Connection cn = mock(Connection.class);
+        PreparedStatement ps = mock(PreparedStatement.class);
+        ResultSet rs = mock(ResultSet.class);
+
+        try (MockedStatic<DB> dbMock = mockStatic(DB.class)) {
+            dbMock.when(() -> DB.table("RESERVA_ITEM")).thenReturn("RESERVA_ITEM");
+            dbMock.when(() -> DB.table("RESERVA")).thenReturn("RESERVA");
+
+            String expectedSql =
+                    "SELECT NVL(COUNT(*),0) FROM RESERVA_ITEM ri " +
+                    "JOIN RESERVA r ON r.ID_RESERVA = ri.ID_RESERVA " +
+                    "WHERE ri.ID_VUELO=? AND ri.ID_CLASE=? AND r.ID_ESTADO=1";
+            when(cn.prepareStatement(expectedSql)).thenReturn(ps);
+            when(ps.executeQuery()).thenReturn(rs);
+            when(rs.next()).thenReturn(true);
+            when(rs.getInt(1)).thenReturn(5);
+
+            int reservados = (int) invokePrivate(new DisponibilidadDAO(), "contarReservados",
+                    new Class<?>[]{Connection.class, long.class, int.class}, cn, 50L, 2);
+
+            assertEquals(5, reservados);
+        }
+    }
+
+    @Test
+    @DisplayName("contarEnCarritos devuelve la suma de cantidades en carritos")
+    void contarEnCarritos_devuelveSuma() throws Exception {
+        Connection cn = mock(Connection.class);
+        PreparedStatement ps = mock(PreparedStatement.class);
+        ResultSet rs = mock(ResultSet.class);
+
+        try (MockedStatic<DB> dbMock = mockStatic(DB.class)) {
+            dbMock.when(() -> DB.table("CARRITO_ITEM")).thenReturn("CARRITO_ITEM");
+
+            String expectedSql =
+                    "SELECT NVL(SUM(CANTIDAD),0) FROM CARRITO_ITEM WHERE ID_VUELO=? AND ID_CLASE=?";
+            when(cn.prepareStatement(expectedSql)).thenReturn(ps);
+            when(ps.executeQuery()).thenReturn(rs);
+            when(rs.next()).thenReturn(true);
+            when(rs.getInt(1)).thenReturn(3);
+
+            int enCarritos = (int) invokePrivate(new DisponibilidadDAO(), "contarEnCarritos",
+                    new Class<?>[]{Connection.class, long.class, int.class}, cn, 50L, 2);
+
+            assertEquals(3, enCarritos);
+        }
+    }
+
+    @Test
+    @DisplayName("disponibles agrupa cupo libre por vuelo y clase")
+    void disponibles_agrupaPorVuelo() throws Exception {
+        Connection cn = mock(Connection.class);
+        PreparedStatement ps = mock(PreparedStatement.class);
+        ResultSet rs = mock(ResultSet.class);
+
+        try (MockedStatic<DB> dbMock = mockStatic(DB.class)) {
+            dbMock.when(DB::getConnection).thenReturn(cn);
+            dbMock.when(() -> DB.table("SALIDA_CLASE")).thenReturn("SALIDA_CLASE");
+
+            when(cn.prepareStatement(contains("FROM SALIDA_CLASE"))).thenReturn(ps);
+            when(ps.executeQuery()).thenReturn(rs);
+            when(rs.next()).thenReturn(true, true, true, false);
+            when(rs.getLong("ID_VUELO")).thenReturn(7L, 7L, 8L);
+            when(rs.getInt("ID_CLASE")).thenReturn(1, 2, 1);
+            when(rs.getInt("DISPONIBLE")).thenReturn(10, 0, 4);
+
+            var out = new DisponibilidadDAO().disponibles();
+
+            assertEquals(Map.of(7L, Map.of(1, 10, 2, 0), 8L, Map.of(1, 4)), out);
+        }
+    }
+
+    @Test
+    @DisplayName("detectarDesfases filtra por vuelo y mapea filas")
+    void detectarDesfases_conVuelo_mapea() throws Exception {
+        Connection cn = mock(Connection.class);
+        PreparedStatement ps = mock(PreparedStatement.class);
+        ResultSet rs = mock(ResultSet.class);
+
+        try (MockedStatic<DB> dbMock = mockStatic(DB.class)) {
+            dbMock.when(DB::getConnection).thenReturn(cn);
+            dbMock.when(() -> DB.table(anyString())).thenAnswer(inv -> inv.getArgument(0));
+
+            when(cn.prepareStatement(contains("AND sc.ID_VUELO = ?"))).thenReturn(ps);
+            when(ps.executeQuery()).thenReturn(rs);
+            when(rs.next()).thenReturn(true, false);
+            when(rs.getLong("ID_VUELO")).thenReturn(7L);
+            when(rs.getInt("ID_CLASE")).thenReturn(1);
+            when(rs.getInt("RESERVADOS")).thenReturn(4);
+            when(rs.getInt("EN_CARRITO")).thenReturn(0);
+            when(rs.getInt("RESERVADOS_REAL")).thenReturn(3);
+            when(rs.getInt("EN_CARRITO_REAL")).thenReturn(2);
+
+            List<DisponibilidadDTO.Desfase> out = new DisponibilidadDAO().detectarDesfases(7L);
+
+            verify(ps).setLong(1, 7L);
+            assertEquals(List.of(new DisponibilidadDTO.Desfase(7L, 1, 4, 0, 3, 2)), out);
+        }
+    }
+
+    @Test
+    @DisplayName("reconciliar sin desfases no abre transacción")
+    void reconciliar_sinDesfases_noHaceNada() throws Exception {
+        DisponibilidadDAO dao = spy(new DisponibilidadDAO());
+        doReturn(List.of()).when(dao).detectarDesfases(null);
+
+        try (MockedStatic<DB> dbMock = mockStatic(DB.class)) {
+            assertTrue(dao.reconciliar(null).isEmpty());
+            dbMock.verify(DB::getConnection, never());
+        }
+    }
+
+    @Test
+    @DisplayName("reconciliar bloquea la fila, recuenta y actualiza el ledger")
+    void reconciliar_conDesfase_actualiza() throws Exception {
+        DisponibilidadDAO dao = spy(new DisponibilidadDAO());
+        doReturn(List.of(new DisponibilidadDTO.Desfase(7L, 1, 4, 0, 3, 2)))
+                .when(dao).detectarDesfases(7L);
+
+        Connection cn = mock(Connection.class);
+        PreparedStatement psLock = mock(PreparedStatement.class);
+        PreparedStatement psRes = mock(PreparedStatement.class);
+        PreparedStatement psCar = mock(PreparedStatement.class);
+        PreparedStatement psUpd = mock(PreparedStatement.class);
+        ResultSet rsLock = mock(ResultSet.class);
+        ResultSet rsRes = mock(ResultSet.class);
+        ResultSet rsCar = mock(ResultSet.class);
+
+        try (MockedStatic<DB> dbMock = mockStatic(DB.class)) {
+            dbMock.when(DB::getConnection).thenReturn(cn);
+            dbMock.when(() -> DB.table(anyString())).thenAnswer(inv -> inv.getArgument(0));
+
+            when(cn.prepareStatement(anyString())).thenReturn(psLock, psRes, psCar, psUpd);
+            when(psLock.executeQuery()).thenReturn(rsLock);
+            when(rsLock.next()).thenReturn(true);
+            when(rsLock.getInt("RESERVADOS")).thenReturn(4);
+            when(rsLock.getInt("EN_CARRITO")).thenReturn(0);
+            when(psRes.executeQuery()).thenReturn(rsRes);
+            when(rsRes.next()).thenReturn(true);
+            when(rsRes.getInt(1)).thenReturn(3);
+            when(psCar.executeQuery()).thenReturn(rsCar);
+            when(rsCar.next()).thenReturn(true);
+            when(rsCar.getInt(1)).thenReturn(2);
+
+            List<DisponibilidadDTO.Desfase> out = dao.reconciliar(7L);
+
+            assertEquals(1, out.size());
+            verify(psUpd).setInt(1, 3);
+            verify(psUpd).setInt(2, 2);
+            verify(psUpd).executeUpdate();
+            verify(cn).commit();
+            verify(cn).setAutoCommit(true);
+        }
+    }
+
+    @Test
+    @DisplayName("reconciliar hace rollback si falla el UPDATE")
+    void reconciliar_error_rollback() throws Exception {
+        DisponibilidadDAO dao = spy(new DisponibilidadDAO());
+        doReturn(List.of(new DisponibilidadDTO.Desfase(7L, 1, 4, 0, 3, 2)))
+                .when(dao).detectarDesfases(null);
+
+        Connection cn = mock(Connection.class);
+        PreparedStatement ps = mock(PreparedStatement.class);
+        ResultSet rs = mock(ResultSet.class);
+
+        try (MockedStatic<DB> dbMock = mockStatic(DB.class)) {
+            dbMock.when(DB::getConnection).thenReturn(cn);
+            dbMock.when(() -> DB.table(anyString())).thenAnswer(inv -> inv.getArgument(0));
+
+            when(cn.prepareStatement(anyString())).thenReturn(ps);
+            when(ps.executeQuery()).thenReturn(rs);
+            when(rs.next()).thenReturn(true);
+            when(rs.getInt(anyString())).thenReturn(9);
+            when(rs.getInt(1)).thenReturn(1);
+            when(ps.executeUpdate()).thenThrow(new SQLException("boom"));
+
+            assertThrows(SQLException.class, () -> dao.reconciliar(null));
+            verify(cn).rollback();
+            verify(cn, never()).commit();
+        }
+    }
+
+    @Test
+    @DisplayName("recalcularVuelo ejecuta UPDATE set-based del vuelo en la conexión recibida")
+    void recalcularVuelo_usaConexionDelLlamador() throws Exception {
+        Connection cn = mock(Connection.class);
+        PreparedStatement ps = mock(PreparedStatement.class);
+
+        try (MockedStatic<DB> dbMock = mockStatic(DB.class)) {
+            dbMock.when(() -> DB.table(anyString())).thenAnswer(inv -> inv.getArgument(0));
+            when(cn.prepareStatement(startsWith("UPDATE SALIDA_CLASE sc SET sc.RESERVADOS"))).thenReturn(ps);
+
+            new DisponibilidadDAO().recalcularVuelo(cn, 11L);
+
+            verify(ps).setLong(1, 11L);
+            verify(ps).executeUpdate();
+            dbMock.verify(DB::getConnection, never());
+        }
+    }
+}
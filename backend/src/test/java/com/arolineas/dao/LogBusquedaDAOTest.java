@@ -0,0 +1,101 @@
+package com.aerolineas.dao;
+
+import com.aerolineas.config.DB;
+import com.aerolineas.dto.BusquedaDTO;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.mockito.MockedStatic;
+
+import java.sql.*;
+import java.time.LocalDate;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class LogBusquedaDAOTest {
+
+    private static final LocalDate D = LocalDate.of(2030, 3, 1);
+
+    @Test
+    @DisplayName("insertarLote vacío no abre conexión")
+    void insertarLote_vacio() throws Exception {
+        try (MockedStatic<DB> dbMock = mockStatic(DB.class)) {
+            assertEquals(0, new LogBusquedaDAO().insertarLote(List.of()));
+            dbMock.verify(DB::getConnection, never());
+        }
+    }
+
+    @Test
+    @DisplayName("insertarLote agrega un batch por log y hace commit")
+    void insertarLote_ok() throws Exception {
+        Connection cn = mock(Connection.class);
+        PreparedStatement ps = mock(PreparedStatement.class);
+
+        try (MockedStatic<DB> dbMock = mockStatic(DB.class)) {
+            dbMock.when(DB::getConnection).thenReturn(cn);
+            dbMock.when(() -> DB.table("LOGS_BUSQUEDA")).thenReturn("LOGS_BUSQUEDA");
+            when(cn.prepareStatement(startsWith("INSERT INTO LOGS_BUSQUEDA"))).thenReturn(ps);
+
+            var logs = List.of(
+                new BusquedaDTO.Log(5L, "solo_ida", "GUA", "MIA", D, D, null, null, 1, 2, true, 3, "web"),
+                new BusquedaDTO.Log(null, "ida_vuelta", "GUA", "MIA", D, D, D.plusDays(3), D.plusDays(4), null, 1, false, 0, "webservice"));
+
+            assertEquals(2, new LogBusquedaDAO().insertarLote(logs));
+
+            verify(ps, times(2)).addBatch();
+            verify(ps).executeBatch();
+            verify(ps).setLong(1, 5L);
+            verify(ps).setNull(1, Types.NUMERIC);
+            verify(ps).setNull(9, Types.NUMERIC);
+            verify(ps).setInt(13, 1);
+            verify(ps).setInt(13, 0);
+            verify(ps).setDate(7, Date.valueOf(D.plusDays(3)));
+            verify(cn).commit();
+            verify(cn).setAutoCommit(true);
+        }
+    }
+
+    @Test
+    @DisplayName("insertarLote hace rollback si falla el batch")
+    void insertarLote_error_rollback() throws Exception {
+        Connection cn = mock(Connection.class);
+        PreparedStatement ps = mock(PreparedStatement.class);
+
+        try (MockedStatic<DB> dbMock = mockStatic(DB.class)) {
+            dbMock.when(DB::getConnection).thenReturn(cn);
+            dbMock.when(() -> DB.table(anyString())).thenAnswer(inv -> inv.getArgument(0));
+            when(cn.prepareStatement(anyString())).thenReturn(ps);
+            when(ps.executeBatch()).thenThrow(new SQLException("boom"));
+
+            var logs = List.of(new BusquedaDTO.Log(null, "solo_ida", "GUA", "MIA", D, D, null, null, null, 1, false, 0, "web"));
+
+            assertThrows(SQLException.class, () -> new LogBusquedaDAO().insertarLote(logs));
+            verify(cn).rollback();
+            verify(cn, never()).commit();
+        }
+    }
+
+    @Test
+    @DisplayName("insertarLote omite las filas que violarían un CHECK y escribe el resto")
+    void insertarLote_omiteInvalidos() throws Exception {
+        Connection cn = mock(Connection.class);
+        PreparedStatement ps = mock(PreparedStatement.class);
+
+        try (MockedStatic<DB> dbMock = mockStatic(DB.class)) {
+            dbMock.when(DB::getConnection).thenReturn(cn);
+            dbMock.when(() -> DB.table(anyString())).thenAnswer(inv -> inv.getArgument(0));
+            when(cn.prepareStatement(anyString())).thenReturn(ps);
+
+            var logs = List.of(
+                new BusquedaDTO.Log(null, "ida", "GUA", "MIA", D, D, null, null, null, 1, false, 0, "web"),
+                new BusquedaDTO.Log(null, "solo_ida", "GUA", "MIA", D, D, null, null, null, 120, false, 0, "web"),
+                new BusquedaDTO.Log(null, "solo_ida", "GUA", "MIA", D, D, null, null, null, 1, false, 0, "web"));
+
+            assertEquals(1, new LogBusquedaDAO().insertarLote(logs));
+            verify(ps, times(1)).addBatch();
+            verify(cn).commit();
+        }
+    }
+}
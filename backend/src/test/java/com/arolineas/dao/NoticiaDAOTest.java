@@ -684,4 +684,34 @@ class NoticiaDAOTest {
             verify(cn).rollback();
         }
     }
+
+    @Test
+    @DisplayName("listar con keyset filtra por ID descendente y limita filas")
+    void listar_keyset_filtraYLimita() throws Exception {
+        Connection cn = mock(Connection.class);
+        PreparedStatement ps = mock(PreparedStatement.class);
+        ResultSet rs = mock(ResultSet.class);
+
+        String sql =
+                "SELECT ID_NOTICIA, TITULO, DBMS_LOB.SUBSTR(CONTENIDO, 4000, 1) AS CONTENIDO, " +
+                "FECHA_PUBLICACION, ORDEN, URL_IMAGEN FROM " + TABLA +
+                " WHERE ID_NOTICIA < ? ORDER BY ID_NOTICIA DESC FETCH FIRST ? ROWS ONLY";
+
+        try (MockedStatic<DB> dbMock = mockStatic(DB.class)) {
+            dbMock.when(() -> DB.table("NOTICIAS")).thenReturn(TABLA);
+            dbMock.when(DB::getConnection).thenReturn(cn);
+
+            when(cn.prepareStatement(sql)).thenReturn(ps);
+            when(ps.executeQuery()).thenReturn(rs);
+            when(rs.next()).thenReturn(true, false);
+            when(rs.getLong("ID_NOTICIA")).thenReturn(9L);
+
+            List<NoticiaDTO> out = new NoticiaDAO().listar(10L, 5);
+
+            verify(ps).setLong(1, 10L);
+            verify(ps).setInt(2, 5);
+            assertEquals(1, out.size());
+            assertEquals(9L, out.get(0).idNoticia);
+        }
+    }
 }
@@ -0,0 +1,182 @@
+package com.aerolineas.dao;
+
+import com.aerolineas.config.DB;
+import com.aerolineas.dto.NotificacionDTO;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.mockito.MockedStatic;
+
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class NotificacionDAOTest {
+
+    @Test
+    @DisplayName("crear devuelve el ID generado")
+    void crear_devuelveId() throws Exception {
+        Connection cn = mock(Connection.class);
+        PreparedStatement ps = mock(PreparedStatement.class);
+        ResultSet keys = mock(ResultSet.class);
+
+        try (MockedStatic<DB> dbMock = mockStatic(DB.class)) {
+            dbMock.when(DB::getConnection).thenReturn(cn);
+            dbMock.when(() -> DB.table(anyString())).thenAnswer(inv -> inv.getArgument(0));
+            when(cn.prepareStatement(startsWith("INSERT INTO NOTIFICACION "), any(String[].class))).thenReturn(ps);
+            when(ps.getGeneratedKeys()).thenReturn(keys);
+            when(keys.next()).thenReturn(true);
+            when(keys.getLong(1)).thenReturn(42L);
+
+            assertEquals(42L, new NotificacionDAO().crear(5L, "CANCELACION", "clima"));
+            verify(ps).setLong(1, 5L);
+            verify(ps).setString(2, "CANCELACION");
+        }
+    }
+
+    @Test
+    @DisplayName("recorrerDestinatarios emite por fila con fetch size")
+    void recorrerDestinatarios_emite() throws Exception {
+        Connection cn = mock(Connection.class);
+        PreparedStatement ps = mock(PreparedStatement.class);
+        ResultSet rs = mock(ResultSet.class);
+
+        try (MockedStatic<DB> dbMock = mockStatic(DB.class)) {
+            dbMock.when(DB::getConnection).thenReturn(cn);
+            dbMock.when(DB::fetchSize).thenReturn(500);
+            dbMock.when(() -> DB.table(anyString())).thenAnswer(inv -> inv.getArgument(0));
+            when(cn.prepareStatement(contains("ri.ID_VUELO = ?"))).thenReturn(ps);
+            when(ps.executeQuery()).thenReturn(rs);
+            when(rs.next()).thenReturn(true, true, false);
+            when(rs.getLong("ID_RESERVA")).thenReturn(1L, 2L);
+            when(rs.getString("EMAIL")).thenReturn("a@x.com", (String) null);
+
+            List<NotificacionDTO.Destinatario> out = new ArrayList<>();
+            assertEquals(2, new NotificacionDAO().recorrerDestinatarios(9L, out::add));
+
+            assertEquals("a@x.com", out.get(0).email());
+            assertEquals("", out.get(1).email());
+            verify(ps).setFetchSize(500);
+            verify(ps).setLong(1, 9L);
+            // Un cambio de vuelo se avisa a las reservas PAGADA, no a las ya canceladas
+            verify(cn).prepareStatement(argThat((String sql) -> sql.contains("r.ID_ESTADO = 1") && !sql.contains("IN (2,3)")));
+        }
+    }
+
+    @Test
+    @DisplayName("recorrerDestinatariosDeVuelos enlaza los vuelos y ordena por usuario")
+    void recorrerDestinatariosDeVuelos_emitePorUsuario() throws Exception {
+        Connection cn = mock(Connection.class);
+        PreparedStatement ps = mock(PreparedStatement.class);
+        ResultSet rs = mock(ResultSet.class);
+
+        try (MockedStatic<DB> dbMock = mockStatic(DB.class)) {
+            dbMock.when(DB::getConnection).thenReturn(cn);
+            dbMock.when(DB::fetchSize).thenReturn(500);
+            dbMock.when(() -> DB.table(anyString())).thenAnswer(inv -> inv.getArgument(0));
+            when(cn.prepareStatement(anyString())).thenReturn(ps);
+            when(ps.executeQuery()).thenReturn(rs);
+            when(rs.next()).thenReturn(true, true, true, false);
+            when(rs.getLong("ID_VUELO")).thenReturn(3L, 4L);
+            // La reserva 2 ya estaba cancelada antes de la operación: no se le avisa
+            when(rs.getLong("ID_RESERVA")).thenReturn(1L, 2L, 1L);
+            when(rs.getString("EMAIL")).thenReturn("a@x.com");
+
+            List<NotificacionDTO.DestinatarioVuelo> out = new ArrayList<>();
+            assertEquals(2, new NotificacionDAO().recorrerDestinatariosDeVuelos(List.of(3L, 4L), Set.of(1L), out::add));
+            assertEquals(0, new NotificacionDAO().recorrerDestinatariosDeVuelos(List.of(), Set.of(1L), out::add));
+            assertEquals(0, new NotificacionDAO().recorrerDestinatariosDeVuelos(List.of(3L), Set.of(), out::add));
+
+            assertEquals(2, out.size());
+            assertEquals(4L, out.get(1).idVuelo());
+            assertEquals(1L, out.get(1).destinatario().idReserva());
+            assertEquals("a@x.com", out.get(1).destinatario().email());
+            verify(cn).prepareStatement(argThat((String sql) -> sql.contains("ri.ID_VUELO IN (?,?)")
+                    && sql.contains("r.ID_ESTADO = 2")
+                    && sql.endsWith("ORDER BY u.ID_USUARIO, ri.ID_VUELO, r.ID_RESERVA")));
+            verify(ps).setLong(1, 3L);
+            verify(ps).setLong(2, 4L);
+            verify(cn, times(1)).prepareStatement(anyString());
+        }
+    }
+
+    @Test
+    @DisplayName("registrarPendientes y actualizarEstados usan batch en una transacción")
+    void batch_pendientesYEstados() throws Exception {
+        Connection cn = mock(Connection.class);
+        PreparedStatement ins = mock(PreparedStatement.class);
+        PreparedStatement upd = mock(PreparedStatement.class);
+
+        try (MockedStatic<DB> dbMock = mockStatic(DB.class)) {
+            dbMock.when(DB::getConnection).thenReturn(cn);
+            dbMock.when(() -> DB.table(anyString())).thenAnswer(inv -> inv.getArgument(0));
+            when(cn.prepareStatement(startsWith("INSERT INTO NOTIFICACION_ENVIO"))).thenReturn(ins);
+            when(cn.prepareStatement(startsWith("UPDATE NOTIFICACION_ENVIO"))).thenReturn(upd);
+
+            var dao = new NotificacionDAO();
+            assertEquals(2, dao.registrarPendientes(3L, List.of(
+                new NotificacionDTO.Destinatario(1L, 10L, "a@x.com", "A", "B"),
+                new NotificacionDTO.Destinatario(2L, 20L, "b@x.com", "C", "D"))));
+            assertEquals(1, dao.actualizarEstados(3L, List.of(
+                new NotificacionDTO.Entrega(2L, "b@x.com", NotificacionDTO.FALLIDO, 4, "550"))));
+
+            verify(ins, times(2)).addBatch();
+            verify(ins, times(2)).setString(5, NotificacionDTO.PENDIENTE);
+            verify(upd).setString(1, NotificacionDTO.FALLIDO);
+            verify(upd).setInt(2, 4);
+            verify(upd).setLong(5, 2L);
+            verify(cn, times(2)).commit();
+            assertEquals(0, dao.registrarPendientes(3L, List.of()));
+        }
+    }
+
+    @Test
+    @DisplayName("actualizarEstados hace rollback si falla")
+    void actualizarEstados_rollback() throws Exception {
+        Connection cn = mock(Connection.class);
+        PreparedStatement ps = mock(PreparedStatement.class);
+
+        try (MockedStatic<DB> dbMock = mockStatic(DB.class)) {
+            dbMock.when(DB::getConnection).thenReturn(cn);
+            dbMock.when(() -> DB.table(anyString())).thenAnswer(inv -> inv.getArgument(0));
+            when(cn.prepareStatement(anyString())).thenReturn(ps);
+            when(ps.executeBatch()).thenThrow(new SQLException("boom"));
+
+            var entregas = List.of(new NotificacionDTO.Entrega(1L, "a@x.com", NotificacionDTO.ENVIADO, 1, null));
+            assertThrows(SQLException.class, () -> new NotificacionDAO().actualizarEstados(1L, entregas));
+            verify(ps).setNull(3, Types.VARCHAR);
+            verify(cn).rollback();
+            verify(cn).setAutoCommit(true);
+        }
+    }
+
+    @Test
+    @DisplayName("resumen calcula pendientes desde los conteos")
+    void resumen_calculaPendientes() throws Exception {
+        Connection cn = mock(Connection.class);
+        PreparedStatement ps = mock(PreparedStatement.class);
+        ResultSet rs = mock(ResultSet.class);
+
+        try (MockedStatic<DB> dbMock = mockStatic(DB.class)) {
+            dbMock.when(DB::getConnection).thenReturn(cn);
+            dbMock.when(() -> DB.table(anyString())).thenAnswer(inv -> inv.getArgument(0));
+            when(cn.prepareStatement(contains("GROUP BY"))).thenReturn(ps);
+            when(ps.executeQuery()).thenReturn(rs);
+            when(rs.next()).thenReturn(true);
+            when(rs.getLong("ID_VUELO")).thenReturn(8L);
+            when(rs.getString("TIPO")).thenReturn("CANCELACION");
+            when(rs.getInt("TOTAL")).thenReturn(300);
+            when(rs.getInt("ENVIADOS")).thenReturn(290);
+            when(rs.getInt("FALLIDOS")).thenReturn(4);
+
+            var p = new NotificacionDAO().resumen(5L);
+            assertEquals(6, p.pendientes());
+            assertEquals("INCOMPLETA", p.estado());
+            assertEquals(8L, p.idVuelo());
+        }
+    }
+}
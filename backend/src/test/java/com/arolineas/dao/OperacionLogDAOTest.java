@@ -0,0 +1,66 @@
+package com.aerolineas.dao;
+
+import com.aerolineas.config.DB;
+import com.aerolineas.config.InstrumentoSql;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.MockedStatic;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+class OperacionLogDAOTest {
+
+  @Test
+  void idHuella_esEstableYCabeEnLaColumna() {
+    long a = OperacionLogDAO.idHuella("SELECT ? FROM dual");
+    assertEquals(a, OperacionLogDAO.idHuella("SELECT ? FROM dual"));
+    assertTrue(a >= 0 && a < 10_000_000_000L);
+  }
+
+  @Test
+  void idHuella_noChocaDondeChocaHashCode() {
+    // "Aa" y "BB" tienen el mismo String.hashCode
+    assertEquals("SELECT Aa FROM dual".hashCode(), "SELECT BB FROM dual".hashCode());
+    assertNotEquals(OperacionLogDAO.idHuella("SELECT Aa FROM dual"), OperacionLogDAO.idHuella("SELECT BB FROM dual"));
+  }
+
+  @Test
+  void insertarLentas_escribeDetalleJsonEnLote() throws Exception {
+    Connection cn = mock(Connection.class);
+    PreparedStatement ps = mock(PreparedStatement.class);
+    when(cn.prepareStatement(anyString())).thenReturn(ps);
+    var lenta = new InstrumentoSql.Lenta("UPDATE X SET A = ?", "VueloDAO.actualizarEstado", 812_000, 3, List.of("String(4)"));
+
+    try (MockedStatic<DB> db = mockStatic(DB.class)) {
+      db.when(DB::getConnection).thenReturn(cn);
+      db.when(() -> DB.table(anyString())).thenAnswer(i -> "AEROLINEA." + i.getArgument(0));
+
+      assertEquals(1, new OperacionLogDAO().insertarLentas(List.of(lenta)));
+
+      ArgumentCaptor<String> sql = ArgumentCaptor.forClass(String.class);
+      verify(cn).prepareStatement(sql.capture());
+      assertTrue(sql.getValue().contains("AEROLINEA.OPERACION_LOG"));
+      assertTrue(sql.getValue().contains("'CONSULTA_LENTA'"));
+      ArgumentCaptor<String> detalle = ArgumentCaptor.forClass(String.class);
+      verify(ps).setString(eq(2), detalle.capture());
+      assertTrue(detalle.getValue().contains("\"metodo\":\"VueloDAO.actualizarEstado\""));
+      assertTrue(detalle.getValue().contains("\"ms\":812.0"));
+      verify(ps).executeBatch();
+      verify(cn).commit();
+    }
+  }
+
+  @Test
+  void insertarLentas_vacioNoTocaLaBase() throws Exception {
+    try (MockedStatic<DB> db = mockStatic(DB.class)) {
+      assertEquals(0, new OperacionLogDAO().insertarLentas(List.of()));
+      db.verifyNoInteractions();
+    }
+  }
+}
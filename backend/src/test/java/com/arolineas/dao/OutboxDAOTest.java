@@ -0,0 +1,191 @@
+package com.aerolineas.dao;
+
+import com.aerolineas.config.DB;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.mockito.MockedStatic;
+
+import java.sql.*;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class OutboxDAOTest {
+
+    @Test
+    @DisplayName("registrar inserta todos los eventos en un batch con la conexión del llamador")
+    void registrar_batch() throws Exception {
+        Connection cn = mock(Connection.class);
+        PreparedStatement ps = mock(PreparedStatement.class);
+
+        try (MockedStatic<DB> dbMock = mockStatic(DB.class)) {
+            dbMock.when(() -> DB.table(anyString())).thenAnswer(inv -> inv.getArgument(0, String.class));
+            dbMock.when(DB::getConnection).thenReturn(cn);
+            when(cn.prepareStatement(anyString())).thenReturn(ps);
+
+            int n = new OutboxDAO().registrar(List.of(
+                    new OutboxDAO.Nuevo("CORREO_CONFIRMACION", 7L, "{}"),
+                    new OutboxDAO.Nuevo("BOLETO_PDF", null, null)));
+
+            assertEquals(2, n);
+            verify(ps, times(2)).addBatch();
+            verify(ps).setNull(2, Types.NUMERIC);
+            verify(ps).executeBatch();
+            verify(cn).commit();
+        }
+    }
+
+    @Test
+    @DisplayName("tomar lee con SKIP LOCKED sin ROWNUM, corta en el lote y pasa lo tomado a EN_CURSO")
+    void tomar_skipLocked() throws Exception {
+        Connection cn = mock(Connection.class);
+        PreparedStatement sel = mock(PreparedStatement.class);
+        PreparedStatement upd = mock(PreparedStatement.class);
+        ResultSet rs = mock(ResultSet.class);
+
+        try (MockedStatic<DB> dbMock = mockStatic(DB.class)) {
+            dbMock.when(() -> DB.table(anyString())).thenAnswer(inv -> inv.getArgument(0, String.class));
+            dbMock.when(DB::getConnection).thenReturn(cn);
+            when(cn.prepareStatement(startsWith("SELECT"))).thenReturn(sel);
+            when(cn.prepareStatement(startsWith("UPDATE"))).thenReturn(upd);
+            when(sel.executeQuery()).thenReturn(rs);
+            when(rs.next()).thenReturn(true, true, true);
+            when(rs.getLong("ID_EVENTO")).thenReturn(1L, 2L);
+            when(rs.getString("TIPO")).thenReturn("BOLETO_PDF");
+            when(rs.getLong("ID_RESERVA")).thenReturn(31L, 0L);
+            when(rs.wasNull()).thenReturn(false, true);
+            when(rs.getInt("INTENTOS")).thenReturn(0, 2);
+
+            List<OutboxDAO.Evento> eventos = new OutboxDAO().tomar(2, 300);
+
+            assertEquals(List.of(
+                    new OutboxDAO.Evento(1L, "BOLETO_PDF", 31L, null, 1),
+                    new OutboxDAO.Evento(2L, "BOLETO_PDF", null, null, 3)), eventos);
+            verify(cn).prepareStatement(argThat((String sql) -> sql.endsWith("FOR UPDATE SKIP LOCKED") && !sql.contains("ROWNUM")));
+            verify(sel).setFetchSize(2);
+            verify(upd, times(2)).addBatch();
+            verify(upd).setLong(2, 2L);
+            verify(cn).commit();
+        }
+    }
+
+    @Test
+    @DisplayName("registrarResultados separa hechos y fallos y revierte si falla el batch")
+    void registrarResultados_hechosYFallos() throws Exception {
+        Connection cn = mock(Connection.class);
+        PreparedStatement ok = mock(PreparedStatement.class);
+        PreparedStatement mal = mock(PreparedStatement.class);
+
+        try (MockedStatic<DB> dbMock = mockStatic(DB.class)) {
+            dbMock.when(() -> DB.table(anyString())).thenAnswer(inv -> inv.getArgument(0, String.class));
+            dbMock.when(DB::getConnection).thenReturn(cn);
+            when(cn.prepareStatement(contains("'HECHO'"))).thenReturn(ok);
+            when(cn.prepareStatement(contains("'FALLIDO'"))).thenReturn(mal);
+
+            new OutboxDAO().registrarResultados(List.of(
+                    OutboxDAO.Resultado.ok(1L),
+                    new OutboxDAO.Resultado(2L, "x".repeat(500), 4000)), 8);
+
+            verify(ok).setLong(1, 1L);
+            verify(ok).executeBatch();
+            verify(mal).setInt(1, 8);
+            verify(mal).setString(2, "x".repeat(400));
+            verify(mal).setDouble(3, 4.0);
+            verify(mal).executeBatch();
+            verify(cn).commit();
+
+            when(mal.executeBatch()).thenThrow(new SQLException("caída"));
+            assertThrows(SQLException.class, () -> new OutboxDAO().registrarResultados(
+                    List.of(new OutboxDAO.Resultado(3L, "error", 1000)), 8));
+            verify(cn).rollback();
+        }
+    }
+
+    @Test
+    @DisplayName("fallidos y reintentarFallidos filtran por tipo; fallidos corta en max")
+    void fallidos_porTipo() throws Exception {
+        Connection cn = mock(Connection.class);
+        PreparedStatement sel = mock(PreparedStatement.class);
+        PreparedStatement upd = mock(PreparedStatement.class);
+        ResultSet rs = mock(ResultSet.class);
+
+        try (MockedStatic<DB> dbMock = mockStatic(DB.class)) {
+            dbMock.when(() -> DB.table(anyString())).thenAnswer(inv -> inv.getArgument(0, String.class));
+            dbMock.when(DB::getConnection).thenReturn(cn);
+            when(cn.prepareStatement(startsWith("SELECT"))).thenReturn(sel);
+            when(cn.prepareStatement(startsWith("UPDATE"))).thenReturn(upd);
+            when(sel.executeQuery()).thenReturn(rs);
+            when(rs.next()).thenReturn(true, true, true);
+            when(rs.getLong("ID_EVENTO")).thenReturn(9L, 8L);
+            when(rs.getString("PAYLOAD")).thenReturn("{}");
+            when(rs.getInt("INTENTOS")).thenReturn(8);
+            when(rs.getString("ERROR")).thenReturn("550");
+            when(upd.executeUpdate()).thenReturn(2);
+
+            assertEquals(List.of(new OutboxDAO.Fallido(9L, "{}", 8, "550"), new OutboxDAO.Fallido(8L, "{}", 8, "550")),
+                    new OutboxDAO().fallidos("CORREO", 2));
+            verify(sel).setString(1, "CORREO");
+            verify(sel).setFetchSize(2);
+
+            assertEquals(2, new OutboxDAO().reintentarFallidos("CORREO"));
+            verify(cn).prepareStatement(argThat((String sql) -> sql.startsWith("UPDATE") && sql.endsWith("AND TIPO = ?")));
+            verify(upd).setString(1, "CORREO");
+        }
+    }
+    @Test
+    @DisplayName("purgarHechos borra HECHO viejos en lotes con SKIP LOCKED y para con un lote incompleto")
+    void purgarHechos_enLotes() throws Exception {
+        Connection cn = mock(Connection.class);
+        PreparedStatement sel = mock(PreparedStatement.class);
+        PreparedStatement del = mock(PreparedStatement.class);
+        ResultSet rs = mock(ResultSet.class);
+
+        try (MockedStatic<DB> dbMock = mockStatic(DB.class)) {
+            dbMock.when(() -> DB.table(anyString())).thenAnswer(inv -> inv.getArgument(0, String.class));
+            dbMock.when(DB::getConnection).thenReturn(cn);
+            when(cn.prepareStatement(startsWith("SELECT"))).thenReturn(sel);
+            when(cn.prepareStatement(startsWith("DELETE"))).thenReturn(del);
+            when(sel.executeQuery()).thenReturn(rs);
+            // Primer lote lleno (2), segundo con uno solo: ahí termina
+            when(rs.next()).thenReturn(true, true, true, false);
+            when(rs.getLong("ID_EVENTO")).thenReturn(1L, 2L, 3L);
+
+            assertEquals(3, new OutboxDAO().purgarHechos(7, 2, 10));
+
+            verify(cn, times(2)).prepareStatement(argThat((String sql) -> sql.startsWith("SELECT")
+                    && sql.contains("ESTADO = 'HECHO'") && sql.endsWith("FOR UPDATE SKIP LOCKED") && !sql.contains("ROWNUM")));
+            verify(sel, times(2)).setLong(1, 7L);
+            verify(sel, times(2)).setFetchSize(2);
+            verify(del, times(3)).addBatch();
+            verify(del).setLong(1, 3L);
+            verify(cn, times(2)).commit();
+        }
+    }
+
+    @Test
+    @DisplayName("resumen lista los estados abiertos en vez de excluir HECHO")
+    void resumen_estadosAbiertos() throws Exception {
+        Connection cn = mock(Connection.class);
+        PreparedStatement ps = mock(PreparedStatement.class);
+        ResultSet rs = mock(ResultSet.class);
+
+        try (MockedStatic<DB> dbMock = mockStatic(DB.class)) {
+            dbMock.when(() -> DB.table(anyString())).thenAnswer(inv -> inv.getArgument(0, String.class));
+            dbMock.when(DB::getConnection).thenReturn(cn);
+            when(cn.prepareStatement(anyString())).thenReturn(ps);
+            when(ps.executeQuery()).thenReturn(rs);
+            when(rs.next()).thenReturn(true, false);
+            when(rs.getString("ESTADO")).thenReturn("PENDIENTE");
+            when(rs.getLong("N")).thenReturn(4L);
+
+            var m = new OutboxDAO().resumen("CORREO");
+
+            assertEquals(4L, m.get("PENDIENTE"));
+            assertEquals(0L, m.get("FALLIDO"));
+            verify(cn).prepareStatement(argThat((String sql) ->
+                    sql.contains("WHERE ESTADO IN ('PENDIENTE','EN_CURSO','FALLIDO') AND TIPO = ?") && !sql.contains("<>")));
+        }
+    }
+}
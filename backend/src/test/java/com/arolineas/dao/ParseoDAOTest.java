@@ -0,0 +1,72 @@
+package com.aerolineas.dao;
+
+import com.aerolineas.config.DB;
+import org.junit.jupiter.api.Test;
+import org.mockito.MockedStatic;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+class ParseoDAOTest {
+
+  @Test
+  void resumen_calculaProporcionesComoAWR() {
+    Map<String, Object> m = ParseoDAO.resumen(Map.of(
+        ParseoDAO.PARSEOS, 200L, ParseoDAO.DUROS, 10L, ParseoDAO.EJECUCIONES, 1000L, ParseoDAO.CACHE_CURSORES, 150L), 4);
+
+    assertEquals(true, m.get("disponible"));
+    assertEquals(4L, m.get("sesiones"));
+    assertEquals(80.0, m.get("ejecucionSobreParseoPct"));
+    assertEquals(0.2, m.get("parseosPorEjecucion"));
+    assertEquals(95.0, m.get("parseosSuavesPct"));
+    assertEquals(150L, m.get("aciertosCacheCursores"));
+  }
+
+  @Test
+  void resumen_sinEjecuciones_noDivide() {
+    Map<String, Object> m = ParseoDAO.resumen(Map.of(), 0);
+    assertNull(m.get("ejecucionSobreParseoPct"));
+    assertNull(m.get("parseosSuavesPct"));
+  }
+
+  @Test
+  void resumen_leeLasSesionesDelPrograma() throws Exception {
+    Connection cn = mock(Connection.class);
+    PreparedStatement ps = mock(PreparedStatement.class);
+    ResultSet rs = mock(ResultSet.class);
+    when(cn.prepareStatement(anyString())).thenReturn(ps);
+    when(ps.executeQuery()).thenReturn(rs);
+    when(rs.next()).thenReturn(true, true, false);
+    when(rs.getString("NAME")).thenReturn(ParseoDAO.PARSEOS, ParseoDAO.EJECUCIONES);
+    when(rs.getLong("VALOR")).thenReturn(50L, 500L);
+    when(rs.getLong("SESIONES")).thenReturn(3L, 3L);
+
+    try (MockedStatic<DB> db = mockStatic(DB.class)) {
+      db.when(DB::getConnection).thenReturn(cn);
+      Map<String, Object> m = new ParseoDAO().resumen();
+
+      verify(ps).setString(1, DB.PROGRAMA);
+      assertEquals(90.0, m.get("ejecucionSobreParseoPct"));
+      assertEquals(3L, m.get("sesiones"));
+    }
+  }
+
+  @Test
+  void resumen_sinPermisoSobreVistas_noFalla() throws Exception {
+    Connection cn = mock(Connection.class);
+    when(cn.prepareStatement(anyString())).thenThrow(new SQLException("ORA-00942: table or view does not exist", "42000", 942));
+
+    try (MockedStatic<DB> db = mockStatic(DB.class)) {
+      db.when(DB::getConnection).thenReturn(cn);
+      Map<String, Object> m = new ParseoDAO().resumen();
+      assertEquals(false, m.get("disponible"));
+    }
+  }
+}
@@ -0,0 +1,193 @@
+package com.aerolineas.dao;
+
+import com.aerolineas.config.DB;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.mockito.MockedStatic;
+
+import java.sql.*;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class RetencionesDAOTest {
+
+    @AfterEach
+    void clearProps() {
+        System.clearProperty("CARRITO_RETENCION_MIN");
+    }
+
+    @Test
+    @DisplayName("ttlMinutos: 15 por defecto, inválido vuelve al defecto y negativo queda en 0")
+    void ttlMinutos_config() {
+        assertEquals(15, RetencionesDAO.ttlMinutos());
+        System.setProperty("CARRITO_RETENCION_MIN", "abc");
+        assertEquals(15, RetencionesDAO.ttlMinutos());
+        System.setProperty("CARRITO_RETENCION_MIN", "-5");
+        assertEquals(0, RetencionesDAO.ttlMinutos());
+        System.setProperty("CARRITO_RETENCION_MIN", "30");
+        assertEquals(30, RetencionesDAO.ttlMinutos());
+    }
+
+    @Test
+    @DisplayName("disponibleSql devuelve al cupo lo retenido en ítems vencidos")
+    void disponibleSql_sumaLasVencidas() {
+        try (MockedStatic<DB> dbMock = mockStatic(DB.class)) {
+            dbMock.when(() -> DB.table("CARRITO_ITEM")).thenReturn("CARRITO_ITEM");
+
+            String sql = RetencionesDAO.disponibleSql("sc");
+
+            assertTrue(sql.startsWith("(sc.CUPO_TOTAL - NVL(sc.RESERVADOS,0) - NVL(sc.EN_CARRITO,0) + (SELECT NVL(SUM(ci.CANTIDAD),0) FROM CARRITO_ITEM ci"));
+            assertTrue(sql.contains("ci.RETENIDO_EN < SYSTIMESTAMP - NUMTODSINTERVAL(15, 'MINUTE')"));
+        }
+    }
+
+    @Test
+    @DisplayName("disponibleSql sin vencimiento es solo el ledger")
+    void disponibleSql_sinVencimiento() {
+        System.setProperty("CARRITO_RETENCION_MIN", "0");
+        assertEquals("(sc.CUPO_TOTAL - NVL(sc.RESERVADOS,0) - NVL(sc.EN_CARRITO,0))", RetencionesDAO.disponibleSql("sc"));
+    }
+
+    @Test
+    @DisplayName("liberarVencidas bloquea con SKIP LOCKED y borra los ítems en un batch")
+    void liberarVencidas_borraLosBloqueados() throws Exception {
+        Connection cn = mock(Connection.class);
+        PreparedStatement sel = mock(PreparedStatement.class);
+        PreparedStatement del = mock(PreparedStatement.class);
+        ResultSet rs = mock(ResultSet.class);
+
+        try (MockedStatic<DB> dbMock = mockStatic(DB.class)) {
+            dbMock.when(() -> DB.table("CARRITO_ITEM")).thenReturn("CARRITO_ITEM");
+            when(cn.prepareStatement(contains("FOR UPDATE SKIP LOCKED"))).thenReturn(sel);
+            when(cn.prepareStatement("DELETE FROM CARRITO_ITEM WHERE ID_ITEM = ?")).thenReturn(del);
+            when(sel.executeQuery()).thenReturn(rs);
+            when(rs.next()).thenReturn(true, true, false);
+            when(rs.getLong("ID_ITEM")).thenReturn(7L, 8L);
+            when(rs.getInt("CANTIDAD")).thenReturn(2, 3);
+
+            var l = new RetencionesDAO().liberarVencidas(cn, 10L, 1, 50);
+
+            assertEquals(new RetencionesDAO.Liberacion(2, 5), l);
+            verify(sel).setLong(1, 10L);
+            verify(sel).setInt(2, 1);
+            verify(sel).setFetchSize(50);
+            verify(sel, never()).setInt(eq(3), anyInt());
+            verify(cn, never()).prepareStatement(contains("ROWNUM"));
+            verify(del).setLong(1, 7L);
+            verify(del).setLong(1, 8L);
+            verify(del, times(2)).addBatch();
+            verify(del).executeBatch();
+        }
+    }
+
+    @Test
+    @DisplayName("liberarVencidas corta el lote en Java y no lee más filas de las pedidas")
+    void liberarVencidas_topeEnJava() throws Exception {
+        Connection cn = mock(Connection.class);
+        PreparedStatement sel = mock(PreparedStatement.class);
+        PreparedStatement del = mock(PreparedStatement.class);
+        ResultSet rs = mock(ResultSet.class);
+
+        try (MockedStatic<DB> dbMock = mockStatic(DB.class)) {
+            dbMock.when(() -> DB.table("CARRITO_ITEM")).thenReturn("CARRITO_ITEM");
+            when(cn.prepareStatement(contains("FOR UPDATE SKIP LOCKED"))).thenReturn(sel);
+            when(cn.prepareStatement(startsWith("DELETE"))).thenReturn(del);
+            when(sel.executeQuery()).thenReturn(rs);
+            when(rs.next()).thenReturn(true);
+            when(rs.getLong("ID_ITEM")).thenReturn(1L, 2L, 3L);
+            when(rs.getInt("CANTIDAD")).thenReturn(1);
+
+            var l = new RetencionesDAO().liberarVencidas(cn, null, null, 2);
+
+            assertEquals(new RetencionesDAO.Liberacion(2, 2), l);
+            verify(rs, times(2)).next();
+            verify(del, times(2)).addBatch();
+        }
+    }
+
+    @Test
+    @DisplayName("liberarVencidas sin vencidos no ejecuta el DELETE")
+    void liberarVencidas_nadaVencido() throws Exception {
+        Connection cn = mock(Connection.class);
+        PreparedStatement sel = mock(PreparedStatement.class);
+        ResultSet rs = mock(ResultSet.class);
+
+        try (MockedStatic<DB> dbMock = mockStatic(DB.class)) {
+            dbMock.when(() -> DB.table("CARRITO_ITEM")).thenReturn("CARRITO_ITEM");
+            when(cn.prepareStatement(anyString())).thenReturn(sel);
+            when(sel.executeQuery()).thenReturn(rs);
+            when(rs.next()).thenReturn(false);
+
+            assertEquals(RetencionesDAO.Liberacion.NADA, new RetencionesDAO().liberarVencidas(cn, null, null, 50));
+            verify(cn, times(1)).prepareStatement(anyString());
+        }
+    }
+
+    @Test
+    @DisplayName("barrer confirma cada lote y se detiene cuando un lote sale incompleto")
+    void barrer_porLotes() throws Exception {
+        Connection cn = mock(Connection.class);
+        RetencionesDAO dao = spy(new RetencionesDAO());
+        doReturn(new RetencionesDAO.Liberacion(2, 4), new RetencionesDAO.Liberacion(1, 1))
+                .when(dao).liberarVencidas(cn, null, null, 2);
+
+        try (MockedStatic<DB> dbMock = mockStatic(DB.class)) {
+            dbMock.when(DB::getConnection).thenReturn(cn);
+
+            var total = dao.barrer(2, 10);
+
+            assertEquals(new RetencionesDAO.Liberacion(3, 5), total);
+            verify(cn, times(2)).commit();
+            verify(cn, never()).rollback();
+        }
+    }
+
+    @Test
+    @DisplayName("barrer revierte el lote si falla y propaga el error")
+    void barrer_error_revierte() throws Exception {
+        Connection cn = mock(Connection.class);
+        RetencionesDAO dao = spy(new RetencionesDAO());
+        doThrow(new SQLException("ORA-00054")).when(dao).liberarVencidas(cn, null, null, 5);
+
+        try (MockedStatic<DB> dbMock = mockStatic(DB.class)) {
+            dbMock.when(DB::getConnection).thenReturn(cn);
+
+            assertThrows(SQLException.class, () -> dao.barrer(5, 3));
+            verify(cn).rollback();
+            verify(cn).setAutoCommit(true);
+        }
+    }
+
+    @Test
+    @DisplayName("resumen devuelve retenciones activas, vencidas y lo liberado")
+    void resumen_ok() throws Exception {
+        Connection cn = mock(Connection.class);
+        PreparedStatement ps = mock(PreparedStatement.class);
+        ResultSet rs = mock(ResultSet.class);
+
+        try (MockedStatic<DB> dbMock = mockStatic(DB.class)) {
+            dbMock.when(() -> DB.table("CARRITO_ITEM")).thenReturn("CARRITO_ITEM");
+            dbMock.when(DB::getConnection).thenReturn(cn);
+            when(cn.prepareStatement(anyString())).thenReturn(ps);
+            when(ps.executeQuery()).thenReturn(rs);
+            when(rs.next()).thenReturn(true);
+            when(rs.getLong("ACTIVAS")).thenReturn(4L);
+            when(rs.getLong("ASIENTOS_ACTIVOS")).thenReturn(9L);
+            when(rs.getLong("VENCIDAS")).thenReturn(1L);
+            when(rs.getLong("ASIENTOS_VENCIDOS")).thenReturn(2L);
+
+            Map<String, Object> m = new RetencionesDAO().resumen();
+
+            assertEquals(15L, m.get("ttlMinutos"));
+            assertEquals(4L, m.get("retencionesActivas"));
+            assertEquals(9L, m.get("asientosRetenidos"));
+            assertEquals(1L, m.get("retencionesVencidas"));
+            assertEquals(2L, m.get("asientosVencidos"));
+            assertTrue(m.containsKey("asientosLiberados"));
+        }
+    }
+}
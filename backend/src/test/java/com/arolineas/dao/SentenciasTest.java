@@ -0,0 +1,105 @@
+package com.aerolineas.dao;
+
+import com.aerolineas.config.DB;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.MockedStatic;
+
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.CALLS_REAL_METHODS;
+import static org.mockito.Mockito.mockStatic;
+
+class SentenciasTest {
+
+  private MockedStatic<DB> db;
+  private String schema = "AERO";
+
+  @BeforeEach
+  void setUp() {
+    db = mockStatic(DB.class, CALLS_REAL_METHODS);
+    db.when(DB::getSchema).thenAnswer(i -> schema);
+    Sentencias.invalidar();
+  }
+
+  @AfterEach
+  void limpiar() {
+    db.close();
+    Sentencias.invalidar();
+  }
+
+  @Test
+  void sql_seArmaUnaVezPorSchema() {
+    schema = "UNO";
+    AtomicInteger armadas = new AtomicInteger();
+    String clave = Sentencias.registrar("test.unaVez", () -> {
+      armadas.incrementAndGet();
+      return "SELECT 1 FROM " + DB.table("VUELO");
+    });
+
+    assertEquals("SELECT 1 FROM UNO.VUELO", Sentencias.sql(clave));
+    assertSame(Sentencias.sql(clave), Sentencias.sql(clave));
+    assertEquals(1, armadas.get());
+
+    schema = "DOS";
+    assertEquals("SELECT 1 FROM DOS.VUELO", Sentencias.sql(clave));
+    assertEquals(2, armadas.get());
+  }
+
+  @Test
+  void precalentar_armaTodasLasRegistradas() {
+    AtomicInteger armadas = new AtomicInteger();
+    String clave = Sentencias.registrar("test.precalentar", () -> {
+      armadas.incrementAndGet();
+      return "SELECT 2 FROM dual";
+    });
+
+    int n = Sentencias.precalentar();
+
+    assertTrue(n >= 1);
+    assertEquals(1, armadas.get());
+    Sentencias.sql(clave);
+    assertEquals(1, armadas.get());
+  }
+
+  @Test
+  void sinSchema_armaEnElActoSinGuardar() {
+    schema = null;
+    AtomicInteger armadas = new AtomicInteger();
+    String clave = Sentencias.registrar("test.sinSchema", () -> "SELECT " + armadas.incrementAndGet() + " FROM dual");
+
+    assertEquals("SELECT 1 FROM dual", Sentencias.sql(clave));
+    assertEquals("SELECT 2 FROM dual", Sentencias.sql(clave));
+    assertEquals(0, Sentencias.precalentar());
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  void stats_cuentaUsos() {
+    String clave = Sentencias.registrar("test.usos", () -> "SELECT 3 FROM dual");
+    Sentencias.sql(clave);
+    Sentencias.sql(clave);
+
+    Map<String, Long> usos = (Map<String, Long>) Sentencias.stats().get("usos");
+    assertEquals(2L, usos.get("test.usos"));
+  }
+
+  @Test
+  void errores_claveDuplicadaONoRegistrada() {
+    Sentencias.registrar("test.dup", () -> "x");
+    assertThrows(IllegalStateException.class, () -> Sentencias.registrar("test.dup", () -> "y"));
+    assertThrows(IllegalStateException.class, () -> Sentencias.sql("test.noExiste"));
+  }
+
+  @Test
+  void vueloDAO_registraSusSentenciasConElMismoTexto() throws Exception {
+    Class.forName(VueloDAO.class.getName());
+    String sql = Sentencias.sql("vuelo.recorrer.activos.desde");
+    assertTrue(sql.contains("FROM AERO.VUELO v JOIN AERO.RUTA r"));
+    assertTrue(sql.contains("AND NVL(v.ACTIVO,1)=1 AND v.ID_VUELO > ? ORDER BY v.ID_VUELO"));
+    assertFalse(Sentencias.sql("vuelo.recorrer").contains("ID_VUELO > ?"));
+  }
+}
@@ -12,6 +12,7 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Timestamp;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
 import java.util.List;
 import org.mockito.InOrder;
 
@@ -365,6 +366,103 @@ public class VueloDAOTest {
         }
     }
 
+    @Test
+    @DisplayName("actualizarEstadoMasivo exige un filtro y motivo para cancelar")
+    void actualizarEstadoMasivo_validaciones() {
+        VueloDAO dao = new VueloDAO();
+        var sinFiltro = new VueloDTO.EstadoMasivo(CANCELADO, "Cierre", null, null, null, null, null, List.of());
+        var sinMotivo = new VueloDTO.EstadoMasivo(CANCELADO, " ", 5L, null, null, null, null, null);
+        var ventana = new VueloDTO.EstadoMasivo(CANCELADO, "Cierre", 5L, null, null,
+                LocalDateTime.of(2025, 1, 2, 0, 0), LocalDateTime.of(2025, 1, 1, 0, 0), null);
+
+        assertThrows(SQLException.class, () -> dao.actualizarEstadoMasivo(sinFiltro));
+        assertThrows(SQLException.class, () -> dao.actualizarEstadoMasivo(sinMotivo));
+        assertThrows(SQLException.class, () -> dao.actualizarEstadoMasivo(ventana));
+    }
+
+    @Test
+    @DisplayName("actualizarEstadoMasivo cancela por conjunto: motivos, reservas y estado sobre los ids bloqueados")
+    void actualizarEstadoMasivo_cancelaPorConjunto() throws Exception {
+        Connection cn = mock(Connection.class);
+        PreparedStatement psSel = mock(PreparedStatement.class);
+        PreparedStatement psMotivo = mock(PreparedStatement.class);
+        PreparedStatement psUpd = mock(PreparedStatement.class);
+        PreparedStatement psRes = mock(PreparedStatement.class);
+        ResultSet rsSel = mock(ResultSet.class);
+        ResultSet rsRes = mock(ResultSet.class);
+
+        try (MockedStatic<DB> dbMock = mockStatic(DB.class)) {
+            dbMock.when(() -> DB.table(anyString())).thenAnswer(inv -> inv.getArgument(0, String.class));
+            dbMock.when(DB::getConnection).thenReturn(cn);
+
+            when(cn.prepareStatement(anyString())).thenReturn(psRes);
+            when(cn.prepareStatement(startsWith("SELECT fv.ID_VUELO"))).thenReturn(psSel);
+            when(cn.prepareStatement(startsWith("INSERT INTO VUELO_MOTIVO"))).thenReturn(psMotivo);
+            when(cn.prepareStatement(startsWith("UPDATE VUELO SET ID_ESTADO"))).thenReturn(psUpd);
+            when(psSel.executeQuery()).thenReturn(rsSel);
+            when(rsSel.next()).thenReturn(true, true, false);
+            when(rsSel.getLong(1)).thenReturn(10L, 11L);
+            when(psMotivo.executeUpdate()).thenReturn(2);
+            when(psRes.executeQuery()).thenReturn(rsRes);
+            when(rsRes.next()).thenReturn(true, false);
+            when(rsRes.getLong(1)).thenReturn(500L);
+
+            var f = new VueloDTO.EstadoMasivo(CANCELADO, "Cierre del aeropuerto", 7L, null, null,
+                    LocalDateTime.of(2025, 1, 1, 6, 0), LocalDateTime.of(2025, 1, 1, 18, 0), List.of(3L));
+            var r = new VueloDAO().actualizarEstadoMasivo(f);
+
+            assertEquals(List.of(10L, 11L), r.vuelos());
+            assertEquals(2, r.motivos());
+            assertEquals(List.of(500L), r.reservas());
+
+            verify(cn).prepareStatement(argThat((String sql) -> sql.startsWith("SELECT fv.ID_VUELO")
+                    && sql.contains("(fr.ID_CIUDAD_ORIGEN = ? OR fr.ID_CIUDAD_DESTINO = ?)")
+                    && sql.contains("fv.ID_RUTA IN (?)")
+                    && sql.endsWith("fv.FECHA_SALIDA < ? FOR UPDATE OF fv.ID_ESTADO")));
+            verify(cn).prepareStatement(argThat((String sql) -> sql.startsWith("INSERT INTO VUELO_MOTIVO")
+                    && sql.endsWith("WHERE v.ID_VUELO IN (?,?)")));
+            verify(cn).prepareStatement("UPDATE VUELO SET ID_ESTADO = ? WHERE ID_VUELO IN (?,?)");
+            verify(cn, times(1)).prepareStatement(contains("fr.ID_CIUDAD_ORIGEN"));
+            verify(psMotivo).setString(1, "Cierre del aeropuerto");
+            verify(psMotivo).setLong(2, 10L);
+            verify(psMotivo).setLong(3, 11L);
+            verify(psRes).setObject(2, 11L);
+            verify(psRes, times(3)).setLong(1, 500L);
+            verify(psRes, never()).setObject(anyInt(), eq((Object) CANCELADO));
+            verify(psUpd).setInt(1, CANCELADO);
+            verify(psUpd).setLong(2, 10L);
+            verify(psUpd).setLong(3, 11L);
+            verify(psUpd).executeUpdate();
+            verify(cn).commit();
+            verify(cn, never()).rollback();
+        }
+    }
+
+    @Test
+    @DisplayName("actualizarEstadoMasivo revierte si el filtro afecta demasiados vuelos")
+    void actualizarEstadoMasivo_demasiadosVuelos_revierte() throws Exception {
+        Connection cn = mock(Connection.class);
+        PreparedStatement ps = mock(PreparedStatement.class);
+        ResultSet rs = mock(ResultSet.class);
+
+        try (MockedStatic<DB> dbMock = mockStatic(DB.class)) {
+            dbMock.when(() -> DB.table(anyString())).thenAnswer(inv -> inv.getArgument(0, String.class));
+            dbMock.when(DB::getConnection).thenReturn(cn);
+            when(cn.prepareStatement(anyString())).thenReturn(ps);
+            when(ps.executeQuery()).thenReturn(rs);
+            int[] n = {0};
+            when(rs.next()).thenAnswer(inv -> n[0]++ < 501);
+
+            var f = new VueloDTO.EstadoMasivo(CANCELADO, "Huracán", null, 7L, null, null, null, null);
+            SQLException ex = assertThrows(SQLException.class, () -> new VueloDAO().actualizarEstadoMasivo(f));
+
+            assertTrue(ex.getMessage().contains("501 vuelos"));
+            verify(cn).rollback();
+            verify(cn, never()).commit();
+            verify(ps, never()).executeUpdate();
+        }
+    }
+
     @Test
     @DisplayName("vincularPareja lanza error si IDs inválidos o iguales")
     void vincularPareja_precondiciones() {
@@ -457,6 +555,7 @@ public class VueloDAOTest {
         PreparedStatement psUpdate = mock(PreparedStatement.class);
         PreparedStatement psDelClase = mock(PreparedStatement.class);
         PreparedStatement psInsClase = mock(PreparedStatement.class);
+        PreparedStatement psRecalculo = mock(PreparedStatement.class);
         PreparedStatement psInsMotivo = mock(PreparedStatement.class);
         ResultSet rsChk = mock(ResultSet.class);
 
@@ -472,7 +571,7 @@ public class VueloDAOTest {
             
             
             when(mockConn.prepareStatement(anyString()))
-                    .thenReturn(psChk, psUpdate, psDelClase, psInsClase, psInsMotivo);
+                    .thenReturn(psChk, psUpdate, psDelClase, psInsClase, psRecalculo, psInsMotivo);
 
             when(psChk.executeQuery()).thenReturn(rsChk);
             when(rsChk.next()).thenReturn(true);
@@ -501,6 +600,8 @@ public class VueloDAOTest {
             verify(psDelClase, times(1)).executeUpdate();
             verify(psInsClase, atLeastOnce()).addBatch();
             verify(psInsClase, times(1)).executeBatch();
+            verify(psRecalculo, times(1)).setLong(1, 5L);
+            verify(psRecalculo, times(1)).executeUpdate();
             verify(psInsMotivo, times(1)).executeUpdate();
             verify(mockConn, times(1)).commit();
         }
@@ -1665,4 +1766,66 @@ void obtenerVueloConEscala_devuelveVueloConEscala() throws Exception {
     }
 }
 
+@Test
+@DisplayName("listarVuelos con keyset filtra por ID y corta al llenar la página")
+void listarVuelos_keyset_cortaAlLlenarPagina() throws Exception {
+    Connection cn = mock(Connection.class);
+    PreparedStatement ps = mock(PreparedStatement.class);
+    ResultSet rs = mock(ResultSet.class);
+
+    try (MockedStatic<DB> dbMock = mockStatic(DB.class)) {
+        dbMock.when(DB::getConnection).thenReturn(cn);
+        dbMock.when(() -> DB.table(anyString())).thenAnswer(inv -> inv.getArgument(0, String.class));
+
+        when(cn.prepareStatement(contains("AND v.ID_VUELO > ? ORDER BY v.ID_VUELO"))).thenReturn(ps);
+        when(ps.executeQuery()).thenReturn(rs);
+        when(rs.next()).thenReturn(true, true, true, true);
+        when(rs.getLong("ID_VUELO")).thenReturn(11L, 11L, 12L, 13L);
+        when(rs.getInt("ID_CLASE")).thenReturn(1, 2, 1, 1);
+        when(rs.getTimestamp("FECHA_SALIDA")).thenReturn(ts(LocalDateTime.now()));
+        when(rs.getTimestamp("FECHA_LLEGADA")).thenReturn(ts(LocalDateTime.now().plusHours(1)));
+
+        List<VueloDTO.View> lista = new VueloDAO().listarVuelos(false, 10L, 2);
+
+        verify(ps).setLong(1, 10L);
+        assertEquals(List.of(11L, 12L), lista.stream().map(VueloDTO.View::idVuelo).toList());
+        assertEquals(2, lista.get(0).clases().size());
+        verify(rs, times(4)).next();
+    }
+}
+
+@Test
+@DisplayName("recorrerVuelos emite cada vuelo al cambiar de ID y usa el fetch size configurado")
+void recorrerVuelos_emitePorVuelo() throws Exception {
+    Connection cn = mock(Connection.class);
+    PreparedStatement ps = mock(PreparedStatement.class);
+    ResultSet rs = mock(ResultSet.class);
+
+    try (MockedStatic<DB> dbMock = mockStatic(DB.class)) {
+        dbMock.when(DB::getConnection).thenReturn(cn);
+        dbMock.when(DB::fetchSize).thenReturn(500);
+        dbMock.when(() -> DB.table(anyString())).thenAnswer(inv -> inv.getArgument(0, String.class));
+
+        when(cn.prepareStatement(contains("ORDER BY v.ID_VUELO"))).thenReturn(ps);
+        when(ps.executeQuery()).thenReturn(rs);
+        when(rs.next()).thenReturn(true, true, true, false);
+        when(rs.getLong("ID_VUELO")).thenReturn(1L, 1L, 2L);
+        when(rs.getInt("ID_CLASE")).thenReturn(1, 2, 1);
+        when(rs.getTimestamp("FECHA_SALIDA")).thenReturn(ts(LocalDateTime.now()));
+        when(rs.getTimestamp("FECHA_LLEGADA")).thenReturn(ts(LocalDateTime.now().plusHours(1)));
+
+        List<VueloDTO.View> emitidos = new ArrayList<>();
+        int n = new VueloDAO().recorrerVuelos(false, null, 0, v -> {
+            // el primer vuelo ya está completo antes de leer el segundo
+            if (emitidos.isEmpty()) assertEquals(2, v.clases().size());
+            emitidos.add(v);
+        });
+
+        assertEquals(2, n);
+        assertEquals(List.of(1L, 2L), emitidos.stream().map(VueloDTO.View::idVuelo).toList());
+        verify(ps).setFetchSize(500);
+        verify(ps, never()).setLong(anyInt(), anyLong());
+    }
+}
+
 }
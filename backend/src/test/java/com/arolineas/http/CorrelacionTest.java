@@ -0,0 +1,66 @@
+package com.aerolineas.http;
+
+import com.aerolineas.util.Traza;
+import io.javalin.http.Context;
+import io.javalin.http.HandlerType;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.startsWith;
+import static org.mockito.Mockito.*;
+
+class CorrelacionTest {
+
+  @AfterEach
+  void limpiar() {
+    Traza.terminar();
+    Traza.muestreo(0);
+  }
+
+  private static Context ctx(String requestId, String traceparent) {
+    Context ctx = mock(Context.class);
+    when(ctx.header(Correlacion.HEADER)).thenReturn(requestId);
+    when(ctx.header("traceparent")).thenReturn(traceparent);
+    when(ctx.method()).thenReturn(HandlerType.GET);
+    when(ctx.path()).thenReturn("/api/public/vuelos/7");
+    when(ctx.statusCode()).thenReturn(200);
+    return ctx;
+  }
+
+  @Test
+  void sinMuestreo_asignaIdPeroNoTraza() {
+    Context ctx = ctx(null, null);
+    String id = Correlacion.iniciar(ctx);
+
+    assertEquals(32, id.length());
+    verify(ctx).header(Correlacion.HEADER, id);
+    assertNull(Traza.actual());
+    Correlacion.terminar(ctx);
+    verify(ctx, never()).header(eq("Server-Timing"), anyString());
+  }
+
+  @Test
+  void respetaElIdDelClienteYDescartaElInvalido() {
+    assertEquals("pedido-42", Correlacion.iniciar(ctx("pedido-42", null)));
+    assertNotEquals("a b<script>", Correlacion.iniciar(ctx("a b<script>", null)));
+  }
+
+  @Test
+  void traceparentMuestreado_abreTrazaYDevuelveServerTiming() {
+    Traza.muestreo(0.0001);
+    Context ctx = ctx(null, "00-4bf92f3577b34da6a3ce929d0e0e4736-00f067aa0ba902b7-01");
+
+    assertEquals("4bf92f3577b34da6a3ce929d0e0e4736", Correlacion.iniciar(ctx));
+    Traza t = Traza.actual();
+    assertNotNull(t);
+    assertEquals("00f067aa0ba902b7", t.raiz().padre());
+
+    Correlacion.terminar(ctx);
+    assertNull(Traza.actual());
+    assertEquals("200", t.raiz().etiquetas().get("http.status_code"));
+    verify(ctx).header(eq("Server-Timing"), startsWith("total;dur="));
+  }
+}
@@ -0,0 +1,169 @@
+package com.aerolineas.http;
+
+import com.aerolineas.http.Idempotencia.Respuesta;
+import io.javalin.http.Context;
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class IdempotenciaTest {
+
+  private static Context ctx(String llave, String body) {
+    Context ctx = mock(Context.class);
+    when(ctx.header(Idempotencia.HEADER)).thenReturn(llave);
+    when(ctx.path()).thenReturn("/api/compras/checkout");
+    when(ctx.body()).thenReturn(body);
+    return ctx;
+  }
+
+  @Test
+  void sinLlave_ejecutaSiempre() throws Exception {
+    var idem = new Idempotencia(60_000, 100, 1000);
+    AtomicInteger n = new AtomicInteger();
+
+    idem.responder(ctx(null, "{}"), 1L, () -> new Respuesta(201, n.incrementAndGet()));
+    idem.responder(ctx(null, "{}"), 1L, () -> new Respuesta(201, n.incrementAndGet()));
+
+    assertEquals(2, n.get());
+    assertEquals(0, idem.stats().get("size"));
+  }
+
+  @Test
+  void mismaLlave_repiteLaPrimeraRespuesta() throws Exception {
+    var idem = new Idempotencia(60_000, 100, 1000);
+    AtomicInteger n = new AtomicInteger();
+    Map<String, Object> cuerpo = Map.of("idReserva", 7L);
+
+    Context primero = ctx("k1", "{\"a\":1}");
+    idem.responder(primero, 1L, () -> { n.incrementAndGet(); return new Respuesta(200, cuerpo); });
+    Context reintento = ctx("k1", "{\"a\":1}");
+    Respuesta r = idem.responder(reintento, 1L, () -> { n.incrementAndGet(); return new Respuesta(200, Map.of()); });
+
+    assertEquals(1, n.get());
+    assertSame(cuerpo, r.cuerpo());
+    verify(reintento).json(cuerpo);
+    verify(reintento).header("Idempotent-Replayed", "true");
+    assertEquals(1L, idem.stats().get("repetidas"));
+  }
+
+  @Test
+  void mismaLlaveOtroUsuario_ejecutaAparte() throws Exception {
+    var idem = new Idempotencia(60_000, 100, 1000);
+    AtomicInteger n = new AtomicInteger();
+
+    idem.responder(ctx("k1", "{}"), 1L, () -> new Respuesta(201, n.incrementAndGet()));
+    idem.responder(ctx("k1", "{}"), 2L, () -> new Respuesta(201, n.incrementAndGet()));
+
+    assertEquals(2, n.get());
+  }
+
+  @Test
+  void mismaLlaveOtroCuerpo_responde422() throws Exception {
+    var idem = new Idempotencia(60_000, 100, 1000);
+    idem.responder(ctx("k1", "{\"cantidad\":1}"), 1L, () -> new Respuesta(201, null));
+
+    Context otro = ctx("k1", "{\"cantidad\":5}");
+    Respuesta r = idem.responder(otro, 1L, () -> fail("no debe ejecutar"));
+
+    assertEquals(422, r.status());
+    verify(otro).status(422);
+  }
+
+  @Test
+  void error_noSeGuardaYElReintentoEjecuta() throws Exception {
+    var idem = new Idempotencia(60_000, 100, 1000);
+    AtomicInteger n = new AtomicInteger();
+
+    Respuesta r1 = idem.responder(ctx("k1", "{}"), 1L, () -> { n.incrementAndGet(); return Respuesta.error(400, "Hay mucha demanda"); });
+    Respuesta r2 = idem.responder(ctx("k1", "{}"), 1L, () -> { n.incrementAndGet(); return new Respuesta(201, null); });
+
+    assertEquals(400, r1.status());
+    assertEquals(201, r2.status());
+    assertEquals(2, n.get());
+  }
+
+  @Test
+  void duplicadoConcurrente_esperaYNoEjecutaDosVeces() throws Exception {
+    var idem = new Idempotencia(60_000, 100, 5000);
+    AtomicInteger n = new AtomicInteger();
+    CountDownLatch dentro = new CountDownLatch(1);
+    CountDownLatch soltar = new CountDownLatch(1);
+    ExecutorService pool = Executors.newFixedThreadPool(2);
+    try {
+      Future<Respuesta> original = pool.submit(() -> idem.responder(ctx("k1", "{}"), 1L, () -> {
+        n.incrementAndGet();
+        dentro.countDown();
+        soltar.await();
+        return new Respuesta(200, "reserva-1");
+      }));
+      assertTrue(dentro.await(5, TimeUnit.SECONDS));
+      Future<Respuesta> duplicado = pool.submit(() -> idem.responder(ctx("k1", "{}"), 1L, () -> {
+        n.incrementAndGet();
+        return new Respuesta(200, "reserva-2");
+      }));
+      while ((long) idem.stats().get("esperas") == 0) Thread.sleep(5);
+      soltar.countDown();
+
+      assertEquals("reserva-1", original.get(5, TimeUnit.SECONDS).cuerpo());
+      assertEquals("reserva-1", duplicado.get(5, TimeUnit.SECONDS).cuerpo());
+      assertEquals(1, n.get());
+    } finally {
+      soltar.countDown();
+      pool.shutdownNow();
+    }
+  }
+
+  @Test
+  void duplicadoConcurrente_siLaOriginalLanza_responde503YElReintentoEjecuta() throws Exception {
+    var idem = new Idempotencia(60_000, 100, 5000);
+    CountDownLatch dentro = new CountDownLatch(1);
+    CountDownLatch soltar = new CountDownLatch(1);
+    ExecutorService pool = Executors.newFixedThreadPool(2);
+    try {
+      Future<Respuesta> original = pool.submit(() -> idem.responder(ctx("k1", "{}"), 1L, () -> {
+        dentro.countDown();
+        soltar.await();
+        throw new java.sql.SQLException("ORA-00060: deadlock detected");
+      }));
+      assertTrue(dentro.await(5, TimeUnit.SECONDS));
+      Context ctxDuplicado = ctx("k1", "{}");
+      Future<Respuesta> duplicado = pool.submit(() -> idem.responder(ctxDuplicado, 1L, () -> fail("no debe ejecutar")));
+      while ((long) idem.stats().get("esperas") == 0) Thread.sleep(5);
+      soltar.countDown();
+
+      ExecutionException ex = assertThrows(ExecutionException.class, () -> original.get(5, TimeUnit.SECONDS));
+      assertInstanceOf(java.sql.SQLException.class, ex.getCause());
+      // Un fallo del servidor no se informa como error del cliente
+      assertEquals(503, duplicado.get(5, TimeUnit.SECONDS).status());
+      verify(ctxDuplicado).status(503);
+
+      Respuesta r = idem.responder(ctx("k1", "{}"), 1L, () -> new Respuesta(201, "reserva-1"));
+      assertEquals(201, r.status());
+    } finally {
+      soltar.countDown();
+      pool.shutdownNow();
+    }
+  }
+
+  @Test
+  void lleno_desalojaLasMasViejas() throws Exception {
+    var idem = new Idempotencia(60_000, 2, 1000);
+    for (int i = 0; i < 5; i++) {
+      idem.responder(ctx("k" + i, "{}"), 1L, () -> new Respuesta(201, null));
+    }
+    assertTrue((int) idem.stats().get("size") <= 3);
+    assertTrue((long) idem.stats().get("desalojos") > 0);
+  }
+
+  @Test
+  void llaveDemasiadoLarga_responde400() throws Exception {
+    var idem = new Idempotencia(60_000, 100, 1000);
+    Respuesta r = idem.responder(ctx("x".repeat(300), "{}"), 1L, () -> fail("no debe ejecutar"));
+    assertEquals(400, r.status());
+  }
+}
@@ -0,0 +1,137 @@
+package com.aerolineas.http;
+
+import io.javalin.http.Context;
+import jakarta.servlet.ServletOutputStream;
+import jakarta.servlet.WriteListener;
+import jakarta.servlet.http.HttpServletResponse;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class JsonStreamingTest {
+
+  record Fila(long id, String codigo) {}
+
+  @Test
+  void escribir_emiteArregloCompleto() throws Exception {
+    var out = new ByteArrayOutputStream();
+
+    int n = JsonStreaming.<Fila>escribir(out, e -> {
+      e.emitir(new Fila(1, "A"));
+      e.emitir(new Fila(2, "B"));
+      return 2;
+    });
+
+    assertEquals(2, n);
+    assertEquals("[{\"id\":1,\"codigo\":\"A\"},{\"id\":2,\"codigo\":\"B\"}]",
+        out.toString(StandardCharsets.UTF_8));
+  }
+
+  @Test
+  void escribir_sinFilas_arregloVacio() throws Exception {
+    var out = new ByteArrayOutputStream();
+    assertEquals(0, JsonStreaming.<Fila>escribir(out, e -> 0));
+    assertEquals("[]", out.toString(StandardCharsets.UTF_8));
+  }
+
+  @Test
+  void escribir_flushPorBloques() throws Exception {
+    AtomicInteger flushes = new AtomicInteger();
+    var out = new ByteArrayOutputStream() {
+      @Override public void flush() { flushes.incrementAndGet(); }
+    };
+
+    JsonStreaming.<Fila>escribir(out, e -> {
+      for (int i = 0; i < JsonStreaming.FLUSH_CADA * 2; i++) e.emitir(new Fila(i, "X"));
+      return JsonStreaming.FLUSH_CADA * 2;
+    });
+
+    // primera fila, cada bloque y el cierre
+    assertEquals(4, flushes.get());
+  }
+
+  @Test
+  void escribir_errorTrasEnviar_dejaJsonTruncado() {
+    var out = new ByteArrayOutputStream();
+
+    assertThrows(SQLException.class, () -> JsonStreaming.<Fila>escribir(out, e -> {
+      e.emitir(new Fila(1, "A"));
+      throw new SQLException("cursor cerrado");
+    }));
+
+    String json = out.toString(StandardCharsets.UTF_8);
+    assertTrue(json.startsWith("[{\"id\":1"));
+    assertFalse(json.endsWith("]"));
+  }
+
+  @Test
+  void escribir_errorAntesDeFilas_noEscribeNada() {
+    var out = new ByteArrayOutputStream();
+
+    assertThrows(IOException.class, () -> JsonStreaming.<Fila>escribir(out, e -> {
+      throw new IOException("sin conexión");
+    }));
+
+    assertEquals(0, out.size());
+  }
+
+  private static Context contexto(ByteArrayOutputStream destino, boolean comprometida) {
+    Context ctx = mock(Context.class);
+    HttpServletResponse res = mock(HttpServletResponse.class);
+    when(res.isCommitted()).thenReturn(comprometida);
+    when(ctx.res()).thenReturn(res);
+    when(ctx.outputStream()).thenReturn(new ServletOutputStream() {
+      @Override public void write(int b) { destino.write(b); }
+      @Override public boolean isReady() { return true; }
+      @Override public void setWriteListener(WriteListener l) {}
+    });
+    return ctx;
+  }
+
+  @Test
+  void responder_errorAntesDeEnviar_propagaParaElCuerpoDeError() {
+    var out = new ByteArrayOutputStream();
+    Context ctx = contexto(out, false);
+
+    assertThrows(SQLException.class, () -> JsonStreaming.<Fila>responder(ctx, e -> {
+      throw new SQLException("ORA-01013");
+    }));
+
+    assertEquals(0, out.size());
+    verify(ctx).contentType("application/json");
+  }
+
+  @Test
+  void responder_errorConJsonEnviado_noPropaga() throws Exception {
+    var out = new ByteArrayOutputStream();
+    Context ctx = contexto(out, true);
+
+    int n = JsonStreaming.<Fila>responder(ctx, e -> {
+      e.emitir(new Fila(1, "A"));
+      throw new SQLException("cursor cerrado");
+    });
+
+    assertEquals(-1, n);
+    String json = out.toString(StandardCharsets.UTF_8);
+    assertTrue(json.startsWith("[{\"id\":1"));
+    assertFalse(json.endsWith("]"));
+  }
+
+  @Test
+  void responder_respuestaComprometidaSinFilas_noPropaga() throws Exception {
+    var out = new ByteArrayOutputStream();
+    Context ctx = contexto(out, true);
+
+    assertEquals(-1, JsonStreaming.<Fila>responder(ctx, e -> {
+      throw new SQLException("ORA-01013");
+    }));
+    assertEquals(0, out.size());
+  }
+}
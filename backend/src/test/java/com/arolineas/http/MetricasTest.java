@@ -0,0 +1,63 @@
+package com.aerolineas.http;
+
+import io.javalin.http.HandlerType;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MetricasTest {
+
+  @Test
+  void serie_esLaMismaPorPlantilla() {
+    var m = new Metricas();
+    var a = m.enRuta(HandlerType.GET, "/api/public/vuelos/{id}");
+    var b = m.enRuta(HandlerType.GET, "/api/public/vuelos/{id}");
+    assertSame(a, b);
+    assertEquals("GET /api/public/vuelos/{id}", a.nombre());
+    assertNotSame(a, m.enRuta(HandlerType.PUT, "/api/public/vuelos/{id}"));
+  }
+
+  @Test
+  void terminar_cuentaPorEstadoYExportaHistograma() {
+    var m = new Metricas();
+    for (int i = 0; i < 3; i++) {
+      m.iniciar();
+      m.enRuta(HandlerType.GET, "/api/public/vuelos/{id}");
+      m.terminar(HandlerType.GET, i == 2 ? 404 : 200);
+    }
+
+    String txt = m.prometheus();
+    assertTrue(txt.contains("# TYPE aerolineas_http_peticiones_total counter"));
+    assertTrue(txt.contains("aerolineas_http_peticiones_total{metodo=\"GET\",ruta=\"/api/public/vuelos/{id}\",estado=\"200\"} 2\n"));
+    assertTrue(txt.contains("aerolineas_http_peticiones_total{metodo=\"GET\",ruta=\"/api/public/vuelos/{id}\",estado=\"404\"} 1\n"));
+    assertTrue(txt.contains("aerolineas_http_duracion_seconds_bucket{metodo=\"GET\",ruta=\"/api/public/vuelos/{id}\",le=\"+Inf\"} 3\n"));
+    assertTrue(txt.contains("aerolineas_http_duracion_seconds_count{metodo=\"GET\",ruta=\"/api/public/vuelos/{id}\"} 3\n"));
+    assertTrue(txt.contains("le=\"0.000256\""));
+  }
+
+  @Test
+  void sinRutaResuelta_vaASinRuta() {
+    var m = new Metricas();
+    m.iniciar();
+    m.terminar(HandlerType.GET, 404);
+    // Sin iniciar no se registra nada
+    m.terminar(HandlerType.GET, 200);
+
+    String txt = m.prometheus();
+    assertTrue(txt.contains("ruta=\"" + Metricas.SIN_RUTA + "\",estado=\"404\"} 1\n"));
+    assertFalse(txt.contains("estado=\"200\""));
+  }
+
+  @Test
+  void fuentes_seAgreganYUnaConErrorNoCortaElTexto() {
+    var m = new Metricas();
+    m.agregarFuente(t -> { throw new IllegalStateException("caída"); });
+    m.agregarFuente(Metricas::jvm);
+    m.agregarFuente(t -> t.muestra("prueba", 1.5, "etiqueta", "con \"comillas\""));
+
+    String txt = m.prometheus();
+    assertTrue(txt.contains("# TYPE aerolineas_jvm_memoria_bytes gauge"));
+    assertTrue(txt.contains("aerolineas_jvm_hilos{tipo=\"vivos\"}"));
+    assertTrue(txt.contains("aerolineas_prueba{etiqueta=\"con \\\"comillas\\\"\"} 1.5\n"));
+  }
+}
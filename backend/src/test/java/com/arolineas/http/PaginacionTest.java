@@ -0,0 +1,95 @@
+package com.aerolineas.http;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import io.javalin.http.Context;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class PaginacionTest {
+
+  record Fila(long id, String codigo, String extra) {}
+
+  @Test
+  void cursor_sinParametros_yDefaultCero_esNull() {
+    Context ctx = mock(Context.class);
+    assertNull(Paginacion.cursor(ctx, 0));
+  }
+
+  @Test
+  void cursor_usaDefaultYAcotaAlMaximo() {
+    Context ctx = mock(Context.class);
+    assertEquals(new Paginacion.Cursor(null, 100), Paginacion.cursor(ctx, 100));
+
+    when(ctx.queryParam("limit")).thenReturn("5000");
+    when(ctx.queryParam("after")).thenReturn("42");
+    var c = Paginacion.cursor(ctx, 0);
+    assertEquals(42L, c.after());
+    assertEquals(Paginacion.LIMIT_MAX, c.limit());
+    assertEquals(Paginacion.LIMIT_MAX + 1, c.limitConSonda());
+  }
+
+  @Test
+  void cursor_valoresInvalidos_lanzanIllegalArgument() {
+    Context ctx = mock(Context.class);
+    when(ctx.queryParam("limit")).thenReturn("0");
+    assertThrows(IllegalArgumentException.class, () -> Paginacion.cursor(ctx, 0));
+
+    Context ctx2 = mock(Context.class);
+    when(ctx2.queryParam("after")).thenReturn("abc");
+    assertThrows(IllegalArgumentException.class, () -> Paginacion.cursor(ctx2, 0));
+  }
+
+  @Test
+  void responder_conFilaExtra_recortaYPublicaCursor() {
+    Context ctx = mock(Context.class);
+    var filas = List.of(new Fila(1, "A", "x"), new Fila(2, "B", "y"), new Fila(3, "C", "z"));
+
+    Paginacion.responder(ctx, filas, new Paginacion.Cursor(null, 2), Fila::id);
+
+    verify(ctx).header(Paginacion.HEADER_CURSOR, "2");
+    verify(ctx).json(filas.subList(0, 2));
+  }
+
+  @Test
+  void responder_ultimaPagina_sinCursor() {
+    Context ctx = mock(Context.class);
+    var filas = List.of(new Fila(1, "A", "x"));
+
+    Paginacion.responder(ctx, filas, new Paginacion.Cursor(null, 2), Fila::id);
+
+    verify(ctx, never()).header(eq(Paginacion.HEADER_CURSOR), anyString());
+    verify(ctx).json(filas);
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  void responder_conFields_proyectaCampos() {
+    Context ctx = mock(Context.class);
+    when(ctx.queryParam("fields")).thenReturn("id, codigo,,");
+
+    Paginacion.responder(ctx, List.of(new Fila(7, "A", "x")), null, Fila::id);
+
+    ArgumentCaptor<Object> body = ArgumentCaptor.forClass(Object.class);
+    verify(ctx).json(body.capture());
+    JsonNode n = ((List<JsonNode>) body.getValue()).get(0);
+    assertEquals(7, n.get("id").asLong());
+    assertEquals("A", n.get("codigo").asText());
+    assertFalse(n.has("extra"));
+  }
+
+  @Test
+  void campos_vacio_esNull() {
+    Context ctx = mock(Context.class);
+    when(ctx.queryParam("fields")).thenReturn(" , ");
+    assertNull(Paginacion.campos(ctx));
+    when(ctx.queryParam("fields")).thenReturn("a,b");
+    assertEquals(Set.of("a", "b"), Paginacion.campos(ctx));
+  }
+}
@@ -3,11 +3,13 @@ package com.arolineas.middleware;
 import com.aerolineas.dao.UsuarioDAO;
 import com.aerolineas.model.Usuario;
 import com.aerolineas.middleware.WebServiceAuth;
+import com.aerolineas.middleware.WebServiceCredCache;
 import com.aerolineas.util.PasswordUtil;
 import io.javalin.http.Context;
 import io.javalin.http.Handler;
 import io.javalin.http.HandlerType;
 import io.javalin.http.UnauthorizedResponse;
+import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.mockito.ArgumentCaptor;
 import org.mockito.MockedConstruction;
@@ -26,6 +28,11 @@ class WebServiceAuthTest {
     return WebServiceAuth.validate();
   }
 
+  @BeforeEach
+  void limpiarCache() {
+    WebServiceCredCache.clear();
+  }
+
   @Test
   void options_seIgnoraSinValidarNada() throws Exception {
     Context ctx = mock(Context.class);
@@ -176,4 +183,59 @@ class WebServiceAuthTest {
       assertEquals("Web Service", claims.get("name"));
     }
   }
+
+  @Test
+  void segundaLlamadaConMismasCredenciales_usaCacheSinTocarDAO() throws Exception {
+    Context ctx = mock(Context.class);
+    when(ctx.method()).thenReturn(HandlerType.POST);
+    when(ctx.header("X-WebService-Email")).thenReturn("ws@test.com");
+    when(ctx.header("X-WebService-Password")).thenReturn("secret");
+
+    Usuario u = new Usuario();
+    u.setIdUsuario(123L);
+    u.setEmail("ws@test.com");
+    u.setIdRol(2);
+    u.setHabilitado(true);
+    u.setContrasenaHash("hash-ok");
+    u.setNombres("Web");
+    u.setApellidos("Service");
+
+    try (MockedConstruction<UsuarioDAO> mocked = mockConstruction(UsuarioDAO.class,
+             (mockDao, context) -> when(mockDao.findByEmail("ws@test.com")).thenReturn(u));
+         MockedStatic<PasswordUtil> pwdMock = mockStatic(PasswordUtil.class)) {
+
+      pwdMock.when(() -> PasswordUtil.verify("secret", "hash-ok")).thenReturn(true);
+
+      handler().handle(ctx);
+      handler().handle(ctx);
+
+      assertEquals(1, mocked.constructed().size());
+      pwdMock.verify(() -> PasswordUtil.verify("secret", "hash-ok"), times(1));
+      verify(ctx, times(2)).attribute(eq("claims"), any());
+      assertEquals(1, WebServiceCredCache.hits());
+      assertEquals(1, WebServiceCredCache.misses());
+
+      WebServiceCredCache.invalidateUser(123L);
+      handler().handle(ctx);
+      assertEquals(2, mocked.constructed().size());
+    }
+  }
+
+  @Test
+  void credencialesInvalidas_noSeCachean() {
+    Context ctx = mock(Context.class);
+    when(ctx.method()).thenReturn(HandlerType.POST);
+    when(ctx.header("X-WebService-Email")).thenReturn("ws@test.com");
+    when(ctx.header("X-WebService-Password")).thenReturn("secret");
+
+    try (MockedConstruction<UsuarioDAO> mocked = mockConstruction(UsuarioDAO.class,
+        (mockDao, context) -> when(mockDao.findByEmail("ws@test.com")).thenReturn(null))) {
+
+      assertThrows(UnauthorizedResponse.class, () -> handler().handle(ctx));
+      assertThrows(UnauthorizedResponse.class, () -> handler().handle(ctx));
+
+      assertEquals(2, mocked.constructed().size());
+      assertEquals(0, WebServiceCredCache.hits());
+    }
+  }
 }
@@ -0,0 +1,81 @@
+package com.aerolineas.middleware;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class WebServiceCredCacheTest {
+
+  @BeforeEach
+  void setUp() {
+    WebServiceCredCache.clear();
+  }
+
+  @AfterEach
+  void clearProps() {
+    System.clearProperty("WS_AUTH_CACHE_TTL_SECONDS");
+    System.clearProperty("WS_AUTH_CACHE_MAX");
+    WebServiceCredCache.clear();
+  }
+
+  @Test
+  void key_noContienePasswordYDependeDeAmbosCampos() {
+    String k1 = WebServiceCredCache.key("ws@test.com", "secret");
+    String k2 = WebServiceCredCache.key("ws@test.com", "otra");
+    String k3 = WebServiceCredCache.key("ws@test.comsecret", "");
+
+    assertFalse(k1.contains("secret"));
+    assertNotEquals(k1, k2);
+    assertNotEquals(k1, k3);
+    assertEquals(k1, WebServiceCredCache.key("ws@test.com", "secret"));
+  }
+
+  @Test
+  void put_y_get_cuentaHitsYMisses() {
+    assertNull(WebServiceCredCache.get("a@x.com", "p"));
+    WebServiceCredCache.put("a@x.com", "p", 1L, Map.of("sub", "1"));
+
+    assertEquals(Map.of("sub", "1"), WebServiceCredCache.get("a@x.com", "p"));
+    assertNull(WebServiceCredCache.get("a@x.com", "otra"));
+
+    assertEquals(1, WebServiceCredCache.hits());
+    assertEquals(2, WebServiceCredCache.misses());
+  }
+
+  @Test
+  void ttlCero_desactivaCache() {
+    System.setProperty("WS_AUTH_CACHE_TTL_SECONDS", "0");
+    WebServiceCredCache.put("a@x.com", "p", 1L, Map.of("sub", "1"));
+
+    assertNull(WebServiceCredCache.get("a@x.com", "p"));
+    assertEquals(0, WebServiceCredCache.stats().get("size"));
+  }
+
+  @Test
+  void invalidateUser_soloBorraEntradasDeEseUsuario() {
+    WebServiceCredCache.put("a@x.com", "p", 1L, Map.of("sub", "1"));
+    WebServiceCredCache.put("b@x.com", "p", 2L, Map.of("sub", "2"));
+
+    WebServiceCredCache.invalidateUser(1L);
+
+    assertNull(WebServiceCredCache.get("a@x.com", "p"));
+    assertNotNull(WebServiceCredCache.get("b@x.com", "p"));
+  }
+
+  @Test
+  void alLlegarAlMaximo_expulsaEntradas() {
+    System.setProperty("WS_AUTH_CACHE_MAX", "2");
+    WebServiceCredCache.put("a@x.com", "p", 1L, Map.of());
+    WebServiceCredCache.put("b@x.com", "p", 2L, Map.of());
+    WebServiceCredCache.put("c@x.com", "p", 3L, Map.of());
+
+    Map<String, Object> st = WebServiceCredCache.stats();
+    assertEquals(2, st.get("size"));
+    assertEquals(1L, st.get("evictions"));
+    assertNotNull(WebServiceCredCache.get("c@x.com", "p"));
+  }
+}
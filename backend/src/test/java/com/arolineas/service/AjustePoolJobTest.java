@@ -0,0 +1,87 @@
+package com.aerolineas.service;
+
+import com.aerolineas.config.TelemetriaPool;
+import com.zaxxer.hikari.metrics.IMetricsTracker;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AjustePoolJobTest {
+
+  private final TelemetriaPool telemetria = new TelemetriaPool();
+  private final IMetricsTracker tracker = telemetria.create("p", null);
+  private final AtomicInteger tamano = new AtomicInteger(8);
+
+  private AjustePoolJob job(int min, int max) {
+    return new AjustePoolJob(telemetria, tamano::get, tamano::set, min, max, 10, 250, 2);
+  }
+
+  private void esperas(int n, long ms) {
+    for (int i = 0; i < n; i++) tracker.recordConnectionAcquiredNanos(ms * 1_000_000);
+  }
+
+  private void usos(int n, long ms) {
+    for (int i = 0; i < n; i++) tracker.recordConnectionUsageMillis(ms);
+  }
+
+  @Test
+  void conEspera_creceHastaElMaximo() {
+    var j = job(4, 12);
+    esperas(50, 40);
+    usos(50, 20);
+    assertEquals(10, j.evaluar());
+
+    esperas(50, 40);
+    assertEquals(12, j.evaluar());
+
+    esperas(50, 40);
+    assertEquals(12, j.evaluar());
+    assertEquals(2L, j.stats().get("crecimientos"));
+  }
+
+  @Test
+  void timeout_cuentaComoPresion() {
+    var j = job(4, 20);
+    tracker.recordConnectionTimeout();
+    assertEquals(10, j.evaluar());
+  }
+
+  @Test
+  void conEsperaPeroBDLenta_noCrece() {
+    var j = job(4, 20);
+    esperas(50, 40);
+    usos(50, 800);
+    assertEquals(8, j.evaluar());
+    assertEquals(1L, j.stats().get("contenidosPorLatencia"));
+    assertTrue(((String) j.stats().get("ultimaDecision")).contains("BD"));
+  }
+
+  @Test
+  void sinEspera_bajaDeAUnaTrasVentanasCalmas() {
+    var j = job(7, 20);
+    esperas(100, 0);
+    assertEquals(8, j.evaluar());
+    assertEquals(7, j.evaluar());
+    j.evaluar();
+    assertEquals(7, j.evaluar());
+    assertEquals(1L, j.stats().get("reducciones"));
+  }
+
+  @Test
+  void soloMideLaUltimaVentana() {
+    esperas(100, 40);
+    var j = job(4, 20);
+    assertEquals(8, j.evaluar());
+  }
+
+  @Test
+  void poolSinIniciar_noHaceNada() {
+    tamano.set(0);
+    var j = job(4, 20);
+    esperas(10, 40);
+    assertEquals(0, j.evaluar());
+    assertEquals(0, tamano.get());
+  }
+}
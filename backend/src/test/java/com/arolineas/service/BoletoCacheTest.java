@@ -0,0 +1,131 @@
+package com.aerolineas.service;
+
+import com.aerolineas.dto.CompraDTO;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BoletoCacheTest {
+
+  @TempDir
+  Path dir;
+
+  final AtomicInteger renders = new AtomicInteger();
+
+  final BoletoCache.Render render = (det, codigo, comprador, email) -> {
+    renders.incrementAndGet();
+    return ("%PDF " + codigo + " " + comprador).getBytes(StandardCharsets.UTF_8);
+  };
+
+  private static CompraDTO.ReservaDetalle det(long idReserva, long idVuelo) {
+    var it = new CompraDTO.ReservaItem();
+    it.idVuelo = idVuelo;
+    it.codigoVuelo = "AV" + idVuelo;
+    it.fechaSalida = "2026-12-01 08:00";
+    var d = new CompraDTO.ReservaDetalle();
+    d.idReserva = idReserva;
+    d.codigo = "R" + idReserva;
+    d.items = List.of(it);
+    return d;
+  }
+
+  private static BoletoCache.Entrada entrada(CompraDTO.ReservaDetalle d) {
+    return new BoletoCache.Entrada(d, d.codigo, "Ana López", "ana@test.com");
+  }
+
+  @Test
+  void segundaDescarga_sirveElArchivoSinRenderizar() throws Exception {
+    var cache = new BoletoCache(dir, render, Runnable::run);
+    var d = det(1, 10);
+
+    Path a = cache.obtener(entrada(d));
+    Path b = cache.obtener(entrada(d));
+
+    assertEquals(a, b);
+    assertEquals(1, renders.get());
+    assertEquals(dir.resolve("1"), a.getParent());
+    assertEquals("%PDF R1 Ana López", Files.readString(a));
+    assertEquals(1L, cache.stats().get("hits"));
+    assertEquals(1L, cache.stats().get("misses"));
+  }
+
+  @Test
+  void cambioEnElVuelo_cambiaLaClave() throws Exception {
+    var cache = new BoletoCache(dir, render, Runnable::run);
+    var d = det(1, 10);
+    Path antes = cache.obtener(entrada(d));
+
+    d.items.get(0).fechaSalida = "2026-12-01 11:30";
+    Path despues = cache.obtener(entrada(d));
+
+    assertNotEquals(antes, despues);
+    assertEquals(2, renders.get());
+  }
+
+  @Test
+  void invalidarReservaYVuelo_borranLosArchivos() throws Exception {
+    var cache = new BoletoCache(dir, render, Runnable::run);
+    Path r1 = cache.obtener(entrada(det(1, 10)));
+    Path r2 = cache.obtener(entrada(det(2, 10)));
+    Path r3 = cache.obtener(entrada(det(3, 20)));
+
+    assertEquals(1, cache.invalidarReserva(3));
+    assertFalse(Files.exists(r3));
+
+    assertEquals(2, cache.invalidarVuelo(10));
+    assertFalse(Files.exists(r1));
+    assertFalse(Files.exists(r2));
+    assertEquals(0, cache.invalidarVuelo(10));
+  }
+
+  @Test
+  void descargasSimultaneas_renderizanUnaSolaVez() throws Exception {
+    CountDownLatch entro = new CountDownLatch(1);
+    CountDownLatch soltar = new CountDownLatch(1);
+    BoletoCache.Render lento = (det, codigo, comprador, email) -> {
+      renders.incrementAndGet();
+      entro.countDown();
+      soltar.await(5, TimeUnit.SECONDS);
+      return new byte[]{1, 2, 3};
+    };
+    var cache = new BoletoCache(dir, lento, Runnable::run);
+    var d = det(4, 10);
+
+    ExecutorService pool = Executors.newFixedThreadPool(2);
+    try {
+      Future<Path> a = pool.submit(() -> cache.obtener(entrada(d)));
+      assertTrue(entro.await(5, TimeUnit.SECONDS));
+      Future<Path> b = pool.submit(() -> cache.obtener(entrada(d)));
+      Thread.sleep(50);
+      soltar.countDown();
+
+      assertEquals(a.get(5, TimeUnit.SECONDS), b.get(5, TimeUnit.SECONDS));
+      assertEquals(1, renders.get());
+    } finally {
+      pool.shutdownNow();
+    }
+  }
+
+  @Test
+  void purgar_borraSoloLosViejos() throws Exception {
+    var cache = new BoletoCache(dir, render, Runnable::run);
+    Path viejo = cache.obtener(entrada(det(1, 10)));
+    Path nuevo = cache.obtener(entrada(det(2, 10)));
+    Files.setLastModifiedTime(viejo, FileTime.from(Instant.now().minus(Duration.ofDays(40))));
+
+    assertEquals(1, cache.purgar(Duration.ofDays(30)));
+    assertFalse(Files.exists(viejo));
+    assertTrue(Files.exists(nuevo));
+  }
+}
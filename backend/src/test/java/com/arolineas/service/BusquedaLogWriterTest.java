@@ -0,0 +1,104 @@
+package com.aerolineas.service;
+
+import com.aerolineas.dao.LogBusquedaDAO;
+import com.aerolineas.dto.BusquedaDTO;
+import org.junit.jupiter.api.Test;
+
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.*;
+
+class BusquedaLogWriterTest {
+
+  private static BusquedaDTO.Log log(int n) {
+    LocalDate d = LocalDate.of(2030, 1, 1);
+    return new BusquedaDTO.Log(null, "solo_ida", "GUA", "MIA", d, d, null, null, null, 1, false, n, "web");
+  }
+
+  @Test
+  void vaciar_escribePorLotes() throws Exception {
+    LogBusquedaDAO dao = mock(LogBusquedaDAO.class);
+    List<Integer> tamanos = new ArrayList<>();
+    when(dao.insertarLote(anyList())).thenAnswer(inv -> {
+      List<?> l = inv.getArgument(0);
+      tamanos.add(l.size());
+      return l.size();
+    });
+    var w = new BusquedaLogWriter(dao, 100, 2, 0);
+    for (int i = 0; i < 5; i++) w.registrar(log(i));
+
+    assertEquals(5, w.vaciar());
+    assertEquals(List.of(2, 2, 1), tamanos);
+    assertEquals(0, w.pendientes());
+    assertEquals(5, w.escritos());
+  }
+
+  @Test
+  void registrar_colaLlenaDescartaSinBloquear() {
+    var w = new BusquedaLogWriter(mock(LogBusquedaDAO.class), 2, 10, 0);
+    w.registrar(log(1));
+    w.registrar(log(2));
+    w.registrar(log(3));
+
+    assertEquals(2, w.pendientes());
+    assertEquals(1, w.descartados());
+  }
+
+  @Test
+  void vaciar_errorDeBD_cuentaDescartadosYContinua() throws Exception {
+    LogBusquedaDAO dao = mock(LogBusquedaDAO.class);
+    when(dao.insertarLote(anyList())).thenThrow(new SQLException("down"));
+    var w = new BusquedaLogWriter(dao, 10, 10, 0);
+    w.registrar(log(1));
+    w.registrar(log(2));
+
+    assertEquals(0, w.vaciar());
+    assertEquals(2, w.descartados());
+    assertEquals(0, w.pendientes());
+  }
+
+  @Test
+  void vaciar_loteFallido_reintentaUnoPorUno() throws Exception {
+    LogBusquedaDAO dao = mock(LogBusquedaDAO.class);
+    when(dao.insertarLote(anyList())).thenAnswer(inv -> {
+      List<BusquedaDTO.Log> l = inv.getArgument(0);
+      if (l.stream().anyMatch(x -> x.cantidadResultados() == 2)) throw new SQLException("ORA-02290");
+      return l.size();
+    });
+    var w = new BusquedaLogWriter(dao, 10, 10, 0);
+    for (int i = 1; i <= 3; i++) w.registrar(log(i));
+
+    assertEquals(2, w.vaciar());
+    assertEquals(2, w.escritos());
+    assertEquals(1, w.descartados());
+  }
+
+  @Test
+  void vaciar_filasOmitidasPorElDao_cuentanComoDescartadas() throws Exception {
+    LogBusquedaDAO dao = mock(LogBusquedaDAO.class);
+    when(dao.insertarLote(anyList())).thenReturn(1);
+    var w = new BusquedaLogWriter(dao, 10, 10, 0);
+    w.registrar(log(1));
+    w.registrar(log(2));
+
+    assertEquals(1, w.vaciar());
+    assertEquals(1, w.descartados());
+  }
+
+  @Test
+  void start_sinFlush_noCreaHilo_yStopVacia() throws Exception {
+    LogBusquedaDAO dao = mock(LogBusquedaDAO.class);
+    when(dao.insertarLote(anyList())).thenReturn(1);
+    var w = new BusquedaLogWriter(dao, 10, 10, 0);
+    w.start();
+    w.registrar(log(1));
+    w.stop();
+
+    verify(dao).insertarLote(anyList());
+  }
+}
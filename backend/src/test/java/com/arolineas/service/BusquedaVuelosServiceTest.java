@@ -0,0 +1,137 @@
+package com.aerolineas.service;
+
+import com.aerolineas.dto.BusquedaDTO;
+import com.aerolineas.dto.VueloDTO;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+class BusquedaVuelosServiceTest {
+
+  private static final LocalDate DIA = LocalDate.of(2030, 5, 10);
+
+  private static VueloDTO.View vuelo(long id, String origen, String destino, LocalDate dia, Long pareja, int... clases) {
+    List<VueloDTO.ClaseConfig> cc = new ArrayList<>();
+    for (int c : clases) cc.add(new VueloDTO.ClaseConfig(c, 10, 100.0));
+    LocalDateTime salida = dia.atTime(8, 0);
+    return new VueloDTO.View(id, "V" + id, 1L, origen, destino, salida, salida.plusHours(2),
+        true, 1, "PROGRAMADO", cc, List.of(), pareja, null, null);
+  }
+
+  private static BusquedaDTO.Criterios criterios(String o, String d, LocalDate desde, LocalDate hasta,
+                                                 LocalDate regDesde, Integer clase, int boletos, boolean directo) {
+    return new BusquedaDTO.Criterios(o, d, desde, hasta, regDesde, null, clase, boletos, directo);
+  }
+
+  @Test
+  void buscar_filtraPorRutaDiaYNormalizaCiudad() throws Exception {
+    var catalogo = new CatalogoVuelosService(() -> List.of(
+        vuelo(1, "Guatemala", "Cancún", DIA, null, 1),
+        vuelo(2, "Guatemala", "Cancún", DIA.plusDays(3), null, 1),
+        vuelo(3, "Guatemala", "Miami", DIA, null, 1)), null, 0);
+    var svc = new BusquedaVuelosService(catalogo, null, null);
+
+    var r = svc.buscar(criterios(" guatemala ", "CANCUN", DIA, DIA.plusDays(1), null, null, 1, false), null, "web");
+
+    assertEquals(List.of(1L), r.directos().stream().map(o -> o.ida().idVuelo()).toList());
+    assertTrue(r.conEscala().isEmpty());
+  }
+
+  @Test
+  void buscar_respetaClaseYBoletosSegunDisponibilidad() throws Exception {
+    Map<Long, Map<Integer, Integer>> disp = new HashMap<>();
+    disp.put(1L, Map.of(1, 2, 2, 8));
+    disp.put(2L, Map.of(1, 5));
+    var catalogo = new CatalogoVuelosService(() -> List.of(
+        vuelo(1, "GUA", "MIA", DIA, null, 1, 2),
+        vuelo(2, "GUA", "MIA", DIA, null, 1)), () -> disp, 60_000);
+    var svc = new BusquedaVuelosService(catalogo, null, null);
+
+    var r = svc.buscar(criterios("GUA", "MIA", DIA, null, null, 1, 3, false), null, "web");
+    assertEquals(List.of(2L), r.directos().stream().map(o -> o.ida().idVuelo()).toList());
+
+    r = svc.buscar(criterios("GUA", "MIA", DIA, null, null, 2, 3, false), null, "web");
+    assertEquals(List.of(1L), r.directos().stream().map(o -> o.ida().idVuelo()).toList());
+  }
+
+  @Test
+  void buscar_idaYVuelta_emparejaPorVueloPareja() throws Exception {
+    var catalogo = new CatalogoVuelosService(() -> List.of(
+        vuelo(1, "GUA", "MIA", DIA, 10L, 1),
+        vuelo(2, "GUA", "MIA", DIA, null, 1),
+        vuelo(10, "MIA", "GUA", DIA.plusDays(5), 1L, 1)), null, 0);
+    var svc = new BusquedaVuelosService(catalogo, null, null);
+
+    var r = svc.buscar(criterios("GUA", "MIA", DIA, null, DIA.plusDays(4), null, 1, false), null, "web");
+    assertTrue(r.directos().isEmpty());
+
+    r = svc.buscar(new BusquedaDTO.Criterios("GUA", "MIA", DIA, null, DIA.plusDays(4), DIA.plusDays(6), null, 1, false), null, "web");
+    assertEquals(1, r.directos().size());
+    assertEquals(10L, r.directos().get(0).regreso().idVuelo());
+  }
+
+  @Test
+  void buscar_incluyeEscalasConTramosDisponibles_yRecargaSoloAlCambiarVersion() throws Exception {
+    var t1 = vuelo(1, "GUA", "SAL", DIA, null, 1);
+    var t2 = vuelo(2, "SAL", "MIA", DIA, null, 1);
+    var escala = new VueloDTO.VueloConEscalaView(50L, "E50", t1, t2, "GUA", "MIA", null, null,
+        DIA.atTime(8, 0), DIA.atTime(15, 0), true, null, "ACTIVO",
+        List.of(new VueloDTO.ClaseConfig(1, 10, 300.0)), null);
+    AtomicInteger cargas = new AtomicInteger();
+    var catalogo = new CatalogoVuelosService(() -> List.of(t1, t2), null, 0);
+    var svc = new BusquedaVuelosService(catalogo, () -> { cargas.incrementAndGet(); return List.of(escala); }, null);
+
+    var r = svc.buscar(criterios("GUA", "MIA", DIA, null, null, 1, 1, false), null, "web");
+    assertEquals(List.of(50L), r.conEscala().stream().map(VueloDTO.VueloConEscalaView::idVueloConEscala).toList());
+
+    r = svc.buscar(criterios("GUA", "MIA", DIA, null, null, 1, 1, true), null, "web");
+    assertTrue(r.conEscala().isEmpty());
+    assertEquals(1, cargas.get());
+
+    catalogo.reconstruir();
+    svc.buscar(criterios("GUA", "MIA", DIA, null, null, 1, 1, false), null, "web");
+    assertEquals(2, cargas.get());
+  }
+
+  @Test
+  void buscar_registraLogEnElWriter() throws Exception {
+    BusquedaLogWriter writer = mock(BusquedaLogWriter.class);
+    var catalogo = new CatalogoVuelosService(() -> List.of(vuelo(1, "GUA", "MIA", DIA, null, 1)), null, 0);
+    var svc = new BusquedaVuelosService(catalogo, null, writer);
+
+    svc.buscar(criterios("GUA", "MIA", DIA, null, null, 1, 2, true), 7L, "webservice");
+
+    verify(writer).registrar(new BusquedaDTO.Log(7L, "solo_ida", "GUA", "MIA", DIA, DIA, null, null, 1, 2, true, 1, "webservice"));
+  }
+
+  @Test
+  void validar_rechazaCriteriosInvalidos() {
+    assertThrows(IllegalArgumentException.class,
+        () -> BusquedaVuelosService.validar(criterios(null, "MIA", DIA, null, null, null, 1, false)));
+    assertThrows(IllegalArgumentException.class,
+        () -> BusquedaVuelosService.validar(criterios("GUA", "MIA", null, null, null, null, 1, false)));
+    assertThrows(IllegalArgumentException.class,
+        () -> BusquedaVuelosService.validar(criterios("GUA", "MIA", DIA, DIA.minusDays(1), null, null, 1, false)));
+    assertThrows(IllegalArgumentException.class,
+        () -> BusquedaVuelosService.validar(criterios("GUA", "MIA", DIA, DIA.plusDays(100), null, null, 1, false)));
+    assertThrows(IllegalArgumentException.class,
+        () -> BusquedaVuelosService.validar(criterios("GUA", "MIA", DIA, null, null, null, 0, false)));
+    assertDoesNotThrow(() -> BusquedaVuelosService.validar(criterios("GUA", "MIA", DIA, null, null, null, 1, false)));
+  }
+
+  @Test
+  void normalizar_quitaTildesYEspacios() {
+    assertEquals("CANCUN", BusquedaVuelosService.normalizar("  Cancún "));
+    assertEquals("", BusquedaVuelosService.normalizar(null));
+  }
+}
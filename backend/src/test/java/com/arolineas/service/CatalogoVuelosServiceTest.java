@@ -0,0 +1,133 @@
+package com.aerolineas.service;
+
+import com.aerolineas.dto.VueloDTO;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CatalogoVuelosServiceTest {
+
+  private static VueloDTO.View vuelo(long id, int... clases) {
+    List<VueloDTO.ClaseConfig> cc = new java.util.ArrayList<>();
+    for (int c : clases) cc.add(new VueloDTO.ClaseConfig(c, 10, 100.0));
+    return new VueloDTO.View(id, "V" + id, 1L, LocalDateTime.now(), LocalDateTime.now().plusHours(2), true, cc, List.of());
+  }
+
+  @Test
+  void snapshot_seConstruyeUnaVezYEsInmutable() throws Exception {
+    AtomicInteger cargas = new AtomicInteger();
+    var svc = new CatalogoVuelosService(() -> { cargas.incrementAndGet(); return List.of(vuelo(1, 1)); }, null, 0);
+
+    var s1 = svc.snapshot();
+    var s2 = svc.snapshot();
+
+    assertSame(s1, s2);
+    assertEquals(1, cargas.get());
+    assertEquals(1L, s1.version());
+    assertThrows(UnsupportedOperationException.class, () -> s1.vuelos().add(vuelo(2, 1)));
+    assertThrows(UnsupportedOperationException.class, () -> s1.vuelos().get(0).clases().clear());
+  }
+
+  @Test
+  void vista_sinFuente_etagSigueAlContenidoYNoALaVersion() throws Exception {
+    LocalDateTime salida = LocalDateTime.of(2025, 3, 1, 8, 0);
+    List<VueloDTO.View> vuelos = new java.util.ArrayList<>(List.of(
+        new VueloDTO.View(1L, "V1", 1L, salida, salida.plusHours(2), true, List.of(new VueloDTO.ClaseConfig(1, 10, 100.0)), List.of())));
+    var svc = new CatalogoVuelosService(() -> vuelos, null, 0);
+    var otra = new CatalogoVuelosService(() -> vuelos, null, 0);
+
+    String e1 = svc.vista().etag();
+    assertEquals(e1, svc.vista().etag());
+
+    svc.reconstruir();
+    svc.reconstruir();
+    assertEquals(3L, svc.snapshot().version());
+    assertEquals(e1, svc.vista().etag());
+    assertEquals(e1, otra.vista().etag());
+
+    vuelos.set(0, new VueloDTO.View(1L, "V1", 1L, salida.plusHours(1), salida.plusHours(3), true,
+        List.of(new VueloDTO.ClaseConfig(1, 10, 100.0)), List.of()));
+    svc.reconstruir();
+    assertNotEquals(e1, svc.vista().etag());
+  }
+
+  @Test
+  void huella_noDependeDelOrdenDelMapa() throws Exception {
+    Map<Long, Map<Integer, Integer>> a = new java.util.LinkedHashMap<>();
+    a.put(1L, Map.of(1, 5, 2, 6));
+    a.put(2L, Map.of(1, 0));
+    Map<Long, Map<Integer, Integer>> b = new java.util.LinkedHashMap<>();
+    b.put(2L, Map.of(1, 0));
+    b.put(1L, Map.of(2, 6, 1, 5));
+
+    assertEquals(CatalogoVuelosService.huella(a), CatalogoVuelosService.huella(b));
+    assertNotEquals(CatalogoVuelosService.huella(a), CatalogoVuelosService.huella(Map.of(1L, Map.of(1, 6, 2, 5), 2L, Map.of(1, 0))));
+  }
+
+  @Test
+  void vista_conFuente_filtraSinCupoYMantieneEtagSiNoCambia() throws Exception {
+    Map<Long, Map<Integer, Integer>> disp = new HashMap<>();
+    disp.put(1L, new HashMap<>(Map.of(1, 5, 2, 0)));
+    disp.put(2L, new HashMap<>(Map.of(1, 0)));
+    var svc = new CatalogoVuelosService(() -> List.of(vuelo(1, 1, 2), vuelo(2, 1)), () -> Map.copyOf(disp), 0);
+
+    var v1 = svc.vista();
+    assertEquals(1, v1.vuelos().size());
+    assertEquals(1L, v1.vuelos().get(0).idVuelo());
+    assertEquals(List.of(1), v1.vuelos().get(0).clases().stream().map(VueloDTO.ClaseConfig::idClase).toList());
+
+    var v2 = svc.vista();
+    assertSame(v1, v2);
+
+    disp.put(2L, Map.of(1, 3));
+    var v3 = svc.vista();
+    assertNotEquals(v1.etag(), v3.etag());
+    assertEquals(2, v3.vuelos().size());
+  }
+
+  @Test
+  void vista_conTtl_noConsultaFuenteDentroDelTtl() throws Exception {
+    AtomicInteger lecturas = new AtomicInteger();
+    var svc = new CatalogoVuelosService(() -> List.of(vuelo(1, 1)),
+        () -> { lecturas.incrementAndGet(); return Map.of(1L, Map.of(1, 1)); }, 60_000);
+
+    svc.vista();
+    svc.vista();
+    svc.vista();
+
+    assertEquals(1, lecturas.get());
+  }
+
+  @Test
+  void invalidar_reconstruyeEnSegundoPlano() throws Exception {
+    CountDownLatch latch = new CountDownLatch(2);
+    var svc = new CatalogoVuelosService(() -> { latch.countDown(); return List.of(vuelo(1, 1)); }, null, 0);
+
+    svc.snapshot();
+    svc.invalidar();
+
+    assertTrue(latch.await(5, TimeUnit.SECONDS));
+    long deadline = System.currentTimeMillis() + 5000;
+    while (svc.snapshot().version() < 2 && System.currentTimeMillis() < deadline) Thread.sleep(10);
+    assertEquals(2L, svc.snapshot().version());
+  }
+
+  @Test
+  void coincideEtag_variantes() {
+    assertTrue(CatalogoVuelosService.coincideEtag("\"3\"", "\"3\""));
+    assertTrue(CatalogoVuelosService.coincideEtag("W/\"3\"", "\"3\""));
+    assertTrue(CatalogoVuelosService.coincideEtag("\"1\", \"3\"", "\"3\""));
+    assertTrue(CatalogoVuelosService.coincideEtag("*", "\"3\""));
+    assertFalse(CatalogoVuelosService.coincideEtag("\"2\"", "\"3\""));
+    assertFalse(CatalogoVuelosService.coincideEtag(null, "\"3\""));
+    assertFalse(CatalogoVuelosService.coincideEtag(" ", "\"3\""));
+  }
+}
@@ -0,0 +1,161 @@
+package com.aerolineas.service;
+
+import com.aerolineas.dao.OutboxDAO;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class ColaCorreosTest {
+
+  /** Canal falso: registra lo enviado y falla las primeras {@code fallas} llamadas. */
+  static class Smtp implements ColaCorreos.Fabrica {
+    final List<String> enviados = new CopyOnWriteArrayList<>();
+    final AtomicInteger abiertas = new AtomicInteger();
+    final AtomicInteger cerradas = new AtomicInteger();
+    final AtomicInteger fallas;
+
+    Smtp(int fallas) { this.fallas = new AtomicInteger(fallas); }
+
+    @Override public ColaCorreos.Canal abrir() {
+      abiertas.incrementAndGet();
+      return new ColaCorreos.Canal() {
+        @Override public void enviar(ColaCorreos.Correo c) throws Exception {
+          if (fallas.getAndDecrement() > 0) throw new Exception("421 servicio no disponible");
+          enviados.add(c.para());
+        }
+        @Override public void close() { cerradas.incrementAndGet(); }
+      };
+    }
+  }
+
+  private final DespachadorOutbox outbox = mock(DespachadorOutbox.class);
+  private final OutboxDAO dao = mock(OutboxDAO.class);
+
+  private static OutboxDAO.Evento evento(String payload, int intentos) {
+    return new OutboxDAO.Evento(1L, ColaCorreos.EVENTO, null, payload, intentos);
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  void encolar_escribeUnBatchEnElOutbox() throws Exception {
+    var cola = new ColaCorreos(new Smtp(0), outbox, dao);
+
+    int n = cola.encolar(List.of(
+        new ColaCorreos.Envio(new ColaCorreos.Correo("a@test.com", "Cancelación", "<p>x</p>"), "7:10"),
+        new ColaCorreos.Envio(new ColaCorreos.Correo(" ", "Cancelación", "<p>x</p>"), "7:11"),
+        new ColaCorreos.Envio(new ColaCorreos.Correo("b@test.com", "Cancelación", "<p>y</p>"), null)));
+
+    assertEquals(2, n);
+    ArgumentCaptor<List<OutboxDAO.Nuevo>> eventos = ArgumentCaptor.forClass(List.class);
+    verify(outbox).publicar(eventos.capture());
+    assertEquals(2, eventos.getValue().size());
+    OutboxDAO.Nuevo primero = eventos.getValue().get(0);
+    assertEquals(ColaCorreos.EVENTO, primero.tipo());
+    assertNull(primero.idReserva());
+    assertTrue(primero.payload().contains("\"para\":\"a@test.com\""));
+    assertTrue(primero.payload().contains("\"ref\":\"7:10\""));
+    assertFalse(eventos.getValue().get(1).payload().contains("ref"));
+    assertEquals(2L, cola.encolados());
+  }
+
+  @Test
+  void start_registraElManejadorDeCorreo() {
+    var cola = new ColaCorreos(new Smtp(0), outbox, dao);
+    cola.start();
+    verify(outbox).registrar(eq(ColaCorreos.EVENTO), any());
+  }
+
+  @Test
+  void manejar_entregaYAvisaConLaRef() throws Exception {
+    Smtp smtp = new Smtp(0);
+    var cola = new ColaCorreos(smtp, outbox, dao);
+    List<String> avisos = new ArrayList<>();
+    cola.alResolver((ref, para, intentos, error) -> avisos.add(ref + "|" + para + "|" + intentos + "|" + error));
+
+    cola.manejar(evento("{\"para\":\"a@test.com\",\"asunto\":\"s\",\"html\":\"h\",\"ref\":\"7:10\"}", 2));
+    cola.manejar(evento("{\"para\":\"b@test.com\",\"asunto\":\"s\",\"html\":\"h\"}", 1));
+
+    assertEquals(List.of("a@test.com", "b@test.com"), smtp.enviados);
+    assertEquals(List.of("7:10|a@test.com|2|null"), avisos);
+    assertEquals(1, smtp.abiertas.get());
+  }
+
+  @Test
+  void manejar_falloSePropaga_yAvisaSoloAlAgotarIntentos() throws Exception {
+    Smtp smtp = new Smtp(2);
+    var cola = new ColaCorreos(smtp, outbox, dao);
+    when(outbox.maxIntentos()).thenReturn(2);
+    List<String> avisos = new ArrayList<>();
+    cola.alResolver((ref, para, intentos, error) -> avisos.add(ref + "|" + intentos + "|" + error));
+    String payload = "{\"para\":\"a@test.com\",\"asunto\":\"s\",\"html\":\"h\",\"ref\":\"7:10\"}";
+
+    assertThrows(Exception.class, () -> cola.manejar(evento(payload, 1)));
+    assertTrue(avisos.isEmpty());
+    assertThrows(Exception.class, () -> cola.manejar(evento(payload, 2)));
+
+    assertEquals(List.of("7:10|2|421 servicio no disponible"), avisos);
+    assertEquals(1L, cola.reintentos());
+    assertEquals(1L, cola.descartados());
+    // Cada error descarta la conexión
+    assertEquals(2, smtp.cerradas.get());
+  }
+
+  @Test
+  void fallidos_yReintentar_vanAlOutboxFiltradosPorTipo() throws Exception {
+    var cola = new ColaCorreos(new Smtp(0), outbox, dao);
+    when(dao.fallidos(ColaCorreos.EVENTO, ColaCorreos.FALLIDOS_MAX)).thenReturn(List.of(
+        new OutboxDAO.Fallido(5L, "{\"para\":\"a@test.com\",\"asunto\":\"s\",\"html\":\"h\"}", 8, "550")));
+    when(dao.reintentarFallidos(ColaCorreos.EVENTO)).thenReturn(1);
+
+    assertEquals(List.of(new ColaCorreos.Fallido(new ColaCorreos.Correo("a@test.com", "s", "h"), 8, "550")), cola.fallidos());
+    assertEquals(1, cola.reintentarFallidos());
+    verify(outbox).despertar();
+  }
+
+  @Test
+  void enviar_sincrono_reutilizaConexionesOciosas() throws Exception {
+    Smtp smtp = new Smtp(0);
+    var cola = new ColaCorreos(smtp, outbox, dao);
+
+    for (int i = 0; i < 5; i++) cola.enviar(new ColaCorreos.Correo("p" + i + "@test.com", "Confirmación", "<p>x</p>"));
+
+    assertEquals(5, smtp.enviados.size());
+    assertEquals(1, smtp.abiertas.get());
+    assertEquals(5L, cola.enviados());
+    cola.stop();
+    assertEquals(1, smtp.cerradas.get());
+  }
+
+  @Test
+  void enviar_sincrono_errorSePropagaYDescartaLaConexion() throws Exception {
+    Smtp smtp = new Smtp(1);
+    var cola = new ColaCorreos(smtp, outbox, dao);
+
+    Exception e = assertThrows(Exception.class, () -> cola.enviar(new ColaCorreos.Correo("a@test.com", "Hola", "<p>x</p>")));
+    assertEquals("421 servicio no disponible", e.getMessage());
+    assertEquals(1, smtp.cerradas.get());
+    assertEquals(0L, cola.enviados());
+
+    cola.enviar(new ColaCorreos.Correo("a@test.com", "Hola", "<p>x</p>"));
+    assertEquals(2, smtp.abiertas.get());
+    assertThrows(IllegalArgumentException.class, () -> cola.enviar(new ColaCorreos.Correo(" ", "Hola", "x")));
+  }
+  @Test
+  void pendientes_seLeeUnaVezPorIntervalo() throws Exception {
+    when(dao.resumen(ColaCorreos.EVENTO)).thenReturn(java.util.Map.of(
+        OutboxDAO.PENDIENTE, 3L, OutboxDAO.EN_CURSO, 1L, OutboxDAO.FALLIDO, 9L));
+    var cola = new ColaCorreos(new Smtp(0), outbox, dao);
+
+    assertEquals(4, cola.pendientes());
+    assertEquals(4, cola.pendientes());
+    verify(dao, times(1)).resumen(ColaCorreos.EVENTO);
+  }
+}
@@ -0,0 +1,94 @@
+package com.aerolineas.service;
+
+import com.aerolineas.dao.OutboxDAO;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class DespachadorOutboxTest {
+
+  private static OutboxDAO.Evento evento(long id, String tipo, int intentos) {
+    return new OutboxDAO.Evento(id, tipo, id * 10, null, intentos);
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  void ciclo_repartePorTipoYRegistraElLote() throws Exception {
+    OutboxDAO dao = mock(OutboxDAO.class);
+    when(dao.tomar(10, 300)).thenReturn(List.of(
+        evento(1, "CORREO", 1), evento(2, "BOLETO", 1), evento(3, "CORREO", 8), evento(4, "OTRO", 1)));
+    var d = new DespachadorOutbox(dao, 10, 2, 8, 1000, 300, 1000);
+    List<Long> correos = new ArrayList<>();
+    d.registrar("CORREO", e -> {
+      if (e.intentos() >= 8) throw new IllegalStateException("SMTP caído");
+      correos.add(e.id());
+    });
+    d.registrar("BOLETO", e -> {});
+
+    assertEquals(4, d.ciclo());
+
+    ArgumentCaptor<List<OutboxDAO.Resultado>> r = ArgumentCaptor.forClass(List.class);
+    verify(dao).registrarResultados(r.capture(), eq(8));
+    List<OutboxDAO.Resultado> res = r.getValue();
+    assertTrue(res.get(0).exitoso());
+    assertTrue(res.get(1).exitoso());
+    assertEquals("SMTP caído", res.get(2).error());
+    assertEquals("sin manejador para OTRO", res.get(3).error());
+    assertEquals(List.of(1L), correos);
+    verify(dao, times(1)).tomar(anyInt(), anyLong());
+    assertEquals(1L, d.stats().get("agotados"));
+    assertEquals(1L, d.stats().get("reintentos"));
+  }
+
+  @Test
+  void ciclo_loteCompleto_siguePidiendo() throws Exception {
+    OutboxDAO dao = mock(OutboxDAO.class);
+    when(dao.tomar(2, 300)).thenReturn(
+        List.of(evento(1, "BOLETO", 1), evento(2, "BOLETO", 1)),
+        List.of(evento(3, "BOLETO", 1)));
+    var d = new DespachadorOutbox(dao, 2, 1, 8, 1000, 300, 1000);
+    d.registrar("BOLETO", e -> {});
+
+    assertEquals(3, d.ciclo());
+    verify(dao, times(2)).tomar(2, 300);
+    verify(dao, times(2)).registrarResultados(anyList(), eq(8));
+  }
+
+  @Test
+  void ciclo_errorDeBase_noRevientaElHilo() throws Exception {
+    OutboxDAO dao = mock(OutboxDAO.class);
+    when(dao.tomar(anyInt(), anyLong())).thenThrow(new java.sql.SQLException("sin conexión"));
+    var d = new DespachadorOutbox(dao, 10, 1, 8, 1000, 300, 1000);
+
+    assertEquals(0, d.ciclo());
+    assertEquals("sin conexión", d.stats().get("ultimoError"));
+  }
+
+  @Test
+  void espera_creceExponencialConTope() {
+    var d = new DespachadorOutbox(mock(OutboxDAO.class), 10, 1, 8, 1000, 300, 1000);
+    assertEquals(1000, d.espera(1));
+    assertEquals(2000, d.espera(2));
+    assertEquals(8000, d.espera(4));
+    assertEquals(DespachadorOutbox.BACKOFF_MAX_MS, d.espera(40));
+  }
+
+  @Test
+  void publicar_fueraDeUnidad_escribeYDespierta() throws Exception {
+    OutboxDAO dao = mock(OutboxDAO.class);
+    var d = new DespachadorOutbox(dao, 10, 1, 8, 1000, 300, 1000);
+    var eventos = List.of(new OutboxDAO.Nuevo("BOLETO", 1L, null));
+
+    d.publicar(eventos);
+    d.publicar(List.of());
+
+    verify(dao, times(1)).registrar(eventos);
+    assertEquals(1L, d.stats().get("publicados"));
+  }
+}
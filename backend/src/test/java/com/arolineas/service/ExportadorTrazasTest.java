@@ -0,0 +1,70 @@
+package com.aerolineas.service;
+
+import com.aerolineas.util.Traza;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ExportadorTrazasTest {
+
+  @TempDir
+  Path dir;
+
+  private static Traza traza(String padreRemoto) {
+    Traza t = Traza.iniciar(Traza.idTraza(), padreRemoto, "GET /api/public/vuelos");
+    try (Traza.Span s = Traza.span("db")) {
+      s.etiqueta("dao", "VueloDAO.listarPublico");
+    }
+    return Traza.terminar();
+  }
+
+  @Test
+  void vaciar_escribeUnaLineaZipkinPorTraza() throws Exception {
+    var exp = new ExportadorTrazas(dir.resolve("t/trazas.jsonl"), 10, 1000, 0);
+    Traza t = traza("00f067aa0ba902b7");
+    exp.registrar(t);
+    exp.registrar(traza(null));
+
+    assertEquals(2, exp.vaciar());
+    List<String> lineas = Files.readAllLines(dir.resolve("t/trazas.jsonl"));
+    assertEquals(2, lineas.size());
+
+    JsonNode spans = new ObjectMapper().readTree(lineas.get(0));
+    assertEquals(2, spans.size());
+    JsonNode raiz = spans.get(0);
+    assertEquals(t.id(), raiz.get("traceId").asText());
+    assertEquals("00f067aa0ba902b7", raiz.get("parentId").asText());
+    assertEquals("aerolineas-api", raiz.get("localEndpoint").get("serviceName").asText());
+    assertTrue(raiz.get("duration").asLong() >= 1);
+    assertEquals(raiz.get("id").asText(), spans.get(1).get("parentId").asText());
+    assertEquals("VueloDAO.listarPublico", spans.get(1).get("tags").get("dao").asText());
+    assertEquals(2L, exp.stats().get("escritas"));
+  }
+
+  @Test
+  void colaLlena_descarta() {
+    var exp = new ExportadorTrazas(dir.resolve("trazas.jsonl"), 1, 1000, 0);
+    exp.registrar(traza(null));
+    exp.registrar(traza(null));
+    assertEquals(1L, exp.stats().get("descartadas"));
+  }
+
+  @Test
+  void rotaAlPasarElMaximo() throws Exception {
+    Path archivo = dir.resolve("trazas.jsonl");
+    Files.writeString(archivo, "x".repeat(100));
+    var exp = new ExportadorTrazas(archivo, 10, 1000, 50);
+    exp.registrar(traza(null));
+    exp.vaciar();
+
+    assertTrue(Files.exists(dir.resolve("trazas.jsonl.1")));
+    assertEquals(1, Files.readAllLines(archivo).size());
+  }
+}
@@ -0,0 +1,51 @@
+package com.aerolineas.service;
+
+import com.aerolineas.config.InstrumentoSql;
+import com.aerolineas.dao.OperacionLogDAO;
+import org.junit.jupiter.api.Test;
+
+import java.sql.SQLException;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.*;
+
+class MonitorSqlTest {
+
+  private static InstrumentoSql.Lenta lenta() {
+    return new InstrumentoSql.Lenta("SELECT ?", "X.y", 900_000, 0, List.of());
+  }
+
+  @Test
+  void vaciar_escribePorLotes() throws Exception {
+    OperacionLogDAO dao = mock(OperacionLogDAO.class);
+    when(dao.insertarLentas(anyList())).thenAnswer(i -> ((List<?>) i.getArgument(0)).size());
+    var m = new MonitorSql(InstrumentoSql.global(), dao, 10, 2, 0, 0);
+    for (int i = 0; i < 5; i++) m.registrar(lenta());
+
+    assertEquals(5, m.vaciar());
+    verify(dao, times(3)).insertarLentas(anyList());
+    assertEquals(5L, m.stats(1).get("lentasEscritas"));
+  }
+
+  @Test
+  void colaLlena_descartaSinBloquear() {
+    var m = new MonitorSql(InstrumentoSql.global(), mock(OperacionLogDAO.class), 1, 10, 0, 0);
+    m.registrar(lenta());
+    m.registrar(lenta());
+    assertEquals(1, m.stats(1).get("lentasPendientes"));
+    assertEquals(1L, m.stats(1).get("lentasDescartadas"));
+  }
+
+  @Test
+  void errorAlEscribir_cuentaDescartes() throws Exception {
+    OperacionLogDAO dao = mock(OperacionLogDAO.class);
+    when(dao.insertarLentas(anyList())).thenThrow(new SQLException("ORA-02291"));
+    var m = new MonitorSql(InstrumentoSql.global(), dao, 10, 10, 0, 0);
+    m.registrar(lenta());
+
+    assertEquals(0, m.vaciar());
+    assertEquals(1L, m.stats(1).get("lentasDescartadas"));
+  }
+}
@@ -1,20 +1,20 @@
 package com.aerolineas.service;
 
-import com.aerolineas.config.DB;
+import com.aerolineas.dao.Emisor;
+import com.aerolineas.dao.NotificacionDAO;
 import com.aerolineas.dao.VueloDAO;
+import com.aerolineas.dto.NotificacionDTO;
 import com.aerolineas.dto.VueloDTO;
-import com.aerolineas.util.Mailer;
 import org.junit.jupiter.api.Test;
 import org.mockito.ArgumentCaptor;
 import org.mockito.MockedConstruction;
-import org.mockito.MockedStatic;
 
 import java.lang.reflect.Method;
-import java.sql.Connection;
-import java.sql.PreparedStatement;
-import java.sql.ResultSet;
+import java.sql.SQLException;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Set;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.*;
@@ -22,135 +22,284 @@ import static org.mockito.Mockito.*;
 
 class NotificacionesServiceTest {
 
+  private static VueloDTO.View vuelo(String codigo) {
+    VueloDTO.View v = mock(VueloDTO.View.class);
+    when(v.codigo()).thenReturn(codigo);
+    when(v.fechaSalida()).thenReturn(LocalDateTime.of(2025, 1, 10, 15, 30));
+    when(v.fechaLlegada()).thenReturn(LocalDateTime.of(2025, 1, 10, 18, 0));
+    when(v.origen()).thenReturn("Ciudad de Guatemala");
+    when(v.origenPais()).thenReturn("Guatemala");
+    when(v.destino()).thenReturn("San Salvador");
+    when(v.destinoPais()).thenReturn("El Salvador");
+    return v;
+  }
+
+  private static NotificacionDTO.Destinatario dest(long idReserva, String email) {
+    return new NotificacionDTO.Destinatario(idReserva, idReserva * 10, email, "Ana", "López");
+  }
+
+  @SuppressWarnings("unchecked")
+  private static void destinatarios(NotificacionDAO dao, long idVuelo, List<NotificacionDTO.Destinatario> lista) throws Exception {
+    when(dao.recorrerDestinatarios(eq(idVuelo), any())).thenAnswer(inv -> {
+      Emisor<NotificacionDTO.Destinatario> e = inv.getArgument(1);
+      for (var d : lista) e.emitir(d);
+      return lista.size();
+    });
+  }
+
   @Test
-  void notificarCambio_sinVuelo_noEnviaCorreos() {
+  void notificarCambio_sinVuelo_noEnviaCorreos() throws Exception {
     long idVuelo = 100L;
+    ColaCorreos correos = mock(ColaCorreos.class);
+    NotificacionDAO dao = mock(NotificacionDAO.class);
 
     try (MockedConstruction<VueloDAO> mockedVueloDao = mockConstruction(VueloDAO.class,
-             (mockDao, context) -> when(mockDao.obtenerVuelo(idVuelo)).thenReturn(null));
-         MockedStatic<Mailer> mailerMock = mockStatic(Mailer.class)) {
+             (mockDao, context) -> when(mockDao.obtenerVuelo(idVuelo)).thenReturn(null))) {
 
-      NotificacionesService svc = new NotificacionesService();
-      svc.notificarCambio(idVuelo, "motivo-x");
+      NotificacionesService svc = new NotificacionesService(correos, dao, Runnable::run);
+      assertEquals(0, svc.notificarCambio(idVuelo, "motivo-x"));
 
-      mailerMock.verifyNoInteractions();
+      verify(correos, never()).encolar(anyList());
+      verifyNoInteractions(dao);
     }
   }
 
   @Test
-  void notificarCambio_conDestinatarios_enviaCorreoPersonalizado() throws Exception {
+  void notificarCambio_conDestinatarios_encolaCorreoPersonalizadoYRegistraEntrega() throws Exception {
     long idVuelo = 200L;
+    ColaCorreos correos = mock(ColaCorreos.class);
+    NotificacionDAO dao = mock(NotificacionDAO.class);
+    when(dao.crear(idVuelo, "CAMBIO", "Cambio de horario")).thenReturn(7L);
+    destinatarios(dao, idVuelo, List.of(dest(10L, "cliente@example.com")));
+    VueloDTO.View v = vuelo("AV123");
 
-    VueloDTO.View mockView = mock(VueloDTO.View.class);
-    when(mockView.codigo()).thenReturn("AV123");
-    when(mockView.fechaSalida()).thenReturn(LocalDateTime.of(2025, 1, 10, 15, 30));
-    when(mockView.fechaLlegada()).thenReturn(LocalDateTime.of(2025, 1, 10, 18, 0));
-    when(mockView.origen()).thenReturn("Ciudad de Guatemala");
-    when(mockView.origenPais()).thenReturn("Guatemala");
-    when(mockView.destino()).thenReturn("San Salvador");
-    when(mockView.destinoPais()).thenReturn("El Salvador");
+    try (MockedConstruction<VueloDAO> mockedVueloDao = mockConstruction(VueloDAO.class,
+             (mockDao, context) -> when(mockDao.obtenerVuelo(idVuelo)).thenReturn(v))) {
+
+      NotificacionesService svc = new NotificacionesService(correos, dao, Runnable::run);
+      assertEquals(7L, svc.notificarCambio(idVuelo, "Cambio de horario"));
+
+      verify(correos).alResolver(any());
+      ColaCorreos.Envio envio = unico(correos);
+      verify(dao).registrarPendientes(eq(7L), anyList());
+
+      assertEquals("cliente@example.com", envio.correo().para());
+      assertTrue(envio.correo().asunto().contains("Actualización de tu vuelo AV123"));
+      assertTrue(envio.correo().html().contains("Hola Ana López"));
+      assertTrue(envio.correo().html().contains("ha sido <strong>actualizado</strong>"));
+      assertEquals("7:10", envio.ref());
+      assertEquals("EN_CURSO", svc.progreso(7L).estado());
+
+      svc.resuelto(envio.ref(), envio.correo().para(), 2, null);
+
+      var p = svc.progreso(7L);
+      assertEquals("COMPLETADA", p.estado());
+      assertEquals(1, p.enviados());
+      assertEquals(0, p.pendientes());
+      verify(dao).actualizarEstados(7L, List.of(
+          new NotificacionDTO.Entrega(10L, "cliente@example.com", NotificacionDTO.ENVIADO, 2, null)));
+    }
+  }
 
-    Connection cn = mock(Connection.class);
-    PreparedStatement ps = mock(PreparedStatement.class);
-    ResultSet rs = mock(ResultSet.class);
+  @SuppressWarnings("unchecked")
+  private static List<ColaCorreos.Envio> encolados(ColaCorreos correos, int llamadas) throws Exception {
+    ArgumentCaptor<List<ColaCorreos.Envio>> envios = ArgumentCaptor.forClass(List.class);
+    verify(correos, times(llamadas)).encolar(envios.capture());
+    List<ColaCorreos.Envio> todos = new ArrayList<>();
+    envios.getAllValues().forEach(todos::addAll);
+    return todos;
+  }
+
+  private static ColaCorreos.Envio unico(ColaCorreos correos) throws Exception {
+    List<ColaCorreos.Envio> envios = encolados(correos, 1);
+    assertEquals(1, envios.size());
+    return envios.get(0);
+  }
+
+  @SuppressWarnings("unchecked")
+  private static void destinatariosDeVuelos(NotificacionDAO dao, List<NotificacionDTO.DestinatarioVuelo> lista) throws Exception {
+    when(dao.recorrerDestinatariosDeVuelos(anyList(), anySet(), any())).thenAnswer(inv -> {
+      Emisor<NotificacionDTO.DestinatarioVuelo> e = inv.getArgument(2);
+      for (var d : lista) e.emitir(d);
+      return lista.size();
+    });
+  }
+
+  private static NotificacionDTO.DestinatarioVuelo tramo(long idVuelo, long idReserva, long idUsuario, String email) {
+    return new NotificacionDTO.DestinatarioVuelo(idVuelo,
+        new NotificacionDTO.Destinatario(idReserva, idUsuario, email, "Ana", "López"));
+  }
+
+  @Test
+  void notificarMasivo_unSoloTrabajoParaVariosVuelos() throws Exception {
+    ColaCorreos correos = mock(ColaCorreos.class);
+    NotificacionDAO dao = mock(NotificacionDAO.class);
+    when(dao.crear(anyLong(), eq("CANCELACION"), eq("Huracán"))).thenReturn(1L, 2L);
+    destinatariosDeVuelos(dao, List.of(tramo(400L, 40L, 1L, "a@example.com"), tramo(401L, 41L, 2L, "b@example.com")));
+    VueloDTO.View v = vuelo("AV400");
+    List<Runnable> trabajos = new ArrayList<>();
 
     try (MockedConstruction<VueloDAO> mockedVueloDao = mockConstruction(VueloDAO.class,
-             (mockDao, context) -> when(mockDao.obtenerVuelo(idVuelo)).thenReturn(mockView));
-         MockedStatic<DB> dbMock = mockStatic(DB.class);
-         MockedStatic<Mailer> mailerMock = mockStatic(Mailer.class)) {
-
-      dbMock.when(() -> DB.table(anyString()))
-            .thenAnswer(inv -> inv.getArgument(0));
-
-      dbMock.when(DB::getConnection).thenReturn(cn);
-      when(cn.prepareStatement(anyString())).thenReturn(ps);
-      when(ps.executeQuery()).thenReturn(rs);
-
-      when(rs.next()).thenReturn(true, false);
-      when(rs.getLong("ID_RESERVA")).thenReturn(10L);
-      when(rs.getLong("ID_USUARIO")).thenReturn(20L);
-      when(rs.getString("EMAIL")).thenReturn("cliente@example.com");
-      when(rs.getString("NOMBRES")).thenReturn("Ana");
-      when(rs.getString("APELLIDOS")).thenReturn("López");
-
-      mailerMock.when(() -> Mailer.send(anyString(), anyString(), anyString()))
-                .thenAnswer(inv -> null);
-
-      NotificacionesService svc = new NotificacionesService();
-      svc.notificarCambio(idVuelo, "Cambio de horario");
-
-      ArgumentCaptor<String> toCap = ArgumentCaptor.forClass(String.class);
-      ArgumentCaptor<String> subjectCap = ArgumentCaptor.forClass(String.class);
-      ArgumentCaptor<String> htmlCap = ArgumentCaptor.forClass(String.class);
-
-      mailerMock.verify(() -> Mailer.send(
-          toCap.capture(),
-          subjectCap.capture(),
-          htmlCap.capture()
-      ), times(1));
-
-      assertEquals("cliente@example.com", toCap.getValue());
-      assertTrue(subjectCap.getValue().contains("Actualización de tu vuelo AV123"));
-      assertTrue(htmlCap.getValue().contains("Hola Ana López"));
-      assertTrue(htmlCap.getValue().contains("ha sido <strong>actualizado</strong>"));
+             (mockDao, context) -> when(mockDao.obtenerVuelo(anyLong())).thenReturn(v))) {
+
+      NotificacionesService svc = new NotificacionesService(correos, dao, trabajos::add);
+      assertTrue(svc.notificarMasivo(List.of(400L, 401L), List.of(40L, 41L), "CANCELACION", "Huracán"));
+      assertFalse(svc.notificarMasivo(List.of(), List.of(), "CANCELACION", "Huracán"));
+
+      assertEquals(1, trabajos.size());
+      verifyNoInteractions(dao);
+      trabajos.get(0).run();
+
+      verify(dao).crear(400L, "CANCELACION", "Huracán");
+      verify(dao).crear(401L, "CANCELACION", "Huracán");
+      verify(dao).recorrerDestinatariosDeVuelos(eq(List.of(400L, 401L)), eq(Set.of(40L, 41L)), any());
+      verify(dao, never()).recorrerDestinatarios(anyLong(), any());
+      // Un solo lote: los dos pasajeros van en el mismo batch al outbox
+      assertEquals(2, encolados(correos, 1).size());
+      assertEquals(2, svc.recientes().size());
     }
   }
 
   @Test
-  void notificarCancelacion_conDestinatarios_enviaCorreoDeCancelacion() throws Exception {
+  void notificarMasivo_unCorreoPorPasajeroConTodosSusVuelos() throws Exception {
+    ColaCorreos correos = mock(ColaCorreos.class);
+    NotificacionDAO dao = mock(NotificacionDAO.class);
+    when(dao.crear(500L, "CANCELACION", "Cierre")).thenReturn(1L);
+    when(dao.crear(501L, "CANCELACION", "Cierre")).thenReturn(2L);
+    destinatariosDeVuelos(dao, List.of(
+        tramo(500L, 50L, 7L, "ana@example.com"),
+        tramo(501L, 50L, 7L, "ana@example.com"),
+        tramo(501L, 51L, 8L, "")));
+    VueloDTO.View ida = vuelo("AV500");
+    VueloDTO.View vuelta = vuelo("AV501");
+
+    try (MockedConstruction<VueloDAO> mockedVueloDao = mockConstruction(VueloDAO.class, (mockDao, context) -> {
+      when(mockDao.obtenerVuelo(500L)).thenReturn(ida);
+      when(mockDao.obtenerVuelo(501L)).thenReturn(vuelta);
+    })) {
+      NotificacionesService svc = new NotificacionesService(correos, dao, Runnable::run);
+      assertTrue(svc.notificarMasivo(List.of(500L, 501L), List.of(50L, 51L), "CANCELACION", "Cierre"));
+
+      ColaCorreos.Envio envio = unico(correos);
+      assertEquals("ana@example.com", envio.correo().para());
+      assertEquals("Cancelación de tus vuelos AV500, AV501", envio.correo().asunto());
+      assertTrue(envio.correo().html().contains("Hola Ana López"));
+      assertTrue(envio.correo().html().contains("<strong>AV500</strong>"));
+      assertTrue(envio.correo().html().contains("<strong>AV501</strong>"));
+      assertEquals("1:50,2:50", envio.ref());
+
+      verify(dao).registrarPendientes(eq(1L), argThat(l -> l.size() == 1));
+      verify(dao).registrarPendientes(eq(2L), argThat(l -> l.size() == 2));
+      assertEquals(1, svc.progreso(2L).fallidos());
+
+      svc.resuelto(envio.ref(), envio.correo().para(), 1, null);
+
+      assertEquals("COMPLETADA", svc.progreso(1L).estado());
+      assertEquals(1, svc.progreso(1L).enviados());
+      assertEquals("COMPLETADA", svc.progreso(2L).estado());
+      assertEquals(1, svc.progreso(2L).enviados());
+      verify(dao).actualizarEstados(1L, List.of(
+          new NotificacionDTO.Entrega(50L, "ana@example.com", NotificacionDTO.ENVIADO, 1, null)));
+    }
+  }
+
+  @Test
+  void notificarCancelacion_repartePorLotes_ySinEmailQuedaFallido() throws Exception {
     long idVuelo = 300L;
+    ColaCorreos correos = mock(ColaCorreos.class);
+    NotificacionDAO dao = mock(NotificacionDAO.class);
+    when(dao.crear(eq(idVuelo), eq("CANCELACION"), anyString())).thenReturn(9L);
+    List<NotificacionDTO.Destinatario> lista = new ArrayList<>();
+    for (long i = 1; i <= 250; i++) lista.add(dest(i, i == 5 ? "" : "p" + i + "@example.com"));
+    destinatarios(dao, idVuelo, lista);
+    List<Integer> lotes = new ArrayList<>();
+    when(dao.registrarPendientes(eq(9L), anyList())).thenAnswer(inv -> {
+      lotes.add(((List<?>) inv.getArgument(1)).size());
+      return lotes.get(lotes.size() - 1);
+    });
+    List<ColaCorreos.Envio> envios = new ArrayList<>();
+    when(correos.encolar(anyList())).thenAnswer(inv -> {
+      List<ColaCorreos.Envio> l = inv.getArgument(0);
+      for (ColaCorreos.Envio e : l) assertTrue(e.correo().asunto().contains("Cancelación de tu vuelo AV999"));
+      envios.addAll(l);
+      return l.size();
+    });
+    VueloDTO.View v = vuelo("AV999");
+
+    try (MockedConstruction<VueloDAO> mockedVueloDao = mockConstruction(VueloDAO.class,
+             (mockDao, context) -> when(mockDao.obtenerVuelo(idVuelo)).thenReturn(v))) {
 
-    VueloDTO.View mockView = mock(VueloDTO.View.class);
-    when(mockView.codigo()).thenReturn("AV999");
-    when(mockView.fechaSalida()).thenReturn(LocalDateTime.of(2025, 2, 5, 8, 0));
-    when(mockView.fechaLlegada()).thenReturn(LocalDateTime.of(2025, 2, 5, 10, 30));
-    when(mockView.origen()).thenReturn("Ciudad de Guatemala");
-    when(mockView.origenPais()).thenReturn("Guatemala");
-    when(mockView.destino()).thenReturn("Miami");
-    when(mockView.destinoPais()).thenReturn("Estados Unidos");
+      NotificacionesService svc = new NotificacionesService(correos, dao, Runnable::run);
+      svc.notificarCancelacion(idVuelo, "Condiciones climáticas");
+
+      assertEquals(List.of(100, 100, 50), lotes);
+      verify(correos, times(3)).encolar(anyList());
+      assertEquals(249, envios.size());
+      for (int i = 0; i < envios.size(); i++) {
+        ColaCorreos.Envio e = envios.get(i);
+        if (i == 0) svc.resuelto(e.ref(), e.correo().para(), 4, "550 buzón inexistente");
+        else svc.resuelto(e.ref(), e.correo().para(), 1, null);
+      }
+
+      var p = svc.progreso(9L);
+      assertEquals("COMPLETADA", p.estado());
+      assertEquals(250, p.total());
+      assertEquals(248, p.enviados());
+      assertEquals(2, p.fallidos());
+      assertEquals(1, svc.recientes().size());
+      // 250 resultados guardados en lotes de 100
+      verify(dao, times(3)).actualizarEstados(eq(9L), anyList());
+    }
+  }
 
-    Connection cn = mock(Connection.class);
-    PreparedStatement ps = mock(PreparedStatement.class);
-    ResultSet rs = mock(ResultSet.class);
+  @Test
+  void difundir_errorDeBD_dejaIncompletaSinPerderLoEncolado() throws Exception {
+    long idVuelo = 400L;
+    ColaCorreos correos = mock(ColaCorreos.class);
+    NotificacionDAO dao = mock(NotificacionDAO.class);
+    when(dao.crear(anyLong(), anyString(), any())).thenReturn(11L);
+    destinatarios(dao, idVuelo, List.of(dest(1L, "a@example.com")));
+    when(dao.registrarPendientes(eq(11L), anyList())).thenThrow(new SQLException("ORA-00001"));
+    VueloDTO.View v = vuelo("AV1");
 
     try (MockedConstruction<VueloDAO> mockedVueloDao = mockConstruction(VueloDAO.class,
-             (mockDao, context) -> when(mockDao.obtenerVuelo(idVuelo)).thenReturn(mockView));
-         MockedStatic<DB> dbMock = mockStatic(DB.class);
-         MockedStatic<Mailer> mailerMock = mockStatic(Mailer.class)) {
-
-      dbMock.when(() -> DB.table(anyString()))
-            .thenAnswer(inv -> inv.getArgument(0));
-      dbMock.when(DB::getConnection).thenReturn(cn);
-      when(cn.prepareStatement(anyString())).thenReturn(ps);
-      when(ps.executeQuery()).thenReturn(rs);
-
-      when(rs.next()).thenReturn(true, false);
-      when(rs.getLong("ID_RESERVA")).thenReturn(50L);
-      when(rs.getLong("ID_USUARIO")).thenReturn(60L);
-      when(rs.getString("EMAIL")).thenReturn("otro@example.com");
-      when(rs.getString("NOMBRES")).thenReturn("Carlos");
-      when(rs.getString("APELLIDOS")).thenReturn("Pérez");
-
-      mailerMock.when(() -> Mailer.send(anyString(), anyString(), anyString()))
-                .thenAnswer(inv -> null);
-
-      NotificacionesService svc = new NotificacionesService();
-      svc.notificarCancelacion(idVuelo, "Condiciones climáticas");
+             (mockDao, context) -> when(mockDao.obtenerVuelo(idVuelo)).thenReturn(v))) {
 
-      ArgumentCaptor<String> toCap = ArgumentCaptor.forClass(String.class);
-      ArgumentCaptor<String> subjectCap = ArgumentCaptor.forClass(String.class);
-      ArgumentCaptor<String> htmlCap = ArgumentCaptor.forClass(String.class);
+      NotificacionesService svc = new NotificacionesService(correos, dao, Runnable::run);
+      svc.notificarCambio(idVuelo, "x");
 
-      mailerMock.verify(() -> Mailer.send(
-          toCap.capture(),
-          subjectCap.capture(),
-          htmlCap.capture()
-      ), times(1));
+      var p = svc.progreso(11L);
+      assertEquals("INCOMPLETA", p.estado());
+      assertEquals("ORA-00001", p.error());
+      verify(correos, never()).encolar(anyList());
+    }
+  }
 
-      assertEquals("otro@example.com", toCap.getValue());
-      assertTrue(subjectCap.getValue().contains("Cancelación de tu vuelo AV999"));
-      assertTrue(htmlCap.getValue().contains("Hola Carlos Pérez"));
-      assertTrue(htmlCap.getValue().contains("ha sido <strong>cancelado</strong>"));
+  @Test
+  void resuelto_sinNotificacionEnMemoria_guardaDirectoEnBD() throws Exception {
+    NotificacionDAO dao = mock(NotificacionDAO.class);
+
+    try (MockedConstruction<VueloDAO> mockedVueloDao = mockConstruction(VueloDAO.class)) {
+      NotificacionesService svc = new NotificacionesService(mock(ColaCorreos.class), dao, Runnable::run);
+      // Resultado de un correo encolado antes de un reinicio: el progreso ya no existe
+      svc.resuelto("3:30,4:31,x", "ana@example.com", 8, "550 buzón inexistente");
+
+      verify(dao).actualizarEstados(3L, List.of(
+          new NotificacionDTO.Entrega(30L, "ana@example.com", NotificacionDTO.FALLIDO, 8, "550 buzón inexistente")));
+      verify(dao).actualizarEstados(4L, List.of(
+          new NotificacionDTO.Entrega(31L, "ana@example.com", NotificacionDTO.FALLIDO, 8, "550 buzón inexistente")));
+    }
+  }
+
+  @Test
+  void progreso_fueraDeMemoria_consultaBD() throws Exception {
+    NotificacionDAO dao = mock(NotificacionDAO.class);
+    var resumen = new NotificacionDTO.Progreso(3L, 1L, "CAMBIO", "COMPLETADA", 2, 2, 0, 0, null, null, null);
+    when(dao.resumen(3L)).thenReturn(resumen);
+
+    try (MockedConstruction<VueloDAO> mockedVueloDao = mockConstruction(VueloDAO.class)) {
+      NotificacionesService svc = new NotificacionesService(mock(ColaCorreos.class), dao, Runnable::run);
+      assertSame(resumen, svc.progreso(3L));
     }
   }
 
@@ -0,0 +1,59 @@
+package com.aerolineas.service;
+
+import com.aerolineas.dao.OutboxDAO;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.sql.SQLException;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class PurgaOutboxJobTest {
+
+  @AfterEach
+  void clearProps() {
+    System.clearProperty("OUTBOX_RETENCION_DIAS");
+    System.clearProperty("OUTBOX_PURGA_LOTE");
+    System.clearProperty("OUTBOX_PURGA_MIN");
+  }
+
+  @Test
+  void ejecutar_purgaConLaRetencionYElLoteConfigurados() throws Exception {
+    System.setProperty("OUTBOX_RETENCION_DIAS", "30");
+    System.setProperty("OUTBOX_PURGA_LOTE", "100");
+    OutboxDAO dao = mock(OutboxDAO.class);
+    when(dao.purgarHechos(30, 100, 20)).thenReturn(250);
+    var job = new PurgaOutboxJob(dao);
+
+    assertEquals(250, job.ejecutar());
+    assertEquals(250L, job.stats().get("borrados"));
+  }
+
+  @Test
+  void ejecutar_conRetencionCero_noBorraNada() {
+    System.setProperty("OUTBOX_RETENCION_DIAS", "0");
+    OutboxDAO dao = mock(OutboxDAO.class);
+    var job = new PurgaOutboxJob(dao);
+
+    assertEquals(0, job.ejecutar());
+    job.start();
+    job.stop();
+    verifyNoInteractions(dao);
+  }
+
+  @Test
+  void ejecutar_conError_noPropagaYQuedaEnStats() throws Exception {
+    OutboxDAO dao = mock(OutboxDAO.class);
+    when(dao.purgarHechos(anyLong(), anyInt(), anyInt())).thenThrow(new SQLException("sin conexión"));
+    var job = new PurgaOutboxJob(dao);
+
+    assertEquals(0, job.ejecutar());
+
+    Map<String, Object> stats = job.stats();
+    assertEquals(7L, stats.get("retencionDias"));
+    assertEquals("sin conexión", stats.get("ultimoError"));
+    assertNull(stats.get("ultimaPurga"));
+  }
+}
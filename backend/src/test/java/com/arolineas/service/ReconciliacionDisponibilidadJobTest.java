@@ -0,0 +1,58 @@
+package com.aerolineas.service;
+
+import com.aerolineas.dao.DisponibilidadDAO;
+import com.aerolineas.dto.DisponibilidadDTO;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.sql.SQLException;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class ReconciliacionDisponibilidadJobTest {
+
+  @AfterEach
+  void clearProps() {
+    System.clearProperty("DISPONIBILIDAD_RECONCILIAR_MIN");
+  }
+
+  @Test
+  void intervalo_porDefecto15_yPropertyInvalidaTambien() {
+    assertEquals(15, ReconciliacionDisponibilidadJob.intervaloMinutos());
+    System.setProperty("DISPONIBILIDAD_RECONCILIAR_MIN", "abc");
+    assertEquals(15, ReconciliacionDisponibilidadJob.intervaloMinutos());
+    System.setProperty("DISPONIBILIDAD_RECONCILIAR_MIN", "3");
+    assertEquals(3, ReconciliacionDisponibilidadJob.intervaloMinutos());
+  }
+
+  @Test
+  void ejecutar_devuelveFilasReparadas() throws Exception {
+    DisponibilidadDAO dao = mock(DisponibilidadDAO.class);
+    var d = new DisponibilidadDTO.Desfase(1L, 1, 2, 0, 1, 0);
+    when(dao.reconciliar(null)).thenReturn(List.of(d));
+
+    var out = new ReconciliacionDisponibilidadJob(dao).ejecutar();
+
+    assertEquals(List.of(d), out);
+  }
+
+  @Test
+  void ejecutar_conError_noPropagaYDevuelveVacio() throws Exception {
+    DisponibilidadDAO dao = mock(DisponibilidadDAO.class);
+    when(dao.reconciliar(null)).thenThrow(new SQLException("sin conexión"));
+
+    assertTrue(new ReconciliacionDisponibilidadJob(dao).ejecutar().isEmpty());
+  }
+
+  @Test
+  void start_conIntervaloCero_noProgramaNada() {
+    System.setProperty("DISPONIBILIDAD_RECONCILIAR_MIN", "0");
+    DisponibilidadDAO dao = mock(DisponibilidadDAO.class);
+    var job = new ReconciliacionDisponibilidadJob(dao);
+    job.start();
+    job.stop();
+    verifyNoInteractions(dao);
+  }
+}
@@ -0,0 +1,56 @@
+package com.aerolineas.service;
+
+import com.aerolineas.dao.RetencionesDAO;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.sql.SQLException;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class RetencionesCarritoJobTest {
+
+  @AfterEach
+  void clearProps() {
+    System.clearProperty("CARRITO_RETENCION_LOTE");
+    System.clearProperty("CARRITO_RETENCION_BARRIDO_SEG");
+  }
+
+  @Test
+  void ejecutar_barreConElLoteConfigurado() throws Exception {
+    System.setProperty("CARRITO_RETENCION_LOTE", "100");
+    RetencionesDAO dao = mock(RetencionesDAO.class);
+    when(dao.barrer(100, 20)).thenReturn(new RetencionesDAO.Liberacion(3, 7));
+
+    var l = new RetencionesCarritoJob(dao).ejecutar();
+
+    assertEquals(new RetencionesDAO.Liberacion(3, 7), l);
+  }
+
+  @Test
+  void ejecutar_conError_noPropagaYQuedaEnStats() throws Exception {
+    RetencionesDAO dao = mock(RetencionesDAO.class);
+    when(dao.barrer(anyInt(), anyInt())).thenThrow(new SQLException("sin conexión"));
+    when(dao.resumen()).thenReturn(Map.of("ttlMinutos", 15L));
+    var job = new RetencionesCarritoJob(dao);
+
+    assertEquals(RetencionesDAO.Liberacion.NADA, job.ejecutar());
+
+    Map<String, Object> stats = job.stats();
+    assertEquals(15L, stats.get("ttlMinutos"));
+    assertEquals("sin conexión", stats.get("ultimoError"));
+    assertNull(stats.get("ultimoBarrido"));
+  }
+
+  @Test
+  void start_conIntervaloCero_noProgramaNada() {
+    System.setProperty("CARRITO_RETENCION_BARRIDO_SEG", "0");
+    RetencionesDAO dao = mock(RetencionesDAO.class);
+    var job = new RetencionesCarritoJob(dao);
+    job.start();
+    job.stop();
+    verifyNoInteractions(dao);
+  }
+}
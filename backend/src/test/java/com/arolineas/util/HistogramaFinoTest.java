@@ -0,0 +1,44 @@
+package com.aerolineas.util;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HistogramaFinoTest {
+
+  @Test
+  void cubetas_sonContiguasYCubrenSuBorde() {
+    for (long v = 1; v < 5000; v++) {
+      int i = HistogramaFino.cubeta(v);
+      assertTrue(v <= HistogramaFino.borde(i), "v=" + v);
+      if (i > 0) assertTrue(v > HistogramaFino.borde(i - 1), "v=" + v);
+    }
+    assertEquals(0, HistogramaFino.cubeta(0));
+    assertEquals(HistogramaFino.CUBETAS - 1, HistogramaFino.cubeta(Long.MAX_VALUE));
+  }
+
+  @Test
+  void potenciasDeDos_sonBordesExactos() {
+    var h = new HistogramaFino();
+    h.registrar(1024);
+    h.registrar(1025);
+    long[] f = h.foto();
+    assertEquals(1, HistogramaFino.hasta(f, 1024));
+    assertEquals(2, HistogramaFino.hasta(f, 2048));
+    assertEquals(2049, h.sumaMicros());
+  }
+
+  @Test
+  void percentil_conErrorAcotado() {
+    var h = new HistogramaFino();
+    for (int i = 0; i < 99; i++) h.registrar(3_000);
+    h.registrar(900_000);
+    long[] f = h.foto();
+
+    long p50 = HistogramaFino.percentil(f, 0.50);
+    assertTrue(p50 >= 3_000 && p50 <= 3_750, "p50=" + p50);
+    long max = HistogramaFino.percentil(f, 1.0);
+    assertTrue(max >= 900_000 && max <= 1_125_000, "max=" + max);
+    assertEquals(0, HistogramaFino.percentil(new long[HistogramaFino.CUBETAS], 0.5));
+  }
+}
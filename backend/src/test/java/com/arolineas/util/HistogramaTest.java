@@ -0,0 +1,53 @@
+package com.aerolineas.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HistogramaTest {
+
+  @Test
+  void cubeta_bordesDePotenciasDeDos() {
+    assertEquals(0, Histograma.cubeta(0));
+    assertEquals(0, Histograma.cubeta(1));
+    assertEquals(1, Histograma.cubeta(2));
+    assertEquals(2, Histograma.cubeta(3));
+    assertEquals(10, Histograma.cubeta(1024));
+    assertEquals(11, Histograma.cubeta(1025));
+    assertEquals(Histograma.CUBETAS - 1, Histograma.cubeta(Long.MAX_VALUE));
+  }
+
+  @Test
+  void percentiles_yResumenEnMs() {
+    var h = new Histograma();
+    for (int i = 0; i < 95; i++) h.registrar(1000);
+    for (int i = 0; i < 5; i++) h.registrar(200_000);
+
+    long[] f = h.foto();
+    assertEquals(100, Histograma.cuenta(f));
+    assertEquals(1024, Histograma.percentil(f, 0.50));
+    assertEquals(1024, Histograma.percentil(f, 0.95));
+    assertEquals(262_144, Histograma.percentil(f, 0.99));
+
+    Map<String, Object> r = h.resumen();
+    assertEquals(100L, r.get("n"));
+    assertEquals(200.0, r.get("maxMs"));
+    assertEquals(10.95, (double) r.get("mediaMs"), 0.001);
+  }
+
+  @Test
+  void diferencia_mideSoloLaVentana() {
+    var h = new Histograma();
+    h.registrar(500_000);
+    long[] antes = h.foto();
+    h.registrar(10);
+    h.registrar(10);
+
+    long[] ventana = Histograma.diferencia(h.foto(), antes);
+    assertEquals(2, Histograma.cuenta(ventana));
+    assertEquals(16, Histograma.percentil(ventana, 0.99));
+    assertEquals(0, Histograma.percentil(new long[Histograma.CUBETAS], 0.5));
+  }
+}
@@ -159,4 +159,24 @@ class MailerTest {
       transportMock.verify(() -> Transport.send(any(Message.class)), times(1));
     }
   }
+
+  @Test
+  void conexion_reutilizaTransportYReconectaSiSeCerro() throws Exception {
+    System.setProperty("MAIL_USER", "noreply@test.com");
+    System.setProperty("MAIL_PASS", "secret");
+    Session session = callBuildSession();
+    Transport t = mock(Transport.class);
+    when(t.isConnected()).thenReturn(false, true, false);
+
+    try (Mailer.Conexion cx = new Mailer.Conexion(session, t, "smtp.test.local", 587, "noreply@test.com", "secret")) {
+      cx.enviar("a@test.com", "Uno", "<p>1</p>");
+      cx.enviar("b@test.com", "Dos", "<p>2</p>");
+      cx.enviar("c@test.com", "Tres", "<p>3</p>");
+    }
+
+    verify(t, times(2)).connect("smtp.test.local", 587, "noreply@test.com", "secret");
+    verify(t, times(3)).sendMessage(any(Message.class), any());
+    verify(t).close();
+  }
 }
+
@@ -0,0 +1,73 @@
+package com.aerolineas.util;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TrazaTest {
+
+  @AfterEach
+  void limpiar() {
+    Traza.terminar();
+    Traza.alTerminar(null);
+    Traza.muestreo(0);
+  }
+
+  @Test
+  void sinTraza_spanEsNull() {
+    assertNull(Traza.span("db"));
+    assertNull(Traza.registrar("db", 1, 2));
+    assertNull(Traza.terminar());
+  }
+
+  @Test
+  void muestreoCero_apagaAunqueVengaForzada() {
+    Traza.muestreo(0);
+    assertFalse(Traza.muestrear(true));
+    Traza.muestreo(1);
+    assertTrue(Traza.muestrear(false));
+  }
+
+  @Test
+  void spans_anidadosYServerTiming() {
+    List<Traza> exportadas = new ArrayList<>();
+    Traza.alTerminar(exportadas::add);
+    Traza t = Traza.iniciar(Traza.idTraza(), null, "POST");
+    Traza.nombrar("POST /api/compras/checkout");
+
+    try (Traza.Span auth = Traza.span("auth")) {
+      try (Traza.Span bcrypt = Traza.span("bcrypt")) {
+        assertEquals(auth.id(), bcrypt.padre());
+      }
+    }
+    long t0 = System.nanoTime();
+    Traza.registrar("db", t0, t0 + 2_000_000);
+    Traza.registrar("db", t0, t0 + 1_000_000);
+
+    assertSame(t, Traza.terminar());
+    assertEquals(List.of(t), exportadas);
+    assertEquals("POST /api/compras/checkout", t.raiz().nombre());
+    assertEquals(32, t.id().length());
+    assertEquals(5, t.spans().size());
+    assertEquals(t.raiz().id(), t.spans().get(1).padre());
+    assertEquals(t.raiz().id(), t.spans().get(3).padre());
+
+    String st = t.serverTiming();
+    assertTrue(st.startsWith("auth;dur="), st);
+    assertTrue(st.contains("db;dur=3.0;desc=\"2x\""), st);
+    assertTrue(st.contains("total;dur="), st);
+  }
+
+  @Test
+  void limiteDeSpans_cuentaDescartados() {
+    Traza t = Traza.iniciar(Traza.idTraza(), null, "GET");
+    for (int i = 0; i < Traza.MAX_SPANS + 10; i++) Traza.registrar("db", 0, 1);
+    Traza.terminar();
+    assertEquals(Traza.MAX_SPANS, t.spans().size());
+    assertEquals(11, t.descartados());
+  }
+}
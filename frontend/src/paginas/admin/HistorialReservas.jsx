@@ -19,6 +19,7 @@ export default function HistorialReservas() {
   const [list, setList] = useState([]);
   const [loading, setLoading] = useState(true);
   const [err, setErr] = useState("");
+  const [next, setNext] = useState(null);
 
   
   const [q, setQ] = useState("");
@@ -28,19 +29,22 @@ export default function HistorialReservas() {
   const [hasta, setHasta] = useState("");
   const [estado, setEstado] = useState("");
 
-  const fetch = async () => {
+  const fetch = async (after = null) => {
     try {
-      setLoading(true);
+      if (!after) setLoading(true);
       setErr("");
       const params = {};
+      if (after) params.after = after;
       if (q) params.q = q;               
       if (codigo) params.codigo = codigo;
       if (vuelo) params.vuelo = vuelo;
       if (desde) params.desde = desde;
       if (hasta) params.hasta = hasta;
       if (estado) params.estado = estado;
-      const { data } = await comprasApi.adminListReservas(params);
-      setList(Array.isArray(data) ? data : []);
+      const { data, headers } = await comprasApi.adminListReservas(params);
+      const rows = Array.isArray(data) ? data : [];
+      setList((prev) => (after ? [...prev, ...rows] : rows));
+      setNext(headers?.["x-next-cursor"] || null);
     } catch (e) {
       setErr(e?.response?.data?.error || e.message || "No se pudo cargar");
     } finally {
@@ -91,7 +95,7 @@ export default function HistorialReservas() {
           </select>
         </div>
         <div style={{ marginTop: 8, display: "flex", gap: 8 }}>
-          <button className="btn btn-secondary" onClick={fetch}>Aplicar filtros</button>
+          <button className="btn btn-secondary" onClick={() => fetch()}>Aplicar filtros</button>
           <button
             className="btn"
             onClick={() => {
@@ -149,6 +153,11 @@ export default function HistorialReservas() {
             </tbody>
           </table>
         )}
+        {!loading && !err && next && (
+          <div style={{ marginTop: 12, textAlign: "center" }}>
+            <button className="btn" onClick={() => fetch(next)}>Cargar más</button>
+          </div>
+        )}
       </div>
     </div>
   );